@@ -0,0 +1,16 @@
+package com.baghajanyan.sandbox.sql.config;
+
+/**
+ * Where executions run.
+ */
+public enum Backend {
+    /**
+     * Every execution runs in a Docker container.
+     */
+    DOCKER,
+    /**
+     * Every execution runs with the locally installed Postgres binaries in
+     * Linux namespaces and a cgroup, without a Docker daemon.
+     */
+    HOST
+}
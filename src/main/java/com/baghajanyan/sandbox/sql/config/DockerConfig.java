@@ -59,4 +59,28 @@ public record DockerConfig(
             throw new IllegalArgumentException("tmpfsSize must not be blank");
         }
     }
+
+    /**
+     * Returns a copy of this configuration with the limits of the given
+     * resource class.
+     *
+     * @param resourceClass the resource class to apply.
+     * @return the adjusted configuration.
+     */
+    public DockerConfig withLimits(ResourceClass resourceClass) {
+        return new DockerConfig(resourceClass.maxMemoryMb(), resourceClass.maxCpuUnits(),
+                resourceClass.executionTimeout(), dockerImage, securityHardening, allowNetwork, readOnly, pidsLimit,
+                runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges);
+    }
+
+    /**
+     * Returns a copy of this configuration with a different execution timeout.
+     *
+     * @param executionTimeout the execution timeout.
+     * @return the adjusted configuration.
+     */
+    public DockerConfig withExecutionTimeout(Duration executionTimeout) {
+        return new DockerConfig(maxMemoryMb, maxCpuUnits, executionTimeout, dockerImage, securityHardening,
+                allowNetwork, readOnly, pidsLimit, runAsUser, tmpfsSize, dropCapabilities, noNewPrivileges);
+    }
 }
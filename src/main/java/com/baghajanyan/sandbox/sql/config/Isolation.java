@@ -0,0 +1,17 @@
+package com.baghajanyan.sandbox.sql.config;
+
+/**
+ * How one-shot executions are isolated from each other.
+ */
+public enum Isolation {
+    /**
+     * Every snippet gets its own container with a freshly initialized
+     * Postgres cluster.
+     */
+    CLUSTER,
+    /**
+     * Every snippet gets a fresh database and a throwaway role on one of a
+     * pool of long-lived Postgres server containers.
+     */
+    DATABASE
+}
@@ -0,0 +1,40 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import java.time.Duration;
+
+/**
+ * A named set of resource limits that can be selected per execution.
+ *
+ * @param name             the name of the class (e.g. "small", "large").
+ * @param maxMemoryMb      the maximum memory allocated to the container in
+ *                         megabytes.
+ * @param maxCpuUnits      the maximum CPU units allocated to the container.
+ * @param executionTimeout the maximum time allowed for code execution.
+ */
+public record ResourceClass(String name, int maxMemoryMb, double maxCpuUnits, Duration executionTimeout) {
+    public ResourceClass {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("name must not be blank");
+        }
+        if (maxMemoryMb <= 0) {
+            throw new IllegalArgumentException("maxMemoryMb must be greater than 0");
+        }
+        if (maxCpuUnits <= 0) {
+            throw new IllegalArgumentException("maxCpuUnits must be greater than 0");
+        }
+        if (executionTimeout == null || executionTimeout.isNegative() || executionTimeout.isZero()) {
+            throw new IllegalArgumentException("executionTimeout must be a positive duration");
+        }
+    }
+
+    /**
+     * Creates the implicit class used when no class is selected.
+     *
+     * @param dockerConfig the default container configuration.
+     * @return a class with the limits of the given configuration.
+     */
+    public static ResourceClass defaultOf(DockerConfig dockerConfig) {
+        return new ResourceClass("default", dockerConfig.maxMemoryMb(), dockerConfig.maxCpuUnits(),
+                dockerConfig.executionTimeout());
+    }
+}
@@ -0,0 +1,35 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import org.springframework.boot.health.contributor.AbstractHealthIndicator;
+import org.springframework.boot.health.contributor.Health;
+
+import com.baghajanyan.sandbox.sql.docker.SandboxProcessExecutor;
+
+/**
+ * Reports the SQL sandbox as down when its backend cannot run sandboxes: the
+ * Docker daemon cannot be reached, or the Postgres binaries or bubblewrap of
+ * the host backend cannot be run.
+ */
+class SandboxHealthIndicator extends AbstractHealthIndicator {
+
+    private final SandboxProcessExecutor process;
+    private final Backend backend;
+
+    SandboxHealthIndicator(SandboxProcessExecutor process, Backend backend) {
+        super(backend == Backend.HOST ? "Host sandbox is not available" : "Docker daemon is not available");
+        this.process = process;
+        this.backend = backend;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (backend == Backend.HOST) {
+            // The host backend ignores the image.
+            builder.up().withDetail("hostVersion", process.dockerVersion());
+            return;
+        }
+        builder.up()
+                .withDetail("dockerVersion", process.dockerVersion())
+                .withDetail("image", process.getDockerConfig().dockerImage());
+    }
+}
@@ -1,16 +1,50 @@
 package com.baghajanyan.sandbox.sql.config;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.health.contributor.HealthIndicator;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 import com.baghajanyan.sandbox.core.fs.DeleteConfig;
 import com.baghajanyan.sandbox.core.fs.TempFileManager;
+import com.baghajanyan.sandbox.sql.docker.CpuSetAllocator;
 import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.docker.HostProcessExecutor;
+import com.baghajanyan.sandbox.sql.docker.SandboxProcessExecutor;
+import com.baghajanyan.sandbox.sql.executor.AdmissionController;
+import com.baghajanyan.sandbox.sql.executor.ExecutionEventSink;
+import com.baghajanyan.sandbox.sql.executor.ExecutionJournal;
+import com.baghajanyan.sandbox.sql.executor.HedgingPolicy;
+import com.baghajanyan.sandbox.sql.executor.ResizableSemaphore;
+import com.baghajanyan.sandbox.sql.executor.ResourceBudget;
+import com.baghajanyan.sandbox.sql.executor.SnippetRedactor;
+import com.baghajanyan.sandbox.sql.executor.SqlCostRouter;
 import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+import com.baghajanyan.sandbox.sql.executor.SqlJobQueue;
+import com.baghajanyan.sandbox.sql.executor.SqlServerPool;
+import com.baghajanyan.sandbox.sql.executor.SqlSessionManager;
+import com.baghajanyan.sandbox.sql.executor.SqlSyntaxPreflight;
+import com.baghajanyan.sandbox.sql.executor.TemplateCache;
+import com.baghajanyan.sandbox.sql.executor.WorkloadRecorder;
 
 /**
  * Auto-configuration for the SQL sandbox environment.
@@ -18,14 +52,20 @@ import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
  * This class sets up the necessary beans for running SQL code in a sandboxed
  * environment, including beans for managing temporary files, controlling
  * concurrent executions, and configuring the Docker container.
+ *
+ * Bean methods are package-private rather than private so that code generated
+ * by Spring AOT can call them directly instead of through reflection.
  */
 @AutoConfiguration
 @EnableConfigurationProperties({ SqlSandboxProperties.class, SqlDeleteFileManagerProperties.class })
+@ImportRuntimeHints(SqlSandboxRuntimeHints.class)
 public class SqlSandboxAutoConfiguration {
 
+    private static final Logger logger = LoggerFactory.getLogger(SqlSandboxAutoConfiguration.class);
+
     @Bean(destroyMethod = "close")
     @ConditionalOnMissingBean
-    private TempFileManager sqlTempFileManager(SqlDeleteFileManagerProperties fileDeleteManagerProperties,
+    TempFileManager sqlTempFileManager(SqlDeleteFileManagerProperties fileDeleteManagerProperties,
             SqlSandboxProperties sandboxProperties) {
         DeleteConfig deleteConfig = new DeleteConfig(fileDeleteManagerProperties.getMaxRetries(),
                 fileDeleteManagerProperties.getRetryDelay(),
@@ -36,13 +76,35 @@ public class SqlSandboxAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    private Semaphore sqlExecutionSemaphore(SqlSandboxProperties sandboxProperties) {
-        return new Semaphore(sandboxProperties.getMaxConcurrency(), true);
+    Semaphore sqlExecutionSemaphore(SqlSandboxProperties sandboxProperties,
+            ObjectProvider<CpuSetAllocator> sqlCpuSetAllocator) {
+        int maxConcurrency = sandboxProperties.getMaxConcurrency();
+        var cpuSets = sqlCpuSetAllocator.getIfAvailable();
+        // Every admitted execution must find a free slice, instead of waiting for one while holding its slot.
+        if (cpuSets != null && cpuSets.slices().size() < maxConcurrency) {
+            logger.warn("Limiting max-concurrency from {} to the {} available CPU-set slices", maxConcurrency,
+                    cpuSets.slices().size());
+            maxConcurrency = cpuSets.slices().size();
+        }
+        return new ResizableSemaphore(maxConcurrency, true);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    AdmissionController sqlAdmissionController(Semaphore sqlExecutionSemaphore,
+            SqlSandboxProperties sandboxProperties, DockerConfig sqlDockerConfig) {
+        var budget = sandboxProperties.getBudget();
+        var resourceBudget = budget.isEnabled()
+                ? new ResourceBudget(budget.getMemoryMb(), budget.getCpuUnits(),
+                        ResourceClass.defaultOf(sqlDockerConfig))
+                : null;
+        return new AdmissionController(sqlExecutionSemaphore, sandboxProperties.getMaxQueueLength(),
+                resourceBudget);
     }
 
     @Bean
     @ConditionalOnMissingBean
-    private DockerConfig sqlDockerConfig(SqlSandboxProperties sandboxProperties) {
+    DockerConfig sqlDockerConfig(SqlSandboxProperties sandboxProperties) {
         var security = sandboxProperties.getSecurity();
         return new DockerConfig(sandboxProperties.getMaxMemoryMb(), sandboxProperties.getMaxCpuUnits(),
                 sandboxProperties.getMaxExecutionTime(), sandboxProperties.getDockerImage(),
@@ -53,14 +115,221 @@ public class SqlSandboxAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    private DockerProcessExecutor sqlDockerProcess(DockerConfig dockerConfig) {
-        return new DockerProcessExecutor(dockerConfig);
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.cpu-set", name = "cores")
+    CpuSetAllocator sqlCpuSetAllocator(SqlSandboxProperties sandboxProperties) {
+        var cpuSet = sandboxProperties.getCpuSet();
+        return new CpuSetAllocator(cpuSet.getCores(), cpuSet.getCoresPerContainer(), cpuSet.isNumaAware());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    SandboxProcessExecutor sqlDockerProcess(DockerConfig dockerConfig,
+            ObjectProvider<CpuSetAllocator> sqlCpuSetAllocator, SqlSandboxProperties sandboxProperties) {
+        if (sandboxProperties.getBackend() == Backend.HOST) {
+            var unsupported = serverFeatures(sandboxProperties);
+            if (!unsupported.isEmpty()) {
+                throw new IllegalStateException("The host backend cannot run the long-lived servers needed by: "
+                        + String.join(", ", unsupported));
+            }
+            var host = sandboxProperties.getHost();
+            return new HostProcessExecutor(dockerConfig, sqlCpuSetAllocator.getIfAvailable(),
+                    Path.of(host.getPostgresBinDir()), Path.of(host.getCgroupRoot()), host.getBwrap());
+        }
+        return new DockerProcessExecutor(dockerConfig, sqlCpuSetAllocator.getIfAvailable(),
+                sandboxProperties.getStandby().getDepth());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql", name = "isolation", havingValue = "database")
+    SqlServerPool sqlServerPool(SandboxProcessExecutor sqlDockerProcess, SqlSandboxProperties sandboxProperties,
+            ObjectProvider<TemplateCache> sqlTemplateCache) {
+        return new SqlServerPool(servers(sqlDockerProcess, "Database isolation"), sandboxProperties.getMaxConcurrency(),
+                sqlTemplateCache.getIfAvailable());
     }
 
     @Bean
     @ConditionalOnMissingBean
-    SqlExecutor sqlExecutor(Semaphore sqlExecutionSemaphore, TempFileManager sqlTempFileManager,
-            DockerProcessExecutor sqlDockerProcess) {
-        return new SqlExecutor(sqlExecutionSemaphore, sqlTempFileManager, sqlDockerProcess);
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.templates", name = "enabled", havingValue = "true")
+    TemplateCache sqlTemplateCache(SandboxProcessExecutor sqlDockerProcess, SqlSandboxProperties sandboxProperties) {
+        var templates = sandboxProperties.getTemplates();
+        return new TemplateCache(servers(sqlDockerProcess, "Templates"), templates.getMinHits(),
+                templates.getMaxSizePerServer().toBytes());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.preflight", name = "enabled", havingValue = "true")
+    SqlSyntaxPreflight sqlSyntaxPreflight(SandboxProcessExecutor sqlDockerProcess,
+            SqlSandboxProperties sandboxProperties) {
+        return new SqlSyntaxPreflight(servers(sqlDockerProcess, "The syntax pre-flight"),
+                sandboxProperties.getPreflight().getTimeout());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.routing", name = "enabled", havingValue = "true")
+    SqlCostRouter sqlCostRouter(SandboxProcessExecutor sqlDockerProcess, SqlSandboxProperties sandboxProperties) {
+        var routing = sandboxProperties.getRouting();
+        var lanes = routing.getLanes().stream()
+                .map(lane -> new SqlCostRouter.Lane(lane.getResourceClass(), lane.getMaxCost(), lane.getMaxRows()))
+                .toList();
+        return new SqlCostRouter(servers(sqlDockerProcess, "Cost-based routing"), routing.getTimeout(), lanes,
+                routing.getRejectAboveCost());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.hedging", name = "enabled", havingValue = "true")
+    HedgingPolicy sqlHedgingPolicy(SqlSandboxProperties sandboxProperties) {
+        var hedging = sandboxProperties.getHedging();
+        return new HedgingPolicy(hedging.getPercentile(), hedging.getBudget(), hedging.getMinDelay());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    SqlExecutor sqlExecutor(AdmissionController sqlAdmissionController, TempFileManager sqlTempFileManager,
+            SandboxProcessExecutor sqlDockerProcess, SqlSandboxProperties sandboxProperties,
+            ObjectProvider<SqlServerPool> sqlServerPool, ObjectProvider<SqlSyntaxPreflight> sqlSyntaxPreflight,
+            ObjectProvider<WorkloadRecorder> sqlWorkloadRecorder, ObjectProvider<SqlCostRouter> sqlCostRouter,
+            ObjectProvider<HedgingPolicy> sqlHedgingPolicy, ObjectProvider<ExecutionJournal> sqlExecutionJournal) {
+        Map<String, ResourceClass> resourceClasses = new LinkedHashMap<>();
+        sandboxProperties.getResourceClasses().forEach((name, limits) -> resourceClasses.put(name,
+                new ResourceClass(name, limits.getMaxMemoryMb(), limits.getMaxCpuUnits(),
+                        limits.getMaxExecutionTime())));
+        return SqlExecutor.builder(sqlAdmissionController, sqlTempFileManager, sqlDockerProcess)
+                .resourceClasses(resourceClasses)
+                .serverPool(sqlServerPool.getIfAvailable())
+                .preflight(sqlSyntaxPreflight.getIfAvailable())
+                .spillThresholdBytes(sandboxProperties.getSpill().getThreshold().toBytes())
+                .recorder(sqlWorkloadRecorder.getIfAvailable())
+                .costRouter(sqlCostRouter.getIfAvailable())
+                .hedging(sqlHedgingPolicy.getIfAvailable())
+                .journal(sqlExecutionJournal.getIfAvailable())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.journal", name = "enabled", havingValue = "true")
+    ExecutionJournal sqlExecutionJournal(SqlSandboxProperties sandboxProperties,
+            ObjectProvider<ExecutionEventSink> executionEventSink) {
+        var journal = sandboxProperties.getJournal();
+        return new ExecutionJournal(executionEventSink.getIfAvailable(() -> ExecutionEventSink.LOG),
+                journal.getCapacity(), journal.getSampleRate(), journal.getFlushInterval());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.jobs", name = "enabled", havingValue = "true")
+    SqlJobQueue sqlJobQueue(SqlExecutor sqlExecutor, SqlSandboxProperties sandboxProperties) throws IOException {
+        var jobs = sandboxProperties.getJobs();
+        int workers = jobs.getWorkers() > 0 ? jobs.getWorkers() : sandboxProperties.getMaxConcurrency();
+        return new SqlJobQueue(sqlExecutor, Path.of(jobs.getFile()), workers, jobs.getMaxAttempts(),
+                jobs.getRetryDelay(), jobs.getResultTtl());
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.recording", name = "enabled", havingValue = "true")
+    WorkloadRecorder sqlWorkloadRecorder(SqlSandboxProperties sandboxProperties,
+            ObjectProvider<SnippetRedactor> snippetRedactor) throws IOException {
+        var recording = sandboxProperties.getRecording();
+        return new WorkloadRecorder(Path.of(recording.getFile()),
+                WorkloadRecorder.sampleRate(recording.getSampleRate()),
+                snippetRedactor.getIfAvailable(() -> SnippetRedactor.NONE));
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "sandboxcore.sql.session", name = "enabled", havingValue = "true")
+    SqlSessionManager sqlSessionManager(SandboxProcessExecutor sqlDockerProcess,
+            AdmissionController sqlAdmissionController, SqlSandboxProperties sandboxProperties) {
+        var session = sandboxProperties.getSession();
+        return new SqlSessionManager(servers(sqlDockerProcess, "Sessions"), sqlAdmissionController,
+                session.getIdleTimeout(), session.getMaxSessionsPerUser(), session.getMaxSessions());
+    }
+
+    /**
+     * @return the enabled features that run snippets on long-lived servers.
+     */
+    private static List<String> serverFeatures(SqlSandboxProperties sandboxProperties) {
+        List<String> features = new ArrayList<>();
+        if (sandboxProperties.getIsolation() == Isolation.DATABASE) {
+            features.add("Database isolation");
+        }
+        if (sandboxProperties.getTemplates().isEnabled()) {
+            features.add("Templates");
+        }
+        if (sandboxProperties.getPreflight().isEnabled()) {
+            features.add("The syntax pre-flight");
+        }
+        if (sandboxProperties.getRouting().isEnabled()) {
+            features.add("Cost-based routing");
+        }
+        if (sandboxProperties.getSession().isEnabled()) {
+            features.add("Sessions");
+        }
+        return features;
+    }
+
+    /**
+     * @return the executor as one that can start long-lived servers.
+     * @throws IllegalStateException if the backend cannot start servers.
+     */
+    private static DockerProcessExecutor servers(SandboxProcessExecutor process, String feature) {
+        if (process instanceof DockerProcessExecutor docker) {
+            return docker;
+        }
+        throw new IllegalStateException(feature + " needs long-lived servers, which the backend "
+                + process.getClass().getSimpleName() + " does not support");
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterBinder.class)
+    static class SqlSandboxMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        SqlSandboxMetrics sqlSandboxMetrics(ObjectProvider<SqlSyntaxPreflight> sqlSyntaxPreflight,
+                ObjectProvider<SqlCostRouter> sqlCostRouter, ObjectProvider<HedgingPolicy> sqlHedgingPolicy,
+                ObjectProvider<TemplateCache> sqlTemplateCache, ObjectProvider<SqlExecutor> sqlExecutor,
+                ObjectProvider<SandboxProcessExecutor> sqlDockerProcess,
+                ObjectProvider<ExecutionJournal> sqlExecutionJournal, ObjectProvider<SqlJobQueue> sqlJobQueue) {
+            var executor = sqlExecutor.getIfAvailable();
+            var process = sqlDockerProcess.getIfAvailable();
+            return new SqlSandboxMetrics(sqlSyntaxPreflight.getIfAvailable(), sqlCostRouter.getIfAvailable(),
+                    sqlHedgingPolicy.getIfAvailable(), sqlTemplateCache.getIfAvailable(),
+                    executor != null ? executor.statementStatisticsTotals() : null,
+                    process instanceof DockerProcessExecutor docker ? docker : null,
+                    sqlExecutionJournal.getIfAvailable(),
+                    sqlJobQueue.getIfAvailable());
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(Endpoint.class)
+    static class SqlSandboxEndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        SqlSandboxEndpoint sqlSandboxEndpoint(AdmissionController sqlAdmissionController, SqlExecutor sqlExecutor,
+                SandboxProcessExecutor sqlDockerProcess, ObjectProvider<SqlServerPool> sqlServerPool,
+                ObjectProvider<CpuSetAllocator> sqlCpuSetAllocator) {
+            return new SqlSandboxEndpoint(sqlAdmissionController, sqlExecutor, sqlDockerProcess,
+                    sqlServerPool.getIfAvailable(), sqlCpuSetAllocator.getIfAvailable());
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(HealthIndicator.class)
+    static class SqlSandboxHealthConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(name = "sqlSandboxHealthIndicator")
+        HealthIndicator sqlSandboxHealthIndicator(SandboxProcessExecutor sqlDockerProcess,
+                SqlSandboxProperties sandboxProperties) {
+            return new SandboxHealthIndicator(sqlDockerProcess, sandboxProperties.getBackend());
+        }
     }
 }
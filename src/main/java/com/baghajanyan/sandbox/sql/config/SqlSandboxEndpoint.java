@@ -0,0 +1,124 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import java.time.Duration;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import com.baghajanyan.sandbox.sql.docker.CpuSetAllocator;
+import com.baghajanyan.sandbox.sql.docker.SandboxProcessExecutor;
+import com.baghajanyan.sandbox.sql.executor.AdmissionController;
+import com.baghajanyan.sandbox.sql.executor.ExecutionStatistics;
+import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+import com.baghajanyan.sandbox.sql.executor.SqlServerPool;
+
+/**
+ * Actuator endpoint exposing the state of the SQL sandbox and accepting live
+ * changes of its limits.
+ *
+ * {@code GET /actuator/sqlsandbox} reports the admission state and recent
+ * execution statistics. {@code POST /actuator/sqlsandbox} with
+ * {@code maxConcurrency} and/or {@code maxExecutionTime} changes the limits
+ * without a restart, for example to shed load during an incident. Changes are
+ * not persisted and are lost on restart.
+ */
+@Endpoint(id = "sqlsandbox")
+public class SqlSandboxEndpoint {
+
+    private final AdmissionController admissionController;
+    private final SqlExecutor executor;
+    private final SandboxProcessExecutor process;
+    private final SqlServerPool serverPool;
+    private final CpuSetAllocator cpuSetAllocator;
+
+    /**
+     * @param admissionController the admission control of the executor.
+     * @param executor            the executor whose statistics are reported.
+     * @param process             the executor for sandbox containers.
+     * @param serverPool          the pool of database servers, or
+     *                            {@code null} if database isolation is off.
+     * @param cpuSetAllocator     the allocator for dedicated CPU sets, whose
+     *                            slice count caps the concurrency, or
+     *                            {@code null} if containers are not pinned.
+     */
+    public SqlSandboxEndpoint(AdmissionController admissionController, SqlExecutor executor,
+            SandboxProcessExecutor process, SqlServerPool serverPool, CpuSetAllocator cpuSetAllocator) {
+        this.admissionController = admissionController;
+        this.executor = executor;
+        this.process = process;
+        this.serverPool = serverPool;
+        this.cpuSetAllocator = cpuSetAllocator;
+    }
+
+    /**
+     * @return the current state of the sandbox.
+     */
+    @ReadOperation
+    public SandboxState state() {
+        int maxConcurrency = admissionController.maxConcurrency();
+        int inFlight = admissionController.inFlight();
+        double permitUsage = maxConcurrency > 0 ? (double) inFlight / maxConcurrency : 0;
+        return new SandboxState(maxConcurrency, inFlight, admissionController.queueLength(), permitUsage,
+                process.getDockerConfig().executionTimeout(), executor.statistics().snapshot());
+    }
+
+    /**
+     * Changes the limits of the sandbox. Running executions are not affected.
+     *
+     * @param maxConcurrency   the new maximum number of concurrent executions,
+     *                         or {@code null} to keep it.
+     * @param maxExecutionTime the new default execution timeout, or
+     *                         {@code null} to keep it.
+     * @return the state after the change.
+     */
+    @WriteOperation
+    public SandboxState update(@Nullable Integer maxConcurrency, @Nullable Duration maxExecutionTime) {
+        if (maxConcurrency != null && maxConcurrency <= 0) {
+            throw new InvalidEndpointRequestException("maxConcurrency must be greater than 0",
+                    "Invalid maxConcurrency");
+        }
+        if (maxConcurrency != null && cpuSetAllocator != null && maxConcurrency > cpuSetAllocator.slices().size()) {
+            throw new InvalidEndpointRequestException(
+                    "maxConcurrency must not exceed the " + cpuSetAllocator.slices().size() + " CPU-set slices",
+                    "Invalid maxConcurrency");
+        }
+        if (maxExecutionTime != null && (maxExecutionTime.isNegative() || maxExecutionTime.isZero())) {
+            throw new InvalidEndpointRequestException("maxExecutionTime must be a positive duration",
+                    "Invalid maxExecutionTime");
+        }
+        if (maxConcurrency != null) {
+            try {
+                admissionController.setMaxConcurrency(maxConcurrency);
+            } catch (IllegalStateException e) {
+                throw new InvalidEndpointRequestException(e.getMessage(), "Concurrency is not resizable");
+            }
+            if (serverPool != null) {
+                serverPool.setSize(maxConcurrency);
+            }
+        }
+        if (maxExecutionTime != null) {
+            process.setExecutionTimeout(maxExecutionTime);
+        }
+        return state();
+    }
+
+    /**
+     * The state of the sandbox.
+     *
+     * @param maxConcurrency   the maximum number of concurrent executions, or
+     *                         {@code -1} if unknown.
+     * @param inFlight         the number of running executions, or {@code -1}
+     *                         if unknown.
+     * @param queueLength      the number of requests waiting for a permit.
+     * @param permitUsage      the share of permits in use, between {@code 0}
+     *                         and {@code 1} unless the limit was just lowered.
+     * @param maxExecutionTime the default execution timeout.
+     * @param executions       the outcome counts and recent latencies.
+     */
+    public record SandboxState(int maxConcurrency, int inFlight, int queueLength, double permitUsage,
+            Duration maxExecutionTime, ExecutionStatistics.Snapshot executions) {
+    }
+}
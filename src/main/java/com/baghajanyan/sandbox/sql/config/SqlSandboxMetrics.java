@@ -0,0 +1,255 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.executor.ExecutionJournal;
+import com.baghajanyan.sandbox.sql.executor.HedgingPolicy;
+import com.baghajanyan.sandbox.sql.executor.SqlCostRouter;
+import com.baghajanyan.sandbox.sql.executor.SqlJobQueue;
+import com.baghajanyan.sandbox.sql.executor.SqlSyntaxPreflight;
+import com.baghajanyan.sandbox.sql.executor.StatementStatisticsTotals;
+import com.baghajanyan.sandbox.sql.executor.TemplateCache;
+
+/**
+ * Publishes the sandbox counters to Micrometer.
+ *
+ * {@code sandbox.sql.preflight} counts the snippets seen by the syntax
+ * pre-flight by {@code outcome}: {@code passed}, {@code rejected} (a syntax
+ * error answered without a container) and {@code skipped} (executed without a
+ * conclusive check). The pre-flight hit rate is {@code rejected} over all
+ * three.
+ *
+ * {@code sandbox.sql.routing} counts the snippets seen by the cost router by
+ * {@code outcome}: {@code estimated} (routed by an estimate),
+ * {@code unestimated} (run with the default limits) and {@code rejected}
+ * (estimated too expensive, also counted as {@code estimated}).
+ *
+ * {@code sandbox.sql.hedging} counts read-only executions by {@code event}:
+ * {@code eligible}, {@code hedged} (a second execution was started) and
+ * {@code won} (the second execution finished first). The hedge rate is
+ * {@code hedged} over {@code eligible}.
+ *
+ * {@code sandbox.sql.templates} counts cached setup prefixes by {@code event}:
+ * {@code hit} (a snippet was cloned from a template), {@code miss} (a snippet
+ * with a setup prefix was not), {@code built}, {@code failed} (the prefix
+ * could not be cached) and {@code evicted}. The hit rate is {@code hit} over
+ * {@code hit} and {@code miss}. {@code sandbox.sql.templates.size} is the
+ * total size of the cached templates.
+ *
+ * {@code sandbox.sql.statements.executions} counts profiled executions by
+ * {@code kind}: {@code profiled} and {@code spilled} (a statement wrote
+ * temporary files). {@code sandbox.sql.statements.blocks} adds up the blocks
+ * their statements touched by {@code kind}: {@code shared_hit},
+ * {@code shared_read}, {@code local_hit}, {@code local_read},
+ * {@code temp_read} and {@code temp_written}.
+ * {@code sandbox.sql.statements.time} adds up their time by {@code phase}:
+ * {@code planning} and {@code execution}. {@code sandbox.sql.statements.wal}
+ * adds up the WAL they generated.
+ *
+ * {@code sandbox.sql.standby} counts one-shot executions by {@code event}:
+ * {@code hit} (a standby container was started) and {@code miss} (none was
+ * ready), and {@code sandbox.sql.standby.ready} is the number of containers
+ * ready. Both are only published when standby containers are enabled.
+ *
+ * {@code sandbox.sql.journal} counts execution events by {@code outcome}:
+ * {@code written} (passed to the sink), {@code dropped} (the buffer was
+ * full) and {@code failed} (the sink threw).
+ *
+ * {@code sandbox.sql.jobs} counts queued jobs by {@code event}:
+ * {@code submitted}, {@code completed} and {@code retried} (an
+ * infrastructure failure was retried), and {@code sandbox.sql.jobs.queued}
+ * is the number of jobs waiting for a worker.
+ */
+class SqlSandboxMetrics implements MeterBinder {
+
+    private final SqlSyntaxPreflight preflight;
+    private final SqlCostRouter costRouter;
+    private final HedgingPolicy hedging;
+    private final TemplateCache templates;
+    private final StatementStatisticsTotals statementTotals;
+    private final DockerProcessExecutor process;
+    private final ExecutionJournal journal;
+    private final SqlJobQueue jobs;
+
+    /**
+     * @param preflight       the syntax pre-flight, or {@code null} if it is
+     *                        disabled.
+     * @param costRouter      the cost router, or {@code null} if routing is
+     *                        disabled.
+     * @param hedging         the hedging policy, or {@code null} if hedging
+     *                        is disabled.
+     * @param templates       the template cache, or {@code null} if it is
+     *                        disabled.
+     * @param statementTotals the statement statistics of profiled executions,
+     *                        or {@code null} if there is no executor.
+     * @param process         the container executor, or {@code null} if
+     *                        there is none.
+     * @param journal         the execution journal, or {@code null} if it is
+     *                        disabled.
+     * @param jobs            the job queue, or {@code null} if it is
+     *                        disabled.
+     */
+    SqlSandboxMetrics(SqlSyntaxPreflight preflight, SqlCostRouter costRouter, HedgingPolicy hedging,
+            TemplateCache templates, StatementStatisticsTotals statementTotals, DockerProcessExecutor process,
+            ExecutionJournal journal, SqlJobQueue jobs) {
+        this.preflight = preflight;
+        this.costRouter = costRouter;
+        this.hedging = hedging;
+        this.templates = templates;
+        this.statementTotals = statementTotals;
+        this.process = process;
+        this.journal = journal;
+        this.jobs = jobs;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (preflight != null) {
+            preflightCounter(registry, "passed", SqlSyntaxPreflight::passedSnippets);
+            preflightCounter(registry, "rejected", SqlSyntaxPreflight::rejectedSnippets);
+            preflightCounter(registry, "skipped", SqlSyntaxPreflight::skippedSnippets);
+        }
+        if (costRouter != null) {
+            routingCounter(registry, "estimated", SqlCostRouter::estimatedSnippets);
+            routingCounter(registry, "unestimated", SqlCostRouter::unestimatedSnippets);
+            routingCounter(registry, "rejected", SqlCostRouter::rejectedSnippets);
+        }
+        if (hedging != null) {
+            hedgingCounter(registry, "eligible", HedgingPolicy::eligibleExecutions);
+            hedgingCounter(registry, "hedged", HedgingPolicy::hedgedExecutions);
+            hedgingCounter(registry, "won", HedgingPolicy::hedgeWins);
+        }
+        if (templates != null) {
+            templateCounter(registry, "hit", TemplateCache::hits);
+            templateCounter(registry, "miss", TemplateCache::misses);
+            templateCounter(registry, "built", TemplateCache::builtTemplates);
+            templateCounter(registry, "failed", TemplateCache::failedTemplates);
+            templateCounter(registry, "evicted", TemplateCache::evictedTemplates);
+            Gauge.builder("sandbox.sql.templates.size", templates, TemplateCache::cachedBytes)
+                    .description("Total size of the cached templates")
+                    .baseUnit(BaseUnits.BYTES)
+                    .register(registry);
+        }
+        if (statementTotals != null) {
+            statementCounter(registry, "sandbox.sql.statements.executions", "kind", "profiled",
+                    StatementStatisticsTotals::executions);
+            statementCounter(registry, "sandbox.sql.statements.executions", "kind", "spilled",
+                    StatementStatisticsTotals::spilledExecutions);
+            statementCounter(registry, "sandbox.sql.statements.blocks", "kind", "shared_hit",
+                    StatementStatisticsTotals::sharedBlocksHit);
+            statementCounter(registry, "sandbox.sql.statements.blocks", "kind", "shared_read",
+                    StatementStatisticsTotals::sharedBlocksRead);
+            statementCounter(registry, "sandbox.sql.statements.blocks", "kind", "local_hit",
+                    StatementStatisticsTotals::localBlocksHit);
+            statementCounter(registry, "sandbox.sql.statements.blocks", "kind", "local_read",
+                    StatementStatisticsTotals::localBlocksRead);
+            statementCounter(registry, "sandbox.sql.statements.blocks", "kind", "temp_read",
+                    StatementStatisticsTotals::tempBlocksRead);
+            statementCounter(registry, "sandbox.sql.statements.blocks", "kind", "temp_written",
+                    StatementStatisticsTotals::tempBlocksWritten);
+            statementTimeCounter(registry, "planning", StatementStatisticsTotals::planningNanos);
+            statementTimeCounter(registry, "execution", StatementStatisticsTotals::executionNanos);
+            FunctionCounter
+                    .builder("sandbox.sql.statements.wal", statementTotals, StatementStatisticsTotals::walBytes)
+                    .description("WAL generated by profiled executions")
+                    .baseUnit(BaseUnits.BYTES)
+                    .register(registry);
+        }
+        if (process != null && process.standbyDepth() > 0) {
+            standbyCounter(registry, "hit", DockerProcessExecutor::standbyHits);
+            standbyCounter(registry, "miss", DockerProcessExecutor::standbyMisses);
+            Gauge.builder("sandbox.sql.standby.ready", process, DockerProcessExecutor::standbyReady)
+                    .description("Standby containers ready to be started")
+                    .register(registry);
+        }
+        if (journal != null) {
+            journalCounter(registry, "written", ExecutionJournal::writtenEvents);
+            journalCounter(registry, "dropped", ExecutionJournal::droppedEvents);
+            journalCounter(registry, "failed", ExecutionJournal::failedEvents);
+        }
+        if (jobs != null) {
+            jobCounter(registry, "submitted", SqlJobQueue::submittedJobs);
+            jobCounter(registry, "completed", SqlJobQueue::completedJobs);
+            jobCounter(registry, "retried", SqlJobQueue::retriedJobs);
+            Gauge.builder("sandbox.sql.jobs.queued", jobs, SqlJobQueue::queuedJobs)
+                    .description("Jobs waiting for a worker")
+                    .register(registry);
+        }
+    }
+
+    private void preflightCounter(MeterRegistry registry, String outcome,
+            ToDoubleFunction<SqlSyntaxPreflight> count) {
+        FunctionCounter.builder("sandbox.sql.preflight", preflight, count)
+                .description("Snippets checked by the syntax pre-flight")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private void routingCounter(MeterRegistry registry, String outcome, ToDoubleFunction<SqlCostRouter> count) {
+        FunctionCounter.builder("sandbox.sql.routing", costRouter, count)
+                .description("Snippets routed by estimated cost")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private void hedgingCounter(MeterRegistry registry, String event, ToDoubleFunction<HedgingPolicy> count) {
+        FunctionCounter.builder("sandbox.sql.hedging", hedging, count)
+                .description("Read-only executions eligible for hedging")
+                .tag("event", event)
+                .register(registry);
+    }
+
+    private void statementCounter(MeterRegistry registry, String name, String tag, String value,
+            ToDoubleFunction<StatementStatisticsTotals> count) {
+        FunctionCounter.builder(name, statementTotals, count)
+                .description("Statement statistics of profiled executions")
+                .tag(tag, value)
+                .register(registry);
+    }
+
+    private void statementTimeCounter(MeterRegistry registry, String phase,
+            ToLongFunction<StatementStatisticsTotals> nanos) {
+        FunctionCounter.builder("sandbox.sql.statements.time", statementTotals,
+                totals -> nanos.applyAsLong(totals) / 1e9)
+                .description("Time spent in statements of profiled executions")
+                .tag("phase", phase)
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private void standbyCounter(MeterRegistry registry, String event, ToDoubleFunction<DockerProcessExecutor> count) {
+        FunctionCounter.builder("sandbox.sql.standby", process, count)
+                .description("One-shot executions that looked for a standby container")
+                .tag("event", event)
+                .register(registry);
+    }
+
+    private void journalCounter(MeterRegistry registry, String outcome, ToDoubleFunction<ExecutionJournal> count) {
+        FunctionCounter.builder("sandbox.sql.journal", journal, count)
+                .description("Execution events written to the journal")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private void jobCounter(MeterRegistry registry, String event, ToDoubleFunction<SqlJobQueue> count) {
+        FunctionCounter.builder("sandbox.sql.jobs", jobs, count)
+                .description("Jobs of the durable job queue")
+                .tag("event", event)
+                .register(registry);
+    }
+
+    private void templateCounter(MeterRegistry registry, String event, ToDoubleFunction<TemplateCache> count) {
+        FunctionCounter.builder("sandbox.sql.templates", templates, count)
+                .description("Snippets with a setup prefix")
+                .tag("event", event)
+                .register(registry);
+    }
+}
@@ -1,8 +1,13 @@
 package com.baghajanyan.sandbox.sql.config;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 /**
  * Configuration properties for the SQL sandbox.
@@ -19,6 +24,13 @@ public class SqlSandboxProperties {
      */
     private int maxConcurrency = 5;
 
+    /**
+     * The maximum number of executions waiting for a free slot. Requests
+     * arriving at a full queue are rejected immediately. {@code 0} means
+     * unbounded.
+     */
+    private int maxQueueLength = 0;
+
     /**
      * The maximum memory in megabytes allocated to the SQL container.
      */
@@ -34,6 +46,23 @@ public class SqlSandboxProperties {
      */
     private Duration maxExecutionTime = Duration.ofSeconds(15);
 
+    /**
+     * How one-shot executions are isolated: a fresh cluster per snippet, or a
+     * fresh database per snippet on a pool of long-lived servers.
+     */
+    private Isolation isolation = Isolation.CLUSTER;
+
+    /**
+     * Where executions run: in Docker containers, or with the locally
+     * installed Postgres binaries in Linux namespaces.
+     */
+    private Backend backend = Backend.DOCKER;
+
+    /**
+     * Settings for the host backend.
+     */
+    private Host host = new Host();
+
     /**
      * The Docker image to use for the SQL sandbox.
      */
@@ -44,6 +73,71 @@ public class SqlSandboxProperties {
      */
     private Security security = new Security();
 
+    /**
+     * Settings for stateful sandbox sessions.
+     */
+    private Session session = new Session();
+
+    /**
+     * Settings for pinning execution containers to dedicated CPU sets.
+     */
+    private CpuSet cpuSet = new CpuSet();
+
+    /**
+     * Named resource classes that can be selected per execution.
+     */
+    private Map<String, ResourceClassLimits> resourceClasses = new LinkedHashMap<>();
+
+    /**
+     * Total host resources shared by all running executions.
+     */
+    private Budget budget = new Budget();
+
+    /**
+     * Syntax pre-flight settings.
+     */
+    private Preflight preflight = new Preflight();
+
+    /**
+     * Settings for spilling large paged results to disk.
+     */
+    private Spill spill = new Spill();
+
+    /**
+     * Settings for capturing executions for later replay.
+     */
+    private Recording recording = new Recording();
+
+    /**
+     * Settings for routing snippets by their estimated cost.
+     */
+    private Routing routing = new Routing();
+
+    /**
+     * Settings for hedging slow read-only executions.
+     */
+    private Hedging hedging = new Hedging();
+
+    /**
+     * Settings for caching setup prefixes as template databases.
+     */
+    private Templates templates = new Templates();
+
+    /**
+     * Settings for creating execution containers ahead of time.
+     */
+    private Standby standby = new Standby();
+
+    /**
+     * Settings for the structured journal of execution events.
+     */
+    private Journal journal = new Journal();
+
+    /**
+     * Settings for the durable queue of asynchronously executed jobs.
+     */
+    private Jobs jobs = new Jobs();
+
     public int getMaxConcurrency() {
         return maxConcurrency;
     }
@@ -52,6 +146,38 @@ public class SqlSandboxProperties {
         this.maxConcurrency = maxConcurrency;
     }
 
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    public void setMaxQueueLength(int maxQueueLength) {
+        this.maxQueueLength = maxQueueLength;
+    }
+
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    public void setIsolation(Isolation isolation) {
+        this.isolation = isolation;
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    public Host getHost() {
+        return host;
+    }
+
+    public void setHost(Host host) {
+        this.host = host;
+    }
+
     public Duration getMaxExecutionTime() {
         return maxExecutionTime;
     }
@@ -92,6 +218,152 @@ public class SqlSandboxProperties {
         this.security = security;
     }
 
+    public Session getSession() {
+        return session;
+    }
+
+    public void setSession(Session session) {
+        this.session = session;
+    }
+
+    public CpuSet getCpuSet() {
+        return cpuSet;
+    }
+
+    public void setCpuSet(CpuSet cpuSet) {
+        this.cpuSet = cpuSet;
+    }
+
+    public Map<String, ResourceClassLimits> getResourceClasses() {
+        return resourceClasses;
+    }
+
+    public void setResourceClasses(Map<String, ResourceClassLimits> resourceClasses) {
+        this.resourceClasses = resourceClasses;
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    public Preflight getPreflight() {
+        return preflight;
+    }
+
+    public void setPreflight(Preflight preflight) {
+        this.preflight = preflight;
+    }
+
+    public Spill getSpill() {
+        return spill;
+    }
+
+    public void setSpill(Spill spill) {
+        this.spill = spill;
+    }
+
+    public Recording getRecording() {
+        return recording;
+    }
+
+    public void setRecording(Recording recording) {
+        this.recording = recording;
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    public void setRouting(Routing routing) {
+        this.routing = routing;
+    }
+
+    public Hedging getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(Hedging hedging) {
+        this.hedging = hedging;
+    }
+
+    public Templates getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(Templates templates) {
+        this.templates = templates;
+    }
+
+    public Standby getStandby() {
+        return standby;
+    }
+
+    public void setStandby(Standby standby) {
+        this.standby = standby;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public Jobs getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(Jobs jobs) {
+        this.jobs = jobs;
+    }
+
+    public static class Host {
+        /**
+         * The directory of the Postgres binaries, such as initdb and postgres.
+         */
+        private String postgresBinDir = "/usr/lib/postgresql/16/bin";
+
+        /**
+         * A cgroup v2 directory writable by the application, under which a
+         * cgroup is created per execution.
+         */
+        private String cgroupRoot = "/sys/fs/cgroup/sandbox-sql";
+
+        /**
+         * The bubblewrap executable.
+         */
+        private String bwrap = "bwrap";
+
+        public String getPostgresBinDir() {
+            return postgresBinDir;
+        }
+
+        public void setPostgresBinDir(String postgresBinDir) {
+            this.postgresBinDir = postgresBinDir;
+        }
+
+        public String getCgroupRoot() {
+            return cgroupRoot;
+        }
+
+        public void setCgroupRoot(String cgroupRoot) {
+            this.cgroupRoot = cgroupRoot;
+        }
+
+        public String getBwrap() {
+            return bwrap;
+        }
+
+        public void setBwrap(String bwrap) {
+            this.bwrap = bwrap;
+        }
+    }
+
     public static class Security {
         /**
          * Enable hardened sandbox flags by default.
@@ -197,4 +469,622 @@ public class SqlSandboxProperties {
             this.noNewPrivileges = noNewPrivileges;
         }
     }
+
+    public static class Session {
+        /**
+         * Whether stateful sessions can be opened through the
+         * SqlSessionManager bean.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Time after which an unused session is closed.
+         */
+        private Duration idleTimeout = Duration.ofMinutes(5);
+
+        /**
+         * Maximum number of open sessions per user.
+         */
+        private int maxSessionsPerUser = 2;
+
+        /**
+         * Maximum number of open sessions overall.
+         */
+        private int maxSessions = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public int getMaxSessionsPerUser() {
+            return maxSessionsPerUser;
+        }
+
+        public void setMaxSessionsPerUser(int maxSessionsPerUser) {
+            this.maxSessionsPerUser = maxSessionsPerUser;
+        }
+
+        public int getMaxSessions() {
+            return maxSessions;
+        }
+
+        public void setMaxSessions(int maxSessions) {
+            this.maxSessions = maxSessions;
+        }
+    }
+
+    public static class CpuSet {
+        /**
+         * Cores to allocate from, in Linux cpulist format (e.g. "0-7,16-23").
+         * Allocation is disabled when empty.
+         */
+        private String cores;
+
+        /**
+         * Number of dedicated cores given to each execution container.
+         */
+        private int coresPerContainer = 1;
+
+        /**
+         * Keep each container's cores within one NUMA node.
+         */
+        private boolean numaAware = true;
+
+        public String getCores() {
+            return cores;
+        }
+
+        public void setCores(String cores) {
+            this.cores = cores;
+        }
+
+        public int getCoresPerContainer() {
+            return coresPerContainer;
+        }
+
+        public void setCoresPerContainer(int coresPerContainer) {
+            this.coresPerContainer = coresPerContainer;
+        }
+
+        public boolean isNumaAware() {
+            return numaAware;
+        }
+
+        public void setNumaAware(boolean numaAware) {
+            this.numaAware = numaAware;
+        }
+    }
+
+    public static class ResourceClassLimits {
+        /**
+         * The maximum memory in megabytes allocated to the container.
+         */
+        private int maxMemoryMb = 128;
+
+        /**
+         * The maximum CPU units allocated to the container.
+         */
+        private double maxCpuUnits = 0.125;
+
+        /**
+         * The maximum time allowed for a single execution.
+         */
+        private Duration maxExecutionTime = Duration.ofSeconds(15);
+
+        public int getMaxMemoryMb() {
+            return maxMemoryMb;
+        }
+
+        public void setMaxMemoryMb(int maxMemoryMb) {
+            this.maxMemoryMb = maxMemoryMb;
+        }
+
+        public double getMaxCpuUnits() {
+            return maxCpuUnits;
+        }
+
+        public void setMaxCpuUnits(double maxCpuUnits) {
+            this.maxCpuUnits = maxCpuUnits;
+        }
+
+        public Duration getMaxExecutionTime() {
+            return maxExecutionTime;
+        }
+
+        public void setMaxExecutionTime(Duration maxExecutionTime) {
+            this.maxExecutionTime = maxExecutionTime;
+        }
+    }
+
+    public static class Budget {
+        /**
+         * Total memory in megabytes reserved by running containers. {@code 0}
+         * means unlimited.
+         */
+        private long memoryMb = 0;
+
+        /**
+         * Total CPU units reserved by running containers. {@code 0} means
+         * unlimited.
+         */
+        private double cpuUnits = 0;
+
+        public long getMemoryMb() {
+            return memoryMb;
+        }
+
+        public void setMemoryMb(long memoryMb) {
+            this.memoryMb = memoryMb;
+        }
+
+        public double getCpuUnits() {
+            return cpuUnits;
+        }
+
+        public void setCpuUnits(double cpuUnits) {
+            this.cpuUnits = cpuUnits;
+        }
+
+        public boolean isEnabled() {
+            return memoryMb > 0 || cpuUnits > 0;
+        }
+    }
+
+    public static class Preflight {
+        /**
+         * Whether snippets are checked for syntax errors on a resident server
+         * before a container is started for them.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum time a syntax check may take; snippets whose check
+         * takes longer are executed without one.
+         */
+        private Duration timeout = Duration.ofSeconds(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Spill {
+        /**
+         * Size of the rows of a paged result, counted in characters, above
+         * which they are written to a memory-mapped temp file instead of being
+         * kept on the heap.
+         */
+        private DataSize threshold = DataSize.ofMegabytes(16);
+
+        public DataSize getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(DataSize threshold) {
+            this.threshold = threshold;
+        }
+    }
+
+    public static class Recording {
+        /**
+         * Whether executions are recorded to a file for replay.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The gzipped JSON Lines file the executions are written to; replaced
+         * on startup.
+         */
+        private String file = "sql-workload.jsonl.gz";
+
+        /**
+         * The fraction of executions recorded, between 0 and 1.
+         */
+        private double sampleRate = 1.0;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    public static class Routing {
+        /**
+         * Whether snippets without a resource class are planned on a resident
+         * server and routed to a lane by their estimated cost.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum time planning a snippet may take; snippets whose
+         * planning takes longer run with the default limits.
+         */
+        private Duration timeout = Duration.ofSeconds(2);
+
+        /**
+         * The estimated total cost above which snippets are rejected. {@code 0}
+         * means none are.
+         */
+        private double rejectAboveCost = 0;
+
+        /**
+         * The lanes, tried in order; snippets fitting none of them run with
+         * the default limits.
+         */
+        private List<Lane> lanes = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public double getRejectAboveCost() {
+            return rejectAboveCost;
+        }
+
+        public void setRejectAboveCost(double rejectAboveCost) {
+            this.rejectAboveCost = rejectAboveCost;
+        }
+
+        public List<Lane> getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(List<Lane> lanes) {
+            this.lanes = lanes;
+        }
+
+        public static class Lane {
+            /**
+             * The resource class snippets in this lane run with.
+             */
+            private String resourceClass;
+
+            /**
+             * The maximum estimated total cost. {@code 0} means unlimited.
+             */
+            private double maxCost = 0;
+
+            /**
+             * The maximum estimated row count of any plan node. {@code 0}
+             * means unlimited.
+             */
+            private long maxRows = 0;
+
+            public String getResourceClass() {
+                return resourceClass;
+            }
+
+            public void setResourceClass(String resourceClass) {
+                this.resourceClass = resourceClass;
+            }
+
+            public double getMaxCost() {
+                return maxCost;
+            }
+
+            public void setMaxCost(double maxCost) {
+                this.maxCost = maxCost;
+            }
+
+            public long getMaxRows() {
+                return maxRows;
+            }
+
+            public void setMaxRows(long maxRows) {
+                this.maxRows = maxRows;
+            }
+        }
+    }
+
+    public static class Hedging {
+        /**
+         * Whether read-only executions slower than recent ones are started a
+         * second time, keeping the first result.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The percentile of recent latencies after which an execution is
+         * hedged, between 0 and 1.
+         */
+        private double percentile = 0.95;
+
+        /**
+         * The fraction of read-only executions that may be hedged, between 0
+         * and 1.
+         */
+        private double budget = 0.05;
+
+        /**
+         * The minimum time before an execution is hedged.
+         */
+        private Duration minDelay = Duration.ofMillis(100);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        public double getBudget() {
+            return budget;
+        }
+
+        public void setBudget(double budget) {
+            this.budget = budget;
+        }
+
+        public Duration getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+        }
+    }
+
+    public static class Templates {
+        /**
+         * Whether frequently seen setup prefixes are cached as template
+         * databases on the pooled servers. Requires database isolation.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The number of times a setup prefix must be seen before it is
+         * cached.
+         */
+        private int minHits = 3;
+
+        /**
+         * The maximum size of the templates cached on one server.
+         */
+        private DataSize maxSizePerServer = DataSize.ofMegabytes(64);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinHits() {
+            return minHits;
+        }
+
+        public void setMinHits(int minHits) {
+            this.minHits = minHits;
+        }
+
+        public DataSize getMaxSizePerServer() {
+            return maxSizePerServer;
+        }
+
+        public void setMaxSizePerServer(DataSize maxSizePerServer) {
+            this.maxSizePerServer = maxSizePerServer;
+        }
+    }
+
+    public static class Standby {
+        /**
+         * The number of execution containers kept created but not started,
+         * so that an execution only starts one. {@code 0} creates each
+         * container when it is needed. Only used by the Docker backend
+         * without dedicated CPU sets.
+         */
+        private int depth = 0;
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    public static class Journal {
+        /**
+         * Whether executions write queued, started and ended events to the
+         * journal.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The number of events buffered for the sink; further events are
+         * dropped while it is full.
+         */
+        private int capacity = 8192;
+
+        /**
+         * The fraction of executions journaled, between 0 and 1.
+         */
+        private double sampleRate = 1.0;
+
+        /**
+         * How often the buffered events are passed to the sink.
+         */
+        private Duration flushInterval = Duration.ofMillis(200);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+    }
+
+    public static class Jobs {
+        /**
+         * Whether snippets can be submitted as jobs to a queue kept on disk.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The file the queue and the results are kept in; jobs left in it are
+         * resumed on startup.
+         */
+        private String file = "sql-jobs.jsonl";
+
+        /**
+         * The number of jobs executed at a time. {@code 0} uses
+         * {@code max-concurrency}.
+         */
+        private int workers = 0;
+
+        /**
+         * The number of times a job is attempted before an infrastructure
+         * failure becomes its result.
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * The delay before the first retry; doubled for every further one.
+         */
+        private Duration retryDelay = Duration.ofSeconds(1);
+
+        /**
+         * How long completed jobs and their results are kept.
+         */
+        private Duration resultTtl = Duration.ofHours(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public Duration getRetryDelay() {
+            return retryDelay;
+        }
+
+        public void setRetryDelay(Duration retryDelay) {
+            this.retryDelay = retryDelay;
+        }
+
+        public Duration getResultTtl() {
+            return resultTtl;
+        }
+
+        public void setResultTtl(Duration resultTtl) {
+            this.resultTtl = resultTtl;
+        }
+    }
 }
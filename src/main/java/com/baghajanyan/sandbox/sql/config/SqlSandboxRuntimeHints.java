@@ -0,0 +1,22 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.boot.context.properties.bind.BindableRuntimeHintsRegistrar;
+
+/**
+ * Runtime hints for running the SQL sandbox in a GraalVM native image.
+ *
+ * The container scripts are loaded from the classpath when a container is
+ * created, and the configuration properties are bound reflectively, so both
+ * have to be registered for the native image to include them.
+ */
+class SqlSandboxRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.resources().registerPattern("sql/*.sh");
+        BindableRuntimeHintsRegistrar.forTypes(SqlSandboxProperties.class, SqlDeleteFileManagerProperties.class)
+                .registerHints(hints, classLoader);
+    }
+}
@@ -0,0 +1,369 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * The execution flow shared by the sandbox backends: acquiring a CPU set,
+ * running the process built by {@link #create} under the execution timeout,
+ * capturing or streaming its output, and removing the sandbox on a timeout
+ * or interrupt.
+ */
+abstract class AbstractSandboxProcessExecutor implements SandboxProcessExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractSandboxProcessExecutor.class);
+    static final String INIT_SCRIPT = "/sql/init-postgres.sh";
+    static final String RUN_SCRIPT = "/sql/run-postgres.sh";
+    static final String COMPARE_SCRIPT = "/sql/compare-postgres.sh";
+    static final String CODE_DIR = "/code";
+    private static final Duration INTERRUPT_POLL_INTERVAL = Duration.ofMillis(50);
+    // How long output still in flight is awaited after the process has exited or been killed.
+    private static final Duration OUTPUT_DRAIN_TIMEOUT = Duration.ofSeconds(5);
+    private volatile DockerConfig dockerConfig;
+    private final CpuSetAllocator cpuSetAllocator;
+
+    /**
+     * @param dockerConfig    the sandbox configuration.
+     * @param cpuSetAllocator the allocator for dedicated CPU sets, or
+     *                        {@code null} to rely on the CPU quota only.
+     */
+    AbstractSandboxProcessExecutor(DockerConfig dockerConfig, CpuSetAllocator cpuSetAllocator) {
+        this.dockerConfig = dockerConfig;
+        this.cpuSetAllocator = cpuSetAllocator;
+    }
+
+    @Override
+    public Process execute(Path tmpFile) throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return execute(tmpFile, dockerConfig);
+    }
+
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return execute(tmpFile, config, Map.of());
+    }
+
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config, Map<String, String> environment)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var cpuSet = acquireCpuSet(config);
+        try {
+            var containerName = newRunContainerName();
+            return run(create(tmpFile, cpuSet, config, environment, RUN_SCRIPT, containerName), null, config,
+                    containerName);
+        } finally {
+            releaseCpuSet(cpuSet);
+        }
+    }
+
+    @Override
+    public Process execute(Path tmpFile, ProcessOutputHandler outputHandler)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return execute(tmpFile, dockerConfig, outputHandler);
+    }
+
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config, ProcessOutputHandler outputHandler)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var cpuSet = acquireCpuSet(config);
+        try {
+            var containerName = newRunContainerName();
+            return stream(create(tmpFile, cpuSet, config, Map.of(), RUN_SCRIPT, containerName), config,
+                    containerName, outputHandler);
+        } finally {
+            releaseCpuSet(cpuSet);
+        }
+    }
+
+    @Override
+    public Process compare(Path tmpFile, Map<String, String> environment, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var cpuSet = acquireCpuSet(config);
+        try {
+            var containerName = newRunContainerName();
+            return run(create(tmpFile, cpuSet, config, environment, COMPARE_SCRIPT, containerName), null, config,
+                    containerName);
+        } finally {
+            releaseCpuSet(cpuSet);
+        }
+    }
+
+    @Override
+    public DockerConfig getDockerConfig() {
+        return dockerConfig;
+    }
+
+    @Override
+    public synchronized void setExecutionTimeout(Duration executionTimeout) {
+        dockerConfig = dockerConfig.withExecutionTimeout(executionTimeout);
+    }
+
+    /**
+     * Nothing is held ahead of time by default.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Builds the process of a named execution sandbox.
+     *
+     * @param tmpFile       the file of the script to execute.
+     * @param cpuSet        the dedicated CPU set, or {@code null}.
+     * @param config        the sandbox configuration for this execution.
+     * @param environment   extra environment variables for the scripts.
+     * @param runScript     the script run once Postgres is up.
+     * @param containerName the name of the sandbox, passed to
+     *                      {@link #remove(String)} on a timeout or interrupt.
+     * @return the process builder.
+     */
+    abstract ProcessBuilder create(Path tmpFile, String cpuSet, DockerConfig config, Map<String, String> environment,
+            String runScript, String containerName);
+
+    /**
+     * Called on the executing thread once the process of a named execution
+     * sandbox has started, before its output is read. Backends override it to
+     * tie cleanup to the process, for example to remove the sandbox once the
+     * process exits; {@link #remove(String)} is still called on a timeout or
+     * interrupt. Does nothing by default.
+     *
+     * @param containerName the name of the sandbox.
+     * @param process       the started process.
+     */
+    protected void started(String containerName, Process process) {
+    }
+
+    /**
+     * @param runScript the script run once Postgres is up.
+     * @return the shell script that initializes Postgres and runs the given
+     *         script.
+     */
+    String sandboxScript(String runScript) {
+        return loadScript(INIT_SCRIPT, runScript);
+    }
+
+    /**
+     * Starts a process and hands it to the given output handler while a
+     * watchdog enforces the execution timeout.
+     */
+    Process stream(ProcessBuilder builder, DockerConfig config, String containerName,
+            ProcessOutputHandler outputHandler) {
+        Process process = null;
+        try {
+            process = builder.start();
+            started(containerName, process);
+            var running = process;
+            var timedOut = new AtomicBoolean();
+            process.onExit()
+                    .completeOnTimeout(null, config.executionTimeout().toMillis(), TimeUnit.MILLISECONDS)
+                    .thenAccept(exited -> {
+                        if (exited == null) {
+                            timedOut.set(true);
+                            running.destroyForcibly();
+                        }
+                    });
+            // Reading the output does not respond to interrupts, so watch for them from the side.
+            var caller = Thread.currentThread();
+            Thread.ofVirtual().start(() -> destroyOnInterrupt(caller, running));
+
+            outputHandler.handle(process);
+            process.waitFor();
+            // waitFor does not check for an interrupt once the process has exited.
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Interrupted while handling the output");
+            }
+
+            if (timedOut.get()) {
+                logger.warn("Docker process timed out after {} seconds",
+                        config.executionTimeout().toSeconds());
+                remove(containerName);
+                throw new DockerProcessTimeoutException(
+                        "Execution timed out after " + config.executionTimeout().toSeconds() + " seconds");
+            }
+            return process;
+        } catch (IOException | InterruptedException e) {
+            // Destroying the process on an interrupt may surface as an IOException from the output handler.
+            if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                Thread.currentThread().interrupt();
+                logger.debug("Docker process interrupted, removing container {}", containerName);
+                remove(containerName);
+                throw new DockerProcessThreadException("Docker process interrupted", e);
+            }
+            logger.error("Failed to execute Docker process", e);
+            throw new DockerProcessThreadException("Failed to execute Docker process", e);
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    Process run(ProcessBuilder builder, String stdin, DockerConfig config) {
+        return run(builder, stdin, config, null);
+    }
+
+    /**
+     * Runs a process to completion. Killing a Docker CLI leaves a container it
+     * started running, so on a timeout or interrupt the sandbox with the given
+     * name, if any, is removed as well.
+     *
+     * The output is read while the process runs, so that a process writing
+     * more than a pipe holds does not stall, and is handed back through the
+     * returned process or, on a timeout, the exception.
+     */
+    Process run(ProcessBuilder builder, String stdin, DockerConfig config, String containerName) {
+        Process process = null;
+        try {
+            process = builder.start();
+            if (containerName != null) {
+                started(containerName, process);
+            }
+            var stdout = new OutputCapture(process.getInputStream());
+            var stderr = new OutputCapture(process.getErrorStream());
+            if (stdin != null) {
+                try (var input = process.getOutputStream()) {
+                    input.write(stdin.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            boolean finished = process.waitFor(config.executionTimeout().toMillis(), TimeUnit.MILLISECONDS);
+
+            if (!finished) {
+                process.destroyForcibly();
+                logger.warn("Docker process timed out after {} seconds",
+                        config.executionTimeout().toSeconds());
+                if (containerName != null) {
+                    remove(containerName);
+                }
+                throw new DockerProcessTimeoutException(
+                        "Execution timed out after " + config.executionTimeout().toSeconds() + " seconds",
+                        new String(stdout.await(), StandardCharsets.UTF_8),
+                        new String(stderr.await(), StandardCharsets.UTF_8));
+            }
+            return new CompletedProcess(process, stdout.await(), stderr.await());
+        } catch (IOException | InterruptedException e) {
+            if (process != null && (e instanceof InterruptedException || Thread.currentThread().isInterrupted())) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+                logger.debug("Docker process interrupted");
+                if (containerName != null) {
+                    remove(containerName);
+                }
+                throw new DockerProcessThreadException("Docker process interrupted", e);
+            }
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            logger.error("Failed to execute Docker process", e);
+            throw new DockerProcessThreadException("Failed to execute Docker process", e);
+        }
+    }
+
+    /**
+     * Reads a process stream to its end on a virtual thread.
+     */
+    private static final class OutputCapture {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final Thread reader;
+
+        OutputCapture(InputStream stream) {
+            reader = Thread.ofVirtual().start(() -> {
+                try (stream) {
+                    stream.transferTo(buffer);
+                } catch (IOException e) {
+                    // The stream is closed when the process is destroyed; keep what was read.
+                }
+            });
+        }
+
+        /**
+         * @return the output read until the end of the stream, or until
+         *         {@link #OUTPUT_DRAIN_TIMEOUT} if a leftover child process
+         *         keeps it open.
+         */
+        byte[] await() throws InterruptedException {
+            reader.join(OUTPUT_DRAIN_TIMEOUT);
+            return buffer.toByteArray();
+        }
+    }
+
+    private static void destroyOnInterrupt(Thread caller, Process process) {
+        try {
+            while (!process.waitFor(INTERRUPT_POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS)) {
+                if (caller.isInterrupted()) {
+                    process.destroyForcibly();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String acquireCpuSet(DockerConfig config) {
+        if (cpuSetAllocator == null) {
+            return null;
+        }
+        try {
+            var cpuSet = cpuSetAllocator.acquire(config.executionTimeout());
+            if (cpuSet == null) {
+                throw new DockerProcessTimeoutException("No CPU set became available within "
+                        + config.executionTimeout().toSeconds() + " seconds");
+            }
+            return cpuSet;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerProcessThreadException("Interrupted while waiting for a CPU set", e);
+        }
+    }
+
+    private void releaseCpuSet(String cpuSet) {
+        if (cpuSet != null) {
+            cpuSetAllocator.release(cpuSet);
+        }
+    }
+
+    static String newRunContainerName() {
+        return "sandbox-sql-run-" + UUID.randomUUID();
+    }
+
+    String loadScript(String... resourcePaths) {
+        var script = new StringBuilder();
+        for (var resourcePath : resourcePaths) {
+            script.append(loadScriptTemplate(resourcePath)).append('\n');
+        }
+        return script.toString();
+    }
+
+    private String loadScriptTemplate(String resourcePath) {
+        try (InputStream stream = AbstractSandboxProcessExecutor.class.getResourceAsStream(resourcePath)) {
+            if (stream == null) {
+                throw new IllegalStateException("Missing script template: " + resourcePath);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load script template: " + resourcePath, e);
+        }
+    }
+
+    static String readQuietly(InputStream stream) {
+        try {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
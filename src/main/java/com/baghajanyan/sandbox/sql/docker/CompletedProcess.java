@@ -0,0 +1,70 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A process that has exited, with its output already read.
+ */
+final class CompletedProcess extends Process {
+    private final Process process;
+    private final byte[] stdout;
+    private final byte[] stderr;
+
+    CompletedProcess(Process process, byte[] stdout, byte[] stderr) {
+        this.process = process;
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(stdout);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return new ByteArrayInputStream(stderr);
+    }
+
+    @Override
+    public int waitFor() {
+        return process.exitValue();
+    }
+
+    @Override
+    public int exitValue() {
+        return process.exitValue();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return false;
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public long pid() {
+        return process.pid();
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+        return CompletableFuture.completedFuture(this);
+    }
+
+    @Override
+    public ProcessHandle toHandle() {
+        return process.toHandle();
+    }
+}
@@ -0,0 +1,179 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out dedicated CPU-set slices to sandbox containers.
+ *
+ * The configured cores are cut into fixed-size slices that are passed to
+ * Docker as {@code --cpuset-cpus}, so concurrent containers do not share cores
+ * and are not throttled against each other. When NUMA awareness is enabled,
+ * slices never span NUMA nodes and are handed out round-robin across nodes.
+ * Since every running container holds a slice, the number of slices also caps
+ * the number of concurrent containers.
+ */
+public class CpuSetAllocator {
+    private static final Logger logger = LoggerFactory.getLogger(CpuSetAllocator.class);
+    private static final Path SYSFS_NODES = Path.of("/sys/devices/system/node");
+    private static final Pattern NODE_DIR = Pattern.compile("node(\\d+)");
+
+    private final List<String> slices;
+    private final LinkedBlockingQueue<String> available;
+
+    /**
+     * @param cores             the cores to allocate from, in Linux cpulist
+     *                          format (e.g. {@code "0-7,16-23"}).
+     * @param coresPerContainer the number of cores in each slice.
+     * @param numaAware         whether to keep slices within a NUMA node.
+     */
+    public CpuSetAllocator(String cores, int coresPerContainer, boolean numaAware) {
+        this(cores, coresPerContainer, numaAware ? SYSFS_NODES : null);
+    }
+
+    CpuSetAllocator(String cores, int coresPerContainer, Path numaNodesDir) {
+        if (coresPerContainer <= 0) {
+            throw new IllegalArgumentException("coresPerContainer must be greater than 0");
+        }
+        var configured = parseCpuList(cores);
+        if (configured.isEmpty()) {
+            throw new IllegalArgumentException("cores must not be empty");
+        }
+        this.slices = buildSlices(configured, coresPerContainer, readNumaNodes(numaNodesDir));
+        if (slices.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "cores must provide at least one slice of " + coresPerContainer + " cores");
+        }
+        this.available = new LinkedBlockingQueue<>(slices);
+        logger.info("CPU-set allocator initialized with {} slices: {}", slices.size(), slices);
+    }
+
+    /**
+     * Waits for a free slice.
+     *
+     * @param timeout the maximum time to wait.
+     * @return the slice in cpulist format, or {@code null} if none became free
+     *         in time.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public String acquire(Duration timeout) throws InterruptedException {
+        return available.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a slice obtained from {@link #acquire(Duration)}.
+     *
+     * @param slice the slice to return.
+     */
+    public void release(String slice) {
+        available.offer(slice);
+    }
+
+    /**
+     * @return all slices managed by this allocator.
+     */
+    public List<String> slices() {
+        return slices;
+    }
+
+    /**
+     * @return the number of slices currently free.
+     */
+    public int availableSlices() {
+        return available.size();
+    }
+
+    static TreeSet<Integer> parseCpuList(String cpuList) {
+        var cores = new TreeSet<Integer>();
+        if (cpuList == null || cpuList.isBlank()) {
+            return cores;
+        }
+        for (var part : cpuList.trim().split(",")) {
+            var range = part.trim().split("-", 2);
+            try {
+                int from = Integer.parseInt(range[0].trim());
+                int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+                if (from < 0 || to < from) {
+                    throw new IllegalArgumentException("Invalid CPU range: " + part);
+                }
+                for (int core = from; core <= to; core++) {
+                    cores.add(core);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CPU list: " + cpuList, e);
+            }
+        }
+        return cores;
+    }
+
+    private static Map<Integer, Integer> readNumaNodes(Path nodesDir) {
+        var nodeOfCore = new LinkedHashMap<Integer, Integer>();
+        if (nodesDir == null || !Files.isDirectory(nodesDir)) {
+            return nodeOfCore;
+        }
+        try (var entries = Files.list(nodesDir)) {
+            for (var entry : entries.toList()) {
+                var matcher = NODE_DIR.matcher(entry.getFileName().toString());
+                var cpuList = entry.resolve("cpulist");
+                if (!matcher.matches() || !Files.isReadable(cpuList)) {
+                    continue;
+                }
+                int node = Integer.parseInt(matcher.group(1));
+                for (var core : parseCpuList(Files.readString(cpuList))) {
+                    nodeOfCore.put(core, node);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Failed to read NUMA topology from {}; allocating without NUMA awareness", nodesDir, e);
+            nodeOfCore.clear();
+        }
+        return nodeOfCore;
+    }
+
+    private static List<String> buildSlices(TreeSet<Integer> cores, int coresPerContainer,
+            Map<Integer, Integer> nodeOfCore) {
+        // Group the configured cores by NUMA node; unknown cores share one group.
+        var groups = new LinkedHashMap<Integer, List<Integer>>();
+        for (var core : cores) {
+            groups.computeIfAbsent(nodeOfCore.getOrDefault(core, -1), node -> new ArrayList<>()).add(core);
+        }
+        var slicesPerNode = new ArrayList<List<String>>();
+        for (var group : groups.values()) {
+            var nodeSlices = new ArrayList<String>();
+            for (int i = 0; i + coresPerContainer <= group.size(); i += coresPerContainer) {
+                nodeSlices.add(group.subList(i, i + coresPerContainer).stream()
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(",")));
+            }
+            if (group.size() % coresPerContainer != 0) {
+                logger.warn("Ignoring {} cores that do not fill a slice of {} cores",
+                        group.size() % coresPerContainer, coresPerContainer);
+            }
+            slicesPerNode.add(nodeSlices);
+        }
+        // Interleave nodes so that concurrent containers spread across the host.
+        var slices = new ArrayList<String>();
+        for (int i = 0; slices.size() < slicesPerNode.stream().mapToInt(List::size).sum(); i++) {
+            for (var nodeSlices : slicesPerNode) {
+                if (i < nodeSlices.size()) {
+                    slices.add(nodeSlices.get(i));
+                }
+            }
+        }
+        return List.copyOf(slices);
+    }
+}
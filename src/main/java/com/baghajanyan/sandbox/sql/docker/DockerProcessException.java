@@ -9,8 +9,40 @@ public class DockerProcessException extends RuntimeException {
      * An exception indicating that a Docker process has timed out.
      */
     public static class DockerProcessTimeoutException extends DockerProcessException {
+        private final String partialStdout;
+        private final String partialStderr;
+
         public DockerProcessTimeoutException(String message) {
+            this(message, null, null);
+        }
+
+        /**
+         * @param message       the detail message.
+         * @param partialStdout the output written before the process was
+         *                      killed, or {@code null} if it was not captured.
+         * @param partialStderr the error output written before the process was
+         *                      killed, or {@code null} if it was not captured.
+         */
+        public DockerProcessTimeoutException(String message, String partialStdout, String partialStderr) {
             super(message);
+            this.partialStdout = partialStdout;
+            this.partialStderr = partialStderr;
+        }
+
+        /**
+         * @return the output written before the process was killed, or
+         *         {@code null} if it was not captured.
+         */
+        public String getPartialStdout() {
+            return partialStdout;
+        }
+
+        /**
+         * @return the error output written before the process was killed, or
+         *         {@code null} if it was not captured.
+         */
+        public String getPartialStderr() {
+            return partialStderr;
         }
     }
 
@@ -1,11 +1,13 @@
 package com.baghajanyan.sandbox.sql.docker;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -20,107 +22,617 @@ import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTi
  *
  * This class is responsible for creating and running a Docker process with
  * specified resource limits and execution timeouts. It uses a
- * {@link DockerConfig} object to configure the container.
+ * {@link DockerConfig} object to configure the container and, optionally, a
+ * {@link CpuSetAllocator} to pin each execution container to dedicated cores.
+ * It also starts the long-lived server containers used for database
+ * isolation, the syntax pre-flight, cost-based routing and sessions.
  */
-public class DockerProcessExecutor {
+public class DockerProcessExecutor extends AbstractSandboxProcessExecutor {
     private static final Logger logger = LoggerFactory.getLogger(DockerProcessExecutor.class);
-    private final DockerConfig dockerConfig;
+    private static final String SERVE_SCRIPT = "/sql/serve-postgres.sh";
+    private static final String EXEC_SCRIPT = "/sql/exec-postgres.sh";
+    private static final String ISOLATE_SCRIPT = "/sql/isolate-postgres.sh";
+    private static final String REAP_SCRIPT = "/sql/reap-postgres.sh";
+    private static final String PREFLIGHT_SCRIPT = "/sql/preflight-postgres.sh";
+    private static final String PLAN_SCRIPT = "/sql/plan-postgres.sh";
+    private static final String TEMPLATE_SCRIPT = "/sql/template-postgres.sh";
+    private static final Duration DOCKER_VERSION_TIMEOUT = Duration.ofSeconds(5);
+    private final StandbyContainers standbys;
 
     public DockerProcessExecutor(DockerConfig dockerConfig) {
-        this.dockerConfig = dockerConfig;
+        this(dockerConfig, null);
     }
 
     /**
-     * Executes the script from a temporary file in a Docker container.
+     * @param dockerConfig    the container configuration.
+     * @param cpuSetAllocator the allocator for dedicated CPU sets, or
+     *                        {@code null} to rely on the CPU quota only.
+     */
+    public DockerProcessExecutor(DockerConfig dockerConfig, CpuSetAllocator cpuSetAllocator) {
+        this(dockerConfig, cpuSetAllocator, 0);
+    }
+
+    /**
+     * @param dockerConfig    the container configuration.
+     * @param cpuSetAllocator the allocator for dedicated CPU sets, or
+     *                        {@code null} to rely on the CPU quota only.
+     * @param standbyDepth    the number of execution containers to keep
+     *                        created ahead of time, or {@code 0} to create
+     *                        each one when it is needed. Standby containers
+     *                        are not used with dedicated CPU sets.
+     */
+    public DockerProcessExecutor(DockerConfig dockerConfig, CpuSetAllocator cpuSetAllocator, int standbyDepth) {
+        super(dockerConfig, cpuSetAllocator);
+        if (standbyDepth < 0) {
+            throw new IllegalArgumentException("standbyDepth must be >= 0");
+        }
+        this.standbys = standbyDepth > 0 && cpuSetAllocator == null ? new StandbyContainers(this, standbyDepth) : null;
+    }
+
+    /**
+     * Starts a standby container instead of creating one if one is ready and
+     * no extra environment is needed.
+     */
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config, Map<String, String> environment)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var standby = environment.isEmpty() ? takeStandby(tmpFile, config) : null;
+        if (standby == null) {
+            return super.execute(tmpFile, config, environment);
+        }
+        try {
+            return run(startStandby(standby), null, config, standby);
+        } finally {
+            releaseStandby(tmpFile, standby);
+        }
+    }
+
+    /**
+     * Starts a standby container instead of creating one if one is ready.
+     */
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config, ProcessOutputHandler outputHandler)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var standby = takeStandby(tmpFile, config);
+        if (standby == null) {
+            return super.execute(tmpFile, config, outputHandler);
+        }
+        try {
+            return stream(startStandby(standby), config, standby, outputHandler);
+        } finally {
+            releaseStandby(tmpFile, standby);
+        }
+    }
+
+    /**
+     * Asks the Docker daemon for its version, which also verifies that it is
+     * reachable.
+     *
+     * @return the version of the Docker daemon.
+     * @throws DockerProcessThreadException  if the daemon is not reachable or
+     *                                       the thread is interrupted.
+     * @throws DockerProcessTimeoutException if the daemon does not answer in
+     *                                       time.
+     */
+    @Override
+    public String dockerVersion() throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var builder = new ProcessBuilder("docker", "version", "--format", "{{.Server.Version}}");
+        var process = run(builder, null, getDockerConfig().withExecutionTimeout(DOCKER_VERSION_TIMEOUT));
+        if (process.exitValue() != 0) {
+            var error = readQuietly(process.getErrorStream());
+            throw new DockerProcessThreadException("Docker daemon is not available: " + error,
+                    new IllegalStateException("docker version exited with " + process.exitValue()));
+        }
+        return readQuietly(process.getInputStream());
+    }
+
+    /**
+     * Starts a long-lived, detached Postgres server container.
+     *
+     * The container gets the same resource limits and hardening flags as the
+     * short-lived execution containers and is removed by Docker once it stops.
+     * Snippets are run against it with {@link #exec(String, String)}.
+     *
+     * @return the name of the started container.
+     * @throws DockerProcessThreadException  if the container fails to start or
+     *                                       the thread is interrupted.
+     * @throws DockerProcessTimeoutException if starting the container times out.
+     */
+    public String startServer() throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var containerName = "sandbox-sql-" + UUID.randomUUID();
+        var process = run(createServer(containerName), null, getDockerConfig());
+        if (process.exitValue() != 0) {
+            var error = readQuietly(process.getErrorStream());
+            throw new DockerProcessThreadException("Failed to start Postgres server container: " + error,
+                    new IllegalStateException("docker run exited with " + process.exitValue()));
+        }
+        return containerName;
+    }
+
+    /**
+     * Runs a SQL snippet against a server started with {@link #startServer()}.
+     *
+     * The snippet is passed on stdin, and the output has the same format as for
+     * {@link #execute(Path)}.
+     *
+     * @param containerName the name of the server container.
+     * @param sql           the SQL to run.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    public Process exec(String containerName, String sql)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return run(createExec(containerName), sql, getDockerConfig());
+    }
+
+    /**
+     * Runs a SQL snippet in a fresh database on a server started with
+     * {@link #startServer()}.
      *
-     * This method launches a short-lived container, applies security limits,
-     * executes the SQL file, and returns the completed process.
+     * The snippet runs as a throwaway unprivileged role that owns the
+     * database, is limited to one connection and has the execution timeout of
+     * the given configuration as its {@code statement_timeout}. The database
+     * and the role are dropped once the snippet finishes. The output has the
+     * same format as for {@link #execute(Path)}.
      *
-     * @param tmpFile the temporary file containing the script to execute.
+     * @param containerName the name of the server container.
+     * @param sql           the SQL to run.
+     * @param snippetId     the name of the database and role, which must match
+     *                      {@code snippet_[a-z0-9_]+}.
+     * @param config        the configuration whose execution timeout applies.
      * @return the completed {@link Process} object.
-     * @throws DockerProcessThreadException  if the Docker process fails to start or
-     *                                       is interrupted.
+     * @throws DockerProcessThreadException  if the process fails to start or is
+     *                                       interrupted.
      * @throws DockerProcessTimeoutException if the execution times out.
      */
-    public Process execute(Path tmpFile) throws DockerProcessThreadException, DockerProcessTimeoutException {
+    public Process execIsolated(String containerName, String sql, String snippetId, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return execIsolated(containerName, sql, snippetId, null, config);
+    }
+
+    /**
+     * Runs a SQL snippet like {@link #execIsolated(String, String, String,
+     * DockerConfig)}, in a database cloned from a template created with
+     * {@link #createTemplate}.
+     *
+     * @param containerName the name of the server container.
+     * @param sql           the SQL to run after the template's setup.
+     * @param snippetId     the name of the database and role, which must match
+     *                      {@code snippet_[a-z0-9_]+}.
+     * @param templateId    the name of the template, or {@code null} to start
+     *                      from an empty database.
+     * @param config        the configuration whose execution timeout applies.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    public Process execIsolated(String containerName, String sql, String snippetId, String templateId,
+            DockerConfig config) throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var environment = Map.of(
+                "SNIPPET_ID", snippetId,
+                "TEMPLATE_ID", templateId == null ? "" : templateId,
+                "STATEMENT_TIMEOUT_MS", Long.toString(config.executionTimeout().toMillis()));
+        return run(createExec(containerName, environment, EXEC_SCRIPT, ISOLATE_SCRIPT, RUN_SCRIPT), sql, config);
+    }
+
+    /**
+     * Runs setup SQL on a server started with {@link #startServer()} and keeps
+     * the resulting database as a template for {@link #execIsolated(String,
+     * String, String, String, DockerConfig)}.
+     *
+     * The script exits with {@code 0} and prints the size of the template in
+     * bytes if the setup succeeded; otherwise nothing is kept.
+     *
+     * @param containerName the name of the server container.
+     * @param sql           the setup SQL.
+     * @param templateId    the name of the template, which must match
+     *                      {@code template_[a-z0-9]+}.
+     * @param config        the configuration whose execution timeout applies.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the setup times out.
+     */
+    public Process createTemplate(String containerName, String sql, String templateId, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var environment = Map.of(
+                "TEMPLATE_ID", templateId,
+                "TEMPLATE_ACTION", "create",
+                "STATEMENT_TIMEOUT_MS", Long.toString(config.executionTimeout().toMillis()));
+        return run(createExec(containerName, environment, EXEC_SCRIPT, TEMPLATE_SCRIPT), sql, config);
+    }
+
+    /**
+     * Drops a template created with {@link #createTemplate}, terminating any
+     * backend still using it.
+     *
+     * @param containerName the name of the server container.
+     * @param templateId    the name of the template.
+     * @return whether the template was dropped.
+     */
+    public boolean dropTemplate(String containerName, String templateId) {
+        var environment = Map.of("TEMPLATE_ID", templateId, "TEMPLATE_ACTION", "drop");
+        try {
+            var process = run(createExec(containerName, environment, EXEC_SCRIPT, TEMPLATE_SCRIPT), "",
+                    getDockerConfig());
+            if (process.exitValue() != 0) {
+                logger.warn("Failed to drop template {} on server container {}: {}", templateId, containerName,
+                        readQuietly(process.getErrorStream()));
+                return false;
+            }
+            return true;
+        } catch (DockerProcessException e) {
+            logger.warn("Failed to drop template {} on server container {}", templateId, containerName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Terminates the backends left behind by {@link #execIsolated} and drops
+     * their databases and roles, for example after a snippet timed out and its
+     * {@code docker exec} client was killed.
+     *
+     * @param containerName the name of the server container.
+     * @return whether the server was cleaned up.
+     */
+    public boolean reapIsolated(String containerName) {
         try {
-            var builder = create(tmpFile);
-            var process = builder.start();
-            boolean finished = process.waitFor(dockerConfig.executionTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            var process = run(createExec(containerName, Map.of(), REAP_SCRIPT), null, getDockerConfig());
+            if (process.exitValue() != 0) {
+                logger.warn("Failed to clean up server container {}: {}", containerName,
+                        readQuietly(process.getErrorStream()));
+                return false;
+            }
+            return true;
+        } catch (DockerProcessException e) {
+            logger.warn("Failed to clean up server container {}", containerName, e);
+            return false;
+        }
+    }
 
-            if (!finished) {
-                process.destroyForcibly();
-                logger.warn("Docker process timed out after {} seconds",
-                        dockerConfig.executionTimeout().toSeconds());
-                throw new DockerProcessTimeoutException(
-                        "Execution timed out after " + dockerConfig.executionTimeout().toSeconds() + " seconds");
+    /**
+     * Checks the syntax of a SQL snippet on a server started with
+     * {@link #startServer()} without running any of it.
+     *
+     * psql exits with {@code 1} and reports the error on stderr with its
+     * SQLSTATE: {@code 42601} for a syntax error and {@code 22012} for a
+     * snippet that parsed.
+     *
+     * @param containerName the name of the server container.
+     * @param sql           the SQL to check.
+     * @param timeout       the maximum time the check may take.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the check times out.
+     */
+    public Process checkSyntax(String containerName, String sql, Duration timeout)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return run(createExec(containerName, Map.of(), EXEC_SCRIPT, PREFLIGHT_SCRIPT), sql,
+                getDockerConfig().withExecutionTimeout(timeout));
+    }
+
+    /**
+     * Runs a planning script on a server started with {@link #startServer()}
+     * and prints the plans it asks for, one value per line.
+     *
+     * The script is expected to wrap everything in a transaction that it rolls
+     * back; a statement that fails is skipped without aborting the rest.
+     *
+     * @param containerName the name of the server container.
+     * @param script        the planning script.
+     * @param timeout       the maximum time the planning may take.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the planning times out.
+     */
+    public Process explain(String containerName, String script, Duration timeout)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return run(createExec(containerName, Map.of(), EXEC_SCRIPT, PLAN_SCRIPT), script,
+                getDockerConfig().withExecutionTimeout(timeout));
+    }
+
+    /**
+     * Forcibly removes a container. Failures are logged and otherwise ignored.
+     *
+     * @param containerName the name of the container to remove.
+     */
+    @Override
+    public void remove(String containerName) {
+        try {
+            var process = new ProcessBuilder("docker", "rm", "-f", containerName)
+                    .redirectErrorStream(true)
+                    .start();
+            if (Thread.currentThread().isInterrupted()) {
+                // The execution was cancelled; let the removal finish in the background.
+                return;
             }
-            return process;
-        } catch (IOException | InterruptedException e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
+            if (!process.waitFor(getDockerConfig().executionTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                logger.warn("Timed out removing container {}", containerName);
             }
-            logger.error("Failed to execute Docker process", e);
-            throw new DockerProcessThreadException("Failed to execute Docker process", e);
+        } catch (IOException e) {
+            logger.warn("Failed to remove container {}", containerName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while removing container {}", containerName, e);
+        }
+    }
+
+    /**
+     * Takes a standby container for an execution with the given configuration
+     * and links the snippet file to the path it was created with.
+     *
+     * @return the name of the container, or {@code null} to create one.
+     */
+    private String takeStandby(Path tmpFile, DockerConfig config) {
+        // Resource classes do not take over the queue kept for the default configuration.
+        if (standbys == null || !StandbyContainers.creationConfig(config)
+                .equals(StandbyContainers.creationConfig(getDockerConfig()))) {
+            return null;
+        }
+        var containerName = standbys.take(config, tmpFile.getParent());
+        if (containerName == null) {
+            return null;
+        }
+        try {
+            Files.createLink(standbyFile(tmpFile, containerName), tmpFile);
+            return containerName;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.debug("Cannot link the snippet file for standby container {}", containerName, e);
+            remove(containerName);
+            return null;
         }
     }
 
+    private void releaseStandby(Path tmpFile, String containerName) {
+        if (containerName == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(standbyFile(tmpFile, containerName));
+        } catch (IOException e) {
+            logger.warn("Failed to delete the snippet file of standby container {}", containerName, e);
+        }
+    }
+
+    private static Path standbyFile(Path tmpFile, String containerName) {
+        return tmpFile.resolveSibling(containerName + ".sql");
+    }
+
+    /**
+     * Creates a standby execution container that runs the snippet file named
+     * after the container once started.
+     *
+     * @param config    the container configuration.
+     * @param directory the directory of the snippet files.
+     * @return the name of the created container.
+     * @throws DockerProcessThreadException  if the container cannot be created.
+     * @throws DockerProcessTimeoutException if creating the container times
+     *                                       out.
+     */
+    String createStandby(DockerConfig config, Path directory)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var containerName = "sandbox-sql-standby-" + UUID.randomUUID();
+        var process = run(createStandbyContainer(config, directory, containerName), null, config, containerName);
+        if (process.exitValue() != 0) {
+            var error = readQuietly(process.getErrorStream());
+            throw new DockerProcessThreadException("Failed to create standby container: " + error,
+                    new IllegalStateException("docker create exited with " + process.exitValue()));
+        }
+        return containerName;
+    }
+
+    ProcessBuilder startStandby(String containerName) {
+        // Attach to the output and exit with the exit code of the container.
+        return new ProcessBuilder("docker", "start", "--attach", containerName);
+    }
+
+    /**
+     * Removes the standby containers. Created containers are only removed by
+     * Docker once they have run.
+     */
+    @Override
+    public void close() {
+        if (standbys != null) {
+            standbys.close();
+        }
+    }
+
+    /**
+     * @return the number of execution containers kept created ahead of time,
+     *         or {@code 0} if each one is created when it is needed.
+     */
+    public int standbyDepth() {
+        return standbys != null ? standbys.depth() : 0;
+    }
+
+    /**
+     * @return the number of standby containers ready to be started.
+     */
+    public int standbyReady() {
+        return standbys != null ? standbys.size() : 0;
+    }
+
+    /**
+     * @return the number of executions that started a standby container.
+     */
+    public long standbyHits() {
+        return standbys != null ? standbys.hits() : 0;
+    }
+
+    /**
+     * @return the number of executions that found no standby container ready
+     *         and created their own.
+     */
+    public long standbyMisses() {
+        return standbys != null ? standbys.misses() : 0;
+    }
+
     ProcessBuilder create(Path tmpFile) {
+        return create(tmpFile, null, getDockerConfig());
+    }
+
+    ProcessBuilder create(Path tmpFile, String cpuSet, DockerConfig config) {
+        return create(tmpFile, cpuSet, config, Map.of(), RUN_SCRIPT);
+    }
+
+    ProcessBuilder create(Path tmpFile, String cpuSet, DockerConfig config, Map<String, String> environment,
+            String runScript) {
+        return create(tmpFile, cpuSet, config, environment, runScript, newRunContainerName());
+    }
+
+    @Override
+    ProcessBuilder create(Path tmpFile, String cpuSet, DockerConfig config, Map<String, String> environment,
+            String runScript, String containerName) {
+        var command = containerCommand("run", tmpFile, cpuSet, config, environment, runScript, containerName);
+        logger.debug("SQL docker command: {}", command);
+        return new ProcessBuilder(command);
+    }
+
+    /**
+     * Builds a {@code docker create} command for a standby container with
+     * the same options as an execution container, which runs the snippet file
+     * named after the container once started.
+     */
+    ProcessBuilder createStandbyContainer(DockerConfig config, Path directory, String containerName) {
+        var command = containerCommand("create", directory.resolve(containerName + ".sql"), null, config, Map.of(),
+                RUN_SCRIPT, containerName);
+        logger.debug("SQL docker standby command: {}", command);
+        return new ProcessBuilder(command);
+    }
+
+    /**
+     * @param action {@code run} to run the container, or {@code create} to
+     *               only create it.
+     */
+    private List<String> containerCommand(String action, Path tmpFile, String cpuSet, DockerConfig config,
+            Map<String, String> environment, String runScript, String containerName) {
         List<String> command = new ArrayList<>();
         // Docker CLI invocation.
         command.add("docker");
-        command.add("run");
+        command.add(action);
         // Always remove the container.
         command.add("--rm");
+        // Named, so that the container can be removed if the CLI is killed.
+        command.add("--name");
+        command.add(containerName);
+
+        addSandboxOptions(command, config);
+        if (cpuSet != null) {
+            // Pin the container to its dedicated cores.
+            command.add("--cpuset-cpus=" + cpuSet);
+        }
+
+        var volumeSuffix = config.securityHardening() && config.readOnly() ? ":ro" : "";
+        // Mount the SQL file to a fixed path in the container.
+        command.add("-v");
+        command.add(tmpFile.getParent() + ":" + CODE_DIR + volumeSuffix);
+
+        // Pass the SQL file path to the container script via environment variable.
+        command.add("-e");
+        command.add("SQL_FILE=" + SandboxProcessExecutor.containerPath(tmpFile));
+        environment.forEach((name, value) -> {
+            command.add("-e");
+            command.add(name + "=" + value);
+        });
+
+        addPostgresEntrypoint(command, config);
+        // Use a shell to run a small script that initializes and runs Postgres.
+        command.add("/bin/bash");
+        command.add("-c");
+        command.add(sandboxScript(runScript));
+        return command;
+    }
+
+    ProcessBuilder createServer(String containerName) {
+        List<String> command = new ArrayList<>();
+        command.add("docker");
+        command.add("run");
+        // Detach and remove the container once the server stops.
+        command.add("-d");
+        command.add("--rm");
+        command.add("--name");
+        command.add(containerName);
+
+        addSandboxOptions(command, getDockerConfig());
+        addPostgresEntrypoint(command, getDockerConfig());
+        // Initialize the cluster, then keep Postgres running in the foreground.
+        command.add("/bin/bash");
+        command.add("-c");
+        command.add(loadScript(INIT_SCRIPT, SERVE_SCRIPT));
+
+        logger.debug("SQL docker server command: {}", command);
+        return new ProcessBuilder(command);
+    }
 
-        if (dockerConfig.securityHardening()) {
-            if (!dockerConfig.allowNetwork()) {
+    ProcessBuilder createExec(String containerName) {
+        return createExec(containerName, Map.of(), EXEC_SCRIPT, RUN_SCRIPT);
+    }
+
+    ProcessBuilder createExec(String containerName, Map<String, String> environment, String... scripts) {
+        List<String> command = new ArrayList<>();
+        command.add("docker");
+        command.add("exec");
+        // Keep stdin open so the snippet can be piped in.
+        command.add("-i");
+        environment.forEach((name, value) -> {
+            command.add("-e");
+            command.add(name + "=" + value);
+        });
+        command.add(containerName);
+        command.add("/bin/bash");
+        command.add("-c");
+        command.add(loadScript(scripts));
+        return new ProcessBuilder(command);
+    }
+
+    private void addSandboxOptions(List<String> command, DockerConfig config) {
+        if (config.securityHardening()) {
+            if (!config.allowNetwork()) {
                 // Disallow outbound networking for a tighter sandbox.
                 command.add("--network=none");
             }
-            if (dockerConfig.readOnly()) {
+            if (config.readOnly()) {
                 // Read-only root filesystem.
                 command.add("--read-only");
                 // Writable tmpfs for temp files.
                 command.add("--tmpfs");
                 // Mount /tmp as an in-memory filesystem (tmpfs) with read/write access,
                 // disable execution and SUID for security, and limit its size.
-                command.add("/tmp:rw,noexec,nosuid,size=" + dockerConfig.tmpfsSize());
+                command.add("/tmp:rw,noexec,nosuid,size=" + config.tmpfsSize());
             }
-            if (dockerConfig.pidsLimit() > 0) {
+            if (config.pidsLimit() > 0) {
                 // Limit the number of processes inside the container.
-                command.add("--pids-limit=" + dockerConfig.pidsLimit());
+                command.add("--pids-limit=" + config.pidsLimit());
             }
-            if (dockerConfig.dropCapabilities()) {
+            if (config.dropCapabilities()) {
                 // Drop all Linux capabilities to reduce attack surface.
                 command.add("--cap-drop=ALL");
             }
-            if (dockerConfig.noNewPrivileges()) {
+            if (config.noNewPrivileges()) {
                 // Prevent privilege escalation within the container.
                 command.add("--security-opt");
                 command.add("no-new-privileges");
             }
         }
-        if (!dockerConfig.runAsUser().isBlank()) {
+        if (!config.runAsUser().isBlank()) {
             // Run container as a non-root user if configured for better security.
             command.add("--user");
-            command.add(dockerConfig.runAsUser());
+            command.add(config.runAsUser());
         }
 
         // Memory & CPU limits.
         command.add("-m");
-        command.add(dockerConfig.maxMemoryMb() + "m");
-        command.add("--cpus=" + dockerConfig.maxCpuUnits());
-
-        var volumeSuffix = dockerConfig.securityHardening() && dockerConfig.readOnly() ? ":ro" : "";
-        // Mount the SQL file to a fixed path in the container.
-        command.add("-v");
-        command.add(tmpFile.getParent() + ":/code" + volumeSuffix);
-
-        // Pass the SQL file path to the container script via environment variable.
-        command.add("-e");
-        command.add("SQL_FILE=/code/" + tmpFile.getFileName());
+        command.add(config.maxMemoryMb() + "m");
+        command.add("--cpus=" + config.maxCpuUnits());
+    }
 
+    private void addPostgresEntrypoint(List<String> command, DockerConfig config) {
         command.add("-e");
         command.add("POSTGRES_HOST_AUTH_METHOD=trust");
 
@@ -131,26 +643,7 @@ public class DockerProcessExecutor {
         command.add("-w");
         command.add("/tmp");
 
-        command.add(dockerConfig.dockerImage());
-        // Use a shell to run a small script that initializes and runs Postgres.
-        command.add("/bin/bash");
-        command.add("-c");
-        var script = loadScriptTemplate();
-        command.add(script);
-
-        logger.info("SQL docker command: {}", command);
-        return new ProcessBuilder(command);
+        command.add(config.dockerImage());
     }
 
-    private String loadScriptTemplate() {
-        var resourcePath = "/sql/run-postgres.sh";
-        try (InputStream stream = DockerProcessExecutor.class.getResourceAsStream(resourcePath)) {
-            if (stream == null) {
-                throw new IllegalStateException("Missing script template: " + resourcePath);
-            }
-            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            throw new IllegalStateException("Failed to load script template: " + resourcePath, e);
-        }
-    }
 }
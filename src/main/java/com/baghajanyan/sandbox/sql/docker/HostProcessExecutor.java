@@ -0,0 +1,333 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Executes a script with the locally installed Postgres binaries in a
+ * sandbox made of Linux namespaces and a cgroup, without a Docker daemon.
+ *
+ * Each execution runs the same scripts as a container would, under
+ * <a href="https://github.com/containers/bubblewrap">bubblewrap</a> in new
+ * user, PID, IPC and UTS namespaces, and without network unless allowed. It
+ * sees the host's system directories read-only, a size-limited tmpfs at
+ * {@code /tmp} and the directory of the script at {@code /code}. Its memory,
+ * CPU, process count and CPU set are limited by a child cgroup of a delegated
+ * cgroup v2 subtree, which is killed and removed when the execution ends.
+ *
+ * Long-lived servers are not supported, so neither are database isolation,
+ * the syntax pre-flight, cost-based routing and sessions; enabling any of
+ * them with this backend fails at startup.
+ */
+public class HostProcessExecutor extends AbstractSandboxProcessExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(HostProcessExecutor.class);
+    private static final long CPU_PERIOD_MICROS = 100_000;
+    private static final Duration VERSION_TIMEOUT = Duration.ofSeconds(5);
+    private static final int CGROUP_REMOVE_ATTEMPTS = 20;
+    private static final Duration CGROUP_REMOVE_INTERVAL = Duration.ofMillis(25);
+    private static final List<String> SYSTEM_DIRS = List.of("/usr", "/bin", "/sbin", "/lib", "/lib64",
+            "/etc/alternatives", "/etc/ld.so.cache", "/etc/localtime");
+
+    private final Path postgresBinDir;
+    private final Path cgroupRoot;
+    private final String bwrap;
+    private final Path etcDir;
+    private final Map<String, Path> accountFiles = new ConcurrentHashMap<>();
+
+    /**
+     * @param dockerConfig    the sandbox configuration; the Docker image is
+     *                        ignored.
+     * @param cpuSetAllocator the allocator for dedicated CPU sets, or
+     *                        {@code null} to rely on the CPU quota only.
+     * @param postgresBinDir  the directory of the Postgres binaries, such as
+     *                        {@code /usr/lib/postgresql/16/bin}.
+     * @param cgroupRoot      the cgroup v2 directory, writable by this process,
+     *                        under which a cgroup is created per execution.
+     * @param bwrap           the bubblewrap executable.
+     */
+    public HostProcessExecutor(DockerConfig dockerConfig, CpuSetAllocator cpuSetAllocator, Path postgresBinDir,
+            Path cgroupRoot, String bwrap) {
+        super(dockerConfig, cpuSetAllocator);
+        userIds(dockerConfig.runAsUser());
+        this.postgresBinDir = postgresBinDir.toAbsolutePath();
+        this.cgroupRoot = cgroupRoot;
+        this.bwrap = bwrap;
+        try {
+            this.etcDir = Files.createTempDirectory("sandbox-sql-host-");
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create the account file directory", e);
+        }
+    }
+
+    @Override
+    ProcessBuilder create(Path tmpFile, String cpuSet, DockerConfig config, Map<String, String> environment,
+            String runScript, String containerName) {
+        var cgroup = createCgroup(containerName, cpuSet, config);
+        var ids = userIds(config.runAsUser());
+
+        List<String> command = new ArrayList<>();
+        // Move into the cgroup before anything else runs, so that no process escapes its limits.
+        command.add("/bin/sh");
+        command.add("-c");
+        command.add("echo $$ > \"$0/cgroup.procs\" && exec \"$@\"");
+        command.add(cgroup.toString());
+        command.add(bwrap);
+        command.add("--die-with-parent");
+        command.add("--new-session");
+        command.add("--unshare-user");
+        command.add("--unshare-pid");
+        command.add("--unshare-ipc");
+        command.add("--unshare-uts");
+        command.add("--unshare-cgroup-try");
+        command.add("--uid");
+        command.add(ids[0]);
+        command.add("--gid");
+        command.add(ids[1]);
+        if (config.securityHardening()) {
+            if (!config.allowNetwork()) {
+                command.add("--unshare-net");
+            }
+            if (config.dropCapabilities()) {
+                command.add("--cap-drop");
+                command.add("ALL");
+            }
+            // bubblewrap always sets no_new_privs, so noNewPrivileges needs no flag.
+        }
+
+        // The host is only visible through its system directories, never writable.
+        for (var dir : SYSTEM_DIRS) {
+            command.add("--ro-bind-try");
+            command.add(dir);
+            command.add(dir);
+        }
+        var installDir = postgresBinDir.getParent() != null ? postgresBinDir.getParent() : postgresBinDir;
+        command.add("--ro-bind");
+        command.add(installDir.toString());
+        command.add(installDir.toString());
+        // initdb needs a name for the user it runs as.
+        command.add("--ro-bind");
+        command.add(accountFile("passwd", ids).toString());
+        command.add("/etc/passwd");
+        command.add("--ro-bind");
+        command.add(accountFile("group", ids).toString());
+        command.add("/etc/group");
+        command.add("--proc");
+        command.add("/proc");
+        command.add("--dev");
+        command.add("/dev");
+        command.add("--size");
+        command.add(Long.toString(parseSize(config.tmpfsSize())));
+        command.add("--tmpfs");
+        command.add("/tmp");
+        command.add(config.securityHardening() && config.readOnly() ? "--ro-bind" : "--bind");
+        command.add(tmpFile.getParent().toString());
+        command.add(CODE_DIR);
+        command.add("--chdir");
+        command.add("/tmp");
+
+        addEnvironment(command, "PATH", postgresBinDir + ":/usr/bin:/bin");
+        addEnvironment(command, "POSTGRES_HOST_AUTH_METHOD", "trust");
+        addEnvironment(command, "SQL_FILE", SandboxProcessExecutor.containerPath(tmpFile));
+        environment.forEach((name, value) -> addEnvironment(command, name, value));
+
+        command.add("/bin/bash");
+        command.add("-c");
+        command.add(sandboxScript(runScript));
+
+        logger.debug("SQL host command: {}", command);
+        var builder = new ProcessBuilder(command);
+        // Nothing from the host environment reaches the sandbox.
+        builder.environment().clear();
+        return builder;
+    }
+
+    /**
+     * Removes the cgroup of the execution once its process exits.
+     */
+    @Override
+    protected void started(String containerName, Process process) {
+        process.onExit().thenRun(() -> remove(containerName));
+    }
+
+    /**
+     * Kills the processes left in the cgroup of an execution and removes the
+     * cgroup. Failures are logged and otherwise ignored.
+     *
+     * @param containerName the name of the execution.
+     */
+    @Override
+    public void remove(String containerName) {
+        var cgroup = cgroupRoot.resolve(containerName);
+        if (!Files.isDirectory(cgroup)) {
+            return;
+        }
+        try {
+            Files.writeString(cgroup.resolve("cgroup.kill"), "1");
+        } catch (IOException e) {
+            logger.warn("Failed to kill cgroup {}", cgroup, e);
+        }
+        for (int attempt = 0; attempt < CGROUP_REMOVE_ATTEMPTS; attempt++) {
+            try {
+                Files.delete(cgroup);
+                return;
+            } catch (FileSystemException e) {
+                // Busy until the killed processes have exited.
+                try {
+                    Thread.sleep(CGROUP_REMOVE_INTERVAL);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } catch (IOException e) {
+                break;
+            }
+        }
+        logger.warn("Failed to remove cgroup {}", cgroup);
+    }
+
+    /**
+     * Deletes the directory of the account files. Failures are logged and
+     * otherwise ignored.
+     */
+    @Override
+    public void close() {
+        accountFiles.clear();
+        if (!Files.exists(etcDir)) {
+            return;
+        }
+        try (var paths = Files.walk(etcDir)) {
+            // Children before their directory.
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to delete the account file directory {}", etcDir, e);
+        }
+    }
+
+    /**
+     * Reports the versions of Postgres and bubblewrap, which also verifies
+     * that both can be run.
+     *
+     * @return the versions of Postgres and bubblewrap.
+     * @throws DockerProcessThreadException  if either cannot be run or the
+     *                                       thread is interrupted.
+     * @throws DockerProcessTimeoutException if either does not answer in time.
+     */
+    @Override
+    public String dockerVersion() throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return version(postgresBinDir.resolve("postgres").toString(), "--version") + ", "
+                + version(bwrap, "--version");
+    }
+
+    private Path createCgroup(String containerName, String cpuSet, DockerConfig config) {
+        var cgroup = cgroupRoot.resolve(containerName);
+        try {
+            Files.createDirectory(cgroup);
+            Files.writeString(cgroup.resolve("memory.max"), Long.toString(config.maxMemoryMb() * 1024L * 1024L));
+            long quota = Math.max(1000, Math.round(config.maxCpuUnits() * CPU_PERIOD_MICROS));
+            Files.writeString(cgroup.resolve("cpu.max"), quota + " " + CPU_PERIOD_MICROS);
+            if (config.securityHardening() && config.pidsLimit() > 0) {
+                Files.writeString(cgroup.resolve("pids.max"), Integer.toString(config.pidsLimit()));
+            }
+            if (cpuSet != null) {
+                Files.writeString(cgroup.resolve("cpuset.cpus"), cpuSet);
+            }
+            return cgroup;
+        } catch (IOException e) {
+            remove(containerName);
+            throw new DockerProcessThreadException("Failed to create cgroup " + cgroup, e);
+        }
+    }
+
+    private Path accountFile(String name, String[] ids) {
+        return accountFiles.computeIfAbsent(name + "-" + ids[0] + "-" + ids[1], key -> {
+            var content = name.equals("passwd")
+                    ? "sandbox:x:" + ids[0] + ":" + ids[1] + ":sandbox:/tmp:/bin/sh\n"
+                    : "sandbox:x:" + ids[1] + ":\n";
+            try {
+                return Files.writeString(etcDir.resolve(key), content);
+            } catch (IOException e) {
+                throw new DockerProcessThreadException("Failed to write " + name + " file", e);
+            }
+        });
+    }
+
+    private static void addEnvironment(List<String> command, String name, String value) {
+        command.add("--setenv");
+        command.add(name);
+        command.add(value);
+    }
+
+    /**
+     * @return the user and group ID of a {@code uid[:gid]} specification.
+     */
+    static String[] userIds(String runAsUser) {
+        var parts = runAsUser.split(":", 2);
+        var uid = parts[0];
+        var gid = parts.length > 1 ? parts[1] : uid;
+        if (!uid.matches("\\d+") || !gid.matches("\\d+")) {
+            throw new IllegalArgumentException("The host backend needs a numeric runAsUser: " + runAsUser);
+        }
+        return new String[] { uid, gid };
+    }
+
+    /**
+     * @return the number of bytes of a Docker-style size such as {@code 64m}.
+     */
+    static long parseSize(String size) {
+        var value = size.strip().toLowerCase(Locale.ROOT);
+        long unit = switch (value.charAt(value.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        var digits = unit == 1 ? value.replaceFirst("b$", "") : value.substring(0, value.length() - 1);
+        return Long.parseLong(digits) * unit;
+    }
+
+    private static String version(String... command) {
+        try {
+            var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            if (!process.waitFor(VERSION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new DockerProcessTimeoutException(command[0] + " did not answer within "
+                        + VERSION_TIMEOUT.toSeconds() + " seconds");
+            }
+            var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+            if (process.exitValue() != 0) {
+                throw new DockerProcessThreadException(command[0] + " is not available: " + output,
+                        new IllegalStateException(command[0] + " exited with " + process.exitValue()));
+            }
+            return output;
+        } catch (IOException e) {
+            throw new DockerProcessThreadException(command[0] + " is not available", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerProcessThreadException("Interrupted while running " + command[0], e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.io.IOException;
+
+/**
+ * Consumes the output of a running Docker process.
+ *
+ * The handler is invoked on the calling thread while the container is still
+ * running, so reading slowly from the process streams applies backpressure to
+ * the process pipe.
+ */
+@FunctionalInterface
+public interface ProcessOutputHandler {
+
+    /**
+     * Reads the output of the given process until it is exhausted.
+     *
+     * @param process the running process.
+     * @throws IOException if reading the process output fails.
+     */
+    void handle(Process process) throws IOException;
+}
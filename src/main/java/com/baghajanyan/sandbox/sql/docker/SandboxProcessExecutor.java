@@ -0,0 +1,174 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+
+/**
+ * Executes a script from a file in a short-lived sandbox.
+ *
+ * {@link DockerProcessExecutor} runs each script in a Docker container and
+ * can also start long-lived servers; {@link HostProcessExecutor} runs it with
+ * the locally installed Postgres binaries. Both apply the resource limits and
+ * execution timeout of a {@link DockerConfig}.
+ */
+public interface SandboxProcessExecutor extends AutoCloseable {
+
+    /**
+     * Executes the script from a temporary file in a sandbox.
+     *
+     * This method launches a short-lived sandbox, applies security limits,
+     * executes the SQL file, and returns the completed process.
+     *
+     * @param tmpFile the temporary file containing the script to execute.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    Process execute(Path tmpFile) throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * Executes the script from a temporary file in a sandbox with the given
+     * configuration instead of the default one.
+     *
+     * @param tmpFile the temporary file containing the script to execute.
+     * @param config  the sandbox configuration for this execution.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    Process execute(Path tmpFile, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * Same as {@link #execute(Path, DockerConfig)}, with extra environment
+     * variables for the sandbox scripts, such as
+     * {@code STATEMENT_STATISTICS=1} to collect per-statement statistics with
+     * {@code pg_stat_statements} after the script.
+     *
+     * @param tmpFile     the temporary file containing the script to execute.
+     * @param config      the sandbox configuration for this execution.
+     * @param environment the environment variables.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    Process execute(Path tmpFile, DockerConfig config, Map<String, String> environment)
+            throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * Executes the script from a temporary file in a sandbox and hands the
+     * running process to the given output handler.
+     *
+     * Unlike {@link #execute(Path)}, this method does not wait for the process
+     * to exit before its output is consumed. The execution timeout is enforced
+     * by a watchdog that destroys the process, which ends the output stream
+     * seen by the handler.
+     *
+     * @param tmpFile       the temporary file containing the script to execute.
+     * @param outputHandler the handler that consumes the process output.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start, its
+     *                                       output cannot be read, or it is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    Process execute(Path tmpFile, ProcessOutputHandler outputHandler)
+            throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * Same as {@link #execute(Path, ProcessOutputHandler)}, but with the given
+     * configuration instead of the default one.
+     *
+     * @param tmpFile       the temporary file containing the script to execute.
+     * @param config        the sandbox configuration for this execution.
+     * @param outputHandler the handler that consumes the process output.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start, its
+     *                                       output cannot be read, or it is
+     *                                       interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    Process execute(Path tmpFile, DockerConfig config, ProcessOutputHandler outputHandler)
+            throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * Executes the script from a temporary file in a sandbox and compares the
+     * result of its last statement with an expected result inside the
+     * sandbox.
+     *
+     * The script runs without superuser rights and must capture that result
+     * into the {@code public.__sandbox_actual} table. The comparison is driven
+     * by the given environment variables ({@code EXPECTED_FILE},
+     * {@code EXPECTED_FINGERPRINT}, {@code EXPECTED_COLUMNS},
+     * {@code COMPARE_ORDERED}, {@code MAX_DIFF_ROWS} and
+     * {@code COMPARE_NONCE}), which the script cannot see; only the JSON
+     * verdict, tagged with the nonce, is written to stdout.
+     *
+     * @param tmpFile     the temporary file containing the script to execute.
+     * @param environment the comparison settings. Files in the directory of
+     *                    {@code tmpFile} are referenced by
+     *                    {@link #containerPath(Path)}.
+     * @param config      the sandbox configuration for this execution.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if the process fails to start or
+     *                                       is interrupted.
+     * @throws DockerProcessTimeoutException if the execution times out.
+     */
+    Process compare(Path tmpFile, Map<String, String> environment, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * @return the default sandbox configuration.
+     */
+    DockerConfig getDockerConfig();
+
+    /**
+     * Changes the execution timeout of the default sandbox configuration.
+     * Executions that already started keep their timeout.
+     *
+     * @param executionTimeout the new execution timeout.
+     */
+    void setExecutionTimeout(Duration executionTimeout);
+
+    /**
+     * Reports the version of the backend, which also verifies that it can
+     * run sandboxes.
+     *
+     * @return the version of the backend.
+     * @throws DockerProcessThreadException  if the backend is not available or
+     *                                       the thread is interrupted.
+     * @throws DockerProcessTimeoutException if the backend does not answer in
+     *                                       time.
+     */
+    String dockerVersion() throws DockerProcessThreadException, DockerProcessTimeoutException;
+
+    /**
+     * Forcibly removes a sandbox and whatever still runs in it. Failures are
+     * logged and otherwise ignored.
+     *
+     * @param containerName the name of the sandbox to remove.
+     */
+    void remove(String containerName);
+
+    /**
+     * Releases the resources held ahead of time for future executions.
+     */
+    @Override
+    void close();
+
+    /**
+     * @param file a file in the directory of the executed script.
+     * @return the path under which the file is visible inside the sandbox.
+     */
+    static String containerPath(Path file) {
+        return "/code/" + file.getFileName();
+    }
+}
@@ -0,0 +1,185 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+
+/**
+ * Keeps a queue of created but not started execution containers, so that an
+ * execution only has to start one instead of paying for {@code docker run}.
+ *
+ * The queue holds containers for one configuration and snippet directory.
+ * Taking a container for another one empties the queue and refills it for the
+ * new one, so a configuration change never hands out a container created with
+ * the old one. Refilling runs on a single virtual
+ * thread at a time and stops at the first failure until the next take.
+ *
+ * Created containers cost no memory but are not removed by Docker until they
+ * have run, so they must be removed on {@link #close()}.
+ */
+class StandbyContainers implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StandbyContainers.class);
+    // Creating a container may pull its image first.
+    static final Duration CREATE_TIMEOUT = Duration.ofMinutes(1);
+
+    private final DockerProcessExecutor process;
+    private final int depth;
+    // Guarded by "this".
+    private final Deque<String> ready = new ArrayDeque<>();
+    private DockerConfig config;
+    private Path directory;
+    private long generation;
+    private boolean refilling;
+    private boolean closed;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param process the executor creating and removing the containers.
+     * @param depth   the number of containers to keep ready.
+     */
+    StandbyContainers(DockerProcessExecutor process, int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be greater than 0");
+        }
+        this.process = process;
+        this.depth = depth;
+    }
+
+    /**
+     * Takes a ready container and starts refilling the queue.
+     *
+     * @param config    the configuration of the execution.
+     * @param directory the directory of the snippet files.
+     * @return the name of the container, or {@code null} if none is ready.
+     */
+    String take(DockerConfig config, Path directory) {
+        var creation = creationConfig(config);
+        String name;
+        List<String> stale = List.of();
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            if (!creation.equals(this.config) || !directory.equals(this.directory)) {
+                stale = new ArrayList<>(ready);
+                ready.clear();
+                this.config = creation;
+                this.directory = directory;
+                generation++;
+            }
+            name = ready.poll();
+            refill();
+        }
+        if (name != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        stale.forEach(process::remove);
+        return name;
+    }
+
+    /**
+     * @return the configuration a container is created with for an execution
+     *         with the given one. The execution timeout is only enforced
+     *         around the started container, so it does not matter.
+     */
+    static DockerConfig creationConfig(DockerConfig config) {
+        return config.withExecutionTimeout(CREATE_TIMEOUT);
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of executions that started a ready container.
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of executions that found no container ready.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of containers ready.
+     */
+    synchronized int size() {
+        return ready.size();
+    }
+
+    /**
+     * Removes the ready containers and stops refilling.
+     */
+    @Override
+    public void close() {
+        List<String> stale;
+        synchronized (this) {
+            closed = true;
+            generation++;
+            stale = new ArrayList<>(ready);
+            ready.clear();
+        }
+        stale.forEach(process::remove);
+    }
+
+    // Called with the lock held.
+    private void refill() {
+        if (refilling || ready.size() >= depth) {
+            return;
+        }
+        refilling = true;
+        Thread.ofVirtual().name("sandbox-sql-standby").start(() -> {
+            while (true) {
+                long refillGeneration;
+                DockerConfig refillConfig;
+                Path refillDirectory;
+                synchronized (this) {
+                    if (closed || ready.size() >= depth) {
+                        refilling = false;
+                        return;
+                    }
+                    refillGeneration = generation;
+                    refillConfig = config;
+                    refillDirectory = directory;
+                }
+                String created;
+                try {
+                    created = process.createStandby(refillConfig, refillDirectory);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to create a standby container", e);
+                    synchronized (this) {
+                        refilling = false;
+                    }
+                    return;
+                }
+                boolean kept;
+                synchronized (this) {
+                    kept = generation == refillGeneration;
+                    if (kept) {
+                        ready.add(created);
+                    }
+                }
+                if (!kept) {
+                    // Created for a configuration that has been replaced since.
+                    process.remove(created);
+                }
+            }
+        });
+    }
+}
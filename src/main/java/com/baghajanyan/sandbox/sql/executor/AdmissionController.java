@@ -0,0 +1,222 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+
+/**
+ * Admits executions against a {@link Semaphore} with a bounded wait queue and
+ * per-request deadlines.
+ *
+ * When a {@link ResourceBudget} is configured, an admitted execution also
+ * reserves the memory and CPU of its {@link ResourceClass}, so the host is
+ * packed by actual resource demand instead of by a fixed permit count alone.
+ *
+ * A request that cannot get a permit before its deadline leaves the queue
+ * without ever taking a permit, and a request arriving at a full queue is
+ * rejected immediately. Under overload this sheds work whose callers would
+ * have given up anyway instead of running it late.
+ *
+ * With a {@link ResizableSemaphore}, the concurrency limit can be changed at
+ * runtime with {@link #setMaxConcurrency(int)}.
+ */
+public class AdmissionController {
+
+    /**
+     * Outcome of an admission attempt.
+     */
+    public enum Admission {
+        /** A permit was acquired and must be released with {@link #release()}. */
+        ADMITTED,
+        /** The wait queue was full when the request arrived. */
+        QUEUE_FULL,
+        /** The deadline passed before a permit became available. */
+        DEADLINE_EXCEEDED,
+        /** The requested resource class does not fit into the budget at all. */
+        EXCEEDS_BUDGET
+    }
+
+    private final Semaphore semaphore;
+    private final int maxQueueLength;
+    private final ResourceBudget budget;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * @param semaphore      the semaphore limiting concurrent executions.
+     * @param maxQueueLength the maximum number of requests waiting for a permit;
+     *                       {@code 0} means unbounded.
+     */
+    public AdmissionController(Semaphore semaphore, int maxQueueLength) {
+        this(semaphore, maxQueueLength, null);
+    }
+
+    /**
+     * @param semaphore      the semaphore limiting concurrent executions.
+     * @param maxQueueLength the maximum number of requests waiting for a permit;
+     *                       {@code 0} means unbounded.
+     * @param budget         the host resource budget, or {@code null} to admit
+     *                       by permit count only.
+     */
+    public AdmissionController(Semaphore semaphore, int maxQueueLength, ResourceBudget budget) {
+        if (maxQueueLength < 0) {
+            throw new IllegalArgumentException("maxQueueLength must be >= 0");
+        }
+        this.semaphore = semaphore;
+        this.maxQueueLength = maxQueueLength;
+        this.budget = budget;
+    }
+
+    /**
+     * Waits for a permit until the given deadline.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} value by which the
+     *                      permit must be acquired, or {@code null} to wait
+     *                      without a deadline.
+     * @return the admission outcome.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Admission admit(Long deadlineNanos) throws InterruptedException {
+        return admit(deadlineNanos, null);
+    }
+
+    /**
+     * Waits for a permit and, if a budget is configured, for the resources of
+     * the given class until the deadline.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} value by which the
+     *                      execution must be admitted, or {@code null} to wait
+     *                      without a deadline.
+     * @param resourceClass the resources the execution will use, or
+     *                      {@code null} for the default class of the budget.
+     * @return the admission outcome.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Admission admit(Long deadlineNanos, ResourceClass resourceClass) throws InterruptedException {
+        if (deadlineNanos != null && deadlineNanos - System.nanoTime() <= 0) {
+            return Admission.DEADLINE_EXCEEDED;
+        }
+        boolean budgeted = budget != null;
+        if (budgeted && resourceClass == null) {
+            resourceClass = budget.defaultClass();
+        }
+        if (budgeted && !budget.canEverFit(resourceClass)) {
+            return Admission.EXCEEDS_BUDGET;
+        }
+        // Fast path that still honours the fairness of the semaphore.
+        if (semaphore.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+            if (!budgeted || budget.reserve(resourceClass, System.nanoTime())) {
+                return Admission.ADMITTED;
+            }
+            semaphore.release();
+        }
+        int waiting = queued.incrementAndGet();
+        if (maxQueueLength > 0 && waiting > maxQueueLength) {
+            queued.decrementAndGet();
+            return Admission.QUEUE_FULL;
+        }
+        try {
+            if (!acquirePermit(deadlineNanos)) {
+                return Admission.DEADLINE_EXCEEDED;
+            }
+            try {
+                if (budgeted && !budget.reserve(resourceClass, deadlineNanos)) {
+                    semaphore.release();
+                    return Admission.DEADLINE_EXCEEDED;
+                }
+            } catch (InterruptedException e) {
+                semaphore.release();
+                throw e;
+            }
+            return Admission.ADMITTED;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases a permit obtained from a successful {@link #admit(Long)}.
+     */
+    public void release() {
+        release(null);
+    }
+
+    /**
+     * Releases a permit and the resources obtained from a successful
+     * {@link #admit(Long, ResourceClass)}.
+     *
+     * @param resourceClass the resource class passed to
+     *                      {@link #admit(Long, ResourceClass)}.
+     */
+    public void release(ResourceClass resourceClass) {
+        if (budget != null) {
+            budget.release(resourceClass != null ? resourceClass : budget.defaultClass());
+        }
+        semaphore.release();
+    }
+
+    private boolean acquirePermit(Long deadlineNanos) throws InterruptedException {
+        if (deadlineNanos == null) {
+            semaphore.acquire();
+            return true;
+        }
+        long remaining = deadlineNanos - System.nanoTime();
+        return remaining > 0 && semaphore.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of requests currently waiting for a permit.
+     */
+    public int queueLength() {
+        return queued.get();
+    }
+
+    /**
+     * @return the concurrency limit, or {@code -1} if the semaphore is not a
+     *         {@link ResizableSemaphore} and the limit is therefore unknown.
+     */
+    public int maxConcurrency() {
+        return semaphore instanceof ResizableSemaphore resizable ? resizable.maxPermits() : -1;
+    }
+
+    /**
+     * @return the number of admitted executions that have not been released
+     *         yet, or {@code -1} if the semaphore is not a
+     *         {@link ResizableSemaphore}.
+     */
+    public int inFlight() {
+        return semaphore instanceof ResizableSemaphore resizable ? resizable.permitsInUse() : -1;
+    }
+
+    /**
+     * Changes the concurrency limit. Lowering it lets running executions
+     * finish; new executions are admitted once fewer than the new limit are
+     * running.
+     *
+     * @param maxConcurrency the new concurrency limit.
+     * @throws IllegalStateException if the semaphore is not a
+     *                               {@link ResizableSemaphore}.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (!(semaphore instanceof ResizableSemaphore resizable)) {
+            throw new IllegalStateException("The concurrency limit of a plain Semaphore cannot be changed");
+        }
+        resizable.setMaxPermits(maxConcurrency);
+    }
+
+    /**
+     * Computes the deadline for a request arriving now.
+     *
+     * @param budget the total time budget of the request.
+     * @return the deadline as a {@link System#nanoTime()} value, or {@code null}
+     *         if the budget is not a positive duration.
+     */
+    static Long deadlineFor(Duration budget) {
+        if (budget == null || budget.isZero() || budget.isNegative()) {
+            return null;
+        }
+        return System.nanoTime() + budget.toNanos();
+    }
+}
@@ -2,9 +2,13 @@ package com.baghajanyan.sandbox.sql.executor;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -17,19 +21,59 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+/**
+ * Converts the CSV output of {@code psql} into a JSON array with one object
+ * per row.
+ *
+ * Outputs of at least {@link #PARALLEL_THRESHOLD_CHARS} characters are split
+ * into chunks of whole records, which are converted on the common
+ * {@link ForkJoinPool} and joined in order. {@code psql} quotes every field
+ * containing a quote, so a newline after an even number of quotes always ends
+ * a record; output where that does not hold is converted in one piece.
+ */
 final class CsvJsonConverter {
     private static final Logger logger = LoggerFactory.getLogger(CsvJsonConverter.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+    private static final Pattern DECIMAL = Pattern.compile("-?\\d*\\.\\d+");
+
+    /**
+     * Size of the output, in characters, from which it is converted in
+     * parallel.
+     */
+    static final int PARALLEL_THRESHOLD_CHARS = 1 << 20;
+
+    /**
+     * Smallest chunk converted on its own, in characters.
+     */
+    static final int MIN_CHUNK_CHARS = 1 << 18;
 
     private CsvJsonConverter() {
     }
 
     static String toJson(String csv) {
+        return toJson(csv, PARALLEL_THRESHOLD_CHARS, MIN_CHUNK_CHARS);
+    }
+
+    /**
+     * @param csv                the output to convert.
+     * @param parallelThreshold  the size from which it is converted in
+     *                           parallel.
+     * @param minChunkChars      the smallest chunk converted on its own.
+     * @return the JSON array.
+     */
+    static String toJson(String csv, int parallelThreshold, int minChunkChars) {
         if (csv == null || csv.isEmpty()) {
             return "[]";
         }
         // Strip timing markers injected by the executor before parsing CSV.
         var cleanedCsv = stripExecutionTimeLines(csv);
+        if (cleanedCsv.length() >= parallelThreshold) {
+            var json = toJsonInChunks(cleanedCsv, minChunkChars);
+            if (json != null) {
+                return json;
+            }
+        }
         var records = parseCsv(cleanedCsv);
         if (records.isEmpty()) {
             return "[]";
@@ -45,17 +89,7 @@ final class CsvJsonConverter {
 
         ArrayNode arrayNode = objectMapper.createArrayNode();
         for (int i = headerIndex + 1; i < records.size(); i++) {
-            var record = records.get(i);
-            if (record.size() != headerSize) {
-                logger.debug("Skipping CSV record with unexpected column count. Expected {}, got {}: {}",
-                        headerSize, record.size(), record);
-                continue;
-            }
-            var rowNode = objectMapper.createObjectNode();
-            for (int c = 0; c < headerSize; c++) {
-                putTypedValue(rowNode, headers.get(c), record.get(c));
-            }
-            arrayNode.add(rowNode);
+            addRow(arrayNode, headers, records.get(i));
         }
         try {
             return objectMapper.writeValueAsString(arrayNode);
@@ -64,6 +98,131 @@ final class CsvJsonConverter {
         }
     }
 
+    /**
+     * @return the JSON array, or {@code null} if the output cannot be split
+     *         and has to be converted in one piece.
+     */
+    private static String toJsonInChunks(String csv, int minChunkChars) {
+        List<String> headers;
+        int bodyStart;
+        try (CSVParser parser = CSVFormat.DEFAULT.parse(new StringReader(csv))) {
+            CSVRecord headerRecord = null;
+            for (var record : parser) {
+                if (hasValue(record)) {
+                    headerRecord = record;
+                    break;
+                }
+            }
+            if (headerRecord == null) {
+                return "[]";
+            }
+            headers = recordToList(headerRecord);
+            bodyStart = recordEnd(csv, (int) headerRecord.getCharacterPosition());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        var bounds = chunkBounds(csv, bodyStart,
+                Math.max(minChunkChars, (csv.length() - bodyStart) / (ForkJoinPool.getCommonPoolParallelism() * 4)));
+        if (bounds == null) {
+            return null;
+        }
+        List<String> fragments;
+        try {
+            fragments = IntStream.range(0, bounds.size() - 1)
+                    .parallel()
+                    .mapToObj(i -> toJsonFragment(csv.substring(bounds.get(i), bounds.get(i + 1)), headers))
+                    .toList();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        var json = new StringBuilder(fragments.stream().mapToInt(String::length).sum() + fragments.size() + 2);
+        json.append('[');
+        for (var fragment : fragments) {
+            if (fragment.isEmpty()) {
+                continue;
+            }
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(fragment);
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * @return the offset after the newline ending the record starting at
+     *         {@code start}.
+     */
+    private static int recordEnd(String csv, int start) {
+        boolean quoted = false;
+        for (int i = start; i < csv.length(); i++) {
+            char c = csv.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return csv.length();
+    }
+
+    /**
+     * @return the offsets between chunks of whole records of at least
+     *         {@code chunkChars}, including the start and the end, or
+     *         {@code null} if the quotes are unbalanced.
+     */
+    private static List<Integer> chunkBounds(String csv, int start, int chunkChars) {
+        var bounds = new ArrayList<Integer>();
+        bounds.add(start);
+        boolean quoted = false;
+        int next = start + chunkChars;
+        for (int i = start; i < csv.length(); i++) {
+            char c = csv.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\n' && !quoted && i + 1 >= next) {
+                bounds.add(i + 1);
+                next = i + 1 + chunkChars;
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        if (bounds.get(bounds.size() - 1) < csv.length()) {
+            bounds.add(csv.length());
+        }
+        return bounds;
+    }
+
+    /**
+     * @return the rows of the chunk as JSON objects separated by commas.
+     */
+    private static String toJsonFragment(String chunk, List<String> headers) {
+        var arrayNode = objectMapper.createArrayNode();
+        try (CSVParser parser = CSVFormat.DEFAULT.parse(new StringReader(chunk))) {
+            for (var record : parser) {
+                addRow(arrayNode, headers, record);
+            }
+            var json = objectMapper.writeValueAsString(arrayNode);
+            return json.substring(1, json.length() - 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void addRow(ArrayNode arrayNode, List<String> headers, CSVRecord record) {
+        int headerSize = headers.size();
+        if (record.size() != headerSize) {
+            logger.debug("Skipping CSV record with unexpected column count. Expected {}, got {}: {}",
+                    headerSize, record.size(), record);
+            return;
+        }
+        var rowNode = arrayNode.addObject();
+        for (int c = 0; c < headerSize; c++) {
+            putTypedValue(rowNode, headers.get(c), record.get(c));
+        }
+    }
+
     private static String stripExecutionTimeLines(String csv) {
         return csv.replaceAll("(?m)^\\s*__EXECUTION_TIME__.*$", "")
                 .replaceAll("(?m)^Time:.*$", "")
@@ -80,23 +239,22 @@ final class CsvJsonConverter {
 
     private static CSVRecord firstNonEmptyRecord(List<CSVRecord> records) {
         for (var record : records) {
-            if (record.size() == 0) {
-                continue;
-            }
-            boolean hasValue = false;
-            for (int c = 0; c < record.size(); c++) {
-                if (!record.get(c).isBlank()) {
-                    hasValue = true;
-                    break;
-                }
-            }
-            if (hasValue) {
+            if (hasValue(record)) {
                 return record;
             }
         }
         return null;
     }
 
+    private static boolean hasValue(CSVRecord record) {
+        for (int c = 0; c < record.size(); c++) {
+            if (!record.get(c).isBlank()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static List<String> recordToList(CSVRecord record) {
         var values = new ArrayList<String>();
         for (int c = 0; c < record.size(); c++) {
@@ -119,14 +277,14 @@ final class CsvJsonConverter {
             node.put(key, Boolean.parseBoolean(trimmed));
             return;
         }
-        if (trimmed.matches("-?\\d+")) {
+        if (INTEGER.matcher(trimmed).matches()) {
             try {
                 node.put(key, Long.parseLong(trimmed));
                 return;
             } catch (NumberFormatException ignored) {
             }
         }
-        if (trimmed.matches("-?\\d*\\.\\d+")) {
+        if (DECIMAL.matcher(trimmed).matches()) {
             try {
                 node.put(key, new BigDecimal(trimmed));
                 return;
@@ -135,5 +293,4 @@ final class CsvJsonConverter {
         }
         node.put(key, value);
     }
-
 }
@@ -0,0 +1,107 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the CSV output of the sandbox script record by record and forwards it
+ * to a {@link RowSink}.
+ *
+ * Follows the same rules as {@link CsvJsonConverter}: the first non-empty
+ * record is the header and records with a different column count are skipped.
+ *
+ * {@code psql} prints the result sets of a multi-statement snippet back to
+ * back without a separator, so the end of the first result set cannot be told
+ * from the output. A later result set with a different column count is
+ * skipped as a whole, but one with the same column count is delivered as
+ * further rows, its header record included, exactly as the converter adds it
+ * to the JSON array.
+ */
+final class CsvRowStreamer {
+    private static final Logger logger = LoggerFactory.getLogger(CsvRowStreamer.class);
+    private static final String EXECUTION_TIME_MARKER = "__EXECUTION_TIME__";
+
+    private CsvRowStreamer() {
+    }
+
+    /**
+     * Streams all records from the reader into the sink.
+     *
+     * @param reader the CSV output of the sandbox script.
+     * @param sink   the sink receiving columns and rows.
+     * @return the execution time reported by the script, or {@code null} if no
+     *         timing marker was found.
+     * @throws IOException if reading the output fails.
+     */
+    static Duration stream(Reader reader, RowSink sink) throws IOException {
+        Duration executionTime = null;
+        List<String> headers = null;
+        try (CSVParser parser = CSVFormat.DEFAULT.parse(reader)) {
+            for (var record : parser) {
+                if (record.size() == 1) {
+                    var value = record.get(0).trim();
+                    if (value.startsWith(EXECUTION_TIME_MARKER)) {
+                        executionTime = parseExecutionTime(value);
+                        continue;
+                    }
+                    if (value.startsWith("Time:")) {
+                        continue;
+                    }
+                }
+                if (headers == null) {
+                    if (isBlank(record)) {
+                        continue;
+                    }
+                    headers = recordToList(record);
+                    sink.onColumns(headers);
+                    continue;
+                }
+                if (record.size() != headers.size()) {
+                    logger.debug("Skipping CSV record with unexpected column count. Expected {}, got {}: {}",
+                            headers.size(), record.size(), record);
+                    continue;
+                }
+                sink.onRow(recordToList(record));
+            }
+        }
+        return executionTime;
+    }
+
+    static Duration parseExecutionTime(String markerLine) {
+        var parts = markerLine.split(":", 2);
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return Duration.ofMillis(Long.parseLong(parts[1].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isBlank(CSVRecord record) {
+        for (int c = 0; c < record.size(); c++) {
+            if (!record.get(c).isBlank()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> recordToList(CSVRecord record) {
+        var values = new ArrayList<String>(record.size());
+        for (int c = 0; c < record.size(); c++) {
+            values.add(record.get(c));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,62 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * One step in the life of an execution, as written by an
+ * {@link ExecutionJournal}.
+ *
+ * An execution that reaches admission control is {@link Type#QUEUED}, then
+ * {@link Type#STARTED} once it holds an execution slot, and ends with one of
+ * the other types. A hedged execution has one {@link Type#HEDGED} event in
+ * addition when its second attempt holds a slot. An execution rejected
+ * before admission control, for example by the syntax pre-flight, only has
+ * its final event.
+ *
+ * @param type          the step.
+ * @param executionId   identifies the execution within the journal.
+ * @param timestamp     when the step happened.
+ * @param host          the host running the sandbox.
+ * @param resourceClass the name of the resource class, or {@code null} for
+ *                      the default limits.
+ * @param elapsed       the time since the execution arrived: zero when
+ *                      queued, the time spent waiting for a slot when started
+ *                      or hedged and the latency of the whole request when it ended.
+ * @param executionTime the execution time reported by the container; zero
+ *                      until the execution ended.
+ * @param exitCode      the exit code; {@code null} until the execution ended.
+ * @param stdoutLength  the length of {@code stdout}, in characters; zero until
+ *                      the execution ended.
+ * @param stderrLength  the length of {@code stderr}, in characters; zero until
+ *                      the execution ended.
+ */
+public record ExecutionEvent(Type type, long executionId, Instant timestamp, String host, String resourceClass,
+        Duration elapsed, Duration executionTime, Integer exitCode, int stdoutLength, int stderrLength) {
+
+    public enum Type {
+        /** The execution waits for an execution slot. */
+        QUEUED,
+        /** The execution holds a slot and runs. */
+        STARTED,
+        /** A second attempt of a slow execution holds a slot and runs. */
+        HEDGED,
+        /** The snippet ran, successfully or not. */
+        FINISHED,
+        /** The snippet exceeded its statement or container timeout. */
+        TIMED_OUT,
+        /** The request was shed before it ran. */
+        REJECTED,
+        /** The caller cancelled the execution or interrupted its thread. */
+        CANCELLED
+    }
+
+    static Type typeOf(ExecutionStatistics.Outcome outcome) {
+        return switch (outcome) {
+            case SUCCEEDED, FAILED -> Type.FINISHED;
+            case TIMED_OUT -> Type.TIMED_OUT;
+            case REJECTED -> Type.REJECTED;
+            case CANCELLED -> Type.CANCELLED;
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Receives the events written to an {@link ExecutionJournal}.
+ *
+ * The sink is called on the journal's own thread with the events collected
+ * since the previous call, in the order they were written, so it may block on
+ * I/O without slowing down executions. Events that arrive while it blocks
+ * wait in the journal's buffer, and are dropped once that is full.
+ */
+@FunctionalInterface
+public interface ExecutionEventSink {
+
+    /**
+     * Logs each event as one JSON object at {@code INFO} to the
+     * {@code sandbox.sql.events} logger.
+     */
+    ExecutionEventSink LOG = new ExecutionEventSink() {
+        private final Logger logger = LoggerFactory.getLogger("sandbox.sql.events");
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        @Override
+        public void write(List<ExecutionEvent> events) throws Exception {
+            if (!logger.isInfoEnabled()) {
+                return;
+            }
+            for (var event : events) {
+                var node = objectMapper.createObjectNode()
+                        .put("type", event.type().name())
+                        .put("executionId", event.executionId())
+                        .put("timestamp", event.timestamp().toString())
+                        .put("host", event.host())
+                        .put("resourceClass", event.resourceClass())
+                        .put("elapsedMs", event.elapsed().toMillis())
+                        .put("executionTimeMs", event.executionTime().toMillis())
+                        .put("exitCode", event.exitCode())
+                        .put("stdoutLength", event.stdoutLength())
+                        .put("stderrLength", event.stderrLength());
+                logger.info(objectMapper.writeValueAsString(node));
+            }
+        }
+    };
+
+    /**
+     * @param events the events, oldest first; never empty.
+     * @throws Exception if the events could not be written. They are dropped
+     *                   and counted.
+     */
+    void write(List<ExecutionEvent> events) throws Exception;
+}
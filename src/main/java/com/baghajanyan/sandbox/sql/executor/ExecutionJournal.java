@@ -0,0 +1,257 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+
+/**
+ * Writes structured {@link ExecutionEvent}s of the executions of a
+ * {@link SqlExecutor} to an {@link ExecutionEventSink}.
+ *
+ * Executions only put their events into a bounded ring buffer, which takes a
+ * compare-and-set and no lock; a single virtual thread drains it into the sink
+ * every flush interval. When the sink falls behind and the buffer is full,
+ * further events are dropped and counted rather than slowing down executions.
+ *
+ * Which executions are journaled is decided once per execution, so a sampled
+ * execution has all of its events.
+ */
+public class ExecutionJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionJournal.class);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * The id of an execution that is not journaled.
+     */
+    static final long UNSAMPLED = -1;
+
+    private final ExecutionEventSink sink;
+    private final double sampleRate;
+    private final long flushIntervalNanos;
+    private final String host;
+    private final AtomicReferenceArray<ExecutionEvent> slots;
+    private final int mask;
+    // The next sequence to be claimed by a writer.
+    private final AtomicLong head = new AtomicLong();
+    // The next sequence to be read; only advanced by the drain thread.
+    private volatile long tail;
+    private volatile boolean closed;
+    private final AtomicLong executionIds = new AtomicLong();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Thread drainer;
+
+    /**
+     * @param sink          receives the events.
+     * @param capacity      the number of events buffered for the sink;
+     *                      rounded up to a power of two.
+     * @param sampleRate    the fraction of executions journaled, between
+     *                      {@code 0} and {@code 1}.
+     * @param flushInterval how often the buffered events are passed to the
+     *                      sink.
+     */
+    public ExecutionJournal(ExecutionEventSink sink, int capacity, double sampleRate, Duration flushInterval) {
+        this(sink, capacity, sampleRate, flushInterval, localHostName());
+    }
+
+    /**
+     * @param sink          receives the events.
+     * @param capacity      the number of events buffered for the sink;
+     *                      rounded up to a power of two.
+     * @param sampleRate    the fraction of executions journaled, between
+     *                      {@code 0} and {@code 1}.
+     * @param flushInterval how often the buffered events are passed to the
+     *                      sink.
+     * @param host          the host name written with every event.
+     */
+    public ExecutionJournal(ExecutionEventSink sink, int capacity, double sampleRate, Duration flushInterval,
+            String host) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        if (flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+        this.sink = sink;
+        this.sampleRate = sampleRate;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.host = host;
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.drainer = Thread.ofVirtual().name("sandbox-sql-journal").start(this::drain);
+    }
+
+    /**
+     * @return the id of a new execution, or {@link #UNSAMPLED} if it is not
+     *         journaled.
+     */
+    long open() {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return UNSAMPLED;
+        }
+        return executionIds.incrementAndGet();
+    }
+
+    void queued(long executionId, ResourceClass resourceClass) {
+        if (executionId != UNSAMPLED) {
+            publish(new ExecutionEvent(ExecutionEvent.Type.QUEUED, executionId, Instant.now(), host,
+                    nameOf(resourceClass), Duration.ZERO, Duration.ZERO, null, 0, 0));
+        }
+    }
+
+    /**
+     * @param arrivalNanos the {@link System#nanoTime()} at arrival.
+     */
+    void started(long executionId, ResourceClass resourceClass, long arrivalNanos) {
+        started(ExecutionEvent.Type.STARTED, executionId, resourceClass, arrivalNanos);
+    }
+
+    /**
+     * @param arrivalNanos the {@link System#nanoTime()} at arrival.
+     */
+    void hedged(long executionId, ResourceClass resourceClass, long arrivalNanos) {
+        started(ExecutionEvent.Type.HEDGED, executionId, resourceClass, arrivalNanos);
+    }
+
+    private void started(ExecutionEvent.Type type, long executionId, ResourceClass resourceClass,
+            long arrivalNanos) {
+        if (executionId != UNSAMPLED) {
+            publish(new ExecutionEvent(type, executionId, Instant.now(), host, nameOf(resourceClass),
+                    Duration.ofNanos(System.nanoTime() - arrivalNanos), Duration.ZERO, null, 0, 0));
+        }
+    }
+
+    void ended(long executionId, ResourceClass resourceClass, ExecutionStatistics.Outcome outcome,
+            ExecutionResult result, Duration latency) {
+        if (executionId != UNSAMPLED) {
+            publish(new ExecutionEvent(ExecutionEvent.typeOf(outcome), executionId, Instant.now(), host,
+                    nameOf(resourceClass), latency,
+                    result.executionTime() != null ? result.executionTime() : Duration.ZERO, result.exitCode(),
+                    result.stdout() != null ? result.stdout().length() : 0,
+                    result.stderr() != null ? result.stderr().length() : 0));
+        }
+    }
+
+    /**
+     * @return the number of events passed to the sink.
+     */
+    public long writtenEvents() {
+        return written.sum();
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full or the
+     *         journal was closed.
+     */
+    public long droppedEvents() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of events the sink failed to write.
+     */
+    public long failedEvents() {
+        return failed.sum();
+    }
+
+    /**
+     * Passes the buffered events to the sink and stops. Events of executions
+     * ending later are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            if (!drainer.join(CLOSE_TIMEOUT)) {
+                logger.warn("Execution journal sink did not finish within {}", CLOSE_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(ExecutionEvent event) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= slots.length()) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        // The slot was cleared by the drain thread before it advanced the tail past it.
+        slots.set((int) sequence & mask, event);
+    }
+
+    private void drain() {
+        while (true) {
+            boolean stopping = closed;
+            var batch = new ArrayList<ExecutionEvent>();
+            long next = tail;
+            ExecutionEvent event;
+            // A claimed slot is still empty until its writer has set it; it is read on the next round.
+            while (batch.size() < slots.length() && (event = slots.get((int) next & mask)) != null) {
+                slots.set((int) next & mask, null);
+                batch.add(event);
+                tail = ++next;
+            }
+            if (!batch.isEmpty()) {
+                deliver(batch);
+            }
+            if (stopping) {
+                return;
+            }
+            if (batch.size() < slots.length()) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    private void deliver(List<ExecutionEvent> batch) {
+        try {
+            sink.write(Collections.unmodifiableList(batch));
+            written.add(batch.size());
+        } catch (Exception e) {
+            logger.warn("Failed to write {} execution events", batch.size(), e);
+            failed.add(batch.size());
+        }
+    }
+
+    private static String nameOf(ResourceClass resourceClass) {
+        return resourceClass != null ? resourceClass.name() : null;
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            logger.warn("Failed to resolve the local host name for the execution journal", e);
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Builds the sandbox input and parses the sandbox output shared by one-shot
+ * executions and sessions.
+ */
+final class ExecutionOutputParser {
+
+    // Written by the caller before its snippet, with the nonce of the sandbox script and the number of its
+    // statements already run elsewhere.
+    static final String SNIPPET_START = "__SNIPPET_START__";
+    // The psql variable holding the nonce, unset before the snippet so that the snippet cannot fake the marker.
+    static final String SNIPPET_NONCE = "snippet_nonce";
+    // Written to stderr by the sandbox scripts after every statement, with the number of statements done.
+    static final String PROGRESS = "__STATEMENTS_DONE__:";
+    // Precedes each row of pg_stat_statements, as JSON, on stdout of profiled executions, followed by the nonce
+    // of the execution and a colon.
+    static final String STATEMENT_STATISTICS = "__STATEMENT_STATISTICS__ ";
+    // Returned by statementsDone when the progress lines cannot be read.
+    static final int UNKNOWN_PROGRESS = -2;
+    private static final String TIMED_OUT = "Snippet execution timed out";
+    // The reason comes from the sandbox, so the first statement number is never part of the snippet's excerpt.
+    private static final Pattern RUNNING_STATEMENT = Pattern
+            .compile("\\A" + TIMED_OUT + ": [^\\n]*? while running statement ([0-9]+)");
+    private static final int STATEMENT_EXCERPT_LENGTH = 80;
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionOutputParser.class);
+
+    private ExecutionOutputParser() {
+    }
+
+    /**
+     * Converts the output of a completed sandbox process into an
+     * {@link ExecutionResult}.
+     *
+     * @param dockerProcess   the completed process.
+     * @param dockerInputFile the SQL file mounted into the container, used for
+     *                        error hints; may be {@code null}.
+     * @param sql             the snippet as submitted, used to name the
+     *                        statement cancelled by the statement timeout;
+     *                        may be {@code null}.
+     * @param deadlineReached whether the execution ran for as long as its
+     *                        statement timeout, see
+     *                        {@link #reachedStatementTimeout(long, Duration)}.
+     * @return the execution result.
+     */
+    static ExecutionResult parse(Process dockerProcess, Path dockerInputFile, String sql, boolean deadlineReached) {
+        return parse(dockerProcess, dockerInputFile, sql, true, deadlineReached);
+    }
+
+    /**
+     * Same as {@link #parse(Process, Path, String, boolean)}, optionally
+     * keeping stdout as is instead of converting CSV to JSON.
+     *
+     * @param dockerProcess   the completed process.
+     * @param dockerInputFile the SQL file mounted into the container, used for
+     *                        error hints; may be {@code null}.
+     * @param sql             the snippet as submitted; may be {@code null}.
+     * @param csvOutput       whether stdout carries CSV to convert to JSON.
+     * @param deadlineReached whether the execution ran for as long as its
+     *                        statement timeout.
+     * @return the execution result.
+     */
+    static ExecutionResult parse(Process dockerProcess, Path dockerInputFile, String sql, boolean csvOutput,
+            boolean deadlineReached) {
+        var stdout = new BufferedReader(new InputStreamReader(dockerProcess.getInputStream()));
+        // stdout carries CSV output plus the execution time marker.
+        String out = stdout.lines().collect(Collectors.joining("\n")).trim();
+        return parse(dockerProcess, dockerInputFile, sql, csvOutput, deadlineReached, out);
+    }
+
+    /**
+     * Same as {@link #parse(Process, Path, String, boolean)} for an execution
+     * that collected statement statistics after the snippet.
+     *
+     * @param dockerProcess   the completed process.
+     * @param dockerInputFile the SQL file mounted into the container, used for
+     *                        error hints; may be {@code null}.
+     * @param sql             the snippet as submitted; may be {@code null}.
+     * @param sandboxTimeout  the statement timeout set by the sandbox before
+     *                        the snippet, left out of the statistics; may be
+     *                        {@code null}.
+     * @param nonce           the nonce passed to the sandbox in
+     *                        {@code STATEMENT_STATISTICS_NONCE}; lines without
+     *                        it are output of the snippet.
+     * @param deadlineReached whether the execution ran for as long as its
+     *                        statement timeout.
+     * @return the execution result with the statement statistics.
+     */
+    static ProfiledResult parseProfiled(Process dockerProcess, Path dockerInputFile, String sql,
+            Duration sandboxTimeout, String nonce, boolean deadlineReached) {
+        var prefix = STATEMENT_STATISTICS + nonce + ": ";
+        // Newer versions of pg_stat_statements replace the constant by a placeholder.
+        var sandboxStatements = sandboxTimeout == null ? List.<String>of()
+                : List.of(wrapWithStatementTimeout("", sandboxTimeout).strip().replace(";", ""),
+                        "SET statement_timeout = $1");
+        var statements = new ArrayList<StatementStatistics>();
+        var out = new StringBuilder();
+        var stdout = new BufferedReader(new InputStreamReader(dockerProcess.getInputStream()));
+        stdout.lines().forEach(line -> {
+            if (!line.startsWith(prefix)) {
+                out.append(line).append('\n');
+                return;
+            }
+            try {
+                var statement = StatementStatistics
+                        .fromJson(objectMapper.readTree(line.substring(prefix.length())));
+                if (!sandboxStatements.contains(statement.query())) {
+                    statements.add(statement);
+                }
+            } catch (JsonProcessingException e) {
+                logger.warn("Ignoring unreadable statement statistics: {}", line);
+            }
+        });
+        return new ProfiledResult(
+                parse(dockerProcess, dockerInputFile, sql, true, deadlineReached, out.toString().trim()), statements);
+    }
+
+    private static ExecutionResult parse(Process dockerProcess, Path dockerInputFile, String sql, boolean csvOutput,
+            boolean deadlineReached, String out) {
+        int exitCode = dockerProcess.exitValue();
+        var stderr = new BufferedReader(new InputStreamReader(dockerProcess.getErrorStream()));
+        // stderr contains psql errors and timing output from \\timing.
+        String rawErr = stderr.lines().collect(Collectors.joining("\n"));
+        String err = stripProgress(rawErr).trim();
+
+        var timing = extractExecutionTime(out);
+        if (timing != null) {
+            out = timing.cleanedOutput;
+        }
+
+        if (exitCode != 0 && deadlineReached) {
+            // Postgres cancelled the statement before the sandbox deadline; psql exits normally with the complete
+            // rows of the statements that finished before it.
+            var result = statementTimedOut(csvOutput ? out : null, rawErr, sql);
+            var duration = timing != null ? timing.duration : Duration.ZERO;
+            return new ExecutionResult(result.exitCode(), result.stdout(), result.stderr(), duration);
+        }
+        if (exitCode == 0 && csvOutput) {
+            if (out.isEmpty()) {
+                out = "[]";
+            } else {
+                out = CsvJsonConverter.toJson(out);
+            }
+        } else if (out.isEmpty() && err.isEmpty()) {
+            var parentDir = dockerInputFile != null ? dockerInputFile.getParent() : null;
+            var pathHint = parentDir != null ? (" Temp directory: " + parentDir) : "";
+            err = "Docker execution failed with no output. Common causes include a missing Docker daemon or a temp "
+                    + "directory that is not shared with Docker." + pathHint;
+        }
+
+        var duration = timing != null ? timing.duration : Duration.ZERO;
+        return new ExecutionResult(exitCode, out, err, duration);
+    }
+
+    /**
+     * Builds the result of an execution that was killed at its deadline from
+     * the output it produced until then.
+     *
+     * @param timeout the timeout, with the partial output if it was captured.
+     * @param sql     the snippet as submitted, used to name the statement that
+     *                was running.
+     * @return the execution result with
+     *         {@link SqlExecutor#TIMED_OUT_EXIT_CODE}, whose stderr starts with
+     *         {@code Snippet execution timed out} and whose stdout holds the
+     *         complete rows received, or is {@code null} if there were none.
+     */
+    static ExecutionResult timedOut(DockerProcessTimeoutException timeout, String sql) {
+        var partial = timeout.getPartialStdout();
+        if (partial != null) {
+            // The last line may have been cut off by the kill.
+            partial = partial.substring(0, partial.lastIndexOf('\n') + 1);
+        }
+        return timedOut(timeout.getMessage(), partial, timeout.getPartialStderr(), sql, false);
+    }
+
+    /**
+     * Builds the result of an execution whose statement Postgres cancelled
+     * because of its statement timeout, in the shape of
+     * {@link #timedOut(DockerProcessTimeoutException, String)}.
+     *
+     * @param csv    the CSV rows of the statements that completed, or
+     *               {@code null}.
+     * @param stderr the error output, with the progress lines.
+     * @param sql    the snippet as submitted; may be {@code null}.
+     * @return the execution result.
+     */
+    static ExecutionResult statementTimedOut(String csv, String stderr, String sql) {
+        return timedOut("statement timeout reached", csv, stderr, sql, true);
+    }
+
+    /**
+     * Tells whether a failed execution was stopped by the statement timeout
+     * set by the sandbox. The error Postgres reports cannot tell, because the
+     * snippet can raise the same one; instead, a statement cancelled by the
+     * timeout always leaves the execution running for at least that long.
+     *
+     * @param startedNanos     when the sandbox process was started, from
+     *                         {@link System#nanoTime()}.
+     * @param statementTimeout the statement timeout set before the snippet, or
+     *                         {@code null} if there is none.
+     * @return whether the execution has run for as long as its statement
+     *         timeout.
+     */
+    static boolean reachedStatementTimeout(long startedNanos, Duration statementTimeout) {
+        return statementTimeout != null && statementTimeout.toMillis() > 0
+                && System.nanoTime() - startedNanos >= statementTimeout.toNanos();
+    }
+
+    /**
+     * @param reason    why the execution timed out.
+     * @param csv       the complete CSV rows received, or {@code null}.
+     * @param stderr    the error output, with the progress lines.
+     * @param cancelled whether the running statement failed, in which case
+     *                  psql has timed it, too.
+     */
+    private static ExecutionResult timedOut(String reason, String csv, String stderr, String sql, boolean cancelled) {
+        int done = statementsDone(stderr);
+        if (cancelled && done > 0) {
+            done--;
+        }
+        var message = TIMED_OUT + ": " + reason + describeProgress(done, stderr != null, sql);
+        String out = null;
+        if (csv != null && !csv.isBlank()) {
+            out = CsvJsonConverter.toJson(csv.trim());
+        }
+        return new ExecutionResult(SqlExecutor.TIMED_OUT_EXIT_CODE, out, message, Duration.ZERO);
+    }
+
+    /**
+     * @param stderr the error output of a timed-out execution.
+     * @return the 1-based index of the statement of the snippet that was
+     *         running, or empty if it is unknown.
+     */
+    static OptionalInt runningStatement(String stderr) {
+        var matcher = stderr == null ? null : RUNNING_STATEMENT.matcher(stderr);
+        if (matcher == null || !matcher.find()) {
+            return OptionalInt.empty();
+        }
+        try {
+            return OptionalInt.of(Integer.parseInt(matcher.group(1)));
+        } catch (NumberFormatException e) {
+            return OptionalInt.empty();
+        }
+    }
+
+    /**
+     * @param stderr the error output of the sandbox.
+     * @param sql    the snippet.
+     * @return which statement of the snippet was running, as a phrase to append
+     *         to a message, or an empty string if unknown.
+     */
+    static String describeProgress(String stderr, String sql) {
+        return describeProgress(statementsDone(stderr), stderr != null, sql);
+    }
+
+    private static String describeProgress(int done, boolean reported, String sql) {
+        if (done == UNKNOWN_PROGRESS || !reported) {
+            return "";
+        }
+        if (done < 0) {
+            return " before the snippet started";
+        }
+        List<String> statements = sql == null || sql.indexOf('\\') >= 0 ? null : SqlStatementSplitter.split(sql);
+        if (statements == null) {
+            return " while running statement " + (done + 1);
+        }
+        if (done >= statements.size()) {
+            return " after its last statement";
+        }
+        var statement = statements.get(done).replaceAll("\\s+", " ");
+        if (statement.length() > STATEMENT_EXCERPT_LENGTH) {
+            statement = statement.substring(0, STATEMENT_EXCERPT_LENGTH) + "...";
+        }
+        return " while running statement " + (done + 1) + ": " + statement;
+    }
+
+    /**
+     * @param stderr the error output of the sandbox, or {@code null}.
+     * @return the number of statements of the snippet that completed,
+     *         {@code -1} if the snippet did not start, or
+     *         {@link #UNKNOWN_PROGRESS} if the progress lines are unreadable.
+     */
+    static int statementsDone(String stderr) {
+        int done = -1;
+        if (stderr == null) {
+            return done;
+        }
+        for (var line : stderr.split("\\R")) {
+            if (line.startsWith(PROGRESS)) {
+                try {
+                    done = Integer.parseInt(line.substring(PROGRESS.length()).trim());
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unreadable progress: {}", line);
+                    return UNKNOWN_PROGRESS;
+                }
+            }
+        }
+        return done;
+    }
+
+    /**
+     * @return the error output without the progress lines of the sandbox
+     *         scripts.
+     */
+    static String stripProgress(String stderr) {
+        if (stderr == null || !stderr.contains(PROGRESS)) {
+            return stderr;
+        }
+        return stderr.lines().filter(line -> !line.startsWith(PROGRESS)).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Marks where the snippet starts in the script run by psql, so that
+     * statements run before it are not counted as its own. The marker carries
+     * the nonce that the sandbox script passes to psql and is unset before the
+     * snippet, so the snippet cannot write a marker of its own.
+     *
+     * @param sql               the snippet.
+     * @param skippedStatements the number of leading statements of the snippet
+     *                          that were already run elsewhere.
+     * @return the marked snippet.
+     */
+    static String markSnippetStart(String sql, int skippedStatements) {
+        return "\\echo " + SNIPPET_START + " :" + SNIPPET_NONCE + " " + skippedStatements + "\n\\unset "
+                + SNIPPET_NONCE + "\n" + sql;
+    }
+
+    static String wrapWithStatementTimeout(String sql, Duration timeout) {
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return sql;
+        }
+        long ms = timeout.toMillis();
+        return "SET statement_timeout = " + ms + ";\n" + sql;
+    }
+
+    private static TimingResult extractExecutionTime(String output) {
+        if (output == null || output.isEmpty()) {
+            return null;
+        }
+        var lines = output.split("\\R");
+        var cleaned = new StringBuilder();
+        Duration duration = null;
+        for (var line : lines) {
+            var trimmed = line.trim();
+            if (trimmed.startsWith("__EXECUTION_TIME__")) {
+                var parsed = CsvRowStreamer.parseExecutionTime(trimmed);
+                if (parsed != null) {
+                    duration = parsed;
+                }
+                continue;
+            }
+            if (!line.isEmpty()) {
+                cleaned.append(line).append('\n');
+            }
+        }
+        var cleanedOut = cleaned.toString().trim();
+        if (duration == null) {
+            return null;
+        }
+        return new TimingResult(duration, cleanedOut);
+    }
+
+    private static final class TimingResult {
+        private final Duration duration;
+        private final String cleanedOutput;
+
+        private TimingResult(Duration duration, String cleanedOutput) {
+            this.duration = duration;
+            this.cleanedOutput = cleanedOutput;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts executions by outcome and keeps the latencies of the most recent ones.
+ *
+ * Latencies are kept in a fixed-size ring, so recording is allocation-free and
+ * percentiles always describe the recent past rather than the whole uptime.
+ */
+public class ExecutionStatistics {
+
+    /**
+     * The number of recent latencies kept by default.
+     */
+    public static final int DEFAULT_WINDOW = 1024;
+
+    /**
+     * Outcome of an execution.
+     */
+    public enum Outcome {
+        /** The snippet ran and succeeded. */
+        SUCCEEDED,
+        /** The snippet or its container failed. */
+        FAILED,
+        /** The snippet exceeded its statement or container timeout. */
+        TIMED_OUT,
+        /** The request was shed by admission control. */
+        REJECTED,
+        /** The caller cancelled the execution or interrupted its thread. */
+        CANCELLED
+    }
+
+    /**
+     * A point-in-time view of the statistics.
+     *
+     * @param succeeded the number of succeeded executions.
+     * @param failed    the number of failed executions.
+     * @param timedOut  the number of executions that timed out.
+     * @param rejected  the number of rejected requests.
+     * @param cancelled the number of cancelled executions.
+     * @param samples   the number of latencies the percentiles are based on.
+     * @param p50       the median latency of recent executions.
+     * @param p90       the 90th percentile latency of recent executions.
+     * @param p99       the 99th percentile latency of recent executions.
+     * @param max       the highest latency of recent executions.
+     */
+    public record Snapshot(long succeeded, long failed, long timedOut, long rejected, long cancelled, int samples,
+            Duration p50, Duration p90, Duration p99, Duration max) {
+    }
+
+    private final AtomicLongArray latencies;
+    private final AtomicLong recorded = new AtomicLong();
+    private final Map<Outcome, LongAdder> counts = new EnumMap<>(Outcome.class);
+
+    public ExecutionStatistics() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window the number of recent latencies to keep.
+     */
+    public ExecutionStatistics(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be greater than 0");
+        }
+        this.latencies = new AtomicLongArray(window);
+        for (var outcome : Outcome.values()) {
+            counts.put(outcome, new LongAdder());
+        }
+    }
+
+    /**
+     * Records a finished request. Latencies of rejected and cancelled requests
+     * are not kept, because they would hide the latency of the executions that
+     * ran to completion.
+     *
+     * @param outcome the outcome.
+     * @param latency the time from arrival to the result.
+     */
+    public void record(Outcome outcome, Duration latency) {
+        counts.get(outcome).increment();
+        if (outcome != Outcome.REJECTED && outcome != Outcome.CANCELLED) {
+            long index = recorded.getAndIncrement();
+            latencies.set((int) (index % latencies.length()), latency.toNanos());
+        }
+    }
+
+    /**
+     * @return the current statistics.
+     */
+    public Snapshot snapshot() {
+        var sorted = sortedLatencies();
+        return new Snapshot(count(Outcome.SUCCEEDED), count(Outcome.FAILED), count(Outcome.TIMED_OUT),
+                count(Outcome.REJECTED), count(Outcome.CANCELLED), sorted.length, percentile(sorted, 0.50),
+                percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    /**
+     * @param quantile   the quantile, between 0 and 1.
+     * @param minSamples the number of latencies needed for a meaningful
+     *                   answer.
+     * @return the latency at the given quantile of recent executions, or
+     *         {@code null} if fewer than {@code minSamples} latencies are
+     *         kept.
+     */
+    public Duration percentile(double quantile, int minSamples) {
+        var sorted = sortedLatencies();
+        return sorted.length < Math.max(minSamples, 1) ? null : percentile(sorted, quantile);
+    }
+
+    private long[] sortedLatencies() {
+        int samples = (int) Math.min(recorded.get(), latencies.length());
+        var sorted = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private long count(Outcome outcome) {
+        return counts.get(outcome).sum();
+    }
+
+    private static Duration percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Duration.ZERO;
+        }
+        // Nearest-rank method.
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return Duration.ofNanos(sorted[Math.max(rank, 1) - 1]);
+    }
+}
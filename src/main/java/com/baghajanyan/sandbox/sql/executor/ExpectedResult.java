@@ -0,0 +1,88 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result a snippet is expected to produce, compared inside the sandbox.
+ *
+ * Either the expected rows or a fingerprint from an earlier comparison are
+ * supplied. Expected values are given as text and converted to the column
+ * types of the actual result before comparing, so {@code "1.0"} matches a
+ * numeric {@code 1} and {@code "true"} matches a boolean {@code t}. A
+ * {@code null} value stands for SQL {@code NULL}.
+ *
+ * @param rows        the expected rows, or {@code null} when comparing by
+ *                    fingerprint.
+ * @param fingerprint the expected fingerprint, or {@code null} when comparing
+ *                    rows.
+ * @param ordered     whether row order is significant.
+ * @param maxDiffRows the maximum number of differing rows reported back.
+ */
+public record ExpectedResult(List<List<String>> rows, String fingerprint, boolean ordered, int maxDiffRows) {
+
+    /**
+     * The default number of differing rows reported back.
+     */
+    public static final int DEFAULT_MAX_DIFF_ROWS = 10;
+
+    public ExpectedResult {
+        if ((rows == null) == (fingerprint == null)) {
+            throw new IllegalArgumentException("Exactly one of rows and fingerprint must be set");
+        }
+        if (maxDiffRows < 0) {
+            throw new IllegalArgumentException("maxDiffRows must be >= 0");
+        }
+        if (rows != null) {
+            var columns = rows.isEmpty() ? 0 : rows.get(0).size();
+            for (var row : rows) {
+                if (row.size() != columns) {
+                    throw new IllegalArgumentException("All expected rows must have the same number of columns");
+                }
+            }
+            // Values may be null, which rules out List.copyOf for the rows themselves.
+            rows = rows.stream().map(row -> Collections.unmodifiableList(new ArrayList<>(row)))
+                    .toList();
+        }
+    }
+
+    /**
+     * @param rows the expected rows, without a header.
+     * @return an order-sensitive expectation of the given rows.
+     */
+    public static ExpectedResult ofRows(List<List<String>> rows) {
+        return new ExpectedResult(rows, null, true, DEFAULT_MAX_DIFF_ROWS);
+    }
+
+    /**
+     * @param fingerprint a fingerprint reported by an earlier comparison.
+     * @return an expectation of a result with the given fingerprint.
+     */
+    public static ExpectedResult ofFingerprint(String fingerprint) {
+        return new ExpectedResult(null, fingerprint, true, DEFAULT_MAX_DIFF_ROWS);
+    }
+
+    /**
+     * @return a copy of this expectation in which row order is ignored.
+     */
+    public ExpectedResult unordered() {
+        return new ExpectedResult(rows, fingerprint, false, maxDiffRows);
+    }
+
+    /**
+     * @param maxDiffRows the maximum number of differing rows reported back.
+     * @return a copy of this expectation with the given diff sample size.
+     */
+    public ExpectedResult withMaxDiffRows(int maxDiffRows) {
+        return new ExpectedResult(rows, fingerprint, ordered, maxDiffRows);
+    }
+
+    /**
+     * @return the number of columns of the expected rows, or {@code 0} when
+     *         comparing by fingerprint or there are no rows.
+     */
+    public int columnCount() {
+        return rows == null || rows.isEmpty() ? 0 : rows.get(0).size();
+    }
+}
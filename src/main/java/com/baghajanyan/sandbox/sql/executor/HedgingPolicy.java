@@ -0,0 +1,157 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Decides when a slow read-only execution gets a second, hedged execution.
+ *
+ * An execution that has not finished after the configured percentile of
+ * recent latencies is started a second time, and whichever finishes first
+ * wins. This cuts the tail caused by slow container starts rather than by the
+ * SQL itself.
+ *
+ * Hedges are paid for from a budget: every eligible execution deposits
+ * {@code budget} credits, at most {@link #MAX_BURST} are saved up, and a hedge
+ * takes one. Hedged executions are therefore limited to that fraction of
+ * eligible traffic, even when every execution is slow.
+ *
+ * Only snippets made of queries and session settings are eligible, because a
+ * hedged snippet runs twice.
+ */
+public class HedgingPolicy {
+
+    /**
+     * The number of recent latencies needed before any execution is hedged.
+     */
+    public static final int MIN_SAMPLES = 20;
+
+    /**
+     * The number of hedges that can be saved up during calm periods.
+     */
+    static final double MAX_BURST = 10;
+
+    private static final Pattern WRITES = Pattern.compile("\\b(?:INSERT|UPDATE|DELETE|MERGE|INTO)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private final double percentile;
+    private final double budget;
+    private final Duration minDelay;
+    private final LongAdder eligible = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder won = new LongAdder();
+    // Guarded by "this".
+    private double credits;
+
+    /**
+     * @param percentile the percentile of recent latencies after which an
+     *                   execution is hedged, between 0 and 1.
+     * @param budget     the fraction of eligible executions that may be
+     *                   hedged, between 0 and 1.
+     * @param minDelay   the minimum time before an execution is hedged.
+     */
+    public HedgingPolicy(double percentile, double budget, Duration minDelay) {
+        if (!(percentile > 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile must be in (0, 1]");
+        }
+        if (!(budget >= 0 && budget <= 1)) {
+            throw new IllegalArgumentException("budget must be in [0, 1]");
+        }
+        if (minDelay == null || minDelay.isNegative()) {
+            throw new IllegalArgumentException("minDelay must not be negative");
+        }
+        this.percentile = percentile;
+        this.budget = budget;
+        this.minDelay = minDelay;
+    }
+
+    /**
+     * @param sql the snippet.
+     * @return whether the snippet has no effect other than its result, so that
+     *         running it twice is harmless.
+     */
+    public static boolean isEligible(String sql) {
+        if (sql.indexOf('\\') >= 0) {
+            return false;
+        }
+        var statements = SqlStatementSplitter.split(sql);
+        if (statements.isEmpty()) {
+            return false;
+        }
+        for (var statement : statements) {
+            var keyword = SqlStatementSplitter.leadingKeyword(statement);
+            boolean query = switch (keyword) {
+                case "SELECT", "WITH", "VALUES", "TABLE" -> !WRITES.matcher(statement).find();
+                case "SET", "SHOW" -> true;
+                default -> false;
+            };
+            if (!query) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts an eligible execution and returns the time after which it should
+     * be hedged.
+     *
+     * @param statistics the statistics of recent executions.
+     * @return the hedge delay, or {@code null} while there are too few
+     *         latencies to base it on.
+     */
+    Duration onEligible(ExecutionStatistics statistics) {
+        eligible.increment();
+        synchronized (this) {
+            credits = Math.min(MAX_BURST, credits + budget);
+        }
+        var latency = statistics.percentile(percentile, MIN_SAMPLES);
+        if (latency == null) {
+            return null;
+        }
+        return latency.compareTo(minDelay) < 0 ? minDelay : latency;
+    }
+
+    /**
+     * @return whether the budget allows another hedge; if so, it is spent.
+     */
+    boolean tryHedge() {
+        synchronized (this) {
+            if (credits < 1) {
+                return false;
+            }
+            credits -= 1;
+        }
+        hedged.increment();
+        return true;
+    }
+
+    /**
+     * Counts a hedge that finished before the execution it hedged.
+     */
+    void onHedgeWon() {
+        won.increment();
+    }
+
+    /**
+     * @return the number of executions eligible for hedging.
+     */
+    public long eligibleExecutions() {
+        return eligible.sum();
+    }
+
+    /**
+     * @return the number of hedges started.
+     */
+    public long hedgedExecutions() {
+        return hedged.sum();
+    }
+
+    /**
+     * @return the number of hedges that finished first.
+     */
+    public long hedgeWins() {
+        return won.sum();
+    }
+}
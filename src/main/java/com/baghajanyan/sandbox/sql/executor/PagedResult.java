@@ -0,0 +1,247 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+
+/**
+ * The rows of an execution, held in memory when small and spilled to a
+ * memory-mapped CSV file when large.
+ *
+ * Rows are read page by page with {@link #rows(long, int)}, so a spilled
+ * result never enters the heap as a whole, and the CSV can be sent to a
+ * channel with {@link #transferTo(WritableByteChannel)}, which for a spilled
+ * result lets the kernel copy the file without passing it through the JVM.
+ *
+ * A result must be closed; closing deletes the spill file. Values follow the
+ * {@link RowSink} conventions: SQL {@code NULL} is an empty string.
+ */
+public final class PagedResult implements AutoCloseable {
+
+    /**
+     * The format of the spill file and of {@link #transferTo}: RFC 4180 CSV
+     * with a header line and {@code \n} line endings.
+     */
+    static final CSVFormat FORMAT = CSVFormat.DEFAULT.builder().setRecordSeparator('\n').build();
+    /**
+     * The byte offset of every {@code INDEX_INTERVAL}-th row is kept, so a page
+     * is found by parsing at most this many rows before it.
+     */
+    static final int INDEX_INTERVAL = 1024;
+    // A single MappedByteBuffer cannot exceed 2 GiB.
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final ExecutionResult result;
+    private final List<String> columns;
+    private final long rowCount;
+    private final List<List<String>> rows;
+    private final Path file;
+    private final long[] index;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks;
+    private final long size;
+    private volatile boolean closed;
+
+    private PagedResult(ExecutionResult result, List<String> columns, long rowCount, List<List<String>> rows,
+            Path file, long[] index, FileChannel channel, List<MappedByteBuffer> chunks, long size) {
+        this.result = result;
+        this.columns = List.copyOf(columns);
+        this.rowCount = rowCount;
+        this.rows = rows;
+        this.file = file;
+        this.index = index;
+        this.channel = channel;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    static PagedResult inMemory(ExecutionResult result, List<String> columns, List<List<String>> rows) {
+        return new PagedResult(result, columns, rows.size(), rows, null, null, null, null, 0);
+    }
+
+    static PagedResult spilled(ExecutionResult result, List<String> columns, long rowCount, Path file,
+            long[] index) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            List<MappedByteBuffer> chunks = new ArrayList<>();
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position)));
+            }
+            return new PagedResult(result, columns, rowCount, null, file, index, channel, chunks, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the execution result; on success {@code stdout} is empty,
+     *         because the rows are read from this object.
+     */
+    public ExecutionResult result() {
+        return result;
+    }
+
+    /**
+     * @return the column names, empty if the snippet returned no result set.
+     */
+    public List<String> columns() {
+        return columns;
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return whether the rows were spilled to a file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Reads a page of rows.
+     *
+     * @param offset the index of the first row.
+     * @param limit  the maximum number of rows.
+     * @return the rows; empty if {@code offset} is at or beyond the end.
+     * @throws IllegalArgumentException if {@code offset} or {@code limit} is
+     *                                  negative.
+     * @throws IllegalStateException    if the result is closed.
+     * @throws UncheckedIOException     if the spill file cannot be parsed.
+     */
+    public List<List<String>> rows(long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must be >= 0");
+        }
+        ensureOpen();
+        long end = Math.min(rowCount, offset + limit);
+        if (offset >= end) {
+            return List.of();
+        }
+        if (rows != null) {
+            return List.copyOf(rows.subList((int) offset, (int) end));
+        }
+        int block = (int) (offset / INDEX_INTERVAL);
+        long skip = offset - (long) block * INDEX_INTERVAL;
+        List<List<String>> page = new ArrayList<>((int) (end - offset));
+        var reader = new InputStreamReader(new MappedInputStream(index[block]), StandardCharsets.UTF_8);
+        try (var parser = FORMAT.parse(reader)) {
+            var records = parser.iterator();
+            for (long i = 0; i < skip; i++) {
+                records.next();
+            }
+            while (page.size() < end - offset) {
+                var record = records.next();
+                page.add(List.copyOf(record.toList()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spilled result", e);
+        }
+        return page;
+    }
+
+    /**
+     * Writes the result as CSV with a header line to the channel. A spilled
+     * result is transferred from the file without copying it into the heap.
+     *
+     * @param target the channel to write to; not closed.
+     * @return the number of bytes written.
+     * @throws IOException           if writing fails.
+     * @throws IllegalStateException if the result is closed.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        ensureOpen();
+        if (rows != null) {
+            var csv = new ByteArrayOutputStream();
+            try (var printer = new CSVPrinter(new OutputStreamWriter(csv, StandardCharsets.UTF_8), FORMAT)) {
+                printer.printRecord(columns);
+                printer.printRecords(rows);
+            }
+            var buffer = ByteBuffer.wrap(csv.toByteArray());
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            return csv.size();
+        }
+        long position = 0;
+        while (position < size) {
+            position += channel.transferTo(position, size - position, target);
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the spill file. Pages read before closing stay valid.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (file != null) {
+            // The mapping itself is released by the garbage collector; the file is gone from the disk now.
+            try (channel) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Result is closed");
+        }
+    }
+
+    private final class MappedInputStream extends InputStream {
+        private long position;
+
+        private MappedInputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() {
+            var buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (position >= size) {
+                return -1;
+            }
+            var chunk = chunks.get((int) (position / CHUNK_SIZE));
+            int within = (int) (position % CHUNK_SIZE);
+            int count = Math.min(length, chunk.limit() - within);
+            // Absolute reads leave the shared buffer's position untouched, so pages can be read concurrently.
+            chunk.get(within, target, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
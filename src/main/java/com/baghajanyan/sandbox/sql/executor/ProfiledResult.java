@@ -0,0 +1,21 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.List;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+
+/**
+ * The result of an execution together with the per-statement statistics
+ * collected while it ran.
+ *
+ * @param result     the result of the execution.
+ * @param statements the statistics of the statements, most expensive first;
+ *                   empty if they could not be collected, for example
+ *                   because the execution timed out.
+ */
+public record ProfiledResult(ExecutionResult result, List<StatementStatistics> statements) {
+
+    public ProfiledResult {
+        statements = statements == null ? List.of() : List.copyOf(statements);
+    }
+}
@@ -0,0 +1,25 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+
+/**
+ * One execution captured by {@link WorkloadRecorder}.
+ *
+ * @param offset        the arrival time, relative to the start of the
+ *                      recording.
+ * @param sql           the snippet, after redaction.
+ * @param timeout       the snippet timeout.
+ * @param resourceClass the name of the selected resource class, or
+ *                      {@code null} for the default limits.
+ * @param outcome       the outcome of the execution.
+ * @param latency       the time from arrival to the result, including the
+ *                      wait for admission.
+ * @param executionTime the execution time reported by the sandbox.
+ * @param stdoutLength  the length of {@code stdout}; {@code 0} for streamed
+ *                      executions.
+ * @param stderrLength  the length of {@code stderr}.
+ */
+public record RecordedExecution(Duration offset, String sql, Duration timeout, String resourceClass,
+        ExecutionStatistics.Outcome outcome, Duration latency, Duration executionTime, long stdoutLength,
+        long stderrLength) {
+}
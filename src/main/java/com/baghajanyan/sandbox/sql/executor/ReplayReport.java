@@ -0,0 +1,54 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * The comparison of a replayed workload with its recording.
+ *
+ * @param executions         the number of replayed executions.
+ * @param recorded           the outcomes and latencies of the recording.
+ * @param replayed           the outcomes and latencies of the replay.
+ * @param recordedThroughput the executions per second of the recording.
+ * @param replayedThroughput the executions per second of the replay.
+ * @param outcomeChanges     the number of executions whose outcome differs
+ *                           from the recording.
+ */
+public record ReplayReport(int executions, ExecutionStatistics.Snapshot recorded,
+        ExecutionStatistics.Snapshot replayed, double recordedThroughput, double replayedThroughput,
+        int outcomeChanges) {
+
+    /**
+     * @return the replayed median latency relative to the recorded one, for
+     *         example {@code 1.2} for a 20% regression.
+     */
+    public double p50Ratio() {
+        return ratio(replayed.p50(), recorded.p50());
+    }
+
+    /**
+     * @return the replayed 99th percentile latency relative to the recorded
+     *         one.
+     */
+    public double p99Ratio() {
+        return ratio(replayed.p99(), recorded.p99());
+    }
+
+    private static double ratio(Duration replayed, Duration recorded) {
+        return recorded.isZero() ? Double.NaN : (double) replayed.toNanos() / recorded.toNanos();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%d executions | throughput %.1f -> %.1f req/s | p50 %d -> %d ms | p90 %d -> %d ms | "
+                        + "p99 %d -> %d ms | max %d -> %d ms | failed %d -> %d timed out %d -> %d "
+                        + "rejected %d -> %d cancelled %d -> %d | %d outcome changes",
+                executions, recordedThroughput, replayedThroughput, recorded.p50().toMillis(),
+                replayed.p50().toMillis(), recorded.p90().toMillis(), replayed.p90().toMillis(),
+                recorded.p99().toMillis(), replayed.p99().toMillis(), recorded.max().toMillis(),
+                replayed.max().toMillis(), recorded.failed(), replayed.failed(), recorded.timedOut(),
+                replayed.timedOut(), recorded.rejected(), replayed.rejected(),
+                recorded.cancelled(), replayed.cancelled(), outcomeChanges);
+    }
+}
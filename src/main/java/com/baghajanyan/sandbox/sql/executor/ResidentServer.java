@@ -0,0 +1,76 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+/**
+ * A Postgres server container that is started on first use and shared by the
+ * checks run against it, and replaced once it turns out to be broken.
+ */
+final class ResidentServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ResidentServer.class);
+
+    private final DockerProcessExecutor process;
+    private final String purpose;
+    // Guarded by "this".
+    private String server;
+    private boolean closed;
+
+    /**
+     * @param process the executor used to start and remove the container.
+     * @param purpose what the server is used for, for messages.
+     */
+    ResidentServer(DockerProcessExecutor process, String purpose) {
+        this.process = process;
+        this.purpose = purpose;
+    }
+
+    /**
+     * @return the name of the server container, started if necessary.
+     * @throws IllegalStateException if closed.
+     */
+    synchronized String get() {
+        if (closed) {
+            throw new IllegalStateException("The " + purpose + " server is closed");
+        }
+        if (server == null) {
+            server = process.startServer();
+            logger.debug("Started {} server {}", purpose, server);
+        }
+        return server;
+    }
+
+    /**
+     * Removes the given container if it is still the current server, so that
+     * the next use starts a new one.
+     *
+     * @param container the container found broken.
+     */
+    void discard(String container) {
+        synchronized (this) {
+            if (!container.equals(server)) {
+                return;
+            }
+            server = null;
+        }
+        process.remove(container);
+    }
+
+    /**
+     * Removes the server container.
+     */
+    @Override
+    public void close() {
+        String container;
+        synchronized (this) {
+            closed = true;
+            container = server;
+            server = null;
+        }
+        if (container != null) {
+            process.remove(container);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A {@link Semaphore} whose number of permits can be changed while permits are
+ * held.
+ *
+ * Growing releases the additional permits to waiting threads at once.
+ * Shrinking never interrupts holders: the available permits may become
+ * negative, and new acquisitions wait until enough holders have released
+ * theirs.
+ */
+public class ResizableSemaphore extends Semaphore {
+
+    // Guarded by "this".
+    private int maxPermits;
+
+    /**
+     * @param permits the initial number of permits.
+     * @param fair    whether waiting threads acquire permits in arrival order.
+     */
+    public ResizableSemaphore(int permits, boolean fair) {
+        super(permits, fair);
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be greater than 0");
+        }
+        this.maxPermits = permits;
+    }
+
+    /**
+     * @return the current number of permits.
+     */
+    public synchronized int maxPermits() {
+        return maxPermits;
+    }
+
+    /**
+     * Changes the number of permits.
+     *
+     * @param permits the new number of permits.
+     */
+    public synchronized void setMaxPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be greater than 0");
+        }
+        int delta = permits - maxPermits;
+        if (delta > 0) {
+            release(delta);
+        } else if (delta < 0) {
+            reducePermits(-delta);
+        }
+        maxPermits = permits;
+    }
+
+    /**
+     * @return the number of permits currently held, which may exceed
+     *         {@link #maxPermits()} right after shrinking.
+     */
+    public synchronized int permitsInUse() {
+        return maxPermits - availablePermits();
+    }
+}
@@ -0,0 +1,162 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+
+/**
+ * Tracks the host memory and CPU reserved by running executions.
+ *
+ * Each execution reserves the memory and CPU of its {@link ResourceClass} and
+ * is admitted only while the reservations fit into the configured totals, so
+ * many small executions and a few large ones can share a host without risking
+ * an out-of-memory condition. Waiters are served in arrival order.
+ */
+public class ResourceBudget {
+
+    private static final double CPU_UNIT_SCALE = 1000.0;
+
+    private final long totalMemoryMb;
+    private final long totalCpuMillis;
+    private final ResourceClass defaultClass;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Guarded by "lock".
+    private final ArrayDeque<Object> waiters = new ArrayDeque<>();
+    private long usedMemoryMb;
+    private long usedCpuMillis;
+
+    /**
+     * @param totalMemoryMb the total memory available to executions in
+     *                      megabytes; {@code 0} means unlimited.
+     * @param totalCpuUnits the total CPU units available to executions;
+     *                      {@code 0} means unlimited.
+     * @param defaultClass  the resources reserved by executions that do not
+     *                      select a class.
+     */
+    public ResourceBudget(long totalMemoryMb, double totalCpuUnits, ResourceClass defaultClass) {
+        if (totalMemoryMb < 0) {
+            throw new IllegalArgumentException("totalMemoryMb must be >= 0");
+        }
+        if (totalCpuUnits < 0) {
+            throw new IllegalArgumentException("totalCpuUnits must be >= 0");
+        }
+        this.totalMemoryMb = totalMemoryMb;
+        this.totalCpuMillis = toMillis(totalCpuUnits);
+        this.defaultClass = defaultClass;
+    }
+
+    /**
+     * @return the resources reserved by executions that do not select a class.
+     */
+    public ResourceClass defaultClass() {
+        return defaultClass;
+    }
+
+    /**
+     * @param resourceClass the resource class to check.
+     * @return whether the class fits into an otherwise empty budget.
+     */
+    public boolean canEverFit(ResourceClass resourceClass) {
+        return fits(resourceClass.maxMemoryMb(), toMillis(resourceClass.maxCpuUnits()), 0, 0);
+    }
+
+    /**
+     * Reserves the resources of the given class, waiting until the deadline
+     * for enough of them to be released.
+     *
+     * @param resourceClass the resource class to reserve.
+     * @param deadlineNanos the {@link System#nanoTime()} value by which the
+     *                      reservation must succeed, or {@code null} to wait
+     *                      without a deadline.
+     * @return whether the resources were reserved.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean reserve(ResourceClass resourceClass, Long deadlineNanos) throws InterruptedException {
+        long memoryMb = resourceClass.maxMemoryMb();
+        long cpuMillis = toMillis(resourceClass.maxCpuUnits());
+        if (!fits(memoryMb, cpuMillis, 0, 0)) {
+            return false;
+        }
+        var ticket = new Object();
+        lock.lockInterruptibly();
+        try {
+            waiters.addLast(ticket);
+            try {
+                while (waiters.peekFirst() != ticket || !fits(memoryMb, cpuMillis, usedMemoryMb, usedCpuMillis)) {
+                    if (deadlineNanos == null) {
+                        changed.await();
+                        continue;
+                    }
+                    long remaining = deadlineNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    changed.awaitNanos(remaining);
+                }
+                usedMemoryMb += memoryMb;
+                usedCpuMillis += cpuMillis;
+                return true;
+            } finally {
+                waiters.remove(ticket);
+                // The head of the queue changed; let the next waiter re-check.
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the resources reserved for the given class.
+     *
+     * @param resourceClass the resource class passed to
+     *                      {@link #reserve(ResourceClass, Long)}.
+     */
+    public void release(ResourceClass resourceClass) {
+        lock.lock();
+        try {
+            usedMemoryMb -= resourceClass.maxMemoryMb();
+            usedCpuMillis -= toMillis(resourceClass.maxCpuUnits());
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the memory currently reserved in megabytes.
+     */
+    public long usedMemoryMb() {
+        lock.lock();
+        try {
+            return usedMemoryMb;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the CPU units currently reserved.
+     */
+    public double usedCpuUnits() {
+        lock.lock();
+        try {
+            return usedCpuMillis / CPU_UNIT_SCALE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long memoryMb, long cpuMillis, long usedMemory, long usedCpu) {
+        boolean memoryFits = totalMemoryMb == 0 || usedMemory + memoryMb <= totalMemoryMb;
+        boolean cpuFits = totalCpuMillis == 0 || usedCpu + cpuMillis <= totalCpuMillis;
+        return memoryFits && cpuFits;
+    }
+
+    private static long toMillis(double cpuUnits) {
+        return Math.round(cpuUnits * CPU_UNIT_SCALE);
+    }
+}
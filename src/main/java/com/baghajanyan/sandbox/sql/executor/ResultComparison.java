@@ -0,0 +1,123 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import com.baghajanyan.sandbox.sql.docker.SandboxProcessExecutor;
+
+/**
+ * Prepares the sandbox input for comparing a snippet's result with an
+ * {@link ExpectedResult} inside the container.
+ */
+final class ResultComparison {
+
+    // Precedes the JSON verdict on stdout, followed by the nonce of the comparison and a colon.
+    static final String VERDICT = "__COMPARE_VERDICT__ ";
+
+    private ResultComparison() {
+    }
+
+    /**
+     * Rewrites the snippet so that the result of its last statement is
+     * captured, with its row order, into the {@code public.__sandbox_actual}
+     * table instead of being printed.
+     *
+     * @param sql the snippet.
+     * @return the rewritten snippet.
+     * @throws IllegalArgumentException if the snippet contains no statement,
+     *                                  or a backslash, which may be a psql
+     *                                  meta-command such as {@code \c}.
+     */
+    static String captureLastResult(String sql) {
+        if (sql.indexOf('\\') >= 0) {
+            throw new IllegalArgumentException("Snippets compared with an expected result cannot contain backslashes,"
+                    + " which psql may take for meta-commands");
+        }
+        var statements = SqlStatementSplitter.split(sql);
+        if (statements.isEmpty()) {
+            throw new IllegalArgumentException("The snippet has no statement whose result could be compared");
+        }
+        var script = new StringBuilder();
+        for (var statement : statements.subList(0, statements.size() - 1)) {
+            script.append(statement).append(";\n");
+        }
+        // The closing parenthesis goes on its own line in case the statement ends with a line comment.
+        script.append("CREATE TABLE public.__sandbox_actual AS\n")
+                .append("SELECT __sandbox_q.*, row_number() OVER () AS __sandbox_ord FROM (\n")
+                .append(statements.get(statements.size() - 1))
+                .append("\n) AS __sandbox_q;\n");
+        return script.toString();
+    }
+
+    /**
+     * Renders the expected rows as CSV in the format read by Postgres'
+     * {@code COPY}: {@code null} values are unquoted empty fields, all other
+     * values are quoted. Ordered expectations get the row ordinal appended as
+     * the last column.
+     *
+     * @param expected the expected result.
+     * @return the CSV document.
+     */
+    static String toCsv(ExpectedResult expected) {
+        var csv = new StringWriter();
+        try (var printer = new CSVPrinter(csv, CSVFormat.POSTGRESQL_CSV)) {
+            long ordinal = 0;
+            for (var row : expected.rows()) {
+                List<Object> record = new ArrayList<>(row);
+                if (expected.ordered()) {
+                    record.add(++ordinal);
+                }
+                printer.printRecord(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @param expected     the expected result.
+     * @param expectedFile the file holding {@link #toCsv(ExpectedResult)}, or
+     *                     {@code null} when comparing by fingerprint.
+     * @param nonce        the nonce that tags the verdict of this comparison.
+     * @return the environment of the comparison script.
+     */
+    static Map<String, String> environment(ExpectedResult expected, Path expectedFile, String nonce) {
+        Map<String, String> environment = new LinkedHashMap<>();
+        if (expectedFile != null) {
+            environment.put("EXPECTED_FILE", SandboxProcessExecutor.containerPath(expectedFile));
+            environment.put("EXPECTED_COLUMNS", Integer.toString(expected.columnCount()));
+        } else {
+            environment.put("EXPECTED_FINGERPRINT", expected.fingerprint());
+        }
+        environment.put("COMPARE_ORDERED", Boolean.toString(expected.ordered()));
+        environment.put("MAX_DIFF_ROWS", Integer.toString(expected.maxDiffRows()));
+        environment.put("COMPARE_NONCE", nonce);
+        return environment;
+    }
+
+    /**
+     * @param stdout the output of the comparison script.
+     * @param nonce  the nonce passed in {@link #environment(ExpectedResult,
+     *               Path, String)}.
+     * @return the JSON verdict tagged with the nonce, or {@code null} if there
+     *         is none.
+     */
+    static String verdict(String stdout, String nonce) {
+        if (stdout == null) {
+            return null;
+        }
+        var prefix = VERDICT + nonce + ": ";
+        return stdout.lines().filter(line -> line.startsWith(prefix)).map(line -> line.substring(prefix.length()))
+                .reduce((first, second) -> second).orElse(null);
+    }
+}
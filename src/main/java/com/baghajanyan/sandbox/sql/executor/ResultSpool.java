@@ -0,0 +1,177 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.fs.TempFileManager;
+
+/**
+ * Collects streamed rows into a {@link PagedResult}, keeping them in memory
+ * until their size exceeds a threshold and writing them to a spill file from
+ * then on.
+ */
+final class ResultSpool implements RowSink {
+    private static final Logger logger = LoggerFactory.getLogger(ResultSpool.class);
+    private static final int EXCEPTION_EXIT_CODE = -1;
+
+    private final TempFileManager fileManager;
+    private final long thresholdBytes;
+    private List<String> columns = List.of();
+    private List<List<String>> rows = new ArrayList<>();
+    private long rowCount;
+    private long writtenRows;
+    private long bytes;
+    private Path file;
+    private CountingOutputStream out;
+    private CSVPrinter printer;
+    private long[] index = new long[16];
+    private IOException failure;
+
+    /**
+     * @param fileManager    the manager creating the spill file.
+     * @param thresholdBytes the approximate size of the rows, in characters,
+     *                       above which they are spilled.
+     */
+    ResultSpool(TempFileManager fileManager, long thresholdBytes) {
+        this.fileManager = fileManager;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    @Override
+    public void onColumns(List<String> columns) {
+        this.columns = List.copyOf(columns);
+    }
+
+    @Override
+    public void onRow(List<String> values) {
+        if (failure != null) {
+            // Keep draining the container output, but stop storing it.
+            return;
+        }
+        rowCount++;
+        try {
+            if (printer == null) {
+                rows.add(values);
+                for (var value : values) {
+                    bytes += value.length() + 1;
+                }
+                if (bytes > thresholdBytes) {
+                    spill();
+                }
+            } else {
+                write(values);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to spill SQL result", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * Completes the spool once the execution finished.
+     *
+     * @param result the execution result.
+     * @return the paged result; if spilling failed, an empty result carrying
+     *         the error.
+     */
+    PagedResult finish(ExecutionResult result) {
+        try {
+            if (printer != null) {
+                printer.close();
+            }
+            if (failure == null && file != null) {
+                return PagedResult.spilled(result, columns, rowCount, file,
+                        Arrays.copyOf(index, (int) ((rowCount + PagedResult.INDEX_INTERVAL - 1)
+                                / PagedResult.INDEX_INTERVAL)));
+            }
+        } catch (IOException e) {
+            logger.error("Failed to spill SQL result", e);
+            failure = e;
+        }
+        if (failure != null) {
+            discard();
+            return PagedResult.inMemory(new ExecutionResult(EXCEPTION_EXIT_CODE, null,
+                    "Failed to spill result: " + failure.getMessage(), result.executionTime()), columns, List.of());
+        }
+        return PagedResult.inMemory(result, columns, rows);
+    }
+
+    /**
+     * Deletes the spill file, if any, without building a result.
+     */
+    void discard() {
+        try {
+            if (printer != null) {
+                printer.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to close spill file", e);
+        }
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                fileManager.deleteAsync(file);
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        file = fileManager.createTempFile("sql-result-" + System.nanoTime(), ".csv");
+        out = new CountingOutputStream(Files.newOutputStream(file));
+        printer = new CSVPrinter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)),
+                PagedResult.FORMAT);
+        printer.printRecord(columns);
+        for (var row : rows) {
+            write(row);
+        }
+        rows = null;
+    }
+
+    private void write(List<String> values) throws IOException {
+        if (writtenRows % PagedResult.INDEX_INTERVAL == 0) {
+            int block = (int) (writtenRows / PagedResult.INDEX_INTERVAL);
+            if (block == index.length) {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            printer.flush();
+            index[block] = out.count;
+        }
+        printer.printRecord(values);
+        writtenRows++;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.List;
+
+/**
+ * Receives the result of a SQL snippet incrementally, as {@code psql} emits it.
+ *
+ * Callbacks are invoked on the executing thread while the container is still
+ * running. A sink that blocks stops the output pipe from being drained, which
+ * in turn pauses {@code psql} until the sink catches up.
+ */
+public interface RowSink {
+
+    /**
+     * Called once with the column names of the first result set, before any row
+     * is delivered.
+     *
+     * @param columns the column names.
+     */
+    void onColumns(List<String> columns);
+
+    /**
+     * Called for every row of the first result set. Values are the CSV-rendered
+     * column values in column order; SQL {@code NULL} is delivered as an empty
+     * string. Later result sets with the same number of columns, header record
+     * included, are delivered as rows too, because {@code psql} does not
+     * separate result sets in its output.
+     *
+     * @param values the column values of the row.
+     */
+    void onRow(List<String> values);
+}
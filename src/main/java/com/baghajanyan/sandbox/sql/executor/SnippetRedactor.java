@@ -0,0 +1,24 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+/**
+ * Removes sensitive content from snippets before {@link WorkloadRecorder}
+ * writes them to disk.
+ *
+ * A redacted snippet is what a replay executes, so redaction should keep the
+ * shape of the SQL, for example by replacing literals rather than dropping
+ * statements.
+ */
+@FunctionalInterface
+public interface SnippetRedactor {
+
+    /**
+     * Records snippets as they are.
+     */
+    SnippetRedactor NONE = sql -> sql;
+
+    /**
+     * @param sql the snippet.
+     * @return the snippet to record.
+     */
+    String redact(String sql);
+}
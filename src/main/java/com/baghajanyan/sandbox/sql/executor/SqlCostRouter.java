@@ -0,0 +1,337 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+/**
+ * Routes snippets to a resource class by the planner's estimate of their cost.
+ *
+ * Before admission, the snippet is planned with a plain {@code EXPLAIN} on a
+ * resident Postgres server container, started on first use, as an
+ * unprivileged role that can only create objects in its own database.
+ * Definitions of tables, indexes, views and types are run so that the
+ * statements after them can be planned, inside a transaction in a throwaway
+ * schema that is always rolled back; no other statement is executed, and
+ * {@code CREATE TABLE ... AS} is only explained. The costs of the planned
+ * statements are added up and the largest row estimate of any plan node is
+ * kept.
+ *
+ * The estimate selects the first {@link Lane} whose limits it fits, or
+ * rejects the snippet when its cost exceeds the configured maximum. Snippets
+ * that cannot be estimated run with the default limits: routing never
+ * rejects a snippet it knows nothing about. Estimates of tables created by
+ * the snippet itself are the planner's defaults for empty tables, because
+ * their rows are never inserted while planning.
+ *
+ * Snippets containing backslashes are not planned, because psql
+ * meta-commands are only understood by the regular execution.
+ */
+public class SqlCostRouter implements AutoCloseable {
+
+    /**
+     * A resource class snippets are routed to when their estimate fits its
+     * limits.
+     *
+     * @param resourceClass the name of the resource class.
+     * @param maxCost       the maximum total cost, or {@code 0} for no limit.
+     * @param maxRows       the maximum row estimate, or {@code 0} for no limit.
+     */
+    public record Lane(String resourceClass, double maxCost, long maxRows) {
+
+        public Lane {
+            if (resourceClass == null || resourceClass.isBlank()) {
+                throw new IllegalArgumentException("resourceClass must not be blank");
+            }
+            if (maxCost < 0 || maxRows < 0) {
+                throw new IllegalArgumentException("maxCost and maxRows must be >= 0");
+            }
+        }
+
+        boolean fits(CostEstimate estimate) {
+            return (maxCost == 0 || estimate.totalCost() <= maxCost)
+                    && (maxRows == 0 || estimate.maxRows() <= maxRows);
+        }
+    }
+
+    /**
+     * The planner's estimate of a snippet.
+     *
+     * @param totalCost             the sum of the total costs of the planned
+     *                              statements.
+     * @param maxRows               the largest row estimate of any plan node.
+     * @param plannedStatements     the number of statements planned.
+     * @param explainableStatements the number of statements that were asked
+     *                              for a plan; statements failing to plan make
+     *                              the estimate a lower bound.
+     */
+    public record CostEstimate(double totalCost, long maxRows, int plannedStatements, int explainableStatements) {
+    }
+
+    /**
+     * The routing decision for a snippet.
+     *
+     * @param resourceClass the name of the resource class to run with, or
+     *                      {@code null} for the default limits.
+     * @param rejected      whether the snippet is too expensive to run.
+     * @param estimate      the estimate the decision is based on, or
+     *                      {@code null} if the snippet could not be estimated.
+     */
+    public record Route(String resourceClass, boolean rejected, CostEstimate estimate) {
+    }
+
+    // The planning script becomes psql input; keep it comfortably small.
+    static final int MAX_SQL_LENGTH = 1_000_000;
+    static final String PLAN_MARKER = "__PLAN__";
+    private static final Pattern COST = Pattern
+            .compile("\\(cost=[0-9.]+\\.\\.([0-9.]+) rows=([0-9]+) width=[0-9]+\\)");
+    // Both match the top-level code of a statement, so an AS outside parentheses can only introduce a query.
+    private static final Pattern CREATE_AS = Pattern.compile("\\s*CREATE\\s+(?:(?:GLOBAL|LOCAL)\\s+)?"
+            + "(?:(?:TEMP|TEMPORARY|UNLOGGED)\\s+)?(?:TABLE|MATERIALIZED\\s+VIEW)\\s.*\\bAS\\b",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DEFINITION = Pattern.compile("\\s*CREATE\\s+(?:"
+            + "(?:(?:GLOBAL|LOCAL)\\s+)?(?:(?:TEMP|TEMPORARY|UNLOGGED)\\s+)?TABLE"
+            + "|(?:UNIQUE\\s+)?INDEX"
+            + "|(?:OR\\s+REPLACE\\s+)?(?:(?:TEMP|TEMPORARY)\\s+)?(?:RECURSIVE\\s+)?VIEW"
+            + "|TYPE)\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final List<String> EXPLAINABLE = List.of("SELECT", "WITH", "VALUES", "TABLE", "INSERT",
+            "UPDATE", "DELETE", "MERGE");
+    private static final AtomicLong PLAN_IDS = new AtomicLong();
+    private static final Logger logger = LoggerFactory.getLogger(SqlCostRouter.class);
+
+    private final DockerProcessExecutor process;
+    private final Duration timeout;
+    private final List<Lane> lanes;
+    private final double maxCost;
+    private final ResidentServer server;
+    private final LongAdder estimated = new LongAdder();
+    private final LongAdder unestimated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param process the executor used to start and reach the server
+     *                container.
+     * @param timeout the maximum time planning a snippet may take.
+     * @param lanes   the lanes, tried in order.
+     * @param maxCost the total cost above which snippets are rejected, or
+     *                {@code 0} to reject none.
+     */
+    public SqlCostRouter(DockerProcessExecutor process, Duration timeout, List<Lane> lanes, double maxCost) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be a positive duration");
+        }
+        if (maxCost < 0) {
+            throw new IllegalArgumentException("maxCost must be >= 0");
+        }
+        this.process = process;
+        this.timeout = timeout;
+        this.lanes = List.copyOf(lanes);
+        this.maxCost = maxCost;
+        this.server = new ResidentServer(process, "cost estimate");
+    }
+
+    /**
+     * @return the lanes, in the order they are tried.
+     */
+    public List<Lane> lanes() {
+        return lanes;
+    }
+
+    /**
+     * @return the total cost above which snippets are rejected, or {@code 0}
+     *         if none are.
+     */
+    public double maxCost() {
+        return maxCost;
+    }
+
+    /**
+     * Decides how to run a snippet.
+     *
+     * @param sql the snippet.
+     * @return the routing decision.
+     */
+    public Route route(String sql) {
+        var estimate = estimate(sql);
+        if (estimate == null) {
+            unestimated.increment();
+            return new Route(null, false, null);
+        }
+        estimated.increment();
+        if (maxCost > 0 && estimate.totalCost() > maxCost) {
+            rejected.increment();
+            return new Route(null, true, estimate);
+        }
+        for (var lane : lanes) {
+            if (lane.fits(estimate)) {
+                return new Route(lane.resourceClass(), false, estimate);
+            }
+        }
+        return new Route(null, false, estimate);
+    }
+
+    /**
+     * Plans a snippet without running it.
+     *
+     * @param sql the snippet.
+     * @return the estimate, or {@code null} if none of its statements could be
+     *         planned.
+     */
+    public CostEstimate estimate(String sql) {
+        if (sql.length() > MAX_SQL_LENGTH || sql.indexOf('\\') >= 0) {
+            return null;
+        }
+        var statements = SqlStatementSplitter.split(sql);
+        int explainable = (int) statements.stream().filter(s -> kindOf(s) == Kind.EXPLAIN).count();
+        if (explainable == 0) {
+            return null;
+        }
+        String container = null;
+        try {
+            container = server.get();
+            var completed = process.explain(container, planScript(statements, timeout, PLAN_IDS.incrementAndGet()),
+                    timeout);
+            var stdout = readFully(completed.getInputStream());
+            if (completed.exitValue() != 0) {
+                // psql carries on past failing statements, so this is a broken server; start over next time.
+                logger.warn("Unexpected cost estimate exit code {}: {}", completed.exitValue(),
+                        readFully(completed.getErrorStream()));
+                server.discard(container);
+                return null;
+            }
+            var estimate = parse(stdout, explainable);
+            return estimate.plannedStatements() == 0 ? null : estimate;
+        } catch (DockerProcessTimeoutException e) {
+            // Most likely the server is still initializing; keep it.
+            logger.debug("Cost estimate timed out", e);
+            return null;
+        } catch (DockerProcessException e) {
+            logger.warn("Cost estimate failed", e);
+            if (container != null) {
+                server.discard(container);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of snippets routed by an estimate.
+     */
+    public long estimatedSnippets() {
+        return estimated.sum();
+    }
+
+    /**
+     * @return the number of snippets run with the default limits because they
+     *         could not be estimated.
+     */
+    public long unestimatedSnippets() {
+        return unestimated.sum();
+    }
+
+    /**
+     * @return the number of snippets rejected as too expensive.
+     */
+    public long rejectedSnippets() {
+        return rejected.sum();
+    }
+
+    /**
+     * Removes the server container.
+     */
+    @Override
+    public void close() {
+        server.close();
+    }
+
+    enum Kind {
+        EXPLAIN, DEFINE, SKIP
+    }
+
+    static Kind kindOf(String statement) {
+        var code = SqlStatementSplitter.topLevelCode(statement);
+        if (CREATE_AS.matcher(code).lookingAt()) {
+            return Kind.EXPLAIN;
+        }
+        if (DEFINITION.matcher(code).lookingAt()) {
+            return Kind.DEFINE;
+        }
+        return EXPLAINABLE.contains(SqlStatementSplitter.leadingKeyword(statement)) ? Kind.EXPLAIN : Kind.SKIP;
+    }
+
+    /**
+     * Builds the psql input planning the given statements. Each plan is
+     * preceded by a line holding {@link #PLAN_MARKER}.
+     */
+    static String planScript(List<String> statements, Duration timeout, long planId) {
+        var schema = "__sandbox_plan_" + planId;
+        var script = new StringBuilder()
+                .append("BEGIN;\n")
+                .append("SET LOCAL statement_timeout = '").append(Math.max(1, timeout.toMillis())).append("ms';\n")
+                .append("CREATE SCHEMA ").append(schema).append(";\n")
+                .append("SET LOCAL search_path = ").append(schema).append(";\n");
+        for (var statement : statements) {
+            // The terminator goes on its own line in case the statement ends with a line comment.
+            switch (kindOf(statement)) {
+                case EXPLAIN -> script.append("\\echo ").append(PLAN_MARKER).append('\n')
+                        .append("EXPLAIN ").append(statement).append("\n;\n");
+                case DEFINE -> script.append(statement).append("\n;\n");
+                case SKIP -> {
+                }
+            }
+        }
+        return script.append("ROLLBACK;\n").toString();
+    }
+
+    /**
+     * Reads the plans printed for a planning script. The first node of each
+     * plan carries the total cost of its statement.
+     */
+    static CostEstimate parse(String stdout, int explainable) {
+        double totalCost = 0;
+        long maxRows = 0;
+        int planned = 0;
+        boolean inPlan = false;
+        boolean topNode = false;
+        for (var line : stdout.split("\\R")) {
+            if (line.equals(PLAN_MARKER)) {
+                inPlan = true;
+                topNode = true;
+                continue;
+            }
+            var matcher = COST.matcher(line);
+            if (!inPlan || !matcher.find()) {
+                continue;
+            }
+            if (topNode) {
+                totalCost += Double.parseDouble(matcher.group(1));
+                planned++;
+                topNode = false;
+            }
+            // Saturates instead of failing on estimates beyond a long.
+            maxRows = Math.max(maxRows, (long) Double.parseDouble(matcher.group(2)));
+        }
+        return new CostEstimate(totalCost, maxRows, planned, explainable);
+    }
+
+    private static String readFully(InputStream stream) {
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
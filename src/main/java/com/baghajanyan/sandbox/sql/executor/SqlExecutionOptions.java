@@ -0,0 +1,60 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-request options for {@link SqlExecutor}.
+ *
+ * @param resourceClass  the name of the resource class to run with, or
+ *                       {@code null} for the default limits.
+ * @param expectedResult the result to compare the snippet's last statement
+ *                       with, or {@code null} to return the result itself.
+ * @param attachments    the datasets loaded into tables before the snippet
+ *                       runs.
+ */
+public record SqlExecutionOptions(String resourceClass, ExpectedResult expectedResult,
+        List<TableAttachment> attachments) {
+
+    private static final SqlExecutionOptions DEFAULTS = new SqlExecutionOptions(null, null, List.of());
+
+    public SqlExecutionOptions {
+        attachments = attachments == null ? List.of() : List.copyOf(attachments);
+    }
+
+    /**
+     * @return options that run with the default limits.
+     */
+    public static SqlExecutionOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @param resourceClass the name of the resource class to run with.
+     * @return a copy of these options with the given resource class.
+     */
+    public SqlExecutionOptions withResourceClass(String resourceClass) {
+        return new SqlExecutionOptions(resourceClass, expectedResult, attachments);
+    }
+
+    /**
+     * @param expectedResult the result to compare the snippet's last statement
+     *                       with.
+     * @return a copy of these options that compares instead of returning the
+     *         result.
+     */
+    public SqlExecutionOptions withExpectedResult(ExpectedResult expectedResult) {
+        return new SqlExecutionOptions(resourceClass, expectedResult, attachments);
+    }
+
+    /**
+     * @param attachment a dataset to load before the snippet runs.
+     * @return a copy of these options with the attachment added; attachments
+     *         are loaded in the order they were added.
+     */
+    public SqlExecutionOptions withAttachment(TableAttachment attachment) {
+        List<TableAttachment> all = new ArrayList<>(attachments);
+        all.add(attachment);
+        return new SqlExecutionOptions(resourceClass, expectedResult, all);
+    }
+}
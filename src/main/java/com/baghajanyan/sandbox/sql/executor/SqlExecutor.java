@@ -1,11 +1,27 @@
 package com.baghajanyan.sandbox.sql.executor;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,72 +30,667 @@ import com.baghajanyan.sandbox.core.executor.CodeExecutor;
 import com.baghajanyan.sandbox.core.executor.ExecutionResult;
 import com.baghajanyan.sandbox.core.fs.TempFileManager;
 import com.baghajanyan.sandbox.core.model.CodeSnippet;
-import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
 import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
 import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.ProcessOutputHandler;
+import com.baghajanyan.sandbox.sql.docker.SandboxProcessExecutor;
 
 /**
  * Executes a SQL code snippet in a sandboxed environment.
  *
  * This class implements the {@link CodeExecutor} interface and is responsible
- * for executing SQL code in a Docker container. It uses a {@link Semaphore} to
- * control concurrent executions and a {@link TempFileManager} to manage
- * temporary files.
+ * for executing SQL code in a Docker container. It uses an
+ * {@link AdmissionController} to control concurrent executions and a
+ * {@link TempFileManager} to manage temporary files.
+ *
+ * The snippet timeout is treated as the deadline of the whole request: time
+ * spent waiting for a permit is deducted from the statement timeout, and a
+ * request that cannot be admitted in time is rejected with
+ * {@link #REJECTED_EXIT_CODE} instead of being run late.
+ *
+ * Requests may select a named {@link ResourceClass} through
+ * {@link SqlExecutionOptions}; the container then runs with the memory, CPU
+ * and timeout limits of that class.
+ *
+ * When the options carry an {@link ExpectedResult}, the result of the
+ * snippet's last statement is compared with it inside the container and only
+ * a JSON verdict is returned, so grading a large result costs neither a
+ * transfer nor a conversion to JSON in the JVM.
+ *
+ * With a {@link SqlServerPool}, regular executions run in a fresh database on
+ * a pooled long-lived server instead of in a fresh cluster. Streaming,
+ * comparing and profiled executions, executions with
+ * {@link TableAttachment}s, and snippets with psql meta-commands always use a
+ * fresh cluster.
+ *
+ * With a {@link SqlSyntaxPreflight}, snippets with syntax errors are rejected
+ * before they wait for a permit or start a container.
+ *
+ * With a {@link SqlCostRouter}, snippets that do not select a resource class
+ * are routed to one by the planner's estimate of their cost, and snippets
+ * estimated too expensive are rejected with {@link #COST_REJECTED_EXIT_CODE}
+ * before they wait for a permit.
+ *
+ * With a {@link HedgingPolicy}, a read-only execution that is slower than
+ * recent ones is started a second time; the first result wins and the other
+ * execution is cancelled.
+ *
+ * With an {@link ExecutionJournal}, executions write an event when they are
+ * queued, started and ended.
  */
 public class SqlExecutor implements CodeExecutor {
 
+    /**
+     * Exit code reported when a request is shed by admission control, either
+     * because the wait queue is full or because its deadline passed while
+     * queued.
+     */
+    public static final int REJECTED_EXIT_CODE = -2;
+
+    /**
+     * Exit code reported when an execution is cancelled through the future
+     * returned by {@code submit}, or its thread is interrupted.
+     */
+    public static final int CANCELLED_EXIT_CODE = -3;
+
+    /**
+     * Exit code reported when a snippet is rejected because the planner
+     * estimates it above the cost limit of the {@link SqlCostRouter}. Unlike
+     * {@link #REJECTED_EXIT_CODE}, running the snippet again later gets the
+     * same answer.
+     */
+    public static final int COST_REJECTED_EXIT_CODE = -4;
+
+    /**
+     * Exit code reported when an execution runs out of time, either because
+     * the sandbox stopped it at its deadline or because the statement timeout
+     * set by the sandbox cancelled one of its statements. The rows of the
+     * statements that completed are returned, and
+     * {@link #runningStatement(ExecutionResult)} tells which statement was
+     * running.
+     */
+    public static final int TIMED_OUT_EXIT_CODE = -5;
+
+    /**
+     * Size of the rows, in characters, above which
+     * {@link #executePaged(CodeSnippet, SqlExecutionOptions)} spills them to a
+     * file unless configured otherwise.
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD_BYTES = 16L * 1024 * 1024;
+
     private static final long EXECUTION_TIME_ZERO = 0;
     private static final int EXCEPTION_EXIT_CODE = -1;
+    private static final long MIN_STATEMENT_TIMEOUT_NANOS = Duration.ofMillis(1).toNanos();
     private static final Logger logger = LoggerFactory.getLogger(SqlExecutor.class);
+    private static final ExecutorService STDERR_READERS = Executors.newVirtualThreadPerTaskExecutor();
+    // How long the rest of stderr is awaited after a streamed execution was killed.
+    private static final Duration STDERR_DRAIN_TIMEOUT = Duration.ofSeconds(1);
+    private static final ExecutorService SUBMITTED_EXECUTIONS = Executors.newVirtualThreadPerTaskExecutor();
 
-    private final Semaphore semaphore;
+    private final AdmissionController admissionController;
     private final TempFileManager fileManager;
-    private final DockerProcessExecutor process;
+    private final SandboxProcessExecutor process;
+    private final Map<String, ResourceClass> resourceClasses;
+    private final SqlServerPool serverPool;
+    private final SqlSyntaxPreflight preflight;
+    private final long spillThresholdBytes;
+    private final WorkloadRecorder recorder;
+    private final SqlCostRouter costRouter;
+    private final HedgingPolicy hedging;
+    private final ExecutionJournal journal;
+    private final ExecutionStatistics statistics = new ExecutionStatistics();
+    private final StatementStatisticsTotals statementTotals = new StatementStatisticsTotals();
 
-    public SqlExecutor(Semaphore semaphore, TempFileManager fileManager, DockerProcessExecutor process) {
-        this.semaphore = semaphore;
-        this.fileManager = fileManager;
-        this.process = process;
+    public SqlExecutor(Semaphore semaphore, TempFileManager fileManager, SandboxProcessExecutor process) {
+        this(builder(new AdmissionController(semaphore, 0), fileManager, process));
+    }
+
+    private SqlExecutor(Builder builder) {
+        this.admissionController = builder.admissionController;
+        this.fileManager = builder.fileManager;
+        this.process = builder.process;
+        this.resourceClasses = Map.copyOf(builder.resourceClasses);
+        this.serverPool = builder.serverPool;
+        this.preflight = builder.preflight;
+        this.spillThresholdBytes = builder.spillThresholdBytes;
+        this.recorder = builder.recorder;
+        this.costRouter = builder.costRouter;
+        this.hedging = builder.hedging;
+        this.journal = builder.journal;
+    }
+
+    /**
+     * Starts building an executor. Every optional collaborator left unset is
+     * disabled.
+     *
+     * @param admissionController the admission control for executions.
+     * @param fileManager         the manager for snippet temp files.
+     * @param process             the executor for sandbox containers.
+     * @return the builder.
+     */
+    public static Builder builder(AdmissionController admissionController, TempFileManager fileManager,
+            SandboxProcessExecutor process) {
+        return new Builder(admissionController, fileManager, process);
     }
 
     /**
      * Executes the given SQL snippet.
      *
      * The snippet timeout is injected as a session-level statement timeout and
-     * applies to all statements in the snippet.
+     * applies to all statements in the snippet. Time spent waiting for a permit
+     * is deducted from it.
      *
      * @param snippet the SQL code snippet to execute.
      * @return the result of the execution.
      */
     @Override
     public ExecutionResult execute(CodeSnippet snippet) {
+        return execute(snippet, SqlExecutionOptions.defaults());
+    }
+
+    /**
+     * Executes the given SQL snippet with per-request options.
+     *
+     * With an expected result, {@code stdout} holds a JSON verdict instead of
+     * the result rows:
+     * <pre>{@code
+     * {"match": false, "fingerprint": "o:3:123...", "actualRows": 3, "expectedRows": 3,
+     *  "mismatches": 1, "diff": [{"ordinal": 2, "kind": "changed", "actual": {...}, "expected": {...}}]}
+     * }</pre>
+     * The {@code fingerprint} can be passed to
+     * {@link ExpectedResult#ofFingerprint(String)} to grade later executions
+     * without shipping the expected rows again.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param options the execution options.
+     * @return the result of the execution.
+     * @throws IllegalArgumentException if the options select an unknown
+     *                                  resource class, or if they carry an
+     *                                  expected result and the snippet has no
+     *                                  statement or contains a backslash.
+     */
+    public ExecutionResult execute(CodeSnippet snippet, SqlExecutionOptions options) {
+        var resourceClass = resolveResourceClass(options);
+        var attachments = options.attachments();
+        var expected = options.expectedResult();
+        boolean hedgeable = hedging != null && HedgingPolicy.isEligible(snippet.code());
+        if (expected != null) {
+            var sql = ResultComparison.captureLastResult(snippet.code());
+            return withPermit(snippet, resourceClass, hedgeable,
+                    (timeout, limits) -> compareInDocker(sql, timeout, limits, attachments, expected));
+        }
+        if (serverPool != null && attachments.isEmpty() && SqlServerPool.accepts(snippet.code())) {
+            return withPermit(snippet, resourceClass, hedgeable,
+                    (timeout, limits) -> executeOnServer(snippet.code(), timeout, limits));
+        }
+        return withPermit(snippet, resourceClass, hedgeable,
+                (timeout, limits) -> executeInDocker(snippet.code(), timeout, limits, attachments));
+    }
+
+    /**
+     * Executes the given SQL snippet and streams its result into the sink.
+     *
+     * Column metadata and rows are delivered while the container is still
+     * running, so the first row reaches the caller long before the query
+     * finishes and the result is never buffered as a whole. The columns of the
+     * first result set are streamed, and later result sets are handled like in
+     * the JSON output of {@link #execute(CodeSnippet)}: see
+     * {@link RowSink#onRow(List)}.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param sink    the sink receiving column metadata and rows.
+     * @return the result of the execution. On success {@code stdout} is empty,
+     *         because the rows have already been delivered to the sink.
+     */
+    public ExecutionResult execute(CodeSnippet snippet, RowSink sink) {
+        return execute(snippet, SqlExecutionOptions.defaults(), sink);
+    }
+
+    /**
+     * Same as {@link #execute(CodeSnippet, RowSink)}, with per-request options.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param options the execution options.
+     * @param sink    the sink receiving column metadata and rows.
+     * @return the result of the execution.
+     * @throws IllegalArgumentException if the options select an unknown
+     *                                  resource class or carry an expected
+     *                                  result.
+     */
+    public ExecutionResult execute(CodeSnippet snippet, SqlExecutionOptions options, RowSink sink) {
+        if (options.expectedResult() != null) {
+            throw new IllegalArgumentException("Expected results cannot be compared while streaming rows");
+        }
+        var resourceClass = resolveResourceClass(options);
+        var attachments = options.attachments();
+        // Rows already delivered to the sink cannot be taken back, so streaming executions are never hedged.
+        return withPermit(snippet, resourceClass, false,
+                (timeout, limits) -> executeInDocker(snippet.code(), timeout, limits, attachments, sink));
+    }
+
+    /**
+     * Executes the given SQL snippet and returns its rows as a pageable result.
+     *
+     * Rows are streamed out of the container as in
+     * {@link #execute(CodeSnippet, SqlExecutionOptions, RowSink)}. They are
+     * kept in memory while small; once they exceed the spill threshold, they
+     * are written to a memory-mapped temp file instead, so an oversized result
+     * costs disk space rather than heap. The returned result must be closed to
+     * delete that file.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param options the execution options.
+     * @return the paged result.
+     * @throws IllegalArgumentException if the options select an unknown
+     *                                  resource class or carry an expected
+     *                                  result.
+     */
+    public PagedResult executePaged(CodeSnippet snippet, SqlExecutionOptions options) {
+        var spool = new ResultSpool(fileManager, spillThresholdBytes);
+        ExecutionResult result;
+        try {
+            result = execute(snippet, options, spool);
+        } catch (RuntimeException e) {
+            spool.discard();
+            throw e;
+        }
+        return spool.finish(result);
+    }
+
+    /**
+     * Executes the given SQL snippet and collects the cost of each of its
+     * statements.
+     *
+     * The snippet runs in a fresh cluster with {@code pg_stat_statements}
+     * preloaded and {@code track_io_timing} enabled, even with a server pool.
+     * Once it has finished, the calls, rows, planning and execution time,
+     * block hits and reads, temporary file usage and WAL bytes of its
+     * statements are read back and also added to
+     * {@link #statementStatisticsTotals()}. Profiled executions are never
+     * hedged.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param options the execution options.
+     * @return the result with the statement statistics.
+     * @throws IllegalArgumentException if the options select an unknown
+     *                                  resource class or carry an expected
+     *                                  result.
+     */
+    public ProfiledResult executeProfiled(CodeSnippet snippet, SqlExecutionOptions options) {
+        if (options.expectedResult() != null) {
+            throw new IllegalArgumentException("Expected results cannot be compared while profiling");
+        }
+        var resourceClass = resolveResourceClass(options);
+        var attachments = options.attachments();
+        var statements = new AtomicReference<List<StatementStatistics>>(List.of());
+        var result = withPermit(snippet, resourceClass, false, (timeout, limits) -> {
+            var profiled = executeInDocker(snippet.code(), timeout, limits, attachments, true);
+            if (!profiled.statements().isEmpty()) {
+                statementTotals.record(profiled.statements());
+                statements.set(profiled.statements());
+            }
+            return profiled.result();
+        });
+        return new ProfiledResult(result, statements.get());
+    }
+
+    /**
+     * Starts executing the given SQL snippet on a virtual thread and returns a
+     * handle to it.
+     *
+     * Cancelling the returned future with {@code cancel(true)} interrupts the
+     * execution: a snippet still waiting for an execution slot leaves the
+     * queue, and a running one has its container removed. Either way its
+     * execution slot is released at once and the execution is counted as
+     * {@link ExecutionStatistics.Outcome#CANCELLED}. Interrupting a thread
+     * blocked in {@code execute} has the same effect, and {@code execute} then
+     * returns a result with {@link #CANCELLED_EXIT_CODE}.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param options the execution options.
+     * @return the pending result.
+     */
+    public Future<ExecutionResult> submit(CodeSnippet snippet, SqlExecutionOptions options) {
+        return SUBMITTED_EXECUTIONS.submit(() -> execute(snippet, options));
+    }
+
+    /**
+     * Same as {@link #submit(CodeSnippet, SqlExecutionOptions)}, with the rows
+     * streamed into the sink as by
+     * {@link #execute(CodeSnippet, SqlExecutionOptions, RowSink)}.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @param options the execution options.
+     * @param sink    the sink receiving column metadata and rows, called on
+     *                the execution thread.
+     * @return the pending result.
+     */
+    public Future<ExecutionResult> submit(CodeSnippet snippet, SqlExecutionOptions options, RowSink sink) {
+        return SUBMITTED_EXECUTIONS.submit(() -> execute(snippet, options, sink));
+    }
+
+    private ResourceClass resolveResourceClass(SqlExecutionOptions options) {
+        if (options.resourceClass() == null) {
+            return null;
+        }
+        var resourceClass = resourceClasses.get(options.resourceClass());
+        if (resourceClass == null) {
+            throw new IllegalArgumentException("Unknown resource class: " + options.resourceClass());
+        }
+        return resourceClass;
+    }
+
+    /**
+     * @return the outcome counts and recent latencies of the executions run by
+     *         this executor.
+     */
+    public ExecutionStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the statement statistics added up over all profiled executions.
+     */
+    public StatementStatisticsTotals statementStatisticsTotals() {
+        return statementTotals;
+    }
+
+    private ExecutionResult withPermit(CodeSnippet snippet, ResourceClass resourceClass, boolean hedgeable,
+            BiFunction<Duration, ResourceClass, ExecutionResult> execution) {
+        long start = System.nanoTime();
+        var deadline = AdmissionController.deadlineFor(snippet.timeout());
+        long executionId = journal != null ? journal.open() : ExecutionJournal.UNSAMPLED;
+        ExecutionResult result = null;
+        if (preflight != null) {
+            result = preflight.check(snippet.code());
+        }
+        if (result == null && resourceClass == null && costRouter != null) {
+            var route = costRouter.route(snippet.code());
+            if (route.rejected()) {
+                logger.warn("SQL snippet rejected by cost: {}", route.estimate());
+                result = new ExecutionResult(COST_REJECTED_EXIT_CODE, null, String.format(Locale.ROOT,
+                        "Execution rejected: estimated cost %.0f exceeds the limit of %.0f",
+                        route.estimate().totalCost(), costRouter.maxCost()), Duration.ofMillis(EXECUTION_TIME_ZERO));
+            } else if (route.resourceClass() != null) {
+                resourceClass = resourceClasses.get(route.resourceClass());
+            }
+        }
+        if (result == null) {
+            if (journal != null) {
+                journal.queued(executionId, resourceClass);
+            }
+            var startedResourceClass = resourceClass;
+            result = hedgeable
+                    ? hedged(deadline, snippet, resourceClass, execution, executionId, start)
+                    : admitAndRun(deadline, snippet, resourceClass, execution,
+                            () -> journalStarted(executionId, startedResourceClass, start));
+        }
+        var outcome = outcomeOf(result);
+        var latency = Duration.ofNanos(System.nanoTime() - start);
+        statistics.record(outcome, latency);
+        if (recorder != null) {
+            recorder.record(snippet, resourceClass, result, outcome, start, latency);
+        }
+        if (journal != null) {
+            journal.ended(executionId, resourceClass, outcome, result, latency);
+        }
+        return result;
+    }
+
+    static ExecutionStatistics.Outcome outcomeOf(ExecutionResult result) {
+        if (result.exitCode() == 0) {
+            return ExecutionStatistics.Outcome.SUCCEEDED;
+        }
+        if (result.exitCode() == REJECTED_EXIT_CODE || result.exitCode() == COST_REJECTED_EXIT_CODE) {
+            return ExecutionStatistics.Outcome.REJECTED;
+        }
+        if (result.exitCode() == CANCELLED_EXIT_CODE) {
+            return ExecutionStatistics.Outcome.CANCELLED;
+        }
+        if (result.exitCode() == TIMED_OUT_EXIT_CODE) {
+            return ExecutionStatistics.Outcome.TIMED_OUT;
+        }
+        return ExecutionStatistics.Outcome.FAILED;
+    }
+
+    /**
+     * Runs an execution and, if it is still running the hedge delay after it
+     * was admitted and the budget allows, a second one. The first result wins,
+     * except that a hedge rejected by admission control never does. The hedge
+     * shares the journal id of the execution and is journaled as
+     * {@link ExecutionEvent.Type#HEDGED} instead of a second start.
+     */
+    private ExecutionResult hedged(Long deadline, CodeSnippet snippet, ResourceClass resourceClass,
+            BiFunction<Duration, ResourceClass, ExecutionResult> execution, long executionId, long start) {
+        var delay = hedging.onEligible(statistics);
+        if (delay == null) {
+            return admitAndRun(deadline, snippet, resourceClass, execution,
+                    () -> journalStarted(executionId, resourceClass, start));
+        }
+        record Attempt(boolean hedge, ExecutionResult result) {
+        }
+        var finished = new LinkedBlockingQueue<Attempt>();
+        var admitted = new CountDownLatch(1);
+        var primary = SUBMITTED_EXECUTIONS.submit(() -> {
+            try {
+                finished.add(new Attempt(false, admitAndRun(deadline, snippet, resourceClass, execution, () -> {
+                    journalStarted(executionId, resourceClass, start);
+                    admitted.countDown();
+                })));
+            } finally {
+                admitted.countDown();
+            }
+        });
+        Future<?> hedge = null;
+        try {
+            // Waiting for a slot is never hedged: a second attempt would only queue up behind the first one.
+            admitted.await();
+            var attempt = finished.poll(delay.toNanos(), TimeUnit.NANOSECONDS);
+            if (attempt == null && hedging.tryHedge()) {
+                logger.debug("Hedging SQL snippet execution after {}", delay);
+                hedge = SUBMITTED_EXECUTIONS.submit(
+                        () -> finished.add(new Attempt(true, admitAndRun(deadline, snippet, resourceClass, execution,
+                                () -> journalHedged(executionId, resourceClass, start)))));
+            }
+            if (attempt == null) {
+                attempt = finished.take();
+            }
+            if (attempt.hedge() && attempt.result().exitCode() == REJECTED_EXIT_CODE) {
+                attempt = finished.take();
+            }
+            if (attempt.hedge()) {
+                hedging.onHedgeWon();
+                primary.cancel(true);
+            } else if (hedge != null) {
+                hedge.cancel(true);
+            }
+            return attempt.result();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+            logger.info("SQL snippet execution cancelled");
+            return cancelled();
+        }
+    }
+
+    /**
+     * @param onStarted called once the execution is admitted, right before it
+     *                  runs.
+     */
+    private ExecutionResult admitAndRun(Long deadline, CodeSnippet snippet, ResourceClass resourceClass,
+            BiFunction<Duration, ResourceClass, ExecutionResult> execution, Runnable onStarted) {
         boolean acquired = false;
         try {
-            semaphore.acquire();
+            var admission = admissionController.admit(deadline, resourceClass);
+            if (admission != AdmissionController.Admission.ADMITTED) {
+                logger.warn("SQL snippet rejected by admission control: {}", admission);
+                return rejected(admission);
+            }
             acquired = true;
-            return executeInDocker(snippet);
+            var timeout = remainingTimeout(deadline, snippet.timeout());
+            if (timeout == null) {
+                return rejected(AdmissionController.Admission.DEADLINE_EXCEEDED);
+            }
+            onStarted.run();
+            var result = execution.apply(timeout, resourceClass);
+            if (Thread.currentThread().isInterrupted()) {
+                // The container has been removed; whatever came back is a by-product of that.
+                logger.info("SQL snippet execution cancelled");
+                return cancelled();
+            }
+            return result;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            logger.warn("Execution interrupted while waiting for permit", e);
-            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Execution interrupted",
-                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+            logger.info("SQL snippet cancelled while waiting for an execution slot");
+            return cancelled();
         } finally {
             if (acquired) {
-                semaphore.release();
+                admissionController.release(resourceClass);
+            }
+        }
+    }
+
+    private void journalStarted(long executionId, ResourceClass resourceClass, long start) {
+        if (journal != null) {
+            journal.started(executionId, resourceClass, start);
+        }
+    }
+
+    private void journalHedged(long executionId, ResourceClass resourceClass, long start) {
+        if (journal != null) {
+            journal.hedged(executionId, resourceClass, start);
+        }
+    }
+
+    /**
+     * @return the time left until the deadline, the given timeout if there is
+     *         no deadline, or {@code null} if too little time is left to run
+     *         anything.
+     */
+    static Duration remainingTimeout(Long deadline, Duration timeout) {
+        if (deadline == null) {
+            return timeout;
+        }
+        long remaining = deadline - System.nanoTime();
+        // Anything below a millisecond would render as "statement_timeout = 0", i.e. no timeout at all.
+        return remaining < MIN_STATEMENT_TIMEOUT_NANOS ? null : Duration.ofNanos(remaining);
+    }
+
+    /**
+     * @param result the result of an execution.
+     * @return the 1-based index of the statement of the snippet that was
+     *         running when the execution timed out, or empty if it did not
+     *         time out or the statement is unknown, for example because the
+     *         snippet had not started yet.
+     */
+    public static OptionalInt runningStatement(ExecutionResult result) {
+        return result.exitCode() == TIMED_OUT_EXIT_CODE ? ExecutionOutputParser.runningStatement(result.stderr())
+                : OptionalInt.empty();
+    }
+
+    static ExecutionResult cancelled() {
+        return new ExecutionResult(CANCELLED_EXIT_CODE, null, "Execution cancelled",
+                Duration.ofMillis(EXECUTION_TIME_ZERO));
+    }
+
+    static ExecutionResult rejected(AdmissionController.Admission admission) {
+        var reason = switch (admission) {
+            case QUEUE_FULL -> "execution queue is full";
+            case EXCEEDS_BUDGET -> "resource class exceeds the host resource budget";
+            default -> "deadline exceeded while waiting for an execution slot";
+        };
+        return rejected(reason);
+    }
+
+    private static ExecutionResult rejected(String reason) {
+        return new ExecutionResult(REJECTED_EXIT_CODE, null, "Execution rejected: " + reason,
+                Duration.ofMillis(EXECUTION_TIME_ZERO));
+    }
+
+    private ExecutionResult executeInDocker(String sql, Duration timeout, ResourceClass resourceClass,
+            List<TableAttachment> attachments) {
+        return executeInDocker(sql, timeout, resourceClass, attachments, false).result();
+    }
+
+    private ProfiledResult executeInDocker(String sql, Duration timeout, ResourceClass resourceClass,
+            List<TableAttachment> attachments, boolean profile) {
+        List<Path> tempFiles = new ArrayList<>();
+
+        try {
+            var dockerInputFile = writeInput(sql, timeout, attachments, tempFiles);
+            if (profile) {
+                var config = resourceClass == null
+                        ? process.getDockerConfig()
+                        : process.getDockerConfig().withLimits(resourceClass);
+                // Only statistics lines carrying the nonce are read, so that rows of the snippet cannot pass as them.
+                var nonce = UUID.randomUUID().toString();
+                long started = System.nanoTime();
+                var dockerProcess = process.execute(dockerInputFile, config,
+                        Map.of("STATEMENT_STATISTICS", "1", "STATEMENT_STATISTICS_NONCE", nonce));
+                return ExecutionOutputParser.parseProfiled(dockerProcess, dockerInputFile, sql, timeout, nonce,
+                        ExecutionOutputParser.reachedStatementTimeout(started, timeout));
             }
+            long started = System.nanoTime();
+            var dockerProcess = resourceClass == null
+                    ? process.execute(dockerInputFile)
+                    : process.execute(dockerInputFile, process.getDockerConfig().withLimits(resourceClass));
+
+            return new ProfiledResult(ExecutionOutputParser.parse(dockerProcess, dockerInputFile, sql,
+                    ExecutionOutputParser.reachedStatementTimeout(started, timeout)), List.of());
+        } catch (IOException e) {
+            logger.error("Failed to create/write temp file for SQL snippet", e);
+            return new ProfiledResult(new ExecutionResult(EXCEPTION_EXIT_CODE, null,
+                    "Failed to create/write temp file: " + e.getMessage(), Duration.ofMillis(EXECUTION_TIME_ZERO)),
+                    List.of());
+        } catch (DockerProcessThreadException e) {
+            logger.error("Docker process failed while executing SQL snippet", e);
+            return new ProfiledResult(new ExecutionResult(EXCEPTION_EXIT_CODE, null,
+                    "Failed to handle docker process: " + e.getMessage(), Duration.ofMillis(EXECUTION_TIME_ZERO)),
+                    List.of());
+        } catch (DockerProcessTimeoutException e) {
+            logger.warn("SQL snippet execution timed out", e);
+            return new ProfiledResult(ExecutionOutputParser.timedOut(e, sql), List.of());
+        } finally {
+            tempFiles.forEach(fileManager::deleteAsync);
         }
     }
 
-    private ExecutionResult executeInDocker(CodeSnippet snippet) {
-        Path dockerInputFile = null;
+    private ExecutionResult executeInDocker(String sql, Duration timeout, ResourceClass resourceClass,
+            List<TableAttachment> attachments, RowSink sink) {
+        List<Path> tempFiles = new ArrayList<>();
+        var stderr = new AtomicReference<CompletableFuture<String>>();
 
         try {
-            var sqlWithTimeout = wrapWithStatementTimeout(snippet.code(), snippet.timeout());
-            dockerInputFile = fileManager.createTempFile("sql-snippet-" + System.nanoTime(), ".sql");
-            fileManager.write(dockerInputFile, sqlWithTimeout);
-            var dockerProcess = process.execute(dockerInputFile);
+            var dockerInputFile = writeInput(sql, timeout, attachments, tempFiles);
+
+            var executionTime = new AtomicReference<Duration>();
+            ProcessOutputHandler outputHandler = running -> {
+                // Drain stderr concurrently so that a chatty stderr cannot stall the container.
+                stderr.set(CompletableFuture.supplyAsync(() -> readFully(running.getErrorStream()),
+                        STDERR_READERS));
+                var reader = new InputStreamReader(running.getInputStream(), StandardCharsets.UTF_8);
+                executionTime.set(CsvRowStreamer.stream(reader, sink));
+            };
+            long started = System.nanoTime();
+            var dockerProcess = resourceClass == null
+                    ? process.execute(dockerInputFile, outputHandler)
+                    : process.execute(dockerInputFile, process.getDockerConfig().withLimits(resourceClass),
+                            outputHandler);
 
-            return parseDockerExecutionResult(dockerProcess, dockerInputFile);
+            int exitCode = dockerProcess.exitValue();
+            var rawErr = stderr.get().join();
+            var duration = executionTime.get() != null ? executionTime.get() : Duration.ZERO;
+            if (exitCode != 0 && ExecutionOutputParser.reachedStatementTimeout(started, timeout)) {
+                // The rows of the statements that completed have been handed to the sink already.
+                var timedOut = ExecutionOutputParser.statementTimedOut(null, rawErr, sql);
+                return new ExecutionResult(timedOut.exitCode(), "", timedOut.stderr(), duration);
+            }
+            var err = ExecutionOutputParser.stripProgress(rawErr).trim();
+            return new ExecutionResult(exitCode, "", err, duration);
         } catch (IOException e) {
             logger.error("Failed to create/write temp file for SQL snippet", e);
             return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to create/write temp file: " + e.getMessage(),
@@ -90,94 +701,242 @@ public class SqlExecutor implements CodeExecutor {
                     Duration.ofMillis(EXECUTION_TIME_ZERO));
         } catch (DockerProcessTimeoutException e) {
             logger.warn("SQL snippet execution timed out", e);
-            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Snippet execution timed out: " + e.getMessage(),
-                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+            // The rows received so far have been handed to the sink already.
+            var err = stderr.get() == null ? null
+                    : stderr.get().completeOnTimeout("", STDERR_DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).join();
+            return new ExecutionResult(TIMED_OUT_EXIT_CODE, null, "Snippet execution timed out: " + e.getMessage()
+                    + ExecutionOutputParser.describeProgress(err, sql), Duration.ofMillis(EXECUTION_TIME_ZERO));
         } finally {
-            if (dockerInputFile != null) {
-                fileManager.deleteAsync(dockerInputFile);
-            }
+            tempFiles.forEach(fileManager::deleteAsync);
         }
     }
 
-    private ExecutionResult parseDockerExecutionResult(Process dockerProcess, Path dockerInputFile) {
-        int exitCode = dockerProcess.exitValue();
-        var stdout = new BufferedReader(new InputStreamReader(dockerProcess.getInputStream()));
-        var stderr = new BufferedReader(new InputStreamReader(dockerProcess.getErrorStream()));
+    private ExecutionResult executeOnServer(String sql, Duration timeout, ResourceClass resourceClass) {
+        try {
+            // Servers are shared, so a resource class only contributes its execution timeout.
+            var config = resourceClass == null
+                    ? process.getDockerConfig()
+                    : process.getDockerConfig().withLimits(resourceClass);
+            long started = System.nanoTime();
+            var serverProcess = serverPool.execute(sql, timeout, config);
+            return ExecutionOutputParser.parse(serverProcess, null, sql,
+                    ExecutionOutputParser.reachedStatementTimeout(started, timeout));
+        } catch (DockerProcessThreadException e) {
+            logger.error("Docker process failed while executing SQL snippet", e);
+            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to handle docker process: " + e.getMessage(),
+                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+        } catch (DockerProcessTimeoutException e) {
+            logger.warn("SQL snippet execution timed out", e);
+            return ExecutionOutputParser.timedOut(e, sql);
+        }
+    }
 
-        // stdout carries CSV output plus the execution time marker.
-        String out = stdout.lines().reduce("", (a, b) -> a + b + "\n").trim();
-        // stderr contains psql errors and timing output from \\timing.
-        String err = stderr.lines().reduce("", (a, b) -> a + b + "\n").trim();
+    private ExecutionResult compareInDocker(String sql, Duration timeout, ResourceClass resourceClass,
+            List<TableAttachment> attachments, ExpectedResult expected) {
+        List<Path> tempFiles = new ArrayList<>();
 
-        var timing = extractExecutionTime(out);
-        if (timing != null) {
-            out = timing.cleanedOutput;
-        }
+        try {
+            var dockerInputFile = writeInput(sql, timeout, attachments, tempFiles);
+            Path expectedFile = null;
+            if (expected.rows() != null) {
+                expectedFile = fileManager.createTempFile("sql-expected-" + System.nanoTime(), ".csv");
+                tempFiles.add(expectedFile);
+                fileManager.write(expectedFile, ResultComparison.toCsv(expected));
+            }
+            var config = resourceClass == null
+                    ? process.getDockerConfig()
+                    : process.getDockerConfig().withLimits(resourceClass);
+            // Only the verdict carrying the nonce is returned, so that the snippet cannot print one of its own.
+            var nonce = UUID.randomUUID().toString();
+            long started = System.nanoTime();
+            var dockerProcess = process.compare(dockerInputFile,
+                    ResultComparison.environment(expected, expectedFile, nonce), config);
 
-        if (exitCode == 0) {
-            if (out.isEmpty()) {
-                out = "[]";
-            } else {
-                out = CsvJsonConverter.toJson(out);
+            var result = ExecutionOutputParser.parse(dockerProcess, dockerInputFile, sql, false,
+                    ExecutionOutputParser.reachedStatementTimeout(started, timeout));
+            if (result.exitCode() != 0) {
+                return result;
             }
-        } else if (out.isEmpty() && err.isEmpty()) {
-            var parentDir = dockerInputFile != null ? dockerInputFile.getParent() : null;
-            var pathHint = parentDir != null ? (" Temp directory: " + parentDir) : "";
-            err = "Docker execution failed with no output. Common causes include a missing Docker daemon or a temp "
-                    + "directory that is not shared with Docker." + pathHint;
+            var verdict = ResultComparison.verdict(result.stdout(), nonce);
+            if (verdict == null) {
+                return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "The comparison produced no verdict",
+                        result.executionTime());
+            }
+            return new ExecutionResult(0, verdict, result.stderr(), result.executionTime());
+        } catch (IOException e) {
+            logger.error("Failed to create/write temp file for SQL snippet", e);
+            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to create/write temp file: " + e.getMessage(),
+                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+        } catch (DockerProcessThreadException e) {
+            logger.error("Docker process failed while executing SQL snippet", e);
+            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to handle docker process: " + e.getMessage(),
+                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+        } catch (DockerProcessTimeoutException e) {
+            logger.warn("SQL snippet execution timed out", e);
+            return new ExecutionResult(TIMED_OUT_EXIT_CODE, null, "Snippet execution timed out: " + e.getMessage()
+                    + ExecutionOutputParser.describeProgress(e.getPartialStderr(), sql),
+                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+        } finally {
+            tempFiles.forEach(fileManager::deleteAsync);
         }
+    }
 
-        var duration = timing != null ? timing.duration : Duration.ZERO;
-        return new ExecutionResult(exitCode, out, err, duration);
+    /**
+     * Writes the attachment data and the SQL file mounted into the container.
+     * Every created file is added to {@code tempFiles}, even if writing it
+     * fails, so that the caller can delete it.
+     */
+    private Path writeInput(String sql, Duration timeout, List<TableAttachment> attachments, List<Path> tempFiles)
+            throws IOException {
+        var script = new StringBuilder();
+        for (var attachment : attachments) {
+            var attachmentFile = fileManager.createTempFile("sql-attachment-" + System.nanoTime(),
+                    TableAttachments.suffix(attachment));
+            tempFiles.add(attachmentFile);
+            TableAttachments.write(attachment, attachmentFile);
+            script.append(TableAttachments.load(attachment, SandboxProcessExecutor.containerPath(attachmentFile)));
+        }
+        script.append(ExecutionOutputParser.markSnippetStart(sql, 0));
+        var dockerInputFile = fileManager.createTempFile("sql-snippet-" + System.nanoTime(), ".sql");
+        tempFiles.add(dockerInputFile);
+        fileManager.write(dockerInputFile, ExecutionOutputParser.wrapWithStatementTimeout(script.toString(), timeout));
+        return dockerInputFile;
     }
 
-    private String wrapWithStatementTimeout(String sql, Duration timeout) {
-        if (timeout == null || timeout.isZero() || timeout.isNegative()) {
-            return sql;
+    private static String readFully(InputStream stream) {
+        try {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
         }
-        long ms = timeout.toMillis();
-        return "SET statement_timeout = " + ms + ";\n" + sql;
     }
 
-    private TimingResult extractExecutionTime(String output) {
-        if (output == null || output.isEmpty()) {
-            return null;
+    /**
+     * Builds a {@link SqlExecutor} from its required collaborators and any
+     * optional ones.
+     */
+    public static final class Builder {
+        private final AdmissionController admissionController;
+        private final TempFileManager fileManager;
+        private final SandboxProcessExecutor process;
+        private Map<String, ResourceClass> resourceClasses = Map.of();
+        private SqlServerPool serverPool;
+        private SqlSyntaxPreflight preflight;
+        private long spillThresholdBytes = DEFAULT_SPILL_THRESHOLD_BYTES;
+        private WorkloadRecorder recorder;
+        private SqlCostRouter costRouter;
+        private HedgingPolicy hedging;
+        private ExecutionJournal journal;
+
+        private Builder(AdmissionController admissionController, TempFileManager fileManager,
+                SandboxProcessExecutor process) {
+            this.admissionController = admissionController;
+            this.fileManager = fileManager;
+            this.process = process;
         }
-        var lines = output.split("\\R");
-        var cleaned = new StringBuilder();
-        Duration duration = null;
-        for (var line : lines) {
-            var trimmed = line.trim();
-            if (trimmed.startsWith("__EXECUTION_TIME__")) {
-                var parts = trimmed.split(":", 2);
-                if (parts.length == 2) {
-                    try {
-                        long ms = Long.parseLong(parts[1].trim());
-                        duration = Duration.ofMillis(ms);
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
-                continue;
-            }
-            if (!line.isEmpty()) {
-                cleaned.append(line).append('\n');
-            }
+
+        /**
+         * @param resourceClasses the resource classes selectable by name.
+         * @return this builder.
+         */
+        public Builder resourceClasses(Map<String, ResourceClass> resourceClasses) {
+            this.resourceClasses = resourceClasses;
+            return this;
         }
-        var cleanedOut = cleaned.toString().trim();
-        if (duration == null) {
-            return null;
+
+        /**
+         * @param serverPool the pool of database servers for regular
+         *                   executions, or {@code null} to run every snippet
+         *                   in a fresh cluster.
+         * @return this builder.
+         */
+        public Builder serverPool(SqlServerPool serverPool) {
+            this.serverPool = serverPool;
+            return this;
         }
-        return new TimingResult(duration, cleanedOut);
-    }
 
-    private static final class TimingResult {
-        private final Duration duration;
-        private final String cleanedOutput;
+        /**
+         * @param preflight the syntax check run before admission, or
+         *                  {@code null} to execute snippets unchecked.
+         * @return this builder.
+         */
+        public Builder preflight(SqlSyntaxPreflight preflight) {
+            this.preflight = preflight;
+            return this;
+        }
 
-        private TimingResult(Duration duration, String cleanedOutput) {
-            this.duration = duration;
-            this.cleanedOutput = cleanedOutput;
+        /**
+         * @param spillThresholdBytes the size of the rows, in characters,
+         *                            above which paged executions spill them
+         *                            to a file; defaults to
+         *                            {@link #DEFAULT_SPILL_THRESHOLD_BYTES}.
+         * @return this builder.
+         */
+        public Builder spillThresholdBytes(long spillThresholdBytes) {
+            this.spillThresholdBytes = spillThresholdBytes;
+            return this;
         }
-    }
 
+        /**
+         * @param recorder the recorder capturing executions for replay, or
+         *                 {@code null} to record nothing.
+         * @return this builder.
+         */
+        public Builder recorder(WorkloadRecorder recorder) {
+            this.recorder = recorder;
+            return this;
+        }
+
+        /**
+         * @param costRouter the router selecting a resource class by
+         *                   estimated cost, or {@code null} to run snippets
+         *                   without one with the default limits.
+         * @return this builder.
+         */
+        public Builder costRouter(SqlCostRouter costRouter) {
+            this.costRouter = costRouter;
+            return this;
+        }
+
+        /**
+         * @param hedging the policy for hedging slow read-only executions, or
+         *                {@code null} to never hedge.
+         * @return this builder.
+         */
+        public Builder hedging(HedgingPolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * @param journal the journal receiving the events of executions, or
+         *                {@code null} to journal nothing.
+         * @return this builder.
+         */
+        public Builder journal(ExecutionJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * @return the executor.
+         * @throws IllegalArgumentException if the spill threshold is negative
+         *                                  or a lane of the cost router names
+         *                                  an unknown resource class.
+         */
+        public SqlExecutor build() {
+            if (spillThresholdBytes < 0) {
+                throw new IllegalArgumentException("spillThresholdBytes must be >= 0");
+            }
+            if (costRouter != null) {
+                for (var lane : costRouter.lanes()) {
+                    if (!resourceClasses.containsKey(lane.resourceClass())) {
+                        throw new IllegalArgumentException(
+                                "Unknown resource class of cost lane: " + lane.resourceClass());
+                    }
+                }
+            }
+            return new SqlExecutor(this);
+        }
+    }
 }
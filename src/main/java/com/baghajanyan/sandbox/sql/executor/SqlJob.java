@@ -0,0 +1,31 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Instant;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+
+/**
+ * The state of a snippet submitted to a {@link SqlJobQueue}.
+ *
+ * @param id          the id returned on submission.
+ * @param status      the status of the job.
+ * @param attempts    the number of times the job was started, including
+ *                    attempts that failed for infrastructure reasons and
+ *                    were retried.
+ * @param submittedAt when the job was submitted.
+ * @param completedAt when the job completed, or {@code null} if it has not.
+ * @param result      the result of the execution, or {@code null} if the job
+ *                    has not completed.
+ */
+public record SqlJob(String id, Status status, int attempts, Instant submittedAt, Instant completedAt,
+        ExecutionResult result) {
+
+    public enum Status {
+        /** The job waits for a worker, possibly to be retried. */
+        QUEUED,
+        /** A worker is executing the job. */
+        RUNNING,
+        /** The job has a result, successful or not. */
+        COMPLETED
+    }
+}
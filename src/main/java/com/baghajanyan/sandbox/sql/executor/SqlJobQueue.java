@@ -0,0 +1,608 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Queues snippets for asynchronous execution by a {@link SqlExecutor} and
+ * keeps the queue in an append-only file, so that it survives restarts.
+ *
+ * Submitting a snippet only appends it to the file and returns a job id,
+ * which callers poll with {@link #job(String)}. A fixed number of workers run
+ * the jobs in submission order, one at a time each, so a burst of submissions
+ * is executed at the rate the executor sustains instead of piling up in
+ * admission control.
+ *
+ * A job that fails for an infrastructure reason is retried with an
+ * exponential backoff until it has been attempted {@code maxAttempts} times.
+ * Infrastructure failures are rejections by admission control, cancellations
+ * and failures to run the container; SQL errors and timeouts are results.
+ * Completed jobs and their results are kept for {@code resultTtl}.
+ *
+ * The file holds one JSON object per line. Submissions are forced to disk
+ * before {@code submit} returns, other records are not. Jobs run at least
+ * once: a job that was running when the process stopped runs again after a
+ * restart, and one that was started {@code maxAttempts} times without
+ * completing is completed as failed. The file is compacted on startup and
+ * whenever most of its records are obsolete.
+ */
+public class SqlJobQueue implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SqlJobQueue.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int EXCEPTION_EXIT_CODE = -1;
+    // Reported by docker run when the daemon cannot create or start the container.
+    private static final int DOCKER_RUN_FAILED_EXIT_CODE = 125;
+    private static final Duration MAX_SWEEP_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+    // Compacting a small file is not worth the rewrite.
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int MAX_BACKOFF_DOUBLINGS = 10;
+
+    private final SqlExecutor executor;
+    private final Path file;
+    private final int maxAttempts;
+    private final Duration retryDelay;
+    private final Duration resultTtl;
+    private final DelayQueue<Pending> ready = new DelayQueue<>();
+    private final AtomicLong order = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    // Guarded by "this".
+    private final Map<String, Entry> jobs = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long records;
+    private boolean closed;
+
+    /**
+     * Reads the jobs left in the file by a previous run and starts the
+     * workers.
+     *
+     * @param executor    the executor running the jobs.
+     * @param file        the file the queue is kept in; created if missing.
+     * @param workers     the number of jobs executed at a time.
+     * @param maxAttempts the number of times a job is attempted before an
+     *                    infrastructure failure becomes its result.
+     * @param retryDelay  the delay before the first retry; doubled for every
+     *                    further one.
+     * @param resultTtl   how long completed jobs are kept.
+     * @throws IOException if the file cannot be read or written.
+     */
+    public SqlJobQueue(SqlExecutor executor, Path file, int workers, int maxAttempts, Duration retryDelay,
+            Duration resultTtl) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be greater than 0");
+        }
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be greater than 0");
+        }
+        if (retryDelay.isNegative()) {
+            throw new IllegalArgumentException("retryDelay must be >= 0");
+        }
+        if (resultTtl.isNegative() || resultTtl.isZero()) {
+            throw new IllegalArgumentException("resultTtl must be positive");
+        }
+        this.executor = executor;
+        this.file = file;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        this.resultTtl = resultTtl;
+        synchronized (this) {
+            recover();
+            compact();
+            long now = System.nanoTime();
+            for (var job : jobs.values()) {
+                if (job.status == SqlJob.Status.QUEUED) {
+                    ready.add(new Pending(job.id, now, order.incrementAndGet()));
+                }
+            }
+        }
+        for (int i = 0; i < workers; i++) {
+            threads.add(Thread.ofVirtual().name("sandbox-sql-job-worker-" + i).start(this::work));
+        }
+        threads.add(Thread.ofVirtual().name("sandbox-sql-job-sweeper").start(this::sweepPeriodically));
+    }
+
+    /**
+     * Queues a snippet for execution.
+     *
+     * @param snippet the snippet to execute.
+     * @param options the execution options.
+     * @return the id of the job.
+     * @throws IOException              if the job could not be written to the
+     *                                  file; it is not queued then.
+     * @throws IllegalArgumentException if the options carry table
+     *                                  attachments.
+     */
+    public String submit(CodeSnippet snippet, SqlExecutionOptions options) throws IOException {
+        return submitAll(List.of(snippet), options).get(0);
+    }
+
+    /**
+     * Queues snippets for execution, forcing the file to disk once for all of
+     * them.
+     *
+     * @param snippets the snippets to execute.
+     * @param options  the execution options of every snippet.
+     * @return the ids of the jobs, in the order of the snippets.
+     * @throws IOException              if the jobs could not be written to
+     *                                  the file; none of them is queued then.
+     * @throws IllegalArgumentException if the options carry table
+     *                                  attachments.
+     */
+    public List<String> submitAll(List<CodeSnippet> snippets, SqlExecutionOptions options) throws IOException {
+        if (!options.attachments().isEmpty()) {
+            throw new IllegalArgumentException("Jobs cannot carry table attachments");
+        }
+        var now = Instant.now();
+        var entries = snippets.stream()
+                .map(snippet -> new Entry(UUID.randomUUID().toString(), snippet.code(), snippet.timeout(), options,
+                        now))
+                .toList();
+        var lines = new StringBuilder();
+        for (var entry : entries) {
+            lines.append(submittedRecord(entry)).append('\n');
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The job queue is closed");
+            }
+            long size = channel.size();
+            try {
+                write(lines.toString());
+                channel.force(false);
+            } catch (IOException e) {
+                // Keep a partly written line from swallowing the next record.
+                channel.truncate(size);
+                throw e;
+            }
+            for (var entry : entries) {
+                jobs.put(entry.id, entry);
+            }
+            records += entries.size();
+        }
+        long readyNanos = System.nanoTime();
+        for (var entry : entries) {
+            ready.add(new Pending(entry.id, readyNanos, order.incrementAndGet()));
+        }
+        submitted.add(entries.size());
+        return entries.stream().map(entry -> entry.id).toList();
+    }
+
+    /**
+     * @param id the id of the job.
+     * @return the job, or empty if it is unknown or its result has expired.
+     */
+    public synchronized Optional<SqlJob> job(String id) {
+        var entry = jobs.get(id);
+        if (entry == null || entry.expired(Instant.now(), resultTtl)) {
+            return Optional.empty();
+        }
+        return Optional.of(entry.snapshot());
+    }
+
+    /**
+     * @return the number of jobs submitted since startup.
+     */
+    public long submittedJobs() {
+        return submitted.sum();
+    }
+
+    /**
+     * @return the number of jobs completed since startup.
+     */
+    public long completedJobs() {
+        return completed.sum();
+    }
+
+    /**
+     * @return the number of retries after infrastructure failures since
+     *         startup.
+     */
+    public long retriedJobs() {
+        return retried.sum();
+    }
+
+    /**
+     * @return the number of jobs waiting for a worker, including those
+     *         waiting to be retried.
+     */
+    public int queuedJobs() {
+        return ready.size();
+    }
+
+    /**
+     * Stops the workers and closes the file. Running jobs are cancelled and
+     * run again after a restart.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        threads.forEach(Thread::interrupt);
+        try {
+            for (var thread : threads) {
+                if (!thread.join(CLOSE_TIMEOUT)) {
+                    logger.warn("SQL job worker {} did not stop within {}", thread.getName(), CLOSE_TIMEOUT);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return whether the execution failed for a reason that retrying may
+     *         overcome.
+     */
+    static boolean isInfrastructureFailure(ExecutionResult result) {
+        return switch (SqlExecutor.outcomeOf(result)) {
+            // A snippet rejected by its estimated cost would be rejected again.
+            case REJECTED -> result.exitCode() != SqlExecutor.COST_REJECTED_EXIT_CODE;
+            case CANCELLED -> true;
+            case FAILED -> result.exitCode() == EXCEPTION_EXIT_CODE
+                    || result.exitCode() == DOCKER_RUN_FAILED_EXIT_CODE;
+            default -> false;
+        };
+    }
+
+    /**
+     * Forgets expired jobs and compacts the file if most of its records are
+     * obsolete.
+     */
+    void sweep() {
+        var now = Instant.now();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            jobs.values().removeIf(job -> job.expired(now, resultTtl));
+            if (records > MIN_COMPACTION_RECORDS && records > 2L * jobs.size()) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.warn("Failed to compact SQL job queue {}", file, e);
+                }
+            }
+        }
+    }
+
+    private void sweepPeriodically() {
+        var interval = resultTtl.compareTo(MAX_SWEEP_INTERVAL) < 0 ? resultTtl : MAX_SWEEP_INTERVAL;
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sweep();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Pending pending;
+            try {
+                pending = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Entry job;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                job = jobs.get(pending.id());
+                if (job == null || job.status != SqlJob.Status.QUEUED) {
+                    continue;
+                }
+                job.status = SqlJob.Status.RUNNING;
+                job.attempts++;
+                append(startedRecord(job));
+            }
+            ExecutionResult result;
+            boolean retry;
+            try {
+                result = executor.execute(new CodeSnippet(job.sql, job.timeout, "sql"), job.options);
+                retry = job.attempts < maxAttempts && isInfrastructureFailure(result);
+            } catch (RuntimeException e) {
+                // Thrown for invalid options, which no retry fixes.
+                logger.warn("SQL job {} failed", job.id, e);
+                result = new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Job failed: " + e.getMessage(),
+                        Duration.ZERO);
+                retry = false;
+            }
+            synchronized (this) {
+                if (closed) {
+                    // Cancelled by close; the file still has the job as queued.
+                    job.status = SqlJob.Status.QUEUED;
+                    return;
+                }
+                // Counted before the job is seen as completed, so that the counters never lag behind it.
+                if (retry) {
+                    job.status = SqlJob.Status.QUEUED;
+                    retried.increment();
+                } else {
+                    completed.increment();
+                    job.complete(result, Instant.now());
+                    append(completedRecord(job));
+                }
+            }
+            if (retry) {
+                var delay = retryDelay.multipliedBy(1L << Math.min(job.attempts - 1, MAX_BACKOFF_DOUBLINGS));
+                logger.debug("Retrying SQL job {} in {} after: {}", job.id, delay, result.stderr());
+                ready.add(new Pending(job.id, System.nanoTime() + delay.toNanos(), order.incrementAndGet()));
+            }
+        }
+    }
+
+    // Called with the lock held.
+    private void recover() throws IOException {
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        apply(objectMapper.readTree(line));
+                    } catch (JsonProcessingException | RuntimeException e) {
+                        // Most likely the last line, cut off by a crash while it was written.
+                        logger.warn("Skipping unreadable record of SQL job queue {}", file, e);
+                    }
+                }
+            }
+        }
+        var now = Instant.now();
+        jobs.values().removeIf(job -> job.expired(now, resultTtl));
+        for (var job : jobs.values()) {
+            if (job.status != SqlJob.Status.COMPLETED && job.attempts >= maxAttempts) {
+                logger.warn("Abandoning SQL job {} after {} attempts", job.id, job.attempts);
+                job.complete(new ExecutionResult(EXCEPTION_EXIT_CODE, null,
+                        "Job abandoned after " + job.attempts + " attempts", Duration.ZERO), now);
+            }
+        }
+    }
+
+    private void apply(JsonNode node) {
+        var id = node.get("id").asText();
+        switch (node.path("op").asText()) {
+            case "submitted" -> jobs.put(id, Entry.submitted(node));
+            case "started" -> {
+                var job = jobs.get(id);
+                if (job != null && job.status != SqlJob.Status.COMPLETED) {
+                    job.attempts = Math.max(job.attempts, node.path("attempt").asInt());
+                }
+            }
+            case "completed" -> jobs.put(id, Entry.completed(node));
+            default -> throw new IllegalArgumentException("Unknown record: " + node.path("op").asText());
+        }
+    }
+
+    /**
+     * Rewrites the file with one record per job.
+     */
+    // Called with the lock held.
+    private void compact() throws IOException {
+        var compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (var job : jobs.values()) {
+                var record = job.status == SqlJob.Status.COMPLETED ? completedRecord(job) : submittedRecord(job);
+                writeFully(out, record + "\n");
+            }
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        try {
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = jobs.size();
+        } finally {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+    }
+
+    // Called with the lock held.
+    private void append(String record) {
+        try {
+            write(record + "\n");
+            records++;
+        } catch (IOException e) {
+            // The job still runs; only a restart before it completes loses track of the attempt or result.
+            logger.warn("Failed to write to SQL job queue {}", file, e);
+        }
+    }
+
+    private void write(String lines) throws IOException {
+        writeFully(channel, lines);
+    }
+
+    private static void writeFully(FileChannel channel, String lines) throws IOException {
+        var buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String submittedRecord(Entry job) {
+        var node = objectMapper.createObjectNode()
+                .put("op", "submitted")
+                .put("id", job.id)
+                .put("submittedAt", job.submittedAt.toString())
+                .put("attempts", job.attempts)
+                .put("sql", job.sql)
+                .put("timeoutMs", job.timeout != null ? job.timeout.toMillis() : null)
+                .put("resourceClass", job.options.resourceClass());
+        var expected = job.options.expectedResult();
+        if (expected != null) {
+            var expectedNode = node.putObject("expected")
+                    .put("fingerprint", expected.fingerprint())
+                    .put("ordered", expected.ordered())
+                    .put("maxDiffRows", expected.maxDiffRows());
+            expectedNode.set("rows", objectMapper.valueToTree(expected.rows()));
+        }
+        return toJson(node);
+    }
+
+    private static String startedRecord(Entry job) {
+        return toJson(objectMapper.createObjectNode()
+                .put("op", "started")
+                .put("id", job.id)
+                .put("attempt", job.attempts));
+    }
+
+    private static String completedRecord(Entry job) {
+        return toJson(objectMapper.createObjectNode()
+                .put("op", "completed")
+                .put("id", job.id)
+                .put("submittedAt", job.submittedAt.toString())
+                .put("attempts", job.attempts)
+                .put("completedAt", job.completedAt.toString())
+                .put("exitCode", job.result.exitCode())
+                .put("stdout", job.result.stdout())
+                .put("stderr", job.result.stderr())
+                .put("executionTimeMs",
+                        job.result.executionTime() != null ? job.result.executionTime().toMillis() : 0));
+    }
+
+    private static String toJson(ObjectNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            // Only strings and numbers are written.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Pending(String id, long readyNanos, long order) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            var that = (Pending) other;
+            int byTime = Long.compare(readyNanos - that.readyNanos, 0);
+            return byTime != 0 ? byTime : Long.compare(order, that.order);
+        }
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final Instant submittedAt;
+        // Released once the job has completed.
+        private String sql;
+        private Duration timeout;
+        private SqlExecutionOptions options;
+        private SqlJob.Status status = SqlJob.Status.QUEUED;
+        private int attempts;
+        private Instant completedAt;
+        private ExecutionResult result;
+
+        private Entry(String id, String sql, Duration timeout, SqlExecutionOptions options, Instant submittedAt) {
+            this.id = id;
+            this.sql = sql;
+            this.timeout = timeout;
+            this.options = options;
+            this.submittedAt = submittedAt;
+        }
+
+        static Entry submitted(JsonNode node) {
+            var timeoutMs = node.get("timeoutMs");
+            ExpectedResult expected = null;
+            var expectedNode = node.get("expected");
+            if (expectedNode != null && !expectedNode.isNull()) {
+                var rowsNode = expectedNode.get("rows");
+                List<List<String>> rows = rowsNode == null || rowsNode.isNull() ? null
+                        : objectMapper.convertValue(rowsNode, new TypeReference<List<List<String>>>() {
+                        });
+                expected = new ExpectedResult(rows, textOrNull(expectedNode, "fingerprint"),
+                        expectedNode.path("ordered").asBoolean(true),
+                        expectedNode.path("maxDiffRows").asInt(ExpectedResult.DEFAULT_MAX_DIFF_ROWS));
+            }
+            var entry = new Entry(node.get("id").asText(), node.get("sql").asText(),
+                    timeoutMs == null || timeoutMs.isNull() ? null : Duration.ofMillis(timeoutMs.asLong()),
+                    new SqlExecutionOptions(textOrNull(node, "resourceClass"), expected, List.of()),
+                    Instant.parse(node.get("submittedAt").asText()));
+            entry.attempts = node.path("attempts").asInt();
+            return entry;
+        }
+
+        static Entry completed(JsonNode node) {
+            var entry = new Entry(node.get("id").asText(), null, null, null,
+                    Instant.parse(node.get("submittedAt").asText()));
+            entry.attempts = node.path("attempts").asInt();
+            entry.complete(new ExecutionResult(node.path("exitCode").asInt(), textOrNull(node, "stdout"),
+                    textOrNull(node, "stderr"), Duration.ofMillis(node.path("executionTimeMs").asLong())),
+                    Instant.parse(node.get("completedAt").asText()));
+            return entry;
+        }
+
+        void complete(ExecutionResult result, Instant completedAt) {
+            this.status = SqlJob.Status.COMPLETED;
+            this.result = result;
+            this.completedAt = completedAt;
+            this.sql = null;
+            this.timeout = null;
+            this.options = null;
+        }
+
+        boolean expired(Instant now, Duration ttl) {
+            return status == SqlJob.Status.COMPLETED && completedAt.plus(ttl).isBefore(now);
+        }
+
+        SqlJob snapshot() {
+            return new SqlJob(id, status, attempts, submittedAt, completedAt, result);
+        }
+
+        private static String textOrNull(JsonNode node, String field) {
+            var value = node.get(field);
+            return value == null || value.isNull() ? null : value.asText();
+        }
+    }
+}
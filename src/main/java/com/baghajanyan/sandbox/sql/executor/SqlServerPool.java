@@ -0,0 +1,281 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+/**
+ * A pool of long-lived Postgres server containers, one per worker slot.
+ *
+ * Each snippet borrows a server exclusively and runs in a freshly created
+ * database owned by a throwaway unprivileged role, so the per-snippet cost is
+ * a {@code CREATE DATABASE} instead of a cluster initialization. Servers are
+ * started lazily with the limits of the default {@link DockerConfig}. A server
+ * whose snippet timed out is cleaned up before it is reused, and a server that
+ * cannot be cleaned up or stops responding is replaced.
+ *
+ * With a {@link TemplateCache}, snippets whose setup prefix is cached on the
+ * borrowed server are cloned from its template and only run the rest.
+ *
+ * Only the admin role of a server can connect with a password, and only
+ * snippets without psql meta-commands are {@linkplain #accepts(String)
+ * accepted}, so a snippet cannot reconnect as the admin role or reach the
+ * shell of a server that outlives it.
+ */
+public class SqlServerPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlServerPool.class);
+    // psql exits with 0 on success and with 3 when the snippet fails; anything else points at the server.
+    private static final Set<Integer> HEALTHY_EXIT_CODES = Set.of(0, 3);
+    private static final long BORROW_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final DockerProcessExecutor process;
+    private final TemplateCache templates;
+    // Guarded by "this".
+    private int size;
+    private final LinkedBlockingDeque<String> idle = new LinkedBlockingDeque<>();
+    private final Set<String> servers = ConcurrentHashMap.newKeySet();
+    // Guarded by "this"; counts servers that are running or still starting.
+    private int started;
+    private volatile boolean closed;
+
+    /**
+     * @param process the executor used to start and reach server containers.
+     * @param size    the maximum number of server containers, usually the
+     *                maximum number of concurrent executions.
+     */
+    public SqlServerPool(DockerProcessExecutor process, int size) {
+        this(process, size, null);
+    }
+
+    /**
+     * @param process   the executor used to start and reach server containers.
+     * @param size      the maximum number of server containers, usually the
+     *                  maximum number of concurrent executions.
+     * @param templates the cache of setup prefixes, or {@code null} to run
+     *                  every snippet in an empty database.
+     */
+    public SqlServerPool(DockerProcessExecutor process, int size, TemplateCache templates) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than 0");
+        }
+        this.process = process;
+        this.size = size;
+        this.templates = templates;
+    }
+
+    /**
+     * @param sql the snippet.
+     * @return whether the snippet may run on a pooled server. Snippets with
+     *         a backslash, which may be a psql meta-command such as
+     *         {@code \c} or {@code \!}, must run in a fresh cluster instead.
+     */
+    public static boolean accepts(String sql) {
+        return sql.indexOf('\\') < 0;
+    }
+
+    /**
+     * Runs the snippet in a fresh database on a pooled server.
+     *
+     * @param sql    the SQL to run.
+     * @param config the configuration whose execution timeout applies.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if no server can be started or
+     *                                       reached.
+     * @throws DockerProcessTimeoutException if no server becomes available or
+     *                                       the execution times out.
+     */
+    public Process execute(String sql, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        return execute(sql, null, config);
+    }
+
+    /**
+     * Runs the snippet in a fresh database on a pooled server, with a
+     * {@code statement_timeout} set before it.
+     *
+     * The snippet's deadline starts when this method is called: waiting for a
+     * server and materializing a template are charged against it, and the
+     * snippet itself only gets the time that is left.
+     *
+     * @param sql              the SQL to run.
+     * @param statementTimeout the statement timeout, or {@code null} for the
+     *                         role's default.
+     * @param config           the configuration whose execution timeout
+     *                         applies.
+     * @return the completed {@link Process} object.
+     * @throws DockerProcessThreadException  if no server can be started or
+     *                                       reached.
+     * @throws DockerProcessTimeoutException if no server becomes available or
+     *                                       the execution times out.
+     */
+    public Process execute(String sql, Duration statementTimeout, DockerConfig config)
+            throws DockerProcessThreadException, DockerProcessTimeoutException {
+        var budget = statementTimeout != null && statementTimeout.compareTo(config.executionTimeout()) < 0
+                ? statementTimeout
+                : config.executionTimeout();
+        long deadline = System.nanoTime() + budget.toNanos();
+        var server = borrow(deadline, budget);
+        boolean healthy = false;
+        try {
+            // Split before the timeout is prepended, so that the prefix starts with the snippet's own statements.
+            var prefix = templates == null ? null : TemplateCache.split(sql);
+            var remaining = Duration.ofNanos(deadline - System.nanoTime());
+            var templateId = prefix == null || !remaining.isPositive() ? null
+                    : templates.acquire(server, prefix, config.withExecutionTimeout(remaining));
+            remaining = Duration.ofNanos(deadline - System.nanoTime());
+            if (!remaining.isPositive()) {
+                // Waiting for the server or materializing the template used up the time; the server is clean.
+                healthy = true;
+                throw new DockerProcessTimeoutException(
+                        "Execution timed out after " + budget.toSeconds() + " seconds before the snippet started");
+            }
+            var snippetConfig = config.withExecutionTimeout(remaining);
+            var snippetTimeout = statementTimeout == null ? null : remaining;
+            Process completed;
+            try {
+                completed = templateId == null
+                        ? process.execIsolated(server, script(sql, 0, snippetTimeout), newSnippetId(), snippetConfig)
+                        : process.execIsolated(server,
+                                script(prefix.rest(), prefix.setupStatements(), snippetTimeout), newSnippetId(),
+                                templateId, snippetConfig);
+            } catch (DockerProcessTimeoutException e) {
+                // Killing the docker exec client leaves the snippet running inside the server.
+                healthy = process.reapIsolated(server);
+                throw e;
+            }
+            healthy = HEALTHY_EXIT_CODES.contains(completed.exitValue());
+            return completed;
+        } finally {
+            giveBack(server, healthy);
+        }
+    }
+
+    /**
+     * Changes the maximum number of server containers. When shrinking, surplus
+     * servers are removed as they are given back.
+     *
+     * @param size the new maximum number of server containers.
+     */
+    public synchronized void setSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than 0");
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return the number of running or starting server containers.
+     */
+    public synchronized int startedServers() {
+        return started;
+    }
+
+    /**
+     * Removes all server containers.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        servers.forEach(this::discard);
+    }
+
+    private String borrow(long deadline, Duration budget) {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("Server pool is closed");
+            }
+            var server = idle.pollFirst();
+            if (server != null) {
+                return server;
+            }
+            if (reserveStart()) {
+                return start();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new DockerProcessTimeoutException("No database server became available within "
+                        + budget.toSeconds() + " seconds");
+            }
+            try {
+                // Wake up periodically: a discarded server frees a slot without ever becoming idle.
+                server = idle.pollFirst(Math.min(remaining, BORROW_POLL_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DockerProcessThreadException("Interrupted while waiting for a database server", e);
+            }
+            if (server != null) {
+                return server;
+            }
+        }
+    }
+
+    private synchronized boolean reserveStart() {
+        if (started >= size) {
+            return false;
+        }
+        started++;
+        return true;
+    }
+
+    private String start() {
+        try {
+            var server = process.startServer();
+            servers.add(server);
+            logger.debug("Started database server {}", server);
+            return server;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                started--;
+            }
+            throw e;
+        }
+    }
+
+    private void giveBack(String server, boolean healthy) {
+        if (healthy && !closed && !surplus()) {
+            // Most recently used first, so that idle servers stay warm.
+            idle.offerFirst(server);
+            return;
+        }
+        discard(server);
+    }
+
+    private synchronized boolean surplus() {
+        return started > size;
+    }
+
+    private void discard(String server) {
+        if (servers.remove(server)) {
+            idle.remove(server);
+            synchronized (this) {
+                started--;
+            }
+            if (templates != null) {
+                templates.forget(server);
+            }
+            logger.debug("Removing database server {}", server);
+            process.remove(server);
+        }
+    }
+
+    private static String script(String sql, int skippedStatements, Duration statementTimeout) {
+        return ExecutionOutputParser.wrapWithStatementTimeout(
+                ExecutionOutputParser.markSnippetStart(sql, skippedStatements), statementTimeout);
+    }
+
+    private static String newSnippetId() {
+        return "snippet_" + UUID.randomUUID().toString().replace("-", "");
+    }
+}
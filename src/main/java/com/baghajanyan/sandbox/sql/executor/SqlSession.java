@@ -0,0 +1,150 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.executor.SqlSessionException.SessionClosedException;
+
+/**
+ * A stateful SQL sandbox bound to one long-lived Postgres container.
+ *
+ * Every snippet executed in a session runs against the database state left by
+ * the previous ones, so callers only send the next statement instead of the
+ * whole history. Executions within a session are serialized, and each one
+ * holds an execution slot of the shared {@link AdmissionController} while it
+ * runs. Sessions are obtained from {@link SqlSessionManager#open(String)}.
+ */
+public class SqlSession implements AutoCloseable {
+
+    private static final long EXECUTION_TIME_ZERO = 0;
+    private static final int EXCEPTION_EXIT_CODE = -1;
+    private static final Logger logger = LoggerFactory.getLogger(SqlSession.class);
+
+    private final String id;
+    private final String userId;
+    private final String containerName;
+    private final DockerProcessExecutor process;
+    private final AdmissionController admissionController;
+    private final SqlSessionManager manager;
+    private volatile long lastUsedNanos = System.nanoTime();
+    private boolean closed;
+
+    SqlSession(String id, String userId, String containerName, DockerProcessExecutor process,
+            AdmissionController admissionController, SqlSessionManager manager) {
+        this.id = id;
+        this.userId = userId;
+        this.containerName = containerName;
+        this.process = process;
+        this.admissionController = admissionController;
+        this.manager = manager;
+    }
+
+    /**
+     * Executes the given SQL snippet against the session database.
+     *
+     * The snippet timeout bounds the wait for an execution slot, and what is
+     * left of it is applied as a statement timeout for the statements of this
+     * snippet only. The result has the same shape as
+     * {@link SqlExecutor#execute(CodeSnippet)}, including
+     * {@link SqlExecutor#REJECTED_EXIT_CODE} when no slot is available in
+     * time.
+     *
+     * @param snippet the SQL code snippet to execute.
+     * @return the result of the execution.
+     * @throws SessionClosedException if the session has been closed or evicted.
+     */
+    public synchronized ExecutionResult execute(CodeSnippet snippet) {
+        if (closed) {
+            throw new SessionClosedException("Session " + id + " is closed");
+        }
+        var deadline = AdmissionController.deadlineFor(snippet.timeout());
+        boolean acquired = false;
+        try {
+            var admission = admissionController.admit(deadline);
+            if (admission != AdmissionController.Admission.ADMITTED) {
+                logger.warn("SQL snippet rejected by admission control in session {}: {}", id, admission);
+                return SqlExecutor.rejected(admission);
+            }
+            acquired = true;
+            var timeout = SqlExecutor.remainingTimeout(deadline, snippet.timeout());
+            if (timeout == null) {
+                return SqlExecutor.rejected(AdmissionController.Admission.DEADLINE_EXCEEDED);
+            }
+            var sql = ExecutionOutputParser.wrapWithStatementTimeout(
+                    ExecutionOutputParser.markSnippetStart(snippet.code(), 0), timeout);
+            long started = System.nanoTime();
+            var dockerProcess = process.exec(containerName, sql);
+            return ExecutionOutputParser.parse(dockerProcess, null, snippet.code(),
+                    ExecutionOutputParser.reachedStatementTimeout(started, timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("SQL snippet in session {} cancelled while waiting for an execution slot", id);
+            return SqlExecutor.cancelled();
+        } catch (DockerProcessThreadException e) {
+            logger.error("Docker process failed while executing SQL snippet in session {}", id, e);
+            return new ExecutionResult(EXCEPTION_EXIT_CODE, null, "Failed to handle docker process: " + e.getMessage(),
+                    Duration.ofMillis(EXECUTION_TIME_ZERO));
+        } catch (DockerProcessTimeoutException e) {
+            logger.warn("SQL snippet execution timed out in session {}", id, e);
+            return ExecutionOutputParser.timedOut(e, snippet.code());
+        } finally {
+            if (acquired) {
+                admissionController.release();
+            }
+            lastUsedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Closes the session and removes its container.
+     */
+    @Override
+    public void close() {
+        if (markClosed()) {
+            manager.release(this);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    String containerName() {
+        return containerName;
+    }
+
+    /**
+     * Closes the session if it has not been used for the given time. Running
+     * executions hold the session lock, so a busy session is never evicted.
+     */
+    synchronized boolean closeIfIdle(Duration idleTimeout) {
+        if (closed || System.nanoTime() - lastUsedNanos < idleTimeout.toNanos()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    synchronized boolean markClosed() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+/**
+ * Represents an exception raised by the SQL session API.
+ */
+public class SqlSessionException extends RuntimeException {
+    /**
+     * An exception indicating that opening a session would exceed the
+     * per-user or global session cap.
+     */
+    public static class SessionLimitExceededException extends SqlSessionException {
+        public SessionLimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An exception indicating that a session was used after it was closed,
+     * either explicitly or by idle-timeout eviction.
+     */
+    public static class SessionClosedException extends SqlSessionException {
+        public SessionClosedException(String message) {
+            super(message);
+        }
+    }
+
+    public SqlSessionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public SqlSessionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,174 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.executor.SqlSessionException.SessionLimitExceededException;
+
+/**
+ * Opens, tracks and evicts {@link SqlSession}s.
+ *
+ * Each session owns one long-lived Postgres container started with the same
+ * limits and hardening flags as one-shot executions. The number of open
+ * sessions is capped per user and globally, and sessions that stay unused for
+ * longer than the idle timeout are closed in the background. Every snippet
+ * executed in a session is admitted by the same {@link AdmissionController}
+ * as one-shot executions, so sessions share the execution slots and the
+ * resource budget with them.
+ */
+public class SqlSessionManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SqlSessionManager.class);
+    private static final Duration MIN_EVICTION_INTERVAL = Duration.ofSeconds(1);
+
+    private final DockerProcessExecutor process;
+    private final AdmissionController admissionController;
+    private final Duration idleTimeout;
+    private final int maxSessionsPerUser;
+    private final int maxSessions;
+    private final Map<String, SqlSession> sessions = new ConcurrentHashMap<>();
+    // Guarded by "this"; counts sessions that are open or still starting.
+    private final Map<String, Integer> reservedPerUser = new HashMap<>();
+    private int reserved;
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * @param process            the executor used to start and reach session
+     *                           containers.
+     * @param admission          the admission controller of one-shot
+     *                           executions.
+     * @param idleTimeout        the time after which an unused session is
+     *                           closed.
+     * @param maxSessionsPerUser the maximum number of open sessions per user.
+     * @param maxSessions        the maximum number of open sessions overall.
+     */
+    public SqlSessionManager(DockerProcessExecutor process, AdmissionController admission, Duration idleTimeout,
+            int maxSessionsPerUser, int maxSessions) {
+        if (idleTimeout == null || idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout must be a positive duration");
+        }
+        if (maxSessionsPerUser <= 0) {
+            throw new IllegalArgumentException("maxSessionsPerUser must be greater than 0");
+        }
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions must be greater than 0");
+        }
+        this.process = process;
+        this.admissionController = admission;
+        this.idleTimeout = idleTimeout;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxSessions = maxSessions;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("sql-session-evictor")
+                .daemon(true)
+                .factory());
+        long interval = Math.max(idleTimeout.dividedBy(4).toMillis(), MIN_EVICTION_INTERVAL.toMillis());
+        evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a new session for the given user.
+     *
+     * This starts a Postgres container and may take as long as a regular
+     * execution container start.
+     *
+     * @param userId the user owning the session.
+     * @return the open session.
+     * @throws SessionLimitExceededException if the user or the manager has
+     *                                       reached its session cap.
+     */
+    public SqlSession open(String userId) {
+        reserve(userId);
+        try {
+            var containerName = process.startServer();
+            var session = new SqlSession(UUID.randomUUID().toString(), userId, containerName, process,
+                    admissionController, this);
+            sessions.put(session.getId(), session);
+            logger.debug("Opened SQL session {} for user {} in container {}", session.getId(), userId,
+                    containerName);
+            return session;
+        } catch (RuntimeException e) {
+            unreserve(userId);
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up an open session by id.
+     *
+     * @param sessionId the session id.
+     * @return the session, or empty if it does not exist or was closed.
+     */
+    public Optional<SqlSession> find(String sessionId) {
+        return Optional.ofNullable(sessions.get(sessionId));
+    }
+
+    /**
+     * @return the number of currently open sessions.
+     */
+    public int openSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Closes all sessions and stops idle eviction.
+     */
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        for (var session : List.copyOf(sessions.values())) {
+            session.close();
+        }
+    }
+
+    void release(SqlSession session) {
+        if (sessions.remove(session.getId()) != null) {
+            unreserve(session.getUserId());
+            process.remove(session.containerName());
+            logger.debug("Closed SQL session {}", session.getId());
+        }
+    }
+
+    void evictIdle() {
+        for (var session : List.copyOf(sessions.values())) {
+            try {
+                if (session.closeIfIdle(idleTimeout)) {
+                    logger.info("Evicting idle SQL session {} of user {}", session.getId(), session.getUserId());
+                    release(session);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to evict SQL session {}", session.getId(), e);
+            }
+        }
+    }
+
+    private synchronized void reserve(String userId) {
+        if (reserved >= maxSessions) {
+            throw new SessionLimitExceededException("Maximum number of sessions reached: " + maxSessions);
+        }
+        int userSessions = reservedPerUser.getOrDefault(userId, 0);
+        if (userSessions >= maxSessionsPerUser) {
+            throw new SessionLimitExceededException(
+                    "Maximum number of sessions reached for user " + userId + ": " + maxSessionsPerUser);
+        }
+        reservedPerUser.put(userId, userSessions + 1);
+        reserved++;
+    }
+
+    private synchronized void unreserve(String userId) {
+        reservedPerUser.computeIfPresent(userId, (user, count) -> count > 1 ? count - 1 : null);
+        reserved--;
+    }
+}
@@ -0,0 +1,226 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits a SQL script into its top-level statements.
+ *
+ * The splitter understands enough of the Postgres lexical structure to not
+ * split inside string literals, quoted identifiers, dollar-quoted bodies and
+ * comments. It does not validate the statements; that is left to Postgres.
+ */
+final class SqlStatementSplitter {
+
+    private SqlStatementSplitter() {
+    }
+
+    /**
+     * @param sql the script to split.
+     * @return the trimmed statements without their terminating semicolons;
+     *         statements that contain only whitespace or comments are dropped.
+     */
+    static List<String> split(String sql) {
+        List<String> statements = new ArrayList<>();
+        if (sql == null) {
+            return statements;
+        }
+        int length = sql.length();
+        int start = 0;
+        boolean hasCode = false;
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int next;
+            if (c == '-' && peek(sql, i + 1) == '-') {
+                next = skipLineComment(sql, i);
+            } else if (c == '/' && peek(sql, i + 1) == '*') {
+                next = skipBlockComment(sql, i);
+            } else if (c == '\'') {
+                next = skipQuoted(sql, i, '\'', isEscapeString(sql, i));
+                hasCode = true;
+            } else if (c == '"') {
+                next = skipQuoted(sql, i, '"', false);
+                hasCode = true;
+            } else if (c == '$' && dollarTag(sql, i) != null) {
+                next = skipDollarQuoted(sql, i, dollarTag(sql, i));
+                hasCode = true;
+            } else if (c == ';') {
+                if (hasCode) {
+                    statements.add(sql.substring(start, i).strip());
+                }
+                start = i + 1;
+                hasCode = false;
+                next = i + 1;
+            } else {
+                hasCode |= !Character.isWhitespace(c);
+                next = i + 1;
+            }
+            i = next;
+        }
+        if (hasCode) {
+            statements.add(sql.substring(start).strip());
+        }
+        return statements;
+    }
+
+    /**
+     * @param statement a statement returned by {@link #split(String)}.
+     * @return the statement without the comments and whitespace before its
+     *         first token.
+     */
+    static String stripLeadingComments(String statement) {
+        int i = 0;
+        while (i < statement.length()) {
+            if (Character.isWhitespace(statement.charAt(i))) {
+                i++;
+            } else if (statement.startsWith("--", i)) {
+                int end = statement.indexOf('\n', i);
+                i = end < 0 ? statement.length() : end + 1;
+            } else if (statement.startsWith("/*", i)) {
+                int end = statement.indexOf("*/", i + 2);
+                i = end < 0 ? statement.length() : end + 2;
+            } else {
+                break;
+            }
+        }
+        return statement.substring(i);
+    }
+
+    /**
+     * @param statement a statement returned by {@link #split(String)}.
+     * @return the first keyword of the statement in upper case, or an empty
+     *         string if it does not start with one.
+     */
+    static String leadingKeyword(String statement) {
+        var code = stripLeadingComments(statement);
+        int end = 0;
+        while (end < code.length() && Character.isLetter(code.charAt(end))) {
+            end++;
+        }
+        return code.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * @param statement a statement returned by {@link #split(String)}.
+     * @return the statement with each comment, string literal, quoted
+     *         identifier, dollar-quoted body and parenthesized part replaced
+     *         by a space, leaving only its top-level keywords and names.
+     */
+    static String topLevelCode(String statement) {
+        var code = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        while (i < statement.length()) {
+            char c = statement.charAt(i);
+            int next;
+            if (c == '-' && peek(statement, i + 1) == '-') {
+                next = skipLineComment(statement, i);
+            } else if (c == '/' && peek(statement, i + 1) == '*') {
+                next = skipBlockComment(statement, i);
+            } else if (c == '\'') {
+                next = skipQuoted(statement, i, '\'', isEscapeString(statement, i));
+            } else if (c == '"') {
+                next = skipQuoted(statement, i, '"', false);
+            } else if (c == '$' && dollarTag(statement, i) != null) {
+                next = skipDollarQuoted(statement, i, dollarTag(statement, i));
+            } else {
+                if (c == '(') {
+                    if (depth == 0) {
+                        code.append(' ');
+                    }
+                    depth++;
+                } else if (c == ')') {
+                    depth = Math.max(0, depth - 1);
+                } else if (depth == 0) {
+                    code.append(c);
+                }
+                i++;
+                continue;
+            }
+            if (depth == 0) {
+                code.append(' ');
+            }
+            i = next;
+        }
+        return code.toString();
+    }
+
+    private static char peek(String sql, int index) {
+        return index < sql.length() ? sql.charAt(index) : '\0';
+    }
+
+    private static int skipLineComment(String sql, int from) {
+        int end = sql.indexOf('\n', from);
+        return end < 0 ? sql.length() : end + 1;
+    }
+
+    private static int skipBlockComment(String sql, int from) {
+        // Block comments nest in Postgres.
+        int depth = 0;
+        int i = from;
+        while (i < sql.length()) {
+            if (sql.startsWith("/*", i)) {
+                depth++;
+                i += 2;
+            } else if (sql.startsWith("*/", i)) {
+                depth--;
+                i += 2;
+                if (depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return sql.length();
+    }
+
+    private static boolean isEscapeString(String sql, int quote) {
+        if (quote == 0 || Character.toUpperCase(sql.charAt(quote - 1)) != 'E') {
+            return false;
+        }
+        return quote == 1 || !Character.isJavaIdentifierPart(sql.charAt(quote - 2));
+    }
+
+    private static int skipQuoted(String sql, int from, char quote, boolean backslashEscapes) {
+        int i = from + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                // A doubled quote is an escaped quote.
+                if (peek(sql, i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return sql.length();
+    }
+
+    private static String dollarTag(String sql, int from) {
+        if (from > 0 && Character.isJavaIdentifierPart(sql.charAt(from - 1))) {
+            // "$1" parameters and identifiers such as "a$b" are not dollar quotes.
+            return null;
+        }
+        int i = from + 1;
+        while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+            if (i == from + 1 && Character.isDigit(sql.charAt(i))) {
+                return null;
+            }
+            i++;
+        }
+        return i < sql.length() && sql.charAt(i) == '$' ? sql.substring(from, i + 1) : null;
+    }
+
+    private static int skipDollarQuoted(String sql, int from, String tag) {
+        int end = sql.indexOf(tag, from + tag.length());
+        return end < 0 ? sql.length() : end + tag.length();
+    }
+}
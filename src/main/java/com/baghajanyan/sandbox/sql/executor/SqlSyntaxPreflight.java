@@ -0,0 +1,179 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+/**
+ * Rejects snippets with syntax errors before a container is started for them.
+ *
+ * Snippets are parsed by a resident Postgres server container, started on
+ * first use, without running any of their statements. A syntax error comes
+ * back within milliseconds in the same shape as from a full execution, while
+ * anything the check cannot decide is left to the regular execution: the
+ * pre-flight never rejects a snippet that Postgres would accept.
+ *
+ * Snippets containing backslashes are not checked, because psql
+ * meta-commands are only understood by the regular execution.
+ */
+public class SqlSyntaxPreflight implements AutoCloseable {
+
+    /**
+     * Exit code of a snippet rejected by the pre-flight, the same that psql
+     * reports when a statement of a regular execution fails.
+     */
+    public static final int SYNTAX_ERROR_EXIT_CODE = 3;
+
+    // The snippet becomes a single command-line argument of psql, which Linux limits to 128 KiB.
+    static final int MAX_SQL_LENGTH = 30_000;
+    // Must match the prefix added by preflight-postgres.sh.
+    private static final String PROBE = "SELECT 1/0;";
+    private static final String SYNTAX_ERROR = "42601";
+    private static final String DIVISION_BY_ZERO = "22012";
+    private static final Pattern ERROR_CODE = Pattern.compile("ERROR:  ([0-9A-Z]{5}): ");
+    private static final Logger logger = LoggerFactory.getLogger(SqlSyntaxPreflight.class);
+
+    private final DockerProcessExecutor process;
+    private final Duration timeout;
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final ResidentServer server;
+
+    /**
+     * @param process the executor used to start and reach the server
+     *                container.
+     * @param timeout the maximum time a single check may take.
+     */
+    public SqlSyntaxPreflight(DockerProcessExecutor process, Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be a positive duration");
+        }
+        this.process = process;
+        this.timeout = timeout;
+        this.server = new ResidentServer(process, "syntax check");
+    }
+
+    /**
+     * Checks the syntax of a snippet.
+     *
+     * @param sql the snippet to check.
+     * @return the result to return instead of executing the snippet if it has
+     *         a syntax error, otherwise {@code null}.
+     */
+    public ExecutionResult check(String sql) {
+        if (sql.length() > MAX_SQL_LENGTH || sql.indexOf('\\') >= 0) {
+            skipped.increment();
+            return null;
+        }
+        long start = System.nanoTime();
+        String container = null;
+        try {
+            container = server.get();
+            var completed = process.checkSyntax(container, sql, timeout);
+            var stderr = readFully(completed.getErrorStream());
+            var matcher = ERROR_CODE.matcher(stderr);
+            var code = matcher.find() ? matcher.group(1) : null;
+            if (SYNTAX_ERROR.equals(code)) {
+                rejected.increment();
+                return new ExecutionResult(SYNTAX_ERROR_EXIT_CODE, "", syntaxError(stderr),
+                        Duration.ofNanos(System.nanoTime() - start));
+            }
+            if (!DIVISION_BY_ZERO.equals(code)) {
+                // Not an answer from the parser, so the server is broken or not ready; start over next time.
+                logger.warn("Unexpected syntax check output (exit code {}): {}", completed.exitValue(), stderr);
+                server.discard(container);
+                skipped.increment();
+                return null;
+            }
+            passed.increment();
+            return null;
+        } catch (DockerProcessTimeoutException e) {
+            // Most likely the server is still initializing; keep it.
+            logger.debug("Syntax check timed out", e);
+            skipped.increment();
+            return null;
+        } catch (DockerProcessException e) {
+            logger.warn("Syntax check failed", e);
+            if (container != null) {
+                server.discard(container);
+            }
+            skipped.increment();
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of snippets that passed the check.
+     */
+    public long passedSnippets() {
+        return passed.sum();
+    }
+
+    /**
+     * @return the number of snippets rejected with a syntax error.
+     */
+    public long rejectedSnippets() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of snippets executed without a conclusive check.
+     */
+    public long skippedSnippets() {
+        return skipped.sum();
+    }
+
+    /**
+     * Removes the server container.
+     */
+    @Override
+    public void close() {
+        server.close();
+    }
+
+    /**
+     * Renders the psql error output the way a regular execution reports it:
+     * without the SQLSTATE and source location, and with the probe statement
+     * removed from the quoted snippet line.
+     */
+    static String syntaxError(String stderr) {
+        var message = new StringBuilder();
+        boolean probeRemoved = false;
+        for (var line : stderr.strip().split("\\R")) {
+            if (line.startsWith("LOCATION:")) {
+                continue;
+            }
+            if (line.contains("ERROR:  " + SYNTAX_ERROR + ": ")) {
+                line = line.replace("ERROR:  " + SYNTAX_ERROR + ": ", "ERROR:  ");
+            } else if (line.startsWith("LINE 1: " + PROBE)) {
+                line = "LINE 1: " + line.substring(("LINE 1: " + PROBE).length());
+                probeRemoved = true;
+            } else if (probeRemoved && line.startsWith(" ".repeat(PROBE.length())) && line.strip().equals("^")) {
+                line = line.substring(PROBE.length());
+                probeRemoved = false;
+            }
+            message.append(line).append('\n');
+        }
+        return message.toString().strip();
+    }
+
+    private static String readFully(InputStream stream) {
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
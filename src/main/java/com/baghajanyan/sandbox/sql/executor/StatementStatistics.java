@@ -0,0 +1,76 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.time.Duration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The cost of one statement of a profiled execution, as reported by
+ * {@code pg_stat_statements}.
+ *
+ * Statements differing only in their constants are reported together, with
+ * the constants replaced by {@code $1}, {@code $2} and so on. Block counts are
+ * in Postgres pages, usually 8 KiB each.
+ *
+ * @param query             the normalized statement text.
+ * @param calls             the number of times the statement ran.
+ * @param rows              the number of rows returned or changed.
+ * @param planningTime      the total time spent planning the statement.
+ * @param executionTime     the total time spent executing the statement.
+ * @param sharedBlocksHit   the blocks of regular tables and indexes found in
+ *                          the buffer cache.
+ * @param sharedBlocksRead  the blocks of regular tables and indexes read from
+ *                          disk.
+ * @param localBlocksHit    the blocks of temporary tables found in the buffer
+ *                          cache.
+ * @param localBlocksRead   the blocks of temporary tables read from disk.
+ * @param tempBlocksRead    the blocks of temporary files read, such as those
+ *                          of sorts and hashes spilled to disk.
+ * @param tempBlocksWritten the blocks of temporary files written.
+ * @param ioReadTime        the time spent reading blocks.
+ * @param ioWriteTime       the time spent writing blocks.
+ * @param walBytes          the bytes of write-ahead log generated.
+ */
+public record StatementStatistics(String query, long calls, long rows, Duration planningTime,
+        Duration executionTime, long sharedBlocksHit, long sharedBlocksRead, long localBlocksHit,
+        long localBlocksRead, long tempBlocksRead, long tempBlocksWritten, Duration ioReadTime,
+        Duration ioWriteTime, long walBytes) {
+
+    /**
+     * @return whether the statement spilled sorts or hashes to temporary
+     *         files.
+     */
+    public boolean spilled() {
+        return tempBlocksWritten > 0;
+    }
+
+    /**
+     * Reads a row of {@code pg_stat_statements} as JSON.
+     *
+     * Columns missing from the running Postgres version count as zero. The
+     * I/O times are summed over all {@code *_blk_read_time} and
+     * {@code *_blk_write_time} columns, whose names changed between versions.
+     */
+    static StatementStatistics fromJson(JsonNode row) {
+        double readMillis = 0;
+        double writeMillis = 0;
+        for (var field : row.properties()) {
+            if (field.getKey().endsWith("blk_read_time")) {
+                readMillis += field.getValue().asDouble();
+            } else if (field.getKey().endsWith("blk_write_time")) {
+                writeMillis += field.getValue().asDouble();
+            }
+        }
+        return new StatementStatistics(row.path("query").asText(""), row.path("calls").asLong(),
+                row.path("rows").asLong(), millis(row.path("total_plan_time").asDouble()),
+                millis(row.path("total_exec_time").asDouble()), row.path("shared_blks_hit").asLong(),
+                row.path("shared_blks_read").asLong(), row.path("local_blks_hit").asLong(),
+                row.path("local_blks_read").asLong(), row.path("temp_blks_read").asLong(),
+                row.path("temp_blks_written").asLong(), millis(readMillis), millis(writeMillis),
+                row.path("wal_bytes").asLong());
+    }
+
+    private static Duration millis(double millis) {
+        return Duration.ofNanos(Math.round(millis * 1_000_000));
+    }
+}
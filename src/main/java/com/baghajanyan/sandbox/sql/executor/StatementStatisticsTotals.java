@@ -0,0 +1,140 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds up the statement statistics of all profiled executions.
+ *
+ * Comparing the totals over time shows what kind of work the snippets do: a
+ * high share of {@code sharedBlocksRead} points at sequential scans of large
+ * tables, and {@code tempBlocksWritten} at sorts and hashes that do not fit
+ * in {@code work_mem}.
+ */
+public class StatementStatisticsTotals {
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder spilledExecutions = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder planningNanos = new LongAdder();
+    private final LongAdder executionNanos = new LongAdder();
+    private final LongAdder sharedBlocksHit = new LongAdder();
+    private final LongAdder sharedBlocksRead = new LongAdder();
+    private final LongAdder localBlocksHit = new LongAdder();
+    private final LongAdder localBlocksRead = new LongAdder();
+    private final LongAdder tempBlocksRead = new LongAdder();
+    private final LongAdder tempBlocksWritten = new LongAdder();
+    private final LongAdder walBytes = new LongAdder();
+
+    /**
+     * Adds the statistics of one profiled execution.
+     *
+     * @param execution the statistics of its statements.
+     */
+    public void record(List<StatementStatistics> execution) {
+        executions.increment();
+        boolean spilled = false;
+        for (var statement : execution) {
+            statements.add(statement.calls());
+            planningNanos.add(statement.planningTime().toNanos());
+            executionNanos.add(statement.executionTime().toNanos());
+            sharedBlocksHit.add(statement.sharedBlocksHit());
+            sharedBlocksRead.add(statement.sharedBlocksRead());
+            localBlocksHit.add(statement.localBlocksHit());
+            localBlocksRead.add(statement.localBlocksRead());
+            tempBlocksRead.add(statement.tempBlocksRead());
+            tempBlocksWritten.add(statement.tempBlocksWritten());
+            walBytes.add(statement.walBytes());
+            spilled |= statement.spilled();
+        }
+        if (spilled) {
+            spilledExecutions.increment();
+        }
+    }
+
+    /**
+     * @return the number of profiled executions.
+     */
+    public long executions() {
+        return executions.sum();
+    }
+
+    /**
+     * @return the number of profiled executions with a statement that spilled
+     *         to temporary files.
+     */
+    public long spilledExecutions() {
+        return spilledExecutions.sum();
+    }
+
+    /**
+     * @return the number of statements run by profiled executions.
+     */
+    public long statements() {
+        return statements.sum();
+    }
+
+    /**
+     * @return the total planning time, in nanoseconds.
+     */
+    public long planningNanos() {
+        return planningNanos.sum();
+    }
+
+    /**
+     * @return the total execution time, in nanoseconds.
+     */
+    public long executionNanos() {
+        return executionNanos.sum();
+    }
+
+    /**
+     * @return the blocks of regular tables and indexes found in the buffer
+     *         cache.
+     */
+    public long sharedBlocksHit() {
+        return sharedBlocksHit.sum();
+    }
+
+    /**
+     * @return the blocks of regular tables and indexes read from disk.
+     */
+    public long sharedBlocksRead() {
+        return sharedBlocksRead.sum();
+    }
+
+    /**
+     * @return the blocks of temporary tables found in the buffer cache.
+     */
+    public long localBlocksHit() {
+        return localBlocksHit.sum();
+    }
+
+    /**
+     * @return the blocks of temporary tables read from disk.
+     */
+    public long localBlocksRead() {
+        return localBlocksRead.sum();
+    }
+
+    /**
+     * @return the blocks of temporary files read.
+     */
+    public long tempBlocksRead() {
+        return tempBlocksRead.sum();
+    }
+
+    /**
+     * @return the blocks of temporary files written.
+     */
+    public long tempBlocksWritten() {
+        return tempBlocksWritten.sum();
+    }
+
+    /**
+     * @return the bytes of write-ahead log generated.
+     */
+    public long walBytes() {
+        return walBytes.sum();
+    }
+}
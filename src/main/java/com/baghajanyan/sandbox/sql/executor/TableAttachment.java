@@ -0,0 +1,89 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A dataset loaded into a table before the snippet runs.
+ *
+ * The data is streamed into the sandbox and loaded with {@code COPY ... FROM
+ * STDIN}, which is much faster than inlining {@code INSERT} statements in the
+ * snippet: Postgres neither parses nor plans the individual rows.
+ *
+ * @param table      the name of the table to create.
+ * @param definition the column definitions of the table, for example
+ *                   {@code "id int PRIMARY KEY, name text"}.
+ * @param format     the format of the data.
+ * @param header     whether the first CSV line is a header to skip; always
+ *                   {@code false} for binary data.
+ * @param source     the source of the data, opened once per execution.
+ */
+public record TableAttachment(String table, String definition, Format format, boolean header, Source source) {
+
+    /**
+     * The {@code COPY} format of an attachment.
+     */
+    public enum Format {
+        /**
+         * Comma-separated values as written by {@code COPY ... TO ... (FORMAT
+         * csv)}.
+         */
+        CSV,
+        /**
+         * The binary format written by {@code COPY ... TO ... (FORMAT binary)}.
+         */
+        BINARY
+    }
+
+    /**
+     * Opens the data of an attachment.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @return a new stream over the data; closed by the caller.
+         * @throws IOException if the data cannot be opened.
+         */
+        InputStream open() throws IOException;
+    }
+
+    public TableAttachment {
+        if (table == null || table.isBlank()) {
+            throw new IllegalArgumentException("table must not be blank");
+        }
+        if (definition == null || definition.isBlank()) {
+            throw new IllegalArgumentException("definition must not be blank");
+        }
+        if (format == null || source == null) {
+            throw new IllegalArgumentException("format and source must not be null");
+        }
+        header = header && format == Format.CSV;
+    }
+
+    /**
+     * @param table      the name of the table to create.
+     * @param definition the column definitions of the table.
+     * @param source     the source of CSV data with a header line.
+     * @return a CSV attachment.
+     */
+    public static TableAttachment csv(String table, String definition, Source source) {
+        return new TableAttachment(table, definition, Format.CSV, true, source);
+    }
+
+    /**
+     * @param table      the name of the table to create.
+     * @param definition the column definitions of the table.
+     * @param source     the source of binary {@code COPY} data.
+     * @return a binary attachment.
+     */
+    public static TableAttachment binary(String table, String definition, Source source) {
+        return new TableAttachment(table, definition, Format.BINARY, false, source);
+    }
+
+    /**
+     * @return a copy of this attachment whose CSV data has no header line.
+     */
+    public TableAttachment withoutHeader() {
+        return new TableAttachment(table, definition, format, false, source);
+    }
+}
@@ -0,0 +1,63 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes {@link TableAttachment}s to the sandbox input directory and renders
+ * the statements that load them.
+ */
+final class TableAttachments {
+
+    private TableAttachments() {
+    }
+
+    /**
+     * Streams the attachment data into the given file without buffering it.
+     *
+     * @param attachment the attachment.
+     * @param file       the file to write, in the directory mounted into the
+     *                   container.
+     * @throws IOException if the data cannot be read or written.
+     */
+    static void write(TableAttachment attachment, Path file) throws IOException {
+        // Truncate instead of replacing, so that the file keeps the permissions it was created with.
+        try (var in = attachment.source().open(); var out = Files.newOutputStream(file)) {
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Renders the statements that create the table and load the attachment.
+     *
+     * psql's {@code \copy} reads the file on the client side and sends it with
+     * {@code COPY ... FROM STDIN}, so it needs neither superuser rights nor
+     * access to the file from the server process.
+     *
+     * @param attachment    the attachment.
+     * @param containerPath the path of the written data inside the container.
+     * @return the statements, terminated by a newline.
+     */
+    static String load(TableAttachment attachment, String containerPath) {
+        var table = quoteIdentifier(attachment.table());
+        var options = switch (attachment.format()) {
+            case CSV -> "FORMAT csv, HEADER " + attachment.header();
+            case BINARY -> "FORMAT binary";
+        };
+        return "CREATE TABLE " + table + " (" + attachment.definition() + ");\n"
+                + "\\copy " + table + " FROM '" + containerPath + "' WITH (" + options + ")\n";
+    }
+
+    /**
+     * @param attachment the attachment.
+     * @return the suffix of the temp file holding its data.
+     */
+    static String suffix(TableAttachment attachment) {
+        return attachment.format() == TableAttachment.Format.CSV ? ".csv" : ".bin";
+    }
+
+    private static String quoteIdentifier(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,348 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+/**
+ * Caches the database state after frequently seen setup prefixes as template
+ * databases on the pooled servers.
+ *
+ * The setup prefix of a snippet is its leading run of statements that create
+ * or change objects and data, such as {@code CREATE TABLE} and
+ * {@code INSERT}. Once the same prefix has been seen {@code minHits} times, the
+ * next server that runs it materializes it as a template database. Later
+ * snippets with that prefix on that server are cloned from the template and
+ * run only the rest of their statements.
+ *
+ * A prefix is only cached if it succeeds as a whole, so a cached prefix
+ * behaves like running it. Statements that could behave differently when run
+ * later, such as ones calling {@code now()} or {@code random()}, or that
+ * produce output, end the prefix. Snippets containing backslashes are never
+ * split, because psql meta-commands are not statements.
+ *
+ * Each server holds at most {@code maxBytesPerServer} of templates; the least
+ * recently used ones are dropped to make room. Templates live and die with
+ * their server.
+ */
+public class TemplateCache {
+
+    /**
+     * A snippet split into its setup prefix and the rest.
+     *
+     * @param templateId      the name of the template for the prefix, derived
+     *                        from its hash.
+     * @param setup           the setup prefix.
+     * @param setupStatements the number of statements in the setup prefix.
+     * @param rest            the statements after the prefix.
+     */
+    public record Prefix(String templateId, String setup, int setupStatements, String rest) {
+    }
+
+    // Bounds the memory spent on counting prefixes that never become hot.
+    static final int MAX_TRACKED_PREFIXES = 1024;
+    private static final int MAX_SQL_LENGTH = 1_000_000;
+    private static final List<String> SETUP = List.of("CREATE", "ALTER", "DROP", "COMMENT", "INSERT", "UPDATE",
+            "DELETE", "TRUNCATE");
+    private static final Pattern TEMPORARY = Pattern.compile("CREATE\\s+(?:(?:GLOBAL|LOCAL)\\s+)?TEMP(?:ORARY)?\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern VOLATILE = Pattern.compile("\\b(?:now|random|setseed|clock_timestamp|"
+            + "statement_timestamp|transaction_timestamp|timeofday|gen_random_uuid|uuid_generate_\\w+|txid_\\w+|"
+            + "pg_current_\\w+)\\s*\\(|\\bcurrent_(?:date|time|timestamp)\\b|\\blocaltime(?:stamp)?\\b|\\bRETURNING\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Logger logger = LoggerFactory.getLogger(TemplateCache.class);
+
+    private final DockerProcessExecutor process;
+    private final int minHits;
+    private final long maxBytesPerServer;
+    // Guarded by itself; access-ordered so that prefixes seen once are forgotten first.
+    private final Map<String, PrefixState> prefixes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PrefixState> eldest) {
+            return size() > MAX_TRACKED_PREFIXES;
+        }
+    };
+    private final Map<String, ServerTemplates> servers = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder built = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param process           the executor used to reach the servers.
+     * @param minHits           the number of times a prefix must be seen
+     *                          before it is cached.
+     * @param maxBytesPerServer the maximum size of the templates on one
+     *                          server.
+     */
+    public TemplateCache(DockerProcessExecutor process, int minHits, long maxBytesPerServer) {
+        if (minHits <= 0) {
+            throw new IllegalArgumentException("minHits must be greater than 0");
+        }
+        if (maxBytesPerServer <= 0) {
+            throw new IllegalArgumentException("maxBytesPerServer must be greater than 0");
+        }
+        this.process = process;
+        this.minHits = minHits;
+        this.maxBytesPerServer = maxBytesPerServer;
+    }
+
+    /**
+     * Splits a snippet into its setup prefix and the rest.
+     *
+     * @param sql the snippet.
+     * @return the split snippet, or {@code null} if it has no setup prefix or
+     *         nothing after it.
+     */
+    public static Prefix split(String sql) {
+        if (sql.length() > MAX_SQL_LENGTH || sql.indexOf('\\') >= 0) {
+            return null;
+        }
+        var statements = SqlStatementSplitter.split(sql);
+        int setupStatements = 0;
+        while (setupStatements < statements.size() && isSetup(statements.get(setupStatements))) {
+            setupStatements++;
+        }
+        if (setupStatements == 0 || setupStatements == statements.size()) {
+            return null;
+        }
+        var setup = join(statements.subList(0, setupStatements));
+        return new Prefix(templateId(setup), setup, setupStatements,
+                join(statements.subList(setupStatements, statements.size())));
+    }
+
+    /**
+     * Returns the template to clone for a prefix on a server, materializing it
+     * first if the prefix has become hot. Failures to materialize are logged
+     * and leave the prefix uncached; they never fail the snippet.
+     *
+     * The caller must have exclusive use of the server.
+     *
+     * @param server the server container the snippet runs on.
+     * @param prefix the snippet's setup prefix.
+     * @param config the configuration whose execution timeout applies to
+     *               materializing.
+     * @return the name of the template, or {@code null} to run the whole
+     *         snippet.
+     */
+    public String acquire(String server, Prefix prefix, DockerConfig config) {
+        var templates = servers.computeIfAbsent(server, name -> new ServerTemplates());
+        if (templates.touch(prefix.templateId())) {
+            hits.increment();
+            return prefix.templateId();
+        }
+        misses.increment();
+        if (!becameHot(prefix.templateId())) {
+            return null;
+        }
+        var size = materialize(server, prefix, config);
+        if (size < 0) {
+            return null;
+        }
+        templates.add(prefix.templateId(), size);
+        cachedBytes.addAndGet(size);
+        built.increment();
+        for (var eviction : templates.evictBeyond(maxBytesPerServer, prefix.templateId())) {
+            cachedBytes.addAndGet(-eviction.getValue());
+            evicted.increment();
+            process.dropTemplate(server, eviction.getKey());
+        }
+        return prefix.templateId();
+    }
+
+    /**
+     * Forgets the templates of a server that is being removed.
+     *
+     * @param server the server container.
+     */
+    public void forget(String server) {
+        var templates = servers.remove(server);
+        if (templates != null) {
+            cachedBytes.addAndGet(-templates.clear());
+        }
+    }
+
+    /**
+     * @return the number of snippets cloned from a template.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of snippets with a setup prefix that were not cloned
+     *         from a template.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of templates materialized.
+     */
+    public long builtTemplates() {
+        return built.sum();
+    }
+
+    /**
+     * @return the number of prefixes that could not be materialized.
+     */
+    public long failedTemplates() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of templates dropped to make room.
+     */
+    public long evictedTemplates() {
+        return evicted.sum();
+    }
+
+    /**
+     * @return the total size of the cached templates on all servers, in
+     *         bytes.
+     */
+    public long cachedBytes() {
+        return cachedBytes.get();
+    }
+
+    private boolean becameHot(String templateId) {
+        synchronized (prefixes) {
+            var state = prefixes.computeIfAbsent(templateId, id -> new PrefixState());
+            if (state.failed) {
+                return false;
+            }
+            state.seen++;
+            return state.seen >= minHits;
+        }
+    }
+
+    private void markFailed(String templateId) {
+        failed.increment();
+        synchronized (prefixes) {
+            prefixes.computeIfAbsent(templateId, id -> new PrefixState()).failed = true;
+        }
+    }
+
+    private long materialize(String server, Prefix prefix, DockerConfig config) {
+        try {
+            var completed = process.createTemplate(server, prefix.setup(), prefix.templateId(), config);
+            var stdout = readFully(completed.getInputStream()).strip();
+            if (completed.exitValue() != 0 || !stdout.matches("\\d+")) {
+                logger.debug("Setup prefix {} not cached: {}", prefix.templateId(),
+                        readFully(completed.getErrorStream()));
+                markFailed(prefix.templateId());
+                return -1;
+            }
+            long size = Long.parseLong(stdout);
+            if (size > maxBytesPerServer) {
+                logger.debug("Setup prefix {} not cached: {} bytes exceed the limit", prefix.templateId(), size);
+                markFailed(prefix.templateId());
+                process.dropTemplate(server, prefix.templateId());
+                return -1;
+            }
+            return size;
+        } catch (DockerProcessException e) {
+            logger.warn("Failed to cache setup prefix {}", prefix.templateId(), e);
+            markFailed(prefix.templateId());
+            process.dropTemplate(server, prefix.templateId());
+            return -1;
+        }
+    }
+
+    private static boolean isSetup(String statement) {
+        var keyword = SqlStatementSplitter.leadingKeyword(statement);
+        return SETUP.contains(keyword)
+                && !TEMPORARY.matcher(SqlStatementSplitter.stripLeadingComments(statement)).lookingAt()
+                && !VOLATILE.matcher(statement).find();
+    }
+
+    private static String join(List<String> statements) {
+        var sql = new StringBuilder();
+        // The terminator goes on its own line in case the statement ends with a line comment.
+        statements.forEach(statement -> sql.append(statement).append("\n;\n"));
+        return sql.toString();
+    }
+
+    static String templateId(String setup) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(setup.getBytes(StandardCharsets.UTF_8));
+            return "template_" + HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String readFully(InputStream stream) {
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static final class PrefixState {
+        int seen;
+        boolean failed;
+    }
+
+    /**
+     * The templates of one server, least recently used first.
+     */
+    private static final class ServerTemplates {
+        // Guarded by "this".
+        private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        synchronized boolean touch(String templateId) {
+            return sizes.get(templateId) != null;
+        }
+
+        synchronized void add(String templateId, long size) {
+            sizes.put(templateId, size);
+            bytes += size;
+        }
+
+        synchronized List<Map.Entry<String, Long>> evictBeyond(long maxBytes, String keep) {
+            var evictions = new ArrayList<Map.Entry<String, Long>>();
+            var iterator = sizes.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                var entry = iterator.next();
+                if (entry.getKey().equals(keep)) {
+                    continue;
+                }
+                evictions.add(Map.entry(entry.getKey(), entry.getValue()));
+                bytes -= entry.getValue();
+                iterator.remove();
+            }
+            return evictions;
+        }
+
+        synchronized long clear() {
+            var cleared = bytes;
+            sizes.clear();
+            bytes = 0;
+            return cleared;
+        }
+    }
+}
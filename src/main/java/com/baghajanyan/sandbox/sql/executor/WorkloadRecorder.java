@@ -0,0 +1,152 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Captures the executions of a {@link SqlExecutor} to a gzipped JSON Lines
+ * file, which {@link WorkloadReplayer} can drive against another executor.
+ *
+ * Each line holds the arrival offset, the snippet, its timeout and resource
+ * class, and the outcome, latency and output sizes of the execution. Which
+ * executions are captured is decided by a sampler, and snippets pass through a
+ * {@link SnippetRedactor} before they are written.
+ *
+ * Recording never fails an execution: a line that cannot be written is
+ * dropped and counted.
+ */
+public class WorkloadRecorder implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(WorkloadRecorder.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Path file;
+    private final Predicate<CodeSnippet> sampler;
+    private final SnippetRedactor redactor;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    // Guarded by "this".
+    private final Writer writer;
+    private boolean closed;
+
+    /**
+     * @param file     the file to write; replaced if it exists.
+     * @param sampler  decides which executions are recorded.
+     * @param redactor applied to every recorded snippet.
+     * @throws IOException if the file cannot be created.
+     */
+    public WorkloadRecorder(Path file, Predicate<CodeSnippet> sampler, SnippetRedactor redactor)
+            throws IOException {
+        this.file = file;
+        this.sampler = sampler;
+        this.redactor = redactor;
+        this.writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param rate the fraction of executions to record, between {@code 0} and
+     *             {@code 1}.
+     * @return a sampler recording each execution with the given probability.
+     */
+    public static Predicate<CodeSnippet> sampleRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+        return snippet -> rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Records a finished execution if the sampler selects it.
+     *
+     * @param snippet       the executed snippet.
+     * @param resourceClass the selected resource class, or {@code null}.
+     * @param result        the result of the execution.
+     * @param outcome       the outcome of the execution.
+     * @param arrivalNanos  the {@link System#nanoTime()} at arrival.
+     * @param latency       the time from arrival to the result.
+     */
+    void record(CodeSnippet snippet, ResourceClass resourceClass, ExecutionResult result,
+            ExecutionStatistics.Outcome outcome, long arrivalNanos, Duration latency) {
+        String line;
+        try {
+            if (!sampler.test(snippet)) {
+                return;
+            }
+            var node = objectMapper.createObjectNode()
+                    .put("offsetMs", Math.max(0, Duration.ofNanos(arrivalNanos - startNanos).toMillis()))
+                    .put("sql", redactor.redact(snippet.code()))
+                    .put("timeoutMs", snippet.timeout() != null ? snippet.timeout().toMillis() : null)
+                    .put("resourceClass", resourceClass != null ? resourceClass.name() : null)
+                    .put("outcome", outcome.name())
+                    .put("latencyMs", latency.toMillis())
+                    .put("executionTimeMs", result.executionTime() != null ? result.executionTime().toMillis() : 0)
+                    .put("stdoutLength", result.stdout() != null ? result.stdout().length() : 0)
+                    .put("stderrLength", result.stderr() != null ? result.stderr().length() : 0);
+            line = objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException | RuntimeException e) {
+            logger.warn("Failed to record SQL execution", e);
+            dropped.increment();
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            try {
+                writer.write(line);
+                writer.write('\n');
+                recorded.increment();
+            } catch (IOException e) {
+                logger.warn("Failed to write workload recording {}", file, e);
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * @return the number of executions written.
+     */
+    public long recordedExecutions() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return the number of sampled executions that could not be written.
+     */
+    public long droppedExecutions() {
+        return dropped.sum();
+    }
+
+    /**
+     * Completes the file. Executions finishing later are not recorded.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.close();
+    }
+}
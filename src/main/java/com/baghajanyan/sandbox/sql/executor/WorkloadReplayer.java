@@ -0,0 +1,139 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Drives a workload captured by {@link WorkloadRecorder} against an executor
+ * and compares the result with the recording.
+ *
+ * Executions are started at their recorded arrival offsets, divided by the
+ * speed factor, whether or not earlier ones have finished. The replay
+ * therefore reproduces the arrival pattern of the recording, including its
+ * bursts, rather than a steady rate.
+ */
+public final class WorkloadReplayer {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String SQL_LANGUAGE = "sql";
+
+    private WorkloadReplayer() {
+    }
+
+    /**
+     * Reads a recording.
+     *
+     * @param file the file written by {@link WorkloadRecorder}.
+     * @return the recorded executions, by arrival.
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    public static List<RecordedExecution> read(Path file) throws IOException {
+        var executions = new ArrayList<RecordedExecution>();
+        try (var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    executions.add(parse(objectMapper.readTree(line)));
+                }
+            }
+        }
+        executions.sort(Comparator.comparing(RecordedExecution::offset));
+        return executions;
+    }
+
+    /**
+     * Replays a workload and waits for all of its executions.
+     *
+     * @param executor the executor to replay against.
+     * @param workload the recorded executions.
+     * @param speed    the rate relative to the recording, for example
+     *                 {@code 2.0} to send requests twice as fast.
+     * @return the comparison with the recording.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public static ReplayReport replay(SqlExecutor executor, List<RecordedExecution> workload, double speed)
+            throws InterruptedException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be greater than 0");
+        }
+        int window = Math.max(1, workload.size());
+        var recorded = new ExecutionStatistics(window);
+        var replayed = new ExecutionStatistics(window);
+        var outcomeChanges = new AtomicInteger();
+        var first = workload.stream().map(RecordedExecution::offset).min(Comparator.naturalOrder())
+                .orElse(Duration.ZERO);
+        long recordedEnd = 0;
+        for (var execution : workload) {
+            recorded.record(execution.outcome(), execution.latency());
+            recordedEnd = Math.max(recordedEnd, execution.offset().plus(execution.latency()).toNanos());
+        }
+
+        long start = System.nanoTime();
+        try (var clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var execution : workload) {
+                long due = start + (long) (execution.offset().minus(first).toNanos() / speed);
+                clients.submit(() -> {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                    long arrival = System.nanoTime();
+                    var outcome = replayOne(executor, execution);
+                    replayed.record(outcome, Duration.ofNanos(System.nanoTime() - arrival));
+                    if (outcome != execution.outcome()) {
+                        outcomeChanges.incrementAndGet();
+                    }
+                });
+            }
+        }
+        long replayDuration = System.nanoTime() - start;
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Replay interrupted");
+        }
+        return new ReplayReport(workload.size(), recorded.snapshot(), replayed.snapshot(),
+                throughput(workload.size(), recordedEnd - first.toNanos()),
+                throughput(workload.size(), replayDuration), outcomeChanges.get());
+    }
+
+    private static ExecutionStatistics.Outcome replayOne(SqlExecutor executor, RecordedExecution execution) {
+        var options = SqlExecutionOptions.defaults().withResourceClass(execution.resourceClass());
+        ExecutionResult result;
+        try {
+            result = executor.execute(new CodeSnippet(execution.sql(), execution.timeout(), SQL_LANGUAGE), options);
+        } catch (RuntimeException e) {
+            // For example a resource class the target executor does not define.
+            return ExecutionStatistics.Outcome.FAILED;
+        }
+        return SqlExecutor.outcomeOf(result);
+    }
+
+    private static double throughput(int executions, long nanos) {
+        return nanos <= 0 ? 0 : executions / (nanos / 1e9);
+    }
+
+    private static RecordedExecution parse(JsonNode node) {
+        var timeout = node.path("timeoutMs");
+        var resourceClass = node.path("resourceClass");
+        return new RecordedExecution(Duration.ofMillis(node.path("offsetMs").asLong()), node.path("sql").asText(),
+                timeout.isNumber() ? Duration.ofMillis(timeout.asLong()) : null,
+                resourceClass.isTextual() ? resourceClass.asText() : null,
+                ExecutionStatistics.Outcome.valueOf(node.path("outcome").asText()),
+                Duration.ofMillis(node.path("latencyMs").asLong()),
+                Duration.ofMillis(node.path("executionTimeMs").asLong()), node.path("stdoutLength").asLong(),
+                node.path("stderrLength").asLong());
+    }
+}
@@ -0,0 +1,147 @@
+set -eu
+
+# Run the SQL script with its output discarded, then compare the result of its last statement (captured into
+# the __sandbox_actual table by the caller) with the expected result inside Postgres. Only a small JSON
+# verdict is written to stdout, however large the result is.
+# The snippet runs as an unprivileged role in a psql of its own that knows nothing about the expectation, so it
+# can neither read the expected result nor reach the superuser. The verdict is computed by a second unprivileged
+# role that the snippet cannot configure, and tagged with the caller's nonce.
+# \timing lines are diverted to a side file exactly like in the regular run script.
+has_expected=false
+if [ -n "${EXPECTED_FILE:-}" ]; then
+  if [ ! -f "$EXPECTED_FILE" ]; then
+    echo "Expected result file not found: $EXPECTED_FILE" >&2
+    exit 66
+  fi
+  has_expected=true
+fi
+admin_user="$POSTGRES_USER"
+snippet_user=sandbox_snippet
+grader_user=sandbox_grader
+psql -h /tmp -U "$admin_user" -d "$POSTGRES_DB" -X -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+CREATE ROLE $snippet_user LOGIN;
+CREATE ROLE $grader_user LOGIN;
+GRANT USAGE, CREATE ON SCHEMA public TO $snippet_user;
+SQL
+timing_file=$(mktemp)
+stdout_timing_file=$(mktemp)
+# \timing prints a line after every statement; count them on stderr as they happen, so that the caller knows which
+# statement was running if the execution is killed. The caller marks where its snippet starts, with the nonce below
+# that the snippet cannot see, and how many of its statements were already run elsewhere.
+nonce=$(cat /proc/sys/kernel/random/uuid 2>/dev/null || echo "$$-$RANDOM-$RANDOM")
+progress_awk='
+$1 == "__SNIPPET_START__" && $2 == nonce { done = $3 + 0; print "__STATEMENTS_DONE__: " done > "/dev/stderr"; fflush("/dev/stderr"); next }
+/^Time:/ { print > timing; done++; print "__STATEMENTS_DONE__: " done > "/dev/stderr"; fflush("/dev/stderr"); next }
+{ print; fflush() }'
+set +e
+psql -h /tmp -U "$snippet_user" -d "$POSTGRES_DB" -v ON_ERROR_STOP=1 -o /dev/null -A -t -P pager=off -q \
+  -v snippet_nonce="$nonce" \
+  2> "$timing_file" <<PSQL | awk -v timing="$stdout_timing_file" -v nonce="$nonce" "$progress_awk"
+\\timing on
+\\i $SQL_FILE
+PSQL
+status=${PIPESTATUS[0]}
+if [ "$status" -eq 0 ]; then
+  psql -h /tmp -U "$admin_user" -d "$POSTGRES_DB" -X -q -v ON_ERROR_STOP=1 \
+    -c "ALTER TABLE public.__sandbox_actual OWNER TO $grader_user" >/dev/null 2>> "$timing_file"
+  status=$?
+fi
+if [ "$status" -eq 0 ]; then
+  # Functions, types and settings of the snippet are out of reach: only pg_catalog is searched, and the grader
+  # has no role or database settings the snippet could have changed.
+  verdict=$(psql -h /tmp -U "$grader_user" -d "$POSTGRES_DB" -X -v ON_ERROR_STOP=1 -A -t -P pager=off -q \
+    -v has_expected="$has_expected" \
+    -v expected_columns="${EXPECTED_COLUMNS:-0}" \
+    -v expected_fingerprint="${EXPECTED_FINGERPRINT:-}" \
+    -v ordered="${COMPARE_ORDERED:-true}" \
+    -v max_diff_rows="${MAX_DIFF_ROWS:-10}" \
+    2>> "$timing_file" <<PSQL
+SET search_path = pg_catalog, pg_temp;
+SELECT count(*) AS actual_columns, NOT :ordered AS unordered
+  FROM pg_attribute
+ WHERE attrelid = 'public.__sandbox_actual'::regclass AND attnum > 0 AND NOT attisdropped AND attname <> '__sandbox_ord'
+\\gset
+-- Without the ordinal column the row text, and therefore the fingerprint, no longer depends on row order.
+\\if :unordered
+ALTER TABLE public.__sandbox_actual DROP COLUMN __sandbox_ord;
+\\endif
+-- Multiset hash of the typed rows: computed in a single pass without sorting or buffering the result.
+SELECT count(*) AS actual_rows,
+       format('%s:%s:%s', CASE WHEN :ordered THEN 'o' ELSE 'u' END, count(*),
+              (coalesce(sum(hashtextextended(a::text, 0)), 0) % 18446744073709551616 + 18446744073709551616)
+                % 18446744073709551616) AS fingerprint
+  FROM public.__sandbox_actual a
+\\gset
+
+\\if :has_expected
+SELECT :expected_columns = 0 OR :expected_columns = :actual_columns AS columns_match
+\\gset
+\\if :columns_match
+-- Loading the expected rows into a table of the same shape converts them to the actual column types.
+CREATE TEMP TABLE __sandbox_expected (LIKE public.__sandbox_actual);
+\\copy __sandbox_expected FROM '${EXPECTED_FILE:-}' WITH (FORMAT csv)
+\\if :ordered
+WITH diff AS (
+  SELECT coalesce(a.__sandbox_ord, e.__sandbox_ord) AS ordinal,
+         CASE WHEN a.__sandbox_ord IS NULL THEN 'missing'
+              WHEN e.__sandbox_ord IS NULL THEN 'unexpected'
+              ELSE 'changed' END AS kind,
+         to_jsonb(a) - '__sandbox_ord' AS actual,
+         to_jsonb(e) - '__sandbox_ord' AS expected
+    FROM public.__sandbox_actual a
+    FULL JOIN __sandbox_expected e ON e.__sandbox_ord = a.__sandbox_ord
+   WHERE ROW(a.*) IS DISTINCT FROM ROW(e.*)
+)
+SELECT json_build_object(
+         'match', NOT EXISTS (SELECT 1 FROM diff),
+         'fingerprint', :'fingerprint',
+         'actualRows', :actual_rows,
+         'expectedRows', (SELECT count(*) FROM __sandbox_expected),
+         'mismatches', (SELECT count(*) FROM diff),
+         'diff', coalesce((SELECT json_agg(d)
+                             FROM (SELECT * FROM diff ORDER BY ordinal LIMIT :max_diff_rows) d), '[]'::json));
+\\else
+WITH missing AS (TABLE __sandbox_expected EXCEPT ALL TABLE public.__sandbox_actual),
+     unexpected AS (TABLE public.__sandbox_actual EXCEPT ALL TABLE __sandbox_expected),
+     diff AS (
+       SELECT 'missing' AS kind, NULL::jsonb AS actual, to_jsonb(m) AS expected FROM missing m
+       UNION ALL
+       SELECT 'unexpected', to_jsonb(u), NULL FROM unexpected u
+     )
+SELECT json_build_object(
+         'match', NOT EXISTS (SELECT 1 FROM diff),
+         'fingerprint', :'fingerprint',
+         'actualRows', :actual_rows,
+         'expectedRows', (SELECT count(*) FROM __sandbox_expected),
+         'mismatches', (SELECT count(*) FROM diff),
+         'diff', coalesce((SELECT json_agg(d) FROM (SELECT * FROM diff LIMIT :max_diff_rows) d), '[]'::json));
+\\endif
+\\else
+SELECT json_build_object(
+         'match', false,
+         'fingerprint', :'fingerprint',
+         'actualRows', :actual_rows,
+         'reason', format('expected %s columns but the result has %s', :expected_columns, :actual_columns));
+\\endif
+\\else
+SELECT json_build_object(
+         'match', :'fingerprint' = :'expected_fingerprint',
+         'fingerprint', :'fingerprint',
+         'actualRows', :actual_rows);
+\\endif
+PSQL
+)
+  status=$?
+  if [ "$status" -eq 0 ]; then
+    printf '__COMPARE_VERDICT__ %s: %s\n' "${COMPARE_NONCE:-}" "${verdict##*$'\n'}"
+  fi
+fi
+set -e
+time_ms=$(awk '/Time:/{ms=$2} END{if (ms=="") ms=0; printf "%.0f", ms}' "$timing_file" "$stdout_timing_file")
+if [ -s "$timing_file" ]; then
+  cat "$timing_file" >&2
+fi
+# Clean up temporary files created inside the container.
+rm -f "$timing_file" "$stdout_timing_file"
+printf "\n__EXECUTION_TIME__: %s\n" "$time_ms"
+exit "$status"
@@ -0,0 +1,24 @@
+set -eu
+
+export POSTGRES_USER="${POSTGRES_USER:-sandbox}"
+export POSTGRES_DB="${POSTGRES_DB:-sandboxdb}"
+export HOME=/tmp
+export PSQL_HISTORY=/tmp/.psql_history
+# The admin credentials of the server; scripts that run a snippet as another role drop them first.
+export PGPASSFILE=/tmp/.sandbox-admin.pgpass
+
+# The SQL snippet arrives on stdin.
+SQL_FILE=$(mktemp)
+trap 'rm -f "$SQL_FILE"' EXIT
+cat > "$SQL_FILE"
+
+# Wait for the long-lived server to accept connections (at most ~30 seconds).
+tries=0
+until pg_isready -q -h /tmp -U "$POSTGRES_USER"; do
+  tries=$((tries + 1))
+  if [ "$tries" -ge 300 ]; then
+    echo "Postgres server did not become ready" >&2
+    exit 69
+  fi
+  sleep 0.1
+done
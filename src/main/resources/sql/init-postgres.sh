@@ -0,0 +1,47 @@
+set -eu
+
+export PGDATA=/tmp/pgdata
+export POSTGRES_USER=sandbox
+export POSTGRES_DB=sandboxdb
+export HOME=/tmp
+export PSQL_HISTORY=/tmp/.psql_history
+
+cleanup() {
+  pg_ctl -D "$PGDATA" -m fast -w stop >/dev/null 2>/dev/null || true
+  rm -rf "$PGDATA"
+}
+trap cleanup EXIT
+
+if [ -n "${SQL_FILE:-}" ] && [ ! -f "$SQL_FILE" ]; then
+  echo "SQL file not found: $SQL_FILE" >&2
+  exit 66
+fi
+
+# Init database
+mkdir -p "$PGDATA"
+initdb -U "$POSTGRES_USER" -A trust >/dev/null
+
+# Make it super local-only
+echo "listen_addresses=''" >> "$PGDATA/postgresql.conf"
+echo "unix_socket_directories='/tmp'" >> "$PGDATA/postgresql.conf"
+
+# Collect per-statement statistics when asked to; they are read back after the snippet.
+if [ "${STATEMENT_STATISTICS:-}" = 1 ]; then
+  echo "shared_preload_libraries='pg_stat_statements'" >> "$PGDATA/postgresql.conf"
+  echo "pg_stat_statements.track_planning=on" >> "$PGDATA/postgresql.conf"
+  echo "track_io_timing=on" >> "$PGDATA/postgresql.conf"
+fi
+
+# Trust local socket connections (inside container only)
+echo "local all all trust" > "$PGDATA/pg_hba.conf"
+
+# Start Postgres
+pg_ctl -D "$PGDATA" -o "-k /tmp" -w start >/dev/null
+
+# Ensure target database exists
+createdb -h /tmp -U "$POSTGRES_USER" "$POSTGRES_DB" >/dev/null
+
+if [ "${STATEMENT_STATISTICS:-}" = 1 ]; then
+  psql -h /tmp -U "$POSTGRES_USER" -d "$POSTGRES_DB" -X -q -c "SET pg_stat_statements.track = none" \
+    -c "CREATE EXTENSION pg_stat_statements" >/dev/null
+fi
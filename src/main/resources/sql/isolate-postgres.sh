@@ -0,0 +1,63 @@
+set -eu
+
+# Give the snippet a fresh database owned by a throwaway unprivileged role on the shared server.
+# Both are dropped when the script exits, after terminating any backend the snippet left behind.
+admin_user="$POSTGRES_USER"
+admin_passfile="${PGPASSFILE:-}"
+snippet_id="${SNIPPET_ID:?SNIPPET_ID is required}"
+statement_timeout_ms="${STATEMENT_TIMEOUT_MS:-0}"
+template_id="${TEMPLATE_ID:-}"
+# The id is interpolated into SQL below, so only accept the names generated by the starter.
+case "$snippet_id" in
+  snippet_*[!a-z0-9_]* | snippet_) valid=false ;;
+  snippet_*) valid=true ;;
+  *) valid=false ;;
+esac
+if [ "$valid" != true ]; then
+  echo "Invalid snippet id: $snippet_id" >&2
+  exit 64
+fi
+template_clause=""
+if [ -n "$template_id" ]; then
+  case "$template_id" in
+    template_*[!a-z0-9]* | template_) valid=false ;;
+    template_*) valid=true ;;
+    *) valid=false ;;
+  esac
+  if [ "$valid" != true ]; then
+    echo "Invalid template id: $template_id" >&2
+    exit 64
+  fi
+  template_clause="TEMPLATE \"$template_id\""
+fi
+
+drop_snippet_objects() {
+  PGPASSFILE="$admin_passfile" psql -h /tmp -U "$admin_user" -d postgres -q -v ON_ERROR_STOP=0 >/dev/null 2>&1 <<SQL || true
+SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE usename = '$snippet_id' OR datname = '$snippet_id';
+DROP DATABASE IF EXISTS "$snippet_id" WITH (FORCE);
+DROP ROLE IF EXISTS "$snippet_id";
+SQL
+  rm -f "$SQL_FILE"
+}
+trap drop_snippet_objects EXIT
+
+psql -h /tmp -U "$admin_user" -d postgres -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+CREATE ROLE "$snippet_id" LOGIN NOSUPERUSER NOCREATEDB NOCREATEROLE NOREPLICATION CONNECTION LIMIT 1;
+ALTER ROLE "$snippet_id" SET statement_timeout = $statement_timeout_ms;
+CREATE DATABASE "$snippet_id" OWNER "$snippet_id" $template_clause CONNECTION LIMIT 1;
+REVOKE CONNECT ON DATABASE "$snippet_id" FROM PUBLIC;
+REVOKE CONNECT ON DATABASE postgres, template1, "$POSTGRES_DB" FROM PUBLIC;
+SQL
+
+# A clone of a cached setup prefix hands the objects created by the prefix over to the snippet's role.
+if [ -n "$template_id" ]; then
+  psql -h /tmp -U "$admin_user" -d "$snippet_id" -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+REASSIGN OWNED BY "$template_id" TO "$snippet_id";
+DROP OWNED BY "$template_id";
+SQL
+fi
+
+# Run the snippet as the throwaway role in its own database, without the admin credentials.
+unset PGPASSFILE
+export POSTGRES_USER="$snippet_id"
+export POSTGRES_DB="$snippet_id"
@@ -0,0 +1,8 @@
+set -eu
+
+# Print the plans requested by a planning script prepared by the caller: it runs in a single transaction that
+# is rolled back, so nothing is ever committed. With ON_ERROR_ROLLBACK, a statement that cannot be planned is
+# skipped instead of aborting the rest of the script. It runs as the unprivileged planner role, without the
+# admin credentials.
+unset PGPASSFILE
+exec psql -h /tmp -U sandbox_planner -d sandbox_planner -X -q -A -t -v ON_ERROR_ROLLBACK=on -f "$SQL_FILE"
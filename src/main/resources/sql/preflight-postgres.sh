@@ -0,0 +1,8 @@
+set -eu
+
+# Check the syntax of the snippet without running any of it. A query string sent with -c is parsed as a whole
+# before its first statement runs, so a syntax error anywhere in the snippet fails with SQLSTATE 42601, while a
+# syntactically valid snippet fails on the leading division by zero (22012) before any of its statements
+# executes. Nothing is ever committed.
+sql=$(cat "$SQL_FILE")
+exec psql -h /tmp -U "$POSTGRES_USER" -d "$POSTGRES_DB" -X -q -v VERBOSITY=verbose -c "SELECT 1/0;$sql" >/dev/null
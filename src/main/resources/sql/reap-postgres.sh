@@ -0,0 +1,15 @@
+set -eu
+
+export HOME=/tmp
+export PSQL_HISTORY=/tmp/.psql_history
+export PGPASSFILE=/tmp/.sandbox-admin.pgpass
+
+# Terminate the backends of snippets that did not clean up after themselves, e.g. because their docker exec
+# client was killed on timeout, and drop their databases and roles.
+psql -h /tmp -U "${POSTGRES_USER:-sandbox}" -d postgres -q -v ON_ERROR_STOP=1 >/dev/null <<'SQL'
+SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE usename LIKE 'snippet\_%';
+SELECT format('DROP DATABASE IF EXISTS %I WITH (FORCE)', datname) FROM pg_database WHERE datname LIKE 'snippet\_%'
+\gexec
+SELECT format('DROP ROLE IF EXISTS %I', rolname) FROM pg_roles WHERE rolname LIKE 'snippet\_%'
+\gexec
+SQL
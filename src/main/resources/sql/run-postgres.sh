@@ -1,57 +1,43 @@
 set -eu
 
-export PGDATA=/tmp/pgdata
-export POSTGRES_USER=sandbox
-export POSTGRES_DB=sandboxdb
-export HOME=/tmp
-export PSQL_HISTORY=/tmp/.psql_history
-
-cleanup() {
-  pg_ctl -D "$PGDATA" -m fast -w stop >/dev/null 2>/dev/null || true
-  rm -rf "$PGDATA"
-}
-trap cleanup EXIT
-
-if [ ! -f "$SQL_FILE" ]; then
-  echo "SQL file not found: $SQL_FILE" >&2
-  exit 66
-fi
-
-# Init database
-mkdir -p "$PGDATA"
-initdb -U "$POSTGRES_USER" -A trust >/dev/null
-
-# Make it super local-only
-echo "listen_addresses=''" >> "$PGDATA/postgresql.conf"
-echo "unix_socket_directories='/tmp'" >> "$PGDATA/postgresql.conf"
-
-# Trust local socket connections (inside container only)
-echo "local all all trust" > "$PGDATA/pg_hba.conf"
-
-# Start Postgres
-pg_ctl -D "$PGDATA" -o "-k /tmp" -w start >/dev/null
-
-# Ensure target database exists
-createdb -h /tmp -U "$POSTGRES_USER" "$POSTGRES_DB" >/dev/null
-
 # Run SQL script and emit results to stdout as CSV (quiet mode).
-# Measure execution time via \timing output (captured from stderr) without extra DB roundtrips.
+# Rows are streamed as psql produces them; \timing lines are diverted to a side file so that
+# execution time is still measured without extra DB roundtrips.
 timing_file=$(mktemp)
-output_file=$(mktemp)
-if psql -h /tmp -U "$POSTGRES_USER" -d "$POSTGRES_DB" -v ON_ERROR_STOP=1 --csv -P pager=off -P footer=off -q > "$output_file" 2> "$timing_file" <<PSQL; then
+stdout_timing_file=$(mktemp)
+# \timing prints a line after every statement; count them on stderr as they happen, so that the caller knows which
+# statement was running if the execution is killed. The caller marks where its snippet starts, with the nonce below
+# that the snippet cannot see, and how many of its statements were already run elsewhere. Query results bypass the
+# counter on fd 3, so only psql's own output (\timing and \echo) can look like a marker.
+nonce=$(cat /proc/sys/kernel/random/uuid 2>/dev/null || echo "$$-$RANDOM-$RANDOM")
+progress_awk='
+$1 == "__SNIPPET_START__" && $2 == nonce { done = $3 + 0; print "__STATEMENTS_DONE__: " done > "/dev/stderr"; fflush("/dev/stderr"); next }
+/^Time:/ { print > timing; done++; print "__STATEMENTS_DONE__: " done > "/dev/stderr"; fflush("/dev/stderr"); next }
+{ print; fflush() }'
+exec 3>&1
+set +e
+psql -h /tmp -U "$POSTGRES_USER" -d "$POSTGRES_DB" -v ON_ERROR_STOP=1 -v snippet_nonce="$nonce" -o /dev/fd/3 \
+  --csv -P pager=off -P footer=off -q 2> "$timing_file" <<PSQL | awk -v timing="$stdout_timing_file" -v nonce="$nonce" "$progress_awk"
 \\timing on
 \\i $SQL_FILE
 PSQL
-  status=0
-else
-  status=$?
-fi
-time_ms=$(awk '/Time:/{ms=$2} END{if (ms=="") ms=0; printf "%.0f", ms}' "$timing_file")
+status=${PIPESTATUS[0]}
+set -e
+exec 3>&-
+time_ms=$(awk '/Time:/{ms=$2} END{if (ms=="") ms=0; printf "%.0f", ms}' "$timing_file" "$stdout_timing_file")
 if [ -s "$timing_file" ]; then
   cat "$timing_file" >&2
 fi
-sed '/^Time:/d' "$output_file"
 # Clean up temporary files created inside the container.
-rm -f "$timing_file" "$output_file"
+rm -f "$timing_file" "$stdout_timing_file"
 printf "\n__EXECUTION_TIME__: %s\n" "$time_ms"
+if [ "${STATEMENT_STATISTICS:-}" = 1 ]; then
+  # One JSON object per statement of the snippet's database; the fields differ between Postgres versions. The
+  # caller's nonce tells these lines apart from rows of the snippet.
+  statistics_nonce=$(printf '%s' "${STATEMENT_STATISTICS_NONCE:-}" | tr -cd '0-9a-zA-Z-')
+  psql -h /tmp -U "$POSTGRES_USER" -d "$POSTGRES_DB" -X -q -A -t -c "SET pg_stat_statements.track = none" \
+    -c "SELECT '__STATEMENT_STATISTICS__ $statistics_nonce: ' || row_to_json(s) FROM pg_stat_statements s
+        WHERE s.dbid = (SELECT oid FROM pg_database WHERE datname = current_database())
+        ORDER BY s.total_plan_time + s.total_exec_time DESC" 2>/dev/null || true
+fi
 exit "$status"
@@ -0,0 +1,29 @@
+set -eu
+
+# Snippets on a shared server run as throwaway roles, which must not be able to reconnect as the admin role. Only
+# the admin role needs a password, which is kept in a file that the sandbox scripts hand to their own psql
+# invocations only; every other role may only connect to the database of the same name.
+admin_password=$(od -An -N16 -tx1 /dev/urandom | tr -d ' \n')
+psql -h /tmp -U "$POSTGRES_USER" -d postgres -X -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+SET password_encryption = 'scram-sha-256';
+ALTER ROLE "$POSTGRES_USER" PASSWORD '$admin_password';
+SQL
+# Cost estimates plan snippets as a role that may only create objects in a database of its own.
+psql -h /tmp -U "$POSTGRES_USER" -d postgres -X -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+CREATE ROLE sandbox_planner LOGIN;
+CREATE DATABASE sandbox_planner;
+REVOKE ALL ON DATABASE sandbox_planner FROM PUBLIC;
+GRANT CONNECT, CREATE ON DATABASE sandbox_planner TO sandbox_planner;
+\\c sandbox_planner
+REVOKE ALL ON SCHEMA public FROM PUBLIC;
+SQL
+(umask 077 && printf '*:*:*:%s:%s\n' "$POSTGRES_USER" "$admin_password" > /tmp/.sandbox-admin.pgpass)
+cat > "$PGDATA/pg_hba.conf" <<HBA
+local all $POSTGRES_USER scram-sha-256
+local sameuser all trust
+HBA
+
+# Hand the initialized cluster over to a foreground server that lives as long as the container.
+trap - EXIT
+pg_ctl -D "$PGDATA" -m fast -w stop >/dev/null
+exec postgres -D "$PGDATA" -k /tmp
@@ -0,0 +1,53 @@
+set -eu
+
+# Materialize the database state after a setup prefix as a template database that snippets can be cloned from,
+# or drop such a template. The prefix arrives as $SQL_FILE and runs as a throwaway unprivileged role that owns
+# every object it creates; clones reassign those objects to the snippet's own role.
+admin_user="$POSTGRES_USER"
+template_id="${TEMPLATE_ID:?TEMPLATE_ID is required}"
+statement_timeout_ms="${STATEMENT_TIMEOUT_MS:-0}"
+# The id is interpolated into SQL below, so only accept the names generated by the starter.
+case "$template_id" in
+  template_*[!a-z0-9]* | template_) valid=false ;;
+  template_*) valid=true ;;
+  *) valid=false ;;
+esac
+if [ "$valid" != true ]; then
+  echo "Invalid template id: $template_id" >&2
+  exit 64
+fi
+
+drop_template() {
+  psql -h /tmp -U "$admin_user" -d postgres -q -v ON_ERROR_STOP=0 >/dev/null 2>&1 <<SQL || true
+DROP DATABASE IF EXISTS "$template_id" WITH (FORCE);
+DROP ROLE IF EXISTS "$template_id";
+SQL
+}
+
+if [ "${TEMPLATE_ACTION:-create}" = drop ]; then
+  drop_template
+  exit 0
+fi
+
+trap drop_template EXIT
+psql -h /tmp -U "$admin_user" -d postgres -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+CREATE ROLE "$template_id" LOGIN NOSUPERUSER NOCREATEDB NOCREATEROLE NOREPLICATION CONNECTION LIMIT 1;
+ALTER ROLE "$template_id" SET statement_timeout = $statement_timeout_ms;
+CREATE DATABASE "$template_id";
+REVOKE CONNECT ON DATABASE "$template_id" FROM PUBLIC;
+GRANT CONNECT ON DATABASE "$template_id" TO "$template_id";
+SQL
+psql -h /tmp -U "$admin_user" -d "$template_id" -q -v ON_ERROR_STOP=1 >/dev/null <<SQL
+GRANT USAGE, CREATE ON SCHEMA public TO "$template_id";
+SQL
+
+# Any error leaves the prefix uncached, so that a cached prefix always behaves exactly like running it.
+env -u PGPASSFILE psql -h /tmp -U "$template_id" -d "$template_id" -q -v ON_ERROR_STOP=1 -f "$SQL_FILE" >/dev/null
+
+# Freeze the template and report its size.
+psql -h /tmp -U "$admin_user" -d postgres -q -X -A -t -v ON_ERROR_STOP=1 <<SQL
+ALTER ROLE "$template_id" NOLOGIN;
+ALTER DATABASE "$template_id" ALLOW_CONNECTIONS false;
+SELECT pg_database_size('$template_id');
+SQL
+trap - EXIT
@@ -0,0 +1,100 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.aot.test.generate.TestGenerationContext;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.aot.ApplicationContextAotGenerator;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.test.tools.CompileWithForkedClassLoader;
+import org.springframework.core.test.tools.TestCompiler;
+import org.springframework.mock.env.MockEnvironment;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.executor.AdmissionController;
+import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+
+@CompileWithForkedClassLoader
+class SqlSandboxAotTest {
+
+    private static final List<String> SCRIPTS = List.of("init", "run", "serve", "exec", "compare", "isolate", "reap",
+            "preflight", "plan", "template");
+
+    @Test
+    void runtimeHints_registerScriptsAndConfigurationProperties() {
+        var hints = new RuntimeHints();
+        new SqlSandboxRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        for (var script : SCRIPTS) {
+            assertTrue(RuntimeHintsPredicates.resource().forResource("sql/" + script + "-postgres.sh").test(hints),
+                    script);
+        }
+        assertTrue(RuntimeHintsPredicates.reflection().onType(SqlSandboxProperties.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(SqlSandboxProperties.ResourceClassLimits.class)
+                .test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(SqlDeleteFileManagerProperties.class).test(hints));
+    }
+
+    @Test
+    void aotProcessedContext_startsWithBoundProperties() {
+        withAotProcessedContext((context, generationContext) -> {
+            var properties = context.getBean(SqlSandboxProperties.class);
+            var dockerConfig = context.getBean(DockerConfig.class);
+            var admission = context.getBean(AdmissionController.class);
+            var executor = context.getBean(SqlExecutor.class);
+
+            // A snippet whose deadline has already passed is rejected without starting a container.
+            var result = executor.execute(new CodeSnippet("SELECT 1;", Duration.ofNanos(1), "sql"));
+
+            assertAll(
+                    () -> assertEquals(7, properties.getMaxQueueLength()),
+                    () -> assertEquals(64, dockerConfig.maxMemoryMb()),
+                    () -> assertEquals(0, admission.queueLength()),
+                    () -> assertEquals(SqlExecutor.REJECTED_EXIT_CODE, result.exitCode()),
+                    () -> assertTrue(RuntimeHintsPredicates.resource().forResource("sql/run-postgres.sh")
+                            .test(generationContext.getRuntimeHints())));
+        });
+    }
+
+    static void withAotProcessedContext(AotContextCallback callback) {
+        var buildContext = new AnnotationConfigApplicationContext();
+        buildContext.setEnvironment(environment());
+        buildContext.register(SqlSandboxAutoConfiguration.class);
+        var generationContext = new TestGenerationContext();
+        var initializerName = new ApplicationContextAotGenerator().processAheadOfTime(buildContext,
+                generationContext);
+        generationContext.writeGeneratedContent();
+
+        TestCompiler.forSystem().with(generationContext).compile(compiled -> {
+            try (var context = new GenericApplicationContext()) {
+                context.setEnvironment(environment());
+                @SuppressWarnings("unchecked")
+                ApplicationContextInitializer<GenericApplicationContext> initializer = compiled
+                        .getInstance(ApplicationContextInitializer.class, initializerName.reflectionName());
+                initializer.initialize(context);
+                context.refresh();
+                callback.accept(context, generationContext);
+            }
+        });
+    }
+
+    private static MockEnvironment environment() {
+        return new MockEnvironment()
+                .withProperty("sandboxcore.sql.max-queue-length", "7")
+                .withProperty("sandboxcore.sql.max-memory-mb", "64");
+    }
+
+    @FunctionalInterface
+    interface AotContextCallback {
+        void accept(GenericApplicationContext context, TestGenerationContext generationContext);
+    }
+}
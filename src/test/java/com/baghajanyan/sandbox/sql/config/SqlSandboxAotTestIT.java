@@ -0,0 +1,30 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.test.tools.CompileWithForkedClassLoader;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+
+@Tag("integration")
+@CompileWithForkedClassLoader
+class SqlSandboxAotTestIT {
+
+    @Test
+    void aotProcessedContext_executesSnippet() {
+        SqlSandboxAotTest.withAotProcessedContext((context, generationContext) -> {
+            var result = context.getBean(SqlExecutor.class)
+                    .execute(new CodeSnippet("SELECT 1 AS id;", Duration.ofSeconds(10), "sql"));
+
+            assertAll(
+                    () -> assertEquals(0, result.exitCode()),
+                    () -> assertEquals("[{\"id\":1}]", result.stdout()));
+        });
+    }
+}
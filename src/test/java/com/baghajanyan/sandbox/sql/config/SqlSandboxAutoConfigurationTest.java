@@ -0,0 +1,30 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.mock.env.MockEnvironment;
+
+class SqlSandboxAutoConfigurationTest {
+
+    @Test
+    void hostBackend_withServerFeatures_failsAtStartup() {
+        var environment = new MockEnvironment()
+                .withProperty("sandboxcore.sql.backend", "host")
+                .withProperty("sandboxcore.sql.preflight.enabled", "true")
+                .withProperty("sandboxcore.sql.session.enabled", "true");
+
+        try (var context = new AnnotationConfigApplicationContext()) {
+            context.setEnvironment(environment);
+            context.register(SqlSandboxAutoConfiguration.class);
+
+            var e = assertThrows(BeanCreationException.class, context::refresh);
+            var message = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+            assertTrue(message.contains("The syntax pre-flight, Sessions"), message);
+        }
+    }
+}
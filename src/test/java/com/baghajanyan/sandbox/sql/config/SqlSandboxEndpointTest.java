@@ -0,0 +1,111 @@
+package com.baghajanyan.sandbox.sql.config;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.health.contributor.Status;
+
+import com.baghajanyan.sandbox.core.fs.TempFileManager;
+import com.baghajanyan.sandbox.sql.docker.CpuSetAllocator;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.docker.HostProcessExecutor;
+import com.baghajanyan.sandbox.sql.executor.AdmissionController;
+import com.baghajanyan.sandbox.sql.executor.ResizableSemaphore;
+import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+import com.baghajanyan.sandbox.sql.executor.SqlServerPool;
+
+class SqlSandboxEndpointTest {
+    DockerProcessExecutor dockerProcess = new DockerProcessExecutor(new DockerConfig(128, 0.5, Duration.ofSeconds(15),
+            "postgres:16", true, false, true, 64, "65534:65534", "64m", true, true));
+
+    @Test
+    void state_reportsAdmissionState() throws Exception {
+        var admission = new AdmissionController(new ResizableSemaphore(4, true), 0);
+        admission.admit(null);
+        var endpoint = endpoint(admission, null);
+
+        var state = endpoint.state();
+
+        assertAll(
+                () -> assertEquals(4, state.maxConcurrency()),
+                () -> assertEquals(1, state.inFlight()),
+                () -> assertEquals(0, state.queueLength()),
+                () -> assertEquals(0.25, state.permitUsage()),
+                () -> assertEquals(Duration.ofSeconds(15), state.maxExecutionTime()),
+                () -> assertEquals(0, state.executions().samples()));
+    }
+
+    @Test
+    void update_changesConcurrencyPoolSizeAndTimeout() {
+        var admission = new AdmissionController(new ResizableSemaphore(4, true), 0);
+        var pool = mock(SqlServerPool.class);
+        var endpoint = endpoint(admission, pool);
+
+        var state = endpoint.update(8, Duration.ofSeconds(30));
+
+        assertEquals(8, state.maxConcurrency());
+        assertEquals(Duration.ofSeconds(30), state.maxExecutionTime());
+        assertEquals(Duration.ofSeconds(30), dockerProcess.getDockerConfig().executionTimeout());
+        verify(pool).setSize(8);
+    }
+
+    @Test
+    void update_rejectsInvalidValues() {
+        var pool = mock(SqlServerPool.class);
+        var resizable = endpoint(new AdmissionController(new ResizableSemaphore(4, true), 0), pool);
+        var fixed = endpoint(new AdmissionController(new Semaphore(4, true), 0), pool);
+
+        assertThrows(InvalidEndpointRequestException.class, () -> resizable.update(0, null));
+        assertThrows(InvalidEndpointRequestException.class, () -> resizable.update(null, Duration.ZERO));
+        assertThrows(InvalidEndpointRequestException.class, () -> fixed.update(2, null));
+        verify(pool, never()).setSize(2);
+    }
+
+    @Test
+    void update_withCpuSets_rejectsConcurrencyAboveSliceCount() {
+        var admission = new AdmissionController(new ResizableSemaphore(2, true), 0);
+        var executor = SqlExecutor.builder(admission, mock(TempFileManager.class), dockerProcess).build();
+        var endpoint = new SqlSandboxEndpoint(admission, executor, dockerProcess, null,
+                new CpuSetAllocator("0-3", 2, false));
+
+        assertThrows(InvalidEndpointRequestException.class, () -> endpoint.update(3, null));
+        assertEquals(2, endpoint.update(2, null).maxConcurrency());
+    }
+
+    @Test
+    void healthIndicator_whenDockerUnavailable_isDown() {
+        var process = mock(DockerProcessExecutor.class);
+        when(process.dockerVersion()).thenThrow(new DockerProcessThreadException("Docker daemon is not available",
+                new IllegalStateException("docker version exited with 1")));
+
+        assertEquals(Status.DOWN, new SandboxHealthIndicator(process, Backend.DOCKER).health(true).getStatus());
+    }
+
+    @Test
+    void healthIndicator_onHostBackend_reportsHostVersion() {
+        var process = mock(HostProcessExecutor.class);
+        when(process.dockerVersion()).thenReturn("postgres (PostgreSQL) 16.4, bubblewrap 0.9.0");
+
+        var health = new SandboxHealthIndicator(process, Backend.HOST).health(true);
+
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(Map.of("hostVersion", "postgres (PostgreSQL) 16.4, bubblewrap 0.9.0"), health.getDetails());
+    }
+
+    private SqlSandboxEndpoint endpoint(AdmissionController admission, SqlServerPool pool) {
+        var executor = SqlExecutor.builder(admission, mock(TempFileManager.class), dockerProcess).build();
+        return new SqlSandboxEndpoint(admission, executor, dockerProcess, pool, null);
+    }
+}
@@ -9,6 +9,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
 
 @SpringBootTest(classes = { SqlSandboxAutoConfiguration.class })
 @ActiveProfiles("test")
@@ -24,6 +25,7 @@ class SqlSandboxPropertiesIT {
     void sqlSandboxPropertiesAreLoadedCorrectly() {
         assertNotNull(sqlSandboxProperties);
         assertEquals(10, sqlSandboxProperties.getMaxConcurrency());
+        assertEquals(25, sqlSandboxProperties.getMaxQueueLength());
         assertEquals(32, sqlSandboxProperties.getMaxMemoryMb());
         assertEquals(0.5, sqlSandboxProperties.getMaxCpuUnits());
         assertEquals(Duration.ofSeconds(20), sqlSandboxProperties.getMaxExecutionTime());
@@ -36,6 +38,37 @@ class SqlSandboxPropertiesIT {
         assertEquals("64m", sqlSandboxProperties.getSecurity().getTmpfsSize());
         assertEquals(true, sqlSandboxProperties.getSecurity().isDropCapabilities());
         assertEquals(true, sqlSandboxProperties.getSecurity().isNoNewPrivileges());
+        assertEquals(true, sqlSandboxProperties.getSession().isEnabled());
+        assertEquals(Duration.ofMinutes(2), sqlSandboxProperties.getSession().getIdleTimeout());
+        assertEquals(1, sqlSandboxProperties.getSession().getMaxSessionsPerUser());
+        assertEquals(4, sqlSandboxProperties.getSession().getMaxSessions());
+        var large = sqlSandboxProperties.getResourceClasses().get("large");
+        assertEquals(512, large.getMaxMemoryMb());
+        assertEquals(2, large.getMaxCpuUnits());
+        assertEquals(Duration.ofSeconds(45), large.getMaxExecutionTime());
+        assertEquals(2048, sqlSandboxProperties.getBudget().getMemoryMb());
+        assertEquals(4, sqlSandboxProperties.getBudget().getCpuUnits());
+        assertEquals(Isolation.DATABASE, sqlSandboxProperties.getIsolation());
+        assertEquals(true, sqlSandboxProperties.getPreflight().isEnabled());
+        assertEquals(Duration.ofMillis(500), sqlSandboxProperties.getPreflight().getTimeout());
+        assertEquals(DataSize.ofMegabytes(4), sqlSandboxProperties.getSpill().getThreshold());
+        var routing = sqlSandboxProperties.getRouting();
+        assertEquals(true, routing.isEnabled());
+        assertEquals(Duration.ofMillis(750), routing.getTimeout());
+        assertEquals(1e9, routing.getRejectAboveCost());
+        assertEquals(1, routing.getLanes().size());
+        assertEquals("large", routing.getLanes().get(0).getResourceClass());
+        assertEquals(1e7, routing.getLanes().get(0).getMaxCost());
+        assertEquals(1_000_000, routing.getLanes().get(0).getMaxRows());
+        var templates = sqlSandboxProperties.getTemplates();
+        assertEquals(true, templates.isEnabled());
+        assertEquals(5, templates.getMinHits());
+        assertEquals(DataSize.ofMegabytes(32), templates.getMaxSizePerServer());
+        assertEquals(2, sqlSandboxProperties.getStandby().getDepth());
+        assertEquals(0.25, sqlSandboxProperties.getJournal().getSampleRate());
+        assertEquals(Duration.ofSeconds(1), sqlSandboxProperties.getJournal().getFlushInterval());
+        assertEquals(5, sqlSandboxProperties.getJobs().getMaxAttempts());
+        assertEquals(Duration.ofMinutes(10), sqlSandboxProperties.getJobs().getResultTtl());
     }
 
     @Test
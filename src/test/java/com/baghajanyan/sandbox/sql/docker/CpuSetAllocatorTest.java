@@ -0,0 +1,74 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CpuSetAllocatorTest {
+
+    @TempDir
+    Path sysfs;
+
+    @Test
+    void slices_withoutNumaTopology_areConsecutiveCores() {
+        var allocator = new CpuSetAllocator("0-5,8", 2, (Path) null);
+
+        assertEquals(List.of("0,1", "2,3", "4,5"), allocator.slices());
+    }
+
+    @Test
+    void slices_withNumaTopology_stayWithinNodeAndInterleave() throws Exception {
+        writeNode(0, "0-3");
+        writeNode(1, "4-7");
+
+        var allocator = new CpuSetAllocator("2-5", 2, sysfs);
+
+        assertEquals(List.of("2,3", "4,5"), allocator.slices());
+
+        var straddling = new CpuSetAllocator("0-7", 1, sysfs);
+        assertEquals(List.of("0", "4", "1", "5", "2", "6", "3", "7"), straddling.slices());
+    }
+
+    @Test
+    void slices_neverSpanNodes() throws Exception {
+        writeNode(0, "0-2");
+        writeNode(1, "3-5");
+
+        var allocator = new CpuSetAllocator("0-5", 2, sysfs);
+
+        assertEquals(List.of("0,1", "3,4"), allocator.slices());
+    }
+
+    @Test
+    void acquire_whenAllSlicesTaken_timesOutUntilReleased() throws Exception {
+        var allocator = new CpuSetAllocator("0", 1, (Path) null);
+
+        var slice = allocator.acquire(Duration.ofMillis(10));
+        assertEquals("0", slice);
+        assertNull(allocator.acquire(Duration.ofMillis(10)));
+
+        allocator.release(slice);
+        assertEquals("0", allocator.acquire(Duration.ofMillis(10)));
+    }
+
+    @Test
+    void constructor_rejectsInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new CpuSetAllocator("", 1, (Path) null));
+        assertThrows(IllegalArgumentException.class, () -> new CpuSetAllocator("3-1", 1, (Path) null));
+        assertThrows(IllegalArgumentException.class, () -> new CpuSetAllocator("0", 2, (Path) null));
+        assertThrows(IllegalArgumentException.class, () -> new CpuSetAllocator("a-b", 1, (Path) null));
+    }
+
+    private void writeNode(int node, String cpuList) throws Exception {
+        var dir = Files.createDirectories(sysfs.resolve("node" + node));
+        Files.writeString(dir.resolve("cpulist"), cpuList + "\n");
+    }
+}
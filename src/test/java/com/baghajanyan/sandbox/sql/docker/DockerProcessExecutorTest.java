@@ -1,14 +1,21 @@
 package com.baghajanyan.sandbox.sql.docker;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 
 import com.baghajanyan.sandbox.sql.config.DockerConfig;
@@ -82,24 +89,229 @@ class DockerProcessExecutorTest {
         assertTrue(command.contains("65534:65534"));
     }
 
+    @Test
+    void create_withCpuSet_pinsContainer() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.create(Path.of("/tmp/sql-snippet.sql"), "2,3", defaultConfig()).command();
+
+        assertTrue(command.contains("--cpuset-cpus=2,3"));
+        assertTrue(command.stream().anyMatch(arg -> arg.startsWith("--cpus=")));
+    }
+
+    @Test
+    void create_withComparisonEnvironment_runsCompareScript() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.create(Path.of("/tmp/sql-snippet.sql"), null, defaultConfig(),
+                Map.of("EXPECTED_FILE", SandboxProcessExecutor.containerPath(Path.of("/tmp/expected.csv"))),
+                "/sql/compare-postgres.sh").command();
+
+        assertTrue(command.contains("SQL_FILE=/code/sql-snippet.sql"));
+        assertTrue(command.contains("EXPECTED_FILE=/code/expected.csv"));
+        assertTrue(command.get(command.size() - 1).contains("initdb"));
+        assertTrue(command.get(command.size() - 1).contains("__sandbox_expected"));
+    }
+
+    @Test
+    void execute_withCpuSetAllocator_releasesSliceAfterExit() throws Exception {
+        var allocator = new CpuSetAllocator("0", 1, (Path) null);
+        var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig(), allocator));
+        var builder = Mockito.mock(ProcessBuilder.class);
+        var process = Mockito.mock(Process.class);
+        Mockito.doReturn(builder).when(executor).create(Mockito.any(), Mockito.eq("0"), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any());
+        Mockito.when(builder.start()).thenReturn(process);
+        Mockito.when(process.waitFor(Mockito.anyLong(), Mockito.any())).thenReturn(true);
+
+        executor.execute(Path.of("/tmp/sql.sql"));
+
+        assertEquals(1, allocator.availableSlices());
+    }
+
+    @Test
+    void createServer_buildsDetachedHardenedCommand() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.createServer("sandbox-sql-test").command();
+
+        assertEquals(List.of("docker", "run", "-d", "--rm", "--name", "sandbox-sql-test"), command.subList(0, 6));
+        assertTrue(command.contains("--network=none"));
+        assertTrue(command.contains("--read-only"));
+        assertTrue(command.contains("--cap-drop=ALL"));
+        assertTrue(command.contains("128m"));
+        assertTrue(command.contains("postgres:16"));
+        assertTrue(command.get(command.size() - 1).contains("exec postgres"));
+        assertTrue(command.stream().noneMatch(arg -> arg.startsWith("SQL_FILE=")));
+    }
+
+    @Test
+    void createExec_pipesSnippetIntoRunningContainer() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.createExec("sandbox-sql-test").command();
+
+        assertEquals(List.of("docker", "exec", "-i", "sandbox-sql-test", "/bin/bash", "-c"), command.subList(0, 6));
+        assertTrue(command.get(6).contains("cat > \"$SQL_FILE\""));
+        assertTrue(command.get(6).contains("__EXECUTION_TIME__"));
+    }
+
+    @Test
+    void createExec_withEnvironment_isolatesSnippetInFreshDatabase() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.createExec("sandbox-sql-test", Map.of("SNIPPET_ID", "snippet_1"),
+                "/sql/exec-postgres.sh", "/sql/isolate-postgres.sh", "/sql/run-postgres.sh").command();
+
+        assertEquals(List.of("docker", "exec", "-i", "-e", "SNIPPET_ID=snippet_1", "sandbox-sql-test"),
+                command.subList(0, 6));
+        var script = command.get(command.size() - 1);
+        assertTrue(script.indexOf("cat > \"$SQL_FILE\"") < script.indexOf("CREATE DATABASE"));
+        assertTrue(script.indexOf("CREATE DATABASE") < script.indexOf("__EXECUTION_TIME__"));
+    }
+
     @Test
     void execute_whenProcessTimesOut_throwsTimeoutException() throws Exception {
         var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig()));
         var builder = Mockito.mock(ProcessBuilder.class);
         var process = Mockito.mock(Process.class);
-        Mockito.doReturn(builder).when(executor).create(Mockito.any());
+        Mockito.doReturn(builder).when(executor).create(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any());
+        Mockito.doNothing().when(executor).remove(Mockito.any());
         Mockito.when(builder.start()).thenReturn(process);
         Mockito.when(process.waitFor(Mockito.anyLong(), Mockito.any())).thenReturn(false);
 
         assertThrows(DockerProcessTimeoutException.class, () -> executor.execute(Path.of("/tmp/sql.sql")));
         Mockito.verify(process).destroyForcibly();
+        // Killing the CLI leaves the container running.
+        Mockito.verify(executor).remove(Mockito.startsWith("sandbox-sql-run-"));
+    }
+
+    @Test
+    void execute_whenOutputExceedsPipeBuffer_readsItWhileRunning() throws Exception {
+        var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig()));
+        Mockito.doReturn(new ProcessBuilder("sh", "-c", "head -c 1000000 /dev/zero; echo done >&2"))
+                .when(executor).create(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                        Mockito.any());
+
+        var process = executor.execute(Path.of("/tmp/sql.sql"));
+
+        assertEquals(0, process.exitValue());
+        assertEquals(1_000_000, process.getInputStream().readAllBytes().length);
+        assertEquals("done\n", new String(process.getErrorStream().readAllBytes()));
+    }
+
+    @Test
+    void execute_whenProcessTimesOut_keepsPartialOutput() throws Exception {
+        var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig()));
+        Mockito.doReturn(new ProcessBuilder("sh", "-c", "echo id; echo 1; echo progress >&2; exec sleep 30"))
+                .when(executor).create(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                        Mockito.any());
+        Mockito.doNothing().when(executor).remove(Mockito.any());
+        var config = defaultConfig().withExecutionTimeout(Duration.ofMillis(500));
+
+        var error = assertThrows(DockerProcessTimeoutException.class,
+                () -> executor.execute(Path.of("/tmp/sql.sql"), config));
+
+        assertEquals("id\n1\n", error.getPartialStdout());
+        assertEquals("progress\n", error.getPartialStderr());
+    }
+
+    @Test
+    void execute_whenInterruptedWhileReadingOutput_removesContainer() throws Exception {
+        var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig()));
+        Mockito.doReturn(new ProcessBuilder("sleep", "30")).when(executor).create(Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.doNothing().when(executor).remove(Mockito.any());
+        var failure = new AtomicReference<Throwable>();
+        var caller = Thread.ofVirtual().start(() -> {
+            try {
+                // Blocks in a read that does not respond to interrupts.
+                executor.execute(Path.of("/tmp/sql.sql"), running -> running.getInputStream().readAllBytes());
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        Thread.sleep(200);
+
+        caller.interrupt();
+
+        assertTrue(caller.join(Duration.ofSeconds(5)));
+        assertInstanceOf(DockerProcessThreadException.class, failure.get());
+        Mockito.verify(executor).remove(Mockito.startsWith("sandbox-sql-run-"));
+    }
+
+    @Test
+    void create_namesContainer() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.create(Path.of("/tmp/sql-snippet.sql"), null, defaultConfig(), Map.of(),
+                "/sql/run-postgres.sh", "sandbox-sql-run-test").command();
+
+        assertEquals(List.of("docker", "run", "--rm", "--name", "sandbox-sql-run-test"), command.subList(0, 5));
+    }
+
+    @Test
+    void createStandbyContainer_createsContainerWithExecutionOptions() {
+        var executor = new DockerProcessExecutor(defaultConfig());
+        var command = executor.createStandbyContainer(defaultConfig(), Path.of("/tmp/code"), "sandbox-sql-standby-1")
+                .command();
+        var execution = executor.create(Path.of("/tmp/code/sandbox-sql-standby-1.sql"), null, defaultConfig(),
+                Map.of(), "/sql/run-postgres.sh", "sandbox-sql-standby-1").command();
+
+        assertEquals(List.of("docker", "create", "--rm", "--name", "sandbox-sql-standby-1"), command.subList(0, 5));
+        assertEquals(execution.subList(2, execution.size()), command.subList(2, command.size()));
+        assertTrue(command.contains("SQL_FILE=/code/sandbox-sql-standby-1.sql"));
+    }
+
+    @Test
+    void execute_withStandbyContainer_startsItOnTheLinkedSnippet(@TempDir Path codeDir) throws Exception {
+        var executor = new DockerProcessExecutor(defaultConfig(), null, 1) {
+            @Override
+            String createStandby(DockerConfig config, Path directory) {
+                return "sandbox-sql-standby-1";
+            }
+
+            @Override
+            ProcessBuilder startStandby(String containerName) {
+                return new ProcessBuilder("cat", codeDir.resolve(containerName + ".sql").toString());
+            }
+
+            @Override
+            ProcessBuilder create(Path tmpFile, String cpuSet, DockerConfig config, Map<String, String> environment,
+                    String runScript, String containerName) {
+                return new ProcessBuilder("echo", "created");
+            }
+        };
+        var snippet = Files.writeString(codeDir.resolve("sql-snippet.sql"), "SELECT 1;");
+
+        var first = executor.execute(snippet);
+        for (int i = 0; i < 500 && executor.standbyReady() == 0; i++) {
+            Thread.sleep(10);
+        }
+        var second = executor.execute(snippet);
+
+        assertEquals("created\n", new String(first.getInputStream().readAllBytes()));
+        assertEquals("SELECT 1;", new String(second.getInputStream().readAllBytes()));
+        assertFalse(Files.exists(codeDir.resolve("sandbox-sql-standby-1.sql")));
+        assertEquals(1, executor.standbyHits());
+        assertEquals(1, executor.standbyMisses());
+    }
+
+    @Test
+    void execute_withResourceClassOrEnvironment_bypassesStandbyContainers() throws Exception {
+        var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig(), null, 1));
+        Mockito.doReturn(new ProcessBuilder("true")).when(executor).create(Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+        executor.execute(Path.of("/tmp/sql.sql"), defaultConfig().withExecutionTimeout(Duration.ofSeconds(3)),
+                Map.of("STATEMENT_STATISTICS", "1"));
+        executor.execute(Path.of("/tmp/sql.sql"), new DockerConfig(256, 0.125, Duration.ofSeconds(10), "postgres:16",
+                true, false, true, 64, "65534:65534", "64m", true, true));
+
+        assertEquals(0, executor.standbyHits() + executor.standbyMisses());
     }
 
     @Test
     void execute_whenProcessStartFails_throwsThreadException() throws Exception {
         var executor = Mockito.spy(new DockerProcessExecutor(defaultConfig()));
         var builder = Mockito.mock(ProcessBuilder.class);
-        Mockito.doReturn(builder).when(executor).create(Mockito.any());
+        Mockito.doReturn(builder).when(executor).create(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any());
         Mockito.when(builder.start()).thenThrow(new IOException("boom"));
 
         assertThrows(DockerProcessThreadException.class, () -> executor.execute(Path.of("/tmp/sql.sql")));
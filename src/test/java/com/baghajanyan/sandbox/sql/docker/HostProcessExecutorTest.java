@@ -0,0 +1,119 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+
+class HostProcessExecutorTest {
+    @TempDir
+    Path cgroupRoot;
+
+    @Test
+    void create_writesCgroupLimitsAndBuildsHardenedCommand() throws IOException {
+        var executor = executor(config(true, "70:70"));
+
+        var builder = executor.create(Path.of("/tmp/sql-snippet.sql"), "2-3", config(true, "70:70"), Map.of("A", "b"),
+                "/sql/run-postgres.sh", "run-1");
+        var command = builder.command();
+
+        var cgroup = cgroupRoot.resolve("run-1");
+        assertEquals(Long.toString(128L * 1024 * 1024), Files.readString(cgroup.resolve("memory.max")));
+        assertEquals("12500 100000", Files.readString(cgroup.resolve("cpu.max")));
+        assertEquals("64", Files.readString(cgroup.resolve("pids.max")));
+        assertEquals("2-3", Files.readString(cgroup.resolve("cpuset.cpus")));
+
+        assertEquals(cgroup.toString(), command.get(3));
+        assertEquals("bwrap", command.get(4));
+        assertTrue(command.contains("--unshare-net"));
+        assertTrue(command.contains("--unshare-pid"));
+        assertTrue(command.contains("--unshare-user"));
+        assertTrue(containsSequence(command, "--uid", "70", "--gid", "70"));
+        assertTrue(containsSequence(command, "--cap-drop", "ALL"));
+        assertTrue(containsSequence(command, "--size", Long.toString(64L * 1024 * 1024), "--tmpfs", "/tmp"));
+        assertTrue(containsSequence(command, "--ro-bind", "/tmp", "/code"));
+        assertTrue(containsSequence(command, "--ro-bind", "/usr/lib/postgresql/16", "/usr/lib/postgresql/16"));
+        assertTrue(containsSequence(command, "--setenv", "SQL_FILE", "/code/sql-snippet.sql"));
+        assertTrue(containsSequence(command, "--setenv", "PATH", "/usr/lib/postgresql/16/bin:/usr/bin:/bin"));
+        assertTrue(containsSequence(command, "--setenv", "A", "b"));
+        assertTrue(command.contains("/etc/passwd"));
+        assertEquals("/bin/bash", command.get(command.size() - 3));
+        assertTrue(command.getLast().contains("\\i $SQL_FILE"));
+        assertTrue(builder.environment().isEmpty());
+    }
+
+    @Test
+    void create_relaxed_keepsNetworkAndWritableCode() throws IOException {
+        var executor = executor(config(false, "65534"));
+
+        var command = executor.create(Path.of("/tmp/sql-snippet.sql"), null, config(false, "65534"), Map.of(),
+                "/sql/run-postgres.sh", "run-1").command();
+
+        assertFalse(command.contains("--unshare-net"));
+        assertFalse(command.contains("--cap-drop"));
+        assertTrue(containsSequence(command, "--bind", "/tmp", "/code"));
+        assertTrue(containsSequence(command, "--uid", "65534", "--gid", "65534"));
+        assertFalse(Files.exists(cgroupRoot.resolve("run-1").resolve("pids.max")));
+        assertFalse(Files.exists(cgroupRoot.resolve("run-1").resolve("cpuset.cpus")));
+    }
+
+    @Test
+    void remove_killsCgroup() throws IOException {
+        var executor = executor(config(true, "70:70"));
+        Files.createDirectory(cgroupRoot.resolve("run-1"));
+
+        executor.remove("run-1");
+        executor.remove("unknown");
+
+        assertEquals("1", Files.readString(cgroupRoot.resolve("run-1").resolve("cgroup.kill")));
+        assertFalse(Files.exists(cgroupRoot.resolve("unknown")));
+    }
+
+    @Test
+    void close_deletesAccountFiles() throws IOException {
+        var executor = executor(config(true, "70:70"));
+        var command = executor.create(Path.of("/tmp/sql-snippet.sql"), null, config(true, "70:70"), Map.of(),
+                "/sql/run-postgres.sh", "run-1").command();
+        var passwd = Path.of(command.get(command.indexOf("/etc/passwd") - 1));
+        assertTrue(Files.exists(passwd));
+
+        executor.close();
+        executor.close();
+
+        assertFalse(Files.exists(passwd.getParent()));
+    }
+
+    @Test
+    void rejectsUnsupportedSettings() {
+        assertThrows(IllegalArgumentException.class, () -> executor(config(true, "postgres")));
+        assertEquals(64L * 1024 * 1024, HostProcessExecutor.parseSize("64m"));
+        assertEquals(512, HostProcessExecutor.parseSize("512b"));
+        assertEquals(2048, HostProcessExecutor.parseSize("2K"));
+    }
+
+    private HostProcessExecutor executor(DockerConfig config) {
+        return new HostProcessExecutor(config, null, Path.of("/usr/lib/postgresql/16/bin"), cgroupRoot, "bwrap");
+    }
+
+    private static boolean containsSequence(List<String> command, String... sequence) {
+        return Collections.indexOfSubList(command, List.of(sequence)) >= 0;
+    }
+
+    private static DockerConfig config(boolean hardening, String runAsUser) {
+        return new DockerConfig(128, 0.125, Duration.ofSeconds(10), "postgres:16", hardening, false, true, 64,
+                runAsUser, "64m", true, true);
+    }
+}
@@ -0,0 +1,98 @@
+package com.baghajanyan.sandbox.sql.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+
+class StandbyContainersTest {
+    private static final Path DIRECTORY = Path.of("/tmp");
+
+    DockerProcessExecutor process = mock(DockerProcessExecutor.class);
+    AtomicInteger created = new AtomicInteger();
+
+    @Test
+    void take_refillsToDepthInTheBackground() throws Exception {
+        when(process.createStandby(any(), any())).thenAnswer(invocation -> "standby-" + created.incrementAndGet());
+        var standbys = new StandbyContainers(process, 2);
+
+        assertNull(standbys.take(config(128), DIRECTORY));
+        awaitReady(standbys, 2);
+
+        assertEquals("standby-1", standbys.take(config(128).withExecutionTimeout(Duration.ofSeconds(3)), DIRECTORY));
+        awaitReady(standbys, 2);
+        assertEquals(3, created.get());
+        assertEquals(1, standbys.hits());
+        assertEquals(1, standbys.misses());
+        verify(process, timeout(1000).times(3)).createStandby(StandbyContainers.creationConfig(config(128)),
+                DIRECTORY);
+    }
+
+    @Test
+    void take_withChangedConfiguration_removesStaleContainers() throws Exception {
+        when(process.createStandby(any(), any())).thenAnswer(invocation -> "standby-" + created.incrementAndGet());
+        var standbys = new StandbyContainers(process, 1);
+        standbys.take(config(128), DIRECTORY);
+        awaitReady(standbys, 1);
+
+        assertNull(standbys.take(config(256), DIRECTORY));
+
+        verify(process).remove("standby-1");
+        awaitReady(standbys, 1);
+        assertEquals("standby-2", standbys.take(config(256), DIRECTORY));
+    }
+
+    @Test
+    void close_removesReadyContainersAndStopsRefilling() throws Exception {
+        when(process.createStandby(any(), any())).thenAnswer(invocation -> "standby-" + created.incrementAndGet());
+        var standbys = new StandbyContainers(process, 1);
+        standbys.take(config(128), DIRECTORY);
+        awaitReady(standbys, 1);
+
+        standbys.close();
+
+        verify(process).remove("standby-1");
+        assertNull(standbys.take(config(128), DIRECTORY));
+        assertEquals(0, standbys.size());
+    }
+
+    @Test
+    void take_whenCreationFails_staysEmptyUntilNextTake() throws Exception {
+        when(process.createStandby(any(), any())).thenThrow(new DockerProcessException.DockerProcessThreadException(
+                "no daemon", new IllegalStateException()));
+        var standbys = new StandbyContainers(process, 3);
+
+        assertNull(standbys.take(config(128), DIRECTORY));
+
+        verify(process, timeout(1000)).createStandby(any(), any());
+        Thread.sleep(50);
+        verify(process).createStandby(any(), any());
+        verify(process, never()).remove(any());
+        assertThrows(IllegalArgumentException.class, () -> new StandbyContainers(process, 0));
+    }
+
+    private static void awaitReady(StandbyContainers standbys, int size) throws InterruptedException {
+        for (int i = 0; i < 500 && standbys.size() < size; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, standbys.size());
+    }
+
+    private static DockerConfig config(int memoryMb) {
+        return new DockerConfig(memoryMb, 0.125, Duration.ofSeconds(10), "postgres:16", true, false, true, 64,
+                "65534:65534", "64m", true, true);
+    }
+}
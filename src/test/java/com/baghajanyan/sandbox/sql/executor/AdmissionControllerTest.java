@@ -0,0 +1,131 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+import com.baghajanyan.sandbox.sql.executor.AdmissionController.Admission;
+
+class AdmissionControllerTest {
+
+    @Test
+    void admit_whenPermitAvailable_admits() throws Exception {
+        var semaphore = new Semaphore(1, true);
+        var controller = new AdmissionController(semaphore, 0);
+
+        assertEquals(Admission.ADMITTED, controller.admit(AdmissionController.deadlineFor(Duration.ofSeconds(1))));
+        assertEquals(0, semaphore.availablePermits());
+
+        controller.release();
+        assertEquals(1, semaphore.availablePermits());
+    }
+
+    @Test
+    void admit_whenDeadlinePassesWhileQueued_doesNotTakePermit() throws Exception {
+        var semaphore = new Semaphore(0, true);
+        var controller = new AdmissionController(semaphore, 0);
+
+        var admission = controller.admit(AdmissionController.deadlineFor(Duration.ofMillis(20)));
+
+        assertEquals(Admission.DEADLINE_EXCEEDED, admission);
+        assertEquals(0, controller.queueLength());
+        semaphore.release();
+        assertEquals(1, semaphore.availablePermits());
+    }
+
+    @Test
+    void admit_whenDeadlineAlreadyPassed_rejectsWithoutWaiting() throws Exception {
+        var controller = new AdmissionController(new Semaphore(1, true), 0);
+
+        assertEquals(Admission.DEADLINE_EXCEEDED, controller.admit(System.nanoTime() - 1));
+    }
+
+    @Test
+    void admit_whenQueueFull_rejectsImmediately() throws Exception {
+        var semaphore = new Semaphore(0, true);
+        var controller = new AdmissionController(semaphore, 1);
+        var waiting = new CountDownLatch(1);
+        var waiter = Thread.ofVirtual().start(() -> {
+            try {
+                waiting.countDown();
+                controller.admit(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.await();
+        while (controller.queueLength() == 0) {
+            Thread.onSpinWait();
+        }
+
+        assertEquals(Admission.QUEUE_FULL, controller.admit(null));
+
+        semaphore.release();
+        waiter.join(TimeUnit.SECONDS.toMillis(1));
+        assertEquals(0, controller.queueLength());
+    }
+
+    @Test
+    void admit_whenClassExceedsBudget_rejectsWithoutTakingPermit() throws Exception {
+        var semaphore = new Semaphore(1, true);
+        var small = new ResourceClass("small", 128, 0.5, Duration.ofSeconds(5));
+        var huge = new ResourceClass("huge", 4096, 1, Duration.ofSeconds(5));
+        var controller = new AdmissionController(semaphore, 0, new ResourceBudget(1024, 0, small));
+
+        assertEquals(Admission.EXCEEDS_BUDGET, controller.admit(null, huge));
+        assertEquals(1, semaphore.availablePermits());
+    }
+
+    @Test
+    void admit_withBudget_reservesDefaultClassUntilRelease() throws Exception {
+        var semaphore = new Semaphore(2, true);
+        var small = new ResourceClass("small", 512, 0.5, Duration.ofSeconds(5));
+        var budget = new ResourceBudget(512, 0, small);
+        var controller = new AdmissionController(semaphore, 0, budget);
+
+        assertEquals(Admission.ADMITTED, controller.admit(null));
+        assertEquals(512, budget.usedMemoryMb());
+        assertEquals(Admission.DEADLINE_EXCEEDED,
+                controller.admit(AdmissionController.deadlineFor(Duration.ofMillis(20))));
+        assertEquals(1, semaphore.availablePermits());
+
+        controller.release();
+        assertEquals(0, budget.usedMemoryMb());
+        assertEquals(2, semaphore.availablePermits());
+    }
+
+    @Test
+    void deadlineFor_nonPositiveBudget_hasNoDeadline() {
+        assertNull(AdmissionController.deadlineFor(null));
+        assertNull(AdmissionController.deadlineFor(Duration.ZERO));
+    }
+
+    @Test
+    void setMaxConcurrency_withResizableSemaphore_changesAdmission() throws Exception {
+        var controller = new AdmissionController(new ResizableSemaphore(1, true), 0);
+
+        assertEquals(Admission.ADMITTED, controller.admit(null));
+        controller.setMaxConcurrency(2);
+        assertEquals(Admission.ADMITTED, controller.admit(null));
+
+        assertEquals(2, controller.inFlight());
+        assertEquals(2, controller.maxConcurrency());
+    }
+
+    @Test
+    void setMaxConcurrency_withPlainSemaphore_throws() {
+        var controller = new AdmissionController(new Semaphore(1, true), 0);
+
+        assertThrows(IllegalStateException.class, () -> controller.setMaxConcurrency(2));
+        assertEquals(-1, controller.maxConcurrency());
+        assertEquals(-1, controller.inFlight());
+    }
+}
@@ -1,6 +1,7 @@
 package com.baghajanyan.sandbox.sql.executor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -85,4 +86,42 @@ class CsvJsonConverterTest {
 
         assertEquals("[{\"id\":1,\"label\":\"\"},{\"id\":2,\"label\":\"value 2\"}]", json);
     }
+
+    @Test
+    void toJson_inChunks_matchesSequentialConversion() {
+        var csv = new StringBuilder("\n,\nid,label,flag,amount,id\n");
+        for (int i = 0; i < 500; i++) {
+            csv.append(i).append(',');
+            switch (i % 5) {
+                case 0 -> csv.append("\"line ").append(i).append("\nnext \"\"line\"\"\"");
+                case 1 -> csv.append("\"a, b\"");
+                case 2 -> csv.append("");
+                default -> csv.append("value ").append(i);
+            }
+            csv.append(',').append(i % 2 == 0).append(",-").append(i).append(".5,dup").append(i).append('\n');
+            if (i % 50 == 0) {
+                csv.append("short,row\n\n");
+            }
+        }
+        csv.append("__EXECUTION_TIME__: 12\n");
+
+        var sequential = CsvJsonConverter.toJson(csv.toString(), Integer.MAX_VALUE, 0);
+        var chunked = CsvJsonConverter.toJson(csv.toString(), 0, 64);
+
+        assertEquals(sequential, chunked);
+        assertTrue(sequential.startsWith("[{\"id\":\"dup0\",\"label\":\"line 0\\nnext \\\"line\\\"\",\"flag\":true"));
+    }
+
+    @Test
+    void toJson_inChunks_withHeaderOnly() {
+        assertEquals("[]", CsvJsonConverter.toJson("id,label", 0, 1));
+        assertEquals("[]", CsvJsonConverter.toJson("id,label\n", 0, 1));
+    }
+
+    @Test
+    void toJson_inChunks_withUnbalancedQuotes_convertsInOnePiece() {
+        var csv = "id,label\n1,value 1\n2,5\" pipe\n3,value 3";
+
+        assertEquals(CsvJsonConverter.toJson(csv, Integer.MAX_VALUE, 0), CsvJsonConverter.toJson(csv, 0, 1));
+    }
 }
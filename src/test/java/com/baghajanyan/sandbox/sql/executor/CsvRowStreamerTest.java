@@ -0,0 +1,85 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CsvRowStreamerTest {
+
+    @Test
+    void stream_deliversColumnsThenRows() throws Exception {
+        var sink = new RecordingSink();
+
+        var time = CsvRowStreamer.stream(new StringReader("id,label\n1,value 1\n2,\"value, 2\"\n"), sink);
+
+        assertEquals(List.of("id", "label"), sink.columns);
+        assertEquals(List.of(List.of("1", "value 1"), List.of("2", "value, 2")), sink.rows);
+        assertNull(time);
+    }
+
+    @Test
+    void stream_readsExecutionTimeMarker() throws Exception {
+        var sink = new RecordingSink();
+
+        var time = CsvRowStreamer.stream(new StringReader("id\n1\n\n__EXECUTION_TIME__: 12\n"), sink);
+
+        assertEquals(List.of("id"), sink.columns);
+        assertEquals(List.of(List.of("1")), sink.rows);
+        assertEquals(Duration.ofMillis(12), time);
+    }
+
+    @Test
+    void stream_skipsRecordsWithUnexpectedColumnCount() throws Exception {
+        var sink = new RecordingSink();
+
+        CsvRowStreamer.stream(new StringReader("id,label\n1,value 1\ncount\n5\n"), sink);
+
+        assertEquals(List.of(List.of("1", "value 1")), sink.rows);
+    }
+
+    @Test
+    void stream_laterResultSets_matchJsonConversion() throws Exception {
+        var sink = new RecordingSink();
+        var csv = "id,label\n1,a\ncount\n5\nname,kind\nx,y\n";
+
+        CsvRowStreamer.stream(new StringReader(csv), sink);
+
+        assertEquals(List.of("id", "label"), sink.columns);
+        // The single-column result set is skipped, the two-column one follows as rows, header included.
+        assertEquals(List.of(List.of("1", "a"), List.of("name", "kind"), List.of("x", "y")), sink.rows);
+        assertEquals("[{\"id\":1,\"label\":\"a\"},{\"id\":\"name\",\"label\":\"kind\"},"
+                + "{\"id\":\"x\",\"label\":\"y\"}]", CsvJsonConverter.toJson(csv));
+    }
+
+    @Test
+    void stream_emptyOutput() throws Exception {
+        var sink = new RecordingSink();
+
+        var time = CsvRowStreamer.stream(new StringReader(""), sink);
+
+        assertNull(sink.columns);
+        assertEquals(List.of(), sink.rows);
+        assertNull(time);
+    }
+
+    private static final class RecordingSink implements RowSink {
+        private List<String> columns;
+        private final List<List<String>> rows = new ArrayList<>();
+
+        @Override
+        public void onColumns(List<String> columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public void onRow(List<String> values) {
+            rows.add(values);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+
+class ExecutionJournalTest {
+
+    private static final ExecutionResult TIMED_OUT = new ExecutionResult(3, "[{\"x\":1}]",
+            "canceling statement due to statement timeout", Duration.ofMillis(900));
+
+    @Test
+    void close_writesEventsOfExecutionInOrder() {
+        var events = new CopyOnWriteArrayList<ExecutionEvent>();
+        var large = new ResourceClass("large", 512, 2, Duration.ofSeconds(30));
+        var journal = new ExecutionJournal(events::addAll, 16, 1, Duration.ofSeconds(10), "sandbox-1");
+
+        long id = journal.open();
+        journal.queued(id, large);
+        journal.started(id, large, System.nanoTime());
+        journal.ended(id, large, ExecutionStatistics.Outcome.TIMED_OUT, TIMED_OUT, Duration.ofSeconds(1));
+        journal.close();
+
+        assertEquals(List.of(ExecutionEvent.Type.QUEUED, ExecutionEvent.Type.STARTED, ExecutionEvent.Type.TIMED_OUT),
+                events.stream().map(ExecutionEvent::type).toList());
+        assertTrue(events.stream().allMatch(event -> event.executionId() == id && "large".equals(event.resourceClass())
+                && "sandbox-1".equals(event.host())));
+        assertNull(events.get(0).exitCode());
+        var ended = events.get(2);
+        assertEquals(3, ended.exitCode());
+        assertEquals(Duration.ofSeconds(1), ended.elapsed());
+        assertEquals(Duration.ofMillis(900), ended.executionTime());
+        assertEquals(9, ended.stdoutLength());
+        assertEquals(44, ended.stderrLength());
+        assertEquals(3, journal.writtenEvents());
+    }
+
+    @Test
+    void open_withSampleRateZero_journalsNothing() {
+        var events = new CopyOnWriteArrayList<ExecutionEvent>();
+        var journal = new ExecutionJournal(events::addAll, 16, 0, Duration.ofMillis(10), "sandbox-1");
+
+        long id = journal.open();
+        journal.queued(id, null);
+        journal.ended(id, null, ExecutionStatistics.Outcome.SUCCEEDED, TIMED_OUT, Duration.ZERO);
+        journal.close();
+
+        assertEquals(ExecutionJournal.UNSAMPLED, id);
+        assertTrue(events.isEmpty());
+        assertEquals(0, journal.droppedEvents());
+    }
+
+    @Test
+    void queued_whenBufferFull_dropsEvent() throws InterruptedException {
+        var entered = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var events = new CopyOnWriteArrayList<ExecutionEvent>();
+        var journal = new ExecutionJournal(batch -> {
+            entered.countDown();
+            release.await();
+            events.addAll(batch);
+        }, 2, 1, Duration.ofMillis(1), "sandbox-1");
+
+        journal.queued(journal.open(), null);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // The sink blocks on the first event; two more fit into the buffer.
+        for (int i = 0; i < 3; i++) {
+            journal.queued(journal.open(), null);
+        }
+        release.countDown();
+        journal.close();
+
+        assertEquals(1, journal.droppedEvents());
+        assertEquals(3, journal.writtenEvents());
+        assertEquals(List.of(1L, 2L, 3L), events.stream().map(ExecutionEvent::executionId).toList());
+    }
+
+    @Test
+    void write_whenSinkFails_countsEvents() {
+        var journal = new ExecutionJournal(batch -> {
+            throw new IllegalStateException("boom");
+        }, 16, 1, Duration.ofSeconds(10), "sandbox-1");
+
+        long id = journal.open();
+        journal.queued(id, null);
+        journal.started(id, null, System.nanoTime());
+        journal.close();
+
+        assertEquals(2, journal.failedEvents());
+        assertEquals(0, journal.writtenEvents());
+    }
+
+    @Test
+    void queued_fromConcurrentThreads_writesEveryEvent() throws InterruptedException {
+        var events = new CopyOnWriteArrayList<ExecutionEvent>();
+        var journal = new ExecutionJournal(events::addAll, 1 << 14, 1, Duration.ofMillis(1), "sandbox-1");
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    long id = journal.open();
+                    journal.queued(id, null);
+                    journal.started(id, null, System.nanoTime());
+                }
+            }));
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        assertEquals(16_000, events.size());
+        assertEquals(0, journal.droppedEvents());
+        var queued = new HashSet<Long>();
+        for (var event : events) {
+            if (event.type() == ExecutionEvent.Type.QUEUED) {
+                queued.add(event.executionId());
+            } else {
+                // An execution's events are read in the order they were written.
+                assertTrue(queued.contains(event.executionId()));
+            }
+        }
+    }
+
+    @Test
+    void constructor_withInvalidSampleRate_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExecutionJournal(ExecutionEventSink.LOG, 16, 1.5, Duration.ofSeconds(1), "sandbox-1"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.executor.ExecutionStatistics.Outcome;
+
+class ExecutionStatisticsTest {
+
+    @Test
+    void snapshot_reportsCountsAndNearestRankPercentiles() {
+        var statistics = new ExecutionStatistics();
+        for (int i = 1; i <= 100; i++) {
+            statistics.record(i % 10 == 0 ? Outcome.TIMED_OUT : Outcome.SUCCEEDED, Duration.ofMillis(i));
+        }
+        statistics.record(Outcome.REJECTED, Duration.ofMillis(1000));
+        statistics.record(Outcome.CANCELLED, Duration.ofMillis(2000));
+
+        var snapshot = statistics.snapshot();
+
+        assertAll(
+                () -> assertEquals(90, snapshot.succeeded()),
+                () -> assertEquals(10, snapshot.timedOut()),
+                () -> assertEquals(1, snapshot.rejected()),
+                () -> assertEquals(1, snapshot.cancelled()),
+                () -> assertEquals(100, snapshot.samples()),
+                () -> assertEquals(Duration.ofMillis(50), snapshot.p50()),
+                () -> assertEquals(Duration.ofMillis(99), snapshot.p99()),
+                () -> assertEquals(Duration.ofMillis(100), snapshot.max()));
+    }
+
+    @Test
+    void snapshot_onlyKeepsTheMostRecentLatencies() {
+        var statistics = new ExecutionStatistics(2);
+        statistics.record(Outcome.FAILED, Duration.ofSeconds(10));
+        statistics.record(Outcome.SUCCEEDED, Duration.ofMillis(1));
+        statistics.record(Outcome.SUCCEEDED, Duration.ofMillis(2));
+
+        var snapshot = statistics.snapshot();
+
+        assertEquals(2, snapshot.samples());
+        assertEquals(Duration.ofMillis(2), snapshot.max());
+        assertEquals(1, snapshot.failed());
+    }
+
+    @Test
+    void snapshot_withoutExecutions_reportsZeroLatencies() {
+        assertEquals(Duration.ZERO, new ExecutionStatistics().snapshot().p99());
+    }
+
+    @Test
+    void percentile_needsMinimumSamples() {
+        var statistics = new ExecutionStatistics();
+        for (int i = 1; i <= 19; i++) {
+            statistics.record(Outcome.SUCCEEDED, Duration.ofMillis(i));
+        }
+
+        var tooFew = statistics.percentile(0.95, 20);
+        statistics.record(Outcome.SUCCEEDED, Duration.ofMillis(20));
+
+        assertAll(
+                () -> assertNull(tooFew),
+                () -> assertEquals(Duration.ofMillis(19), statistics.percentile(0.95, 20)));
+    }
+}
@@ -0,0 +1,71 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.executor.ExecutionStatistics.Outcome;
+
+class HedgingPolicyTest {
+
+    @Test
+    void isEligible_acceptsOnlyQueriesAndSessionSettings() {
+        assertAll(
+                () -> assertTrue(HedgingPolicy.isEligible("SET search_path = public; SELECT 1;")),
+                () -> assertTrue(HedgingPolicy.isEligible("-- totals\nWITH t AS (VALUES (1)) SELECT * FROM t")),
+                () -> assertFalse(HedgingPolicy.isEligible("CREATE TABLE t (id int); SELECT * FROM t;")),
+                () -> assertFalse(HedgingPolicy.isEligible("WITH d AS (DELETE FROM t RETURNING *) SELECT * FROM d;")),
+                () -> assertFalse(HedgingPolicy.isEligible("SELECT 1 INTO t;")),
+                () -> assertFalse(HedgingPolicy.isEligible("\\d t")),
+                () -> assertFalse(HedgingPolicy.isEligible("-- nothing")));
+    }
+
+    @Test
+    void onEligible_usesPercentileOfRecentLatenciesButNotBelowMinimum() {
+        var policy = new HedgingPolicy(0.9, 0.1, Duration.ofMillis(5));
+        var statistics = new ExecutionStatistics();
+
+        var withoutSamples = policy.onEligible(statistics);
+        for (int i = 1; i <= 100; i++) {
+            statistics.record(Outcome.SUCCEEDED, Duration.ofMillis(i));
+        }
+
+        assertAll(
+                () -> assertNull(withoutSamples),
+                () -> assertEquals(Duration.ofMillis(90), policy.onEligible(statistics)),
+                () -> assertEquals(Duration.ofMillis(500),
+                        new HedgingPolicy(0.9, 0.1, Duration.ofMillis(500)).onEligible(statistics)),
+                () -> assertEquals(2, policy.eligibleExecutions()));
+    }
+
+    @Test
+    void tryHedge_isLimitedToBudgetFractionWithBoundedBurst() {
+        var policy = new HedgingPolicy(0.95, 0.25, Duration.ZERO);
+        var statistics = new ExecutionStatistics();
+
+        int hedges = 0;
+        for (int i = 0; i < 8; i++) {
+            policy.onEligible(statistics);
+            if (policy.tryHedge()) {
+                hedges++;
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            policy.onEligible(statistics);
+        }
+        int burst = 0;
+        while (policy.tryHedge()) {
+            burst++;
+        }
+
+        assertEquals(2, hedges);
+        assertEquals((int) HedgingPolicy.MAX_BURST, burst);
+        assertEquals(2 + HedgingPolicy.MAX_BURST, policy.hedgedExecutions());
+    }
+}
@@ -0,0 +1,108 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.fs.TempFileManager;
+
+class PagedResultTest {
+
+    private static final ExecutionResult SUCCESS = new ExecutionResult(0, "", "", Duration.ofMillis(5));
+
+    private final TempFileManager fileManager = mock(TempFileManager.class);
+
+    @Test
+    void finish_belowThreshold_keepsRowsInMemory() throws IOException {
+        var spool = new ResultSpool(fileManager, 1024);
+        spool.onColumns(List.of("id", "name"));
+        spool.onRow(List.of("1", "ann"));
+        spool.onRow(List.of("2", "bob"));
+
+        try (var result = spool.finish(SUCCESS)) {
+            assertFalse(result.isSpilled());
+            assertEquals(2, result.rowCount());
+            assertEquals(List.of("id", "name"), result.columns());
+            assertEquals(List.of(List.of("2", "bob")), result.rows(1, 10));
+            assertEquals(List.of(), result.rows(2, 10));
+            assertEquals("id,name\n1,ann\n2,bob\n", transfer(result));
+        }
+    }
+
+    @Test
+    void finish_aboveThreshold_spillsAndPagesAcrossIndexBlocks(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("sql-result.csv");
+        doReturn(file).when(fileManager).createTempFile(any(), any());
+        var spool = new ResultSpool(fileManager, 100);
+        spool.onColumns(List.of("id", "note"));
+        int rows = 3 * PagedResult.INDEX_INTERVAL + 7;
+        for (int i = 0; i < rows; i++) {
+            spool.onRow(List.of(Integer.toString(i), i % 2 == 0 ? "a,\"quoted\"\nline" : ""));
+        }
+
+        var result = spool.finish(SUCCESS);
+
+        assertTrue(result.isSpilled());
+        assertEquals(rows, result.rowCount());
+        assertEquals(SUCCESS, result.result());
+        assertEquals(List.of(List.of("0", "a,\"quoted\"\nline"), List.of("1", "")), result.rows(0, 2));
+        var page = result.rows(PagedResult.INDEX_INTERVAL - 1, 3);
+        assertEquals(List.of("1023", "1024", "1025"), page.stream().map(row -> row.get(0)).toList());
+        assertEquals(List.of(List.of(Integer.toString(rows - 1), "a,\"quoted\"\nline")), result.rows(rows - 1, 10));
+        assertEquals(Files.readString(file), transfer(result));
+        assertTrue(transfer(result).startsWith("id,note\n0,"));
+
+        result.close();
+
+        assertFalse(Files.exists(file));
+        assertThrows(IllegalStateException.class, () -> result.rows(0, 1));
+    }
+
+    @Test
+    void finish_whenSpillFileCannotBeCreated_returnsErrorResult() throws IOException {
+        doThrow(new IOException("Disk full")).when(fileManager).createTempFile(any(), any());
+        var spool = new ResultSpool(fileManager, 1);
+        spool.onColumns(List.of("id"));
+        spool.onRow(List.of("1"));
+        spool.onRow(List.of("2"));
+
+        var result = spool.finish(SUCCESS);
+
+        assertEquals(-1, result.result().exitCode());
+        assertEquals("Failed to spill result: Disk full", result.result().stderr());
+        assertEquals(0, result.rowCount());
+    }
+
+    @Test
+    void rows_rejectsNegativeArguments() {
+        var result = new ResultSpool(fileManager, 1024).finish(SUCCESS);
+
+        assertThrows(IllegalArgumentException.class, () -> result.rows(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> result.rows(0, -1));
+    }
+
+    private static String transfer(PagedResult result) throws IOException {
+        var out = new ByteArrayOutputStream();
+        long written = result.transferTo(Channels.newChannel(out));
+        assertEquals(out.size(), written);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
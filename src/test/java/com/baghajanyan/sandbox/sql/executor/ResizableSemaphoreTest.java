@@ -0,0 +1,45 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ResizableSemaphoreTest {
+
+    @Test
+    void setMaxPermits_whenGrown_releasesPermitsAtOnce() {
+        var semaphore = new ResizableSemaphore(1, true);
+        assertTrue(semaphore.tryAcquire());
+
+        semaphore.setMaxPermits(3);
+
+        assertEquals(2, semaphore.availablePermits());
+        assertEquals(1, semaphore.permitsInUse());
+    }
+
+    @Test
+    void setMaxPermits_whenShrunkBelowHeldPermits_blocksUntilHoldersRelease() {
+        var semaphore = new ResizableSemaphore(3, true);
+        assertTrue(semaphore.tryAcquire(3));
+
+        semaphore.setMaxPermits(1);
+
+        assertEquals(3, semaphore.permitsInUse());
+        semaphore.release(2);
+        assertFalse(semaphore.tryAcquire());
+        semaphore.release();
+        assertTrue(semaphore.tryAcquire());
+        assertEquals(1, semaphore.maxPermits());
+    }
+
+    @Test
+    void setMaxPermits_rejectsNonPositiveValues() {
+        var semaphore = new ResizableSemaphore(1, true);
+
+        assertThrows(IllegalArgumentException.class, () -> semaphore.setMaxPermits(0));
+        assertThrows(IllegalArgumentException.class, () -> new ResizableSemaphore(0, true));
+    }
+}
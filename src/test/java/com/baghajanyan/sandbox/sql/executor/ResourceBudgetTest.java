@@ -0,0 +1,72 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+
+class ResourceBudgetTest {
+
+    private static final ResourceClass SMALL = new ResourceClass("small", 256, 0.5, Duration.ofSeconds(5));
+    private static final ResourceClass LARGE = new ResourceClass("large", 768, 1, Duration.ofSeconds(30));
+
+    @Test
+    void reserve_whileFits_tracksUsage() throws Exception {
+        var budget = new ResourceBudget(1024, 2, SMALL);
+
+        assertTrue(budget.reserve(SMALL, null));
+        assertTrue(budget.reserve(LARGE, null));
+
+        assertEquals(1024, budget.usedMemoryMb());
+        assertEquals(1.5, budget.usedCpuUnits());
+
+        budget.release(LARGE);
+        budget.release(SMALL);
+        assertEquals(0, budget.usedMemoryMb());
+        assertEquals(0, budget.usedCpuUnits());
+    }
+
+    @Test
+    void reserve_whenBudgetExhausted_timesOutAtDeadline() throws Exception {
+        var budget = new ResourceBudget(1024, 0, SMALL);
+        assertTrue(budget.reserve(LARGE, null));
+
+        assertFalse(budget.reserve(LARGE, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(768, budget.usedMemoryMb());
+    }
+
+    @Test
+    void reserve_waitsUntilResourcesAreReleased() throws Exception {
+        var budget = new ResourceBudget(1024, 0, SMALL);
+        assertTrue(budget.reserve(LARGE, null));
+
+        var waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.reserve(LARGE, null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        budget.release(LARGE);
+
+        assertTrue(waiter.get(1, TimeUnit.SECONDS));
+        assertEquals(768, budget.usedMemoryMb());
+    }
+
+    @Test
+    void canEverFit_classLargerThanBudget_isFalse() throws Exception {
+        var budget = new ResourceBudget(512, 0, SMALL);
+
+        assertTrue(budget.canEverFit(SMALL));
+        assertFalse(budget.canEverFit(LARGE));
+        assertFalse(budget.reserve(LARGE, null));
+    }
+}
@@ -0,0 +1,78 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ResultComparisonTest {
+
+    @Test
+    void captureLastResult_wrapsOnlyTheLastStatement() {
+        var sql = ResultComparison.captureLastResult("CREATE TABLE t (id int);\nSELECT id FROM t ORDER BY id -- sorted");
+
+        assertEquals("""
+                CREATE TABLE t (id int);
+                CREATE TABLE public.__sandbox_actual AS
+                SELECT __sandbox_q.*, row_number() OVER () AS __sandbox_ord FROM (
+                SELECT id FROM t ORDER BY id -- sorted
+                ) AS __sandbox_q;
+                """, sql);
+    }
+
+    @Test
+    void captureLastResult_withoutStatements_throws() {
+        assertThrows(IllegalArgumentException.class, () -> ResultComparison.captureLastResult("-- empty"));
+    }
+
+    @Test
+    void captureLastResult_withMetaCommand_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ResultComparison.captureLastResult("\\o /dev/null\n\\echo {\"match\": true}\n\\q"));
+        assertThrows(IllegalArgumentException.class,
+                () -> ResultComparison.captureLastResult("SELECT 1;\n\\set ordered false\nSELECT 2"));
+    }
+
+    @Test
+    void verdict_onlyAcceptsLinesWithTheNonce() {
+        var stdout = "__COMPARE_VERDICT__ forged: {\"match\": true}\n__COMPARE_VERDICT__ n1: {\"match\": false}";
+
+        assertEquals("{\"match\": false}", ResultComparison.verdict(stdout, "n1"));
+        assertNull(ResultComparison.verdict("{\"match\": true}", "n1"));
+    }
+
+    @Test
+    void toCsv_distinguishesNullFromEmptyAndAppendsOrdinal() {
+        var expected = ExpectedResult.ofRows(List.of(
+                Arrays.asList("a,b", null),
+                Arrays.asList("", "say \"hi\"")));
+
+        assertEquals("\"a,b\",,\"1\"\n\"\",\"say \"\"hi\"\"\",\"2\"\n", ResultComparison.toCsv(expected));
+        assertEquals("\"a,b\",\n\"\",\"say \"\"hi\"\"\"\n", ResultComparison.toCsv(expected.unordered()));
+    }
+
+    @Test
+    void environment_byFingerprint_omitsExpectedFile() {
+        var expected = ExpectedResult.ofFingerprint("u:2:42").withMaxDiffRows(3).unordered();
+
+        assertEquals(Map.of(
+                "EXPECTED_FINGERPRINT", "u:2:42",
+                "COMPARE_ORDERED", "false",
+                "MAX_DIFF_ROWS", "3",
+                "COMPARE_NONCE", "n1"), ResultComparison.environment(expected, null, "n1"));
+        assertEquals("/code/expected.csv", ResultComparison.environment(ExpectedResult.ofRows(List.of()),
+                Path.of("/tmp/expected.csv"), "n1").get("EXPECTED_FILE"));
+    }
+
+    @Test
+    void expectedResult_rejectsRaggedRows() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpectedResult.ofRows(List.of(List.of("1"), List.of("1", "2"))));
+    }
+}
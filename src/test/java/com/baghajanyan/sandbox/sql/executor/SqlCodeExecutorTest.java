@@ -3,33 +3,67 @@ package com.baghajanyan.sandbox.sql.executor;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
 import com.baghajanyan.sandbox.core.fs.TempFileManager;
 import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
 import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
 import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.ProcessOutputHandler;
 
 class SqlCodeExecutorTest {
         TempFileManager fileManager = mock(TempFileManager.class);
         Semaphore semaphore = mock(Semaphore.class);
         DockerProcessExecutor dockerProcess = mock(DockerProcessExecutor.class);
 
+        @BeforeEach
+        void grantPermits() throws Exception {
+                when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        }
+
         @Test
         void execute_whenFileCreationFails_returnFailedExecutionResult() throws Exception {
-                var executor = new SqlExecutor(semaphore, fileManager, dockerProcess);
+                var executor = executor().build();
                 var snippet = new CodeSnippet("", Duration.ofSeconds(2), "sql");
 
                 doThrow(new IOException("Disk full")).when(fileManager).createTempFile(any(), any());
@@ -46,7 +80,7 @@ class SqlCodeExecutorTest {
 
         @Test
         void execute_whenFileWriteFails_returnFailedExecutionResult() throws Exception {
-                var executor = new SqlExecutor(semaphore, fileManager, dockerProcess);
+                var executor = executor().build();
                 var snippet = new CodeSnippet("", Duration.ofSeconds(2), "sql");
                 doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
 
@@ -68,7 +102,7 @@ class SqlCodeExecutorTest {
 
         @Test
         void execute_whenSnippetExecutionThreadFails_returnFailedExecutionResult() throws Exception {
-                var executor = new SqlExecutor(semaphore, fileManager, dockerProcess);
+                var executor = executor().build();
                 var snippet = new CodeSnippet("", Duration.ofSeconds(2), "sql");
 
                 doThrow(new DockerProcessThreadException("Execution failed", new RuntimeException("Some error")))
@@ -88,4 +122,621 @@ class SqlCodeExecutorTest {
                 verify(fileManager).write(any(), any());
                 verify(fileManager).deleteAsync(any());
         }
+
+        @Test
+        void execute_withRowSink_streamsRowsAndReturnsEmptyStdout() throws Exception {
+                var executor = executor().build();
+                var snippet = new CodeSnippet("SELECT 1 AS id;", Duration.ofSeconds(2), "sql");
+                var running = completed("id\n1\n\n__EXECUTION_TIME__: 7\n");
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(any(), any(ProcessOutputHandler.class))).thenAnswer(invocation -> {
+                        invocation.<ProcessOutputHandler>getArgument(1).handle(running);
+                        return running;
+                });
+                var rows = new ArrayList<List<String>>();
+
+                var result = executor.execute(snippet, new RowSink() {
+                        @Override
+                        public void onColumns(List<String> columns) {
+                                rows.add(columns);
+                        }
+
+                        @Override
+                        public void onRow(List<String> values) {
+                                rows.add(values);
+                        }
+                });
+
+                assertAll(
+                                () -> assertEquals(List.of(List.of("id"), List.of("1")), rows),
+                                () -> assertEquals("", result.stdout()),
+                                () -> assertEquals("", result.stderr()),
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertEquals(Duration.ofMillis(7), result.executionTime()));
+                verify(fileManager).deleteAsync(any());
+        }
+
+        @Test
+        void executePaged_whenRowsExceedThreshold_spillsThemToATempFile(@TempDir Path dir) throws Exception {
+                var executor = executor().spillThresholdBytes(4).build();
+                var snippet = new CodeSnippet("SELECT * FROM generate_series(1, 3) id;", Duration.ofSeconds(2), "sql");
+                var running = completed("id\n1\n2\n3\n\n__EXECUTION_TIME__: 4\n");
+                var spillFile = dir.resolve("sql-result.csv");
+                doReturn(dir.resolve("sql-snippet.sql")).when(fileManager).createTempFile(contains("snippet"), any());
+                doReturn(spillFile).when(fileManager).createTempFile(contains("result"), any());
+                when(dockerProcess.execute(any(), any(ProcessOutputHandler.class))).thenAnswer(invocation -> {
+                        invocation.<ProcessOutputHandler>getArgument(1).handle(running);
+                        return running;
+                });
+
+                try (var result = executor.executePaged(snippet, SqlExecutionOptions.defaults())) {
+                        assertAll(
+                                        () -> assertEquals(0, result.result().exitCode()),
+                                        () -> assertTrue(result.isSpilled()),
+                                        () -> assertEquals(3, result.rowCount()),
+                                        () -> assertEquals(List.of(List.of("2"), List.of("3")), result.rows(1, 5)));
+                }
+                assertTrue(Files.notExists(spillFile));
+        }
+
+        @Test
+        void execute_withRecorder_recordsEveryExecution() throws Exception {
+                when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(false);
+                var recorder = mock(WorkloadRecorder.class);
+                var executor = executor().recorder(recorder).build();
+                var snippet = new CodeSnippet("SELECT 1;", Duration.ofMillis(50), "sql");
+
+                var result = executor.execute(snippet);
+
+                verify(recorder).record(eq(snippet), isNull(), eq(result), eq(ExecutionStatistics.Outcome.REJECTED),
+                                anyLong(), any());
+        }
+
+        @Test
+        void execute_withJournal_writesQueuedAndEndedEvents() throws Exception {
+                when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(false);
+                var events = new CopyOnWriteArrayList<ExecutionEvent>();
+                var journal = new ExecutionJournal(events::addAll, 16, 1, Duration.ofMillis(10), "sandbox-1");
+                var executor = executor().journal(journal).build();
+
+                var result = executor.execute(new CodeSnippet("SELECT 1;", Duration.ofMillis(50), "sql"));
+                journal.close();
+
+                assertEquals(2, events.size());
+                assertEquals(ExecutionEvent.Type.QUEUED, events.get(0).type());
+                var ended = events.get(1);
+                assertAll(
+                                () -> assertEquals(ExecutionEvent.Type.REJECTED, ended.type()),
+                                () -> assertEquals(events.get(0).executionId(), ended.executionId()),
+                                () -> assertEquals("sandbox-1", ended.host()),
+                                () -> assertEquals(SqlExecutor.REJECTED_EXIT_CODE, ended.exitCode()),
+                                () -> assertEquals(result.stderr().length(), ended.stderrLength()));
+        }
+
+        @Test
+        void execute_whenNoPermitBeforeDeadline_returnsRejectedResult() throws Exception {
+                when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(false);
+                var executor = executor().build();
+                var snippet = new CodeSnippet("SELECT 1;", Duration.ofMillis(50), "sql");
+
+                var result = executor.execute(snippet);
+
+                assertAll(
+                                () -> assertNull(result.stdout()),
+                                () -> assertEquals(
+                                                "Execution rejected: deadline exceeded while waiting for an execution slot",
+                                                result.stderr()),
+                                () -> assertEquals(SqlExecutor.REJECTED_EXIT_CODE, result.exitCode()));
+                verify(fileManager, never()).createTempFile(any(), any());
+                verify(semaphore, never()).release();
+        }
+
+        @Test
+        void executeProfiled_returnsStatementStatisticsAndAddsThemUp() throws Exception {
+                var executor = executor().build();
+                var snippet = new CodeSnippet("SELECT id FROM t ORDER BY id;", Duration.ofSeconds(2), "sql");
+                var config = mock(DockerConfig.class);
+                when(dockerProcess.getDockerConfig()).thenReturn(config);
+                doReturn(Path.of("/tmp/sql-snippet.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(eq(Path.of("/tmp/sql-snippet.sql")), eq(config),
+                                argThat((Map<String, String> environment) -> "1"
+                                                .equals(environment.get("STATEMENT_STATISTICS")))))
+                                .thenAnswer(invocation -> {
+                                        Map<String, String> environment = invocation.getArgument(2);
+                                        var prefix = "__STATEMENT_STATISTICS__ "
+                                                        + environment.get("STATEMENT_STATISTICS_NONCE") + ": ";
+                                        // The snippet cannot know the nonce, so its own lines are kept as rows.
+                                        return completed("id\n1\n__STATEMENT_STATISTICS__ : {}\n\n"
+                                                        + "__EXECUTION_TIME__: 4\n"
+                                                        + prefix + "{\"query\":\"SELECT id FROM t ORDER BY id\","
+                                                        + "\"calls\":1,\"rows\":1,\"total_plan_time\":0.5,"
+                                                        + "\"total_exec_time\":3.25,\"shared_blks_hit\":7,"
+                                                        + "\"shared_blks_read\":2,\"temp_blks_written\":12,"
+                                                        + "\"blk_read_time\":0.75,\"temp_blk_read_time\":0.25,"
+                                                        + "\"wal_bytes\":0}\n"
+                                                        + prefix + "{\"query\":\"SET statement_timeout = $1\","
+                                                        + "\"calls\":1}\n");
+                                });
+
+                var profiled = executor.executeProfiled(snippet, SqlExecutionOptions.defaults());
+
+                var statement = profiled.statements().getFirst();
+                var totals = executor.statementStatisticsTotals();
+                assertAll(
+                                () -> assertEquals("[{\"id\":1},{\"id\":\"__STATEMENT_STATISTICS__ : {}\"}]",
+                                                profiled.result().stdout()),
+                                () -> assertEquals(Duration.ofMillis(4), profiled.result().executionTime()),
+                                () -> assertEquals(1, profiled.statements().size()),
+                                () -> assertEquals("SELECT id FROM t ORDER BY id", statement.query()),
+                                () -> assertEquals(Duration.ofMillis(3).plusNanos(250_000), statement.executionTime()),
+                                () -> assertEquals(Duration.ofMillis(1), statement.ioReadTime()),
+                                () -> assertEquals(0, statement.localBlocksRead()),
+                                () -> assertTrue(statement.spilled()),
+                                () -> assertEquals(1, totals.executions()),
+                                () -> assertEquals(1, totals.spilledExecutions()),
+                                () -> assertEquals(9, totals.sharedBlocksHit() + totals.sharedBlocksRead()),
+                                () -> assertEquals(12, totals.tempBlocksWritten()));
+        }
+
+        @Test
+        void executeProfiled_whenTimedOut_returnsNoStatistics() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("/tmp/sql-snippet.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(any(Path.class), any(), anyMap())).thenThrow(
+                                new DockerProcessTimeoutException("Execution timed out after 2 seconds"));
+
+                var profiled = executor.executeProfiled(new CodeSnippet("SELECT 1;", Duration.ofSeconds(2), "sql"),
+                                SqlExecutionOptions.defaults());
+
+                assertTrue(profiled.result().stderr().startsWith("Snippet execution timed out"));
+                assertTrue(profiled.statements().isEmpty());
+                assertEquals(0, executor.statementStatisticsTotals().executions());
+                assertThrows(IllegalArgumentException.class, () -> executor.executeProfiled(
+                                new CodeSnippet("SELECT 1;", Duration.ofSeconds(2), "sql"),
+                                SqlExecutionOptions.defaults().withExpectedResult(ExpectedResult.ofFingerprint("o:1:1"))));
+        }
+
+        @Test
+        void execute_withExpectedResult_returnsVerdictFromContainer() throws Exception {
+                var executor = executor().build();
+                var snippet = new CodeSnippet("CREATE TABLE t (id int); SELECT id FROM t;", Duration.ofSeconds(2),
+                                "sql");
+                var expected = ExpectedResult.ofRows(List.of(List.of("1"), List.of("2"))).unordered();
+                var verdict = "{\"match\" : true, \"actualRows\" : 2}";
+                var config = mock(DockerConfig.class);
+                when(dockerProcess.getDockerConfig()).thenReturn(config);
+                doReturn(Path.of("/tmp/sql-snippet.sql")).when(fileManager).createTempFile(contains("snippet"), any());
+                doReturn(Path.of("/tmp/sql-expected.csv")).when(fileManager).createTempFile(contains("expected"), any());
+                var environment = new AtomicReference<Map<String, String>>();
+                when(dockerProcess.compare(any(), any(), eq(config))).thenAnswer(invocation -> {
+                        environment.set(invocation.getArgument(1));
+                        // A verdict without the nonce comes from the snippet and is ignored.
+                        return completed("__COMPARE_VERDICT__ : {\"match\" : false}\n__COMPARE_VERDICT__ "
+                                        + environment.get().get("COMPARE_NONCE") + ": " + verdict
+                                        + "\n\n__EXECUTION_TIME__: 4\n");
+                });
+
+                var result = executor.execute(snippet, SqlExecutionOptions.defaults().withExpectedResult(expected));
+
+                assertAll(
+                                () -> assertEquals(verdict, result.stdout()),
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertEquals(Duration.ofMillis(4), result.executionTime()));
+                verify(fileManager).write(eq(Path.of("/tmp/sql-snippet.sql")),
+                                argThat(sql -> sql.contains(
+                                                "CREATE TABLE t (id int);\nCREATE TABLE public.__sandbox_actual")));
+                verify(fileManager).write(Path.of("/tmp/sql-expected.csv"), "\"1\"\n\"2\"\n");
+                assertEquals(Map.of(
+                                "EXPECTED_FILE", "/code/sql-expected.csv",
+                                "EXPECTED_COLUMNS", "1",
+                                "COMPARE_ORDERED", "false",
+                                "MAX_DIFF_ROWS", "10",
+                                "COMPARE_NONCE", environment.get().get("COMPARE_NONCE")), environment.get());
+                verify(fileManager).deleteAsync(Path.of("/tmp/sql-expected.csv"));
+        }
+
+        @Test
+        void execute_withAttachment_loadsItBeforeTheSnippet(@TempDir Path dir) throws Exception {
+                var executor = executor().build();
+                var snippet = new CodeSnippet("SELECT count(*) FROM users;", Duration.ofSeconds(2), "sql");
+                var attachment = TableAttachment.csv("users", "id int, name text",
+                                () -> new ByteArrayInputStream("id,name\n1,ann\n".getBytes(StandardCharsets.UTF_8)));
+                var attachmentFile = dir.resolve("sql-attachment.csv");
+                var snippetFile = dir.resolve("sql-snippet.sql");
+                doReturn(attachmentFile).when(fileManager).createTempFile(contains("attachment"), eq(".csv"));
+                doReturn(snippetFile).when(fileManager).createTempFile(contains("snippet"), any());
+                var completed = completed("count\n1\n\n__EXECUTION_TIME__: 2\n");
+                when(dockerProcess.execute(snippetFile)).thenReturn(completed);
+
+                var result = executor.execute(snippet, SqlExecutionOptions.defaults().withAttachment(attachment));
+
+                assertEquals(0, result.exitCode());
+                assertEquals("id,name\n1,ann\n", Files.readString(attachmentFile));
+                verify(fileManager).write(eq(snippetFile), argThat(sql -> sql.contains(
+                                "CREATE TABLE \"users\" (id int, name text);\n"
+                                                + "\\copy \"users\" FROM '/code/sql-attachment.csv' WITH (FORMAT csv, HEADER true)\n"
+                                                + "\\echo __SNIPPET_START__ :snippet_nonce 0\n"
+                                                + "\\unset snippet_nonce\n"
+                                                + "SELECT count(*) FROM users;")));
+                verify(fileManager).deleteAsync(attachmentFile);
+                verify(fileManager).deleteAsync(snippetFile);
+        }
+
+        @Test
+        void execute_whenPreflightFindsSyntaxError_skipsAdmissionAndContainer() throws Exception {
+                var preflight = mock(SqlSyntaxPreflight.class);
+                var syntaxError = new ExecutionResult(SqlSyntaxPreflight.SYNTAX_ERROR_EXIT_CODE, "",
+                                "ERROR:  syntax error at or near \"frm\"", Duration.ofMillis(3));
+                when(preflight.check("SELECT * frm t;")).thenReturn(syntaxError);
+                var executor = executor().preflight(preflight).build();
+
+                var result = executor.execute(new CodeSnippet("SELECT * frm t;", Duration.ofSeconds(2), "sql"));
+
+                assertEquals(syntaxError, result);
+                verify(semaphore, never()).tryAcquire(anyLong(), any(TimeUnit.class));
+                verify(fileManager, never()).createTempFile(any(), any());
+        }
+
+        @Test
+        void execute_withCostRouter_runsWithLimitsOfRoutedLane() throws Exception {
+                var heavy = new ResourceClass("heavy", 1024, 1.0, Duration.ofSeconds(60));
+                var router = mock(SqlCostRouter.class);
+                when(router.lanes()).thenReturn(List.of(new SqlCostRouter.Lane("heavy", 0, 0)));
+                when(router.route("SELECT * FROM big;")).thenReturn(new SqlCostRouter.Route("heavy", false,
+                                new SqlCostRouter.CostEstimate(5_000_000, 100_000_000, 1, 1)));
+                var executor = executor().resourceClasses(Map.of("heavy", heavy)).costRouter(router).build();
+                var config = mock(DockerConfig.class);
+                var heavyConfig = mock(DockerConfig.class);
+                when(dockerProcess.getDockerConfig()).thenReturn(config);
+                when(config.withLimits(heavy)).thenReturn(heavyConfig);
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var completed = completed("n\n1\n\n__EXECUTION_TIME__: 2\n");
+                when(dockerProcess.execute(Path.of("temp-file.sql"), heavyConfig)).thenReturn(completed);
+
+                var result = executor.execute(new CodeSnippet("SELECT * FROM big;", Duration.ofSeconds(2), "sql"));
+                executor.execute(new CodeSnippet("SELECT 1;", Duration.ofSeconds(2), "sql"),
+                                SqlExecutionOptions.defaults().withResourceClass("heavy"));
+
+                assertEquals(0, result.exitCode());
+                // An explicitly selected resource class is never re-routed.
+                verify(router).route(any());
+        }
+
+        @Test
+        void execute_whenEstimatedCostExceedsLimit_rejectsBeforeAdmission() throws Exception {
+                var router = mock(SqlCostRouter.class);
+                when(router.maxCost()).thenReturn(1_000_000.0);
+                when(router.route(any())).thenReturn(new SqlCostRouter.Route(null, true,
+                                new SqlCostRouter.CostEstimate(150_000_025, 10_000_000_000L, 1, 1)));
+                var executor = executor().costRouter(router).build();
+
+                var result = executor.execute(new CodeSnippet("SELECT * FROM a, b;", Duration.ofSeconds(2), "sql"));
+
+                assertAll(
+                                () -> assertEquals(SqlExecutor.COST_REJECTED_EXIT_CODE, result.exitCode()),
+                                () -> assertEquals("Execution rejected: estimated cost 150000025 exceeds the limit of 1000000",
+                                                result.stderr()),
+                                () -> assertEquals(1, executor.statistics().snapshot().rejected()));
+                verify(semaphore, never()).tryAcquire(anyLong(), any(TimeUnit.class));
+                verify(fileManager, never()).createTempFile(any(), any());
+        }
+
+        @Test
+        void execute_whenSlowerThanRecentExecutions_hedgesAndCancelsTheLoser() throws Exception {
+                var hedging = new HedgingPolicy(0.5, 1.0, Duration.ZERO);
+                var events = new CopyOnWriteArrayList<ExecutionEvent>();
+                var journal = new ExecutionJournal(events::addAll, 16, 1, Duration.ofMillis(10), "sandbox-1");
+                var executor = SqlExecutor.builder(new AdmissionController(new Semaphore(2), 0), fileManager,
+                                dockerProcess).hedging(hedging).journal(journal).build();
+                for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+                        executor.statistics().record(ExecutionStatistics.Outcome.SUCCEEDED, Duration.ofMillis(20));
+                }
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var completed = completed("n\n1\n\n__EXECUTION_TIME__: 2\n");
+                var calls = new AtomicInteger();
+                var primaryCancelled = new CountDownLatch(1);
+                when(dockerProcess.execute(any())).thenAnswer(invocation -> {
+                        if (calls.getAndIncrement() > 0) {
+                                return completed;
+                        }
+                        // The first container hangs on start until its execution is cancelled.
+                        try {
+                                Thread.sleep(10_000);
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                primaryCancelled.countDown();
+                                throw new DockerProcessThreadException("Execution interrupted", e);
+                        }
+                        return completed;
+                });
+
+                long start = System.nanoTime();
+                var result = executor.execute(new CodeSnippet("SELECT 1 AS n;", Duration.ofSeconds(5), "sql"));
+                journal.close();
+
+                assertAll(
+                                () -> assertEquals(List.of(ExecutionEvent.Type.QUEUED, ExecutionEvent.Type.STARTED,
+                                                ExecutionEvent.Type.HEDGED, ExecutionEvent.Type.FINISHED),
+                                                events.stream().map(ExecutionEvent::type).toList()),
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertEquals("[{\"n\":1}]", result.stdout().replaceAll("\\s", "")),
+                                () -> assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)),
+                                () -> assertTrue(primaryCancelled.await(5, TimeUnit.SECONDS)),
+                                () -> assertEquals(1, hedging.hedgedExecutions()),
+                                () -> assertEquals(1, hedging.hedgeWins()),
+                                () -> assertEquals(0, executor.statistics().snapshot().cancelled()));
+        }
+
+        @Test
+        void execute_whileWaitingForExecutionSlot_isNotHedged() throws Exception {
+                var hedging = new HedgingPolicy(0.5, 1.0, Duration.ZERO);
+                var slots = new Semaphore(1);
+                var executor = SqlExecutor.builder(new AdmissionController(slots, 0), fileManager, dockerProcess)
+                                .hedging(hedging).build();
+                for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+                        executor.statistics().record(ExecutionStatistics.Outcome.SUCCEEDED, Duration.ofMillis(20));
+                }
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var completed = completed("n\n1\n\n__EXECUTION_TIME__: 2\n");
+                when(dockerProcess.execute(any())).thenReturn(completed);
+                slots.acquire();
+                var releaser = Thread.ofVirtual().start(() -> {
+                        try {
+                                Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                        slots.release();
+                });
+
+                var result = executor.execute(new CodeSnippet("SELECT 1 AS n;", Duration.ofSeconds(5), "sql"));
+                releaser.join();
+
+                assertAll(
+                                () -> assertEquals(0, result.exitCode()),
+                                () -> assertEquals(1, hedging.eligibleExecutions()),
+                                () -> assertEquals(0, hedging.hedgedExecutions()));
+                verify(dockerProcess, times(1)).execute(any());
+        }
+
+        @Test
+        void execute_whenSnippetWrites_isNeverHedged() throws Exception {
+                var hedging = new HedgingPolicy(0.5, 1.0, Duration.ZERO);
+                var executor = executor().hedging(hedging).build();
+                doThrow(new IOException("Disk full")).when(fileManager).createTempFile(any(), any());
+
+                executor.execute(new CodeSnippet("CREATE TABLE t (id int);", Duration.ofSeconds(2), "sql"));
+
+                assertEquals(0, hedging.eligibleExecutions());
+        }
+
+        @Test
+        void constructor_whenCostLaneNamesUnknownResourceClass_throws() {
+                var router = mock(SqlCostRouter.class);
+                when(router.lanes()).thenReturn(List.of(new SqlCostRouter.Lane("heavy", 0, 0)));
+
+                assertThrows(IllegalArgumentException.class, () -> executor().costRouter(router).build());
+        }
+
+        @Test
+        void submit_whenCancelled_releasesPermitAndRecordsCancellation() throws Exception {
+                var permits = new Semaphore(1);
+                var executor = new SqlExecutor(permits, fileManager, dockerProcess);
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var started = new CountDownLatch(1);
+                when(dockerProcess.execute(any(Path.class))).thenAnswer(invocation -> {
+                        started.countDown();
+                        try {
+                                Thread.sleep(Duration.ofSeconds(30));
+                                return null;
+                        } catch (InterruptedException e) {
+                                // Like the real executor, which removes the container at this point.
+                                Thread.currentThread().interrupt();
+                                throw new DockerProcessThreadException("Docker process interrupted", e);
+                        }
+                });
+
+                var future = executor.submit(new CodeSnippet("SELECT pg_sleep(30);", Duration.ofSeconds(30), "sql"),
+                                SqlExecutionOptions.defaults());
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+                assertEquals(0, permits.availablePermits());
+
+                assertTrue(future.cancel(true));
+
+                assertTrue(future.isCancelled());
+                assertTrue(permits.tryAcquire(5, TimeUnit.SECONDS));
+                // The outcome is recorded just after the permit is released.
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (executor.statistics().snapshot().cancelled() == 0 && System.nanoTime() < deadline) {
+                        Thread.sleep(10);
+                }
+                var snapshot = executor.statistics().snapshot();
+                assertEquals(1, snapshot.cancelled());
+                assertEquals(0, snapshot.failed());
+                verify(fileManager).deleteAsync(Path.of("temp-file.sql"));
+        }
+
+        @Test
+        void execute_whenThreadInterruptedWhileQueued_returnsCancelledResult() throws Exception {
+                var permits = new Semaphore(0);
+                var executor = new SqlExecutor(permits, fileManager, dockerProcess);
+                var result = new AtomicReference<ExecutionResult>();
+                var caller = Thread.ofVirtual().start(() -> result.set(executor.execute(
+                                new CodeSnippet("SELECT 1;", Duration.ofSeconds(30), "sql"))));
+                Thread.sleep(100);
+
+                caller.interrupt();
+
+                assertTrue(caller.join(Duration.ofSeconds(5)));
+                assertEquals(SqlExecutor.CANCELLED_EXIT_CODE, result.get().exitCode());
+                assertEquals("Execution cancelled", result.get().stderr());
+                assertEquals(0, permits.availablePermits());
+                verify(fileManager, never()).createTempFile(any(), any());
+        }
+
+        @Test
+        void execute_recordsOutcomesInStatistics() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(any(Path.class)))
+                                .thenThrow(new DockerProcessTimeoutException("Execution timed out after 2 seconds"));
+
+                executor.execute(new CodeSnippet("SELECT pg_sleep(10);", Duration.ofSeconds(2), "sql"));
+                when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(false);
+                executor.execute(new CodeSnippet("SELECT 1;", Duration.ofMillis(50), "sql"));
+
+                var snapshot = executor.statistics().snapshot();
+                assertAll(
+                                () -> assertEquals(1, snapshot.timedOut()),
+                                () -> assertEquals(1, snapshot.rejected()),
+                                () -> assertEquals(1, snapshot.samples()));
+        }
+
+        @Test
+        void execute_whenTimedOut_returnsRowsSoFarAndRunningStatement() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(any(Path.class))).thenThrow(new DockerProcessTimeoutException(
+                                "Execution timed out after 2 seconds", "id,name\n1,ann\n2,b",
+                                "__STATEMENTS_DONE__: 0\n__STATEMENTS_DONE__: 1\n"));
+
+                var result = executor.execute(new CodeSnippet(
+                                "SELECT * FROM users;\nSELECT *\n  FROM users u1, users u2;", Duration.ofSeconds(2),
+                                "sql"));
+
+                assertAll(
+                                () -> assertEquals(SqlExecutor.TIMED_OUT_EXIT_CODE, result.exitCode()),
+                                () -> assertEquals("[{\"id\":1,\"name\":\"ann\"}]", result.stdout()),
+                                () -> assertEquals("Snippet execution timed out: Execution timed out after 2 seconds"
+                                                + " while running statement 2: SELECT * FROM users u1, users u2",
+                                                result.stderr()),
+                                () -> assertEquals(OptionalInt.of(2), SqlExecutor.runningStatement(result)),
+                                () -> assertEquals(1, executor.statistics().snapshot().timedOut()));
+        }
+
+        @Test
+        void execute_withMetaCommand_bypassesServerPool() throws Exception {
+                var pool = mock(SqlServerPool.class);
+                var executor = executor().serverPool(pool).build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var completed = completed("user\nsandbox\n\n__EXECUTION_TIME__: 2\n");
+                when(dockerProcess.execute(any(Path.class))).thenReturn(completed);
+
+                var result = executor.execute(new CodeSnippet("\\c - sandbox\nSELECT current_user AS user;",
+                                Duration.ofSeconds(2), "sql"));
+
+                assertEquals(0, result.exitCode());
+                verify(pool, never()).execute(any(), any(), any());
+                verify(dockerProcess).execute(Path.of("temp-file.sql"));
+        }
+
+        @Test
+        void execute_whenStatementTimeoutCancelsStatement_returnsRowsSoFarAndRunningStatement() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var exited = exited(3, "id,name\n1,ann\n\n__EXECUTION_TIME__: 2001\n",
+                                "__STATEMENTS_DONE__: 0\n__STATEMENTS_DONE__: 1\n__STATEMENTS_DONE__: 2\n"
+                                                + "psql:/code/temp-file.sql:5: ERROR:  canceling statement due to "
+                                                + "statement timeout\n");
+                when(dockerProcess.execute(any(Path.class))).thenAnswer(invocation -> {
+                        Thread.sleep(60);
+                        return exited;
+                });
+
+                var result = executor.execute(new CodeSnippet(
+                                "SELECT * FROM users;\nSELECT *\n  FROM users u1, users u2;", Duration.ofMillis(50),
+                                "sql"));
+
+                assertAll(
+                                () -> assertEquals(SqlExecutor.TIMED_OUT_EXIT_CODE, result.exitCode()),
+                                () -> assertEquals("[{\"id\":1,\"name\":\"ann\"}]", result.stdout()),
+                                () -> assertEquals("Snippet execution timed out: statement timeout reached while "
+                                                + "running statement 2: SELECT * FROM users u1, users u2",
+                                                result.stderr()),
+                                () -> assertEquals(OptionalInt.of(2), SqlExecutor.runningStatement(result)),
+                                () -> assertEquals(Duration.ofMillis(2001), result.executionTime()),
+                                () -> assertEquals(1, executor.statistics().snapshot().timedOut()));
+        }
+
+        @Test
+        void execute_whenSnippetRaisesTimeoutErrorItself_fails() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                var exited = exited(3, "\n__EXECUTION_TIME__: 1\n", "__STATEMENTS_DONE__: 0\n"
+                                + "psql:/code/temp-file.sql:5: ERROR:  canceling statement due to statement timeout\n");
+                when(dockerProcess.execute(any(Path.class))).thenReturn(exited);
+
+                var result = executor.execute(new CodeSnippet(
+                                "DO $$ BEGIN RAISE EXCEPTION 'canceling statement due to statement timeout'; END $$;",
+                                Duration.ofSeconds(2), "sql"));
+
+                assertAll(
+                                () -> assertEquals(3, result.exitCode()),
+                                () -> assertEquals(OptionalInt.empty(), SqlExecutor.runningStatement(result)),
+                                () -> assertEquals(0, executor.statistics().snapshot().timedOut()),
+                                () -> assertEquals(1, executor.statistics().snapshot().failed()));
+        }
+
+        @Test
+        void execute_whenProgressIsUnreadable_leavesRunningStatementOut() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(any(Path.class))).thenThrow(new DockerProcessTimeoutException(
+                                "Execution timed out after 2 seconds", "", "__STATEMENTS_DONE__: 1\n__STATEMENTS_DONE__: 2x"));
+
+                var result = executor.execute(new CodeSnippet("SELECT 1;\nSELECT 2;", Duration.ofSeconds(2), "sql"));
+
+                assertEquals("Snippet execution timed out: Execution timed out after 2 seconds", result.stderr());
+        }
+
+        @Test
+        void execute_whenTimedOutBeforeSnippetStarted_saysSo() throws Exception {
+                var executor = executor().build();
+                doReturn(Path.of("temp-file.sql")).when(fileManager).createTempFile(any(), any());
+                when(dockerProcess.execute(any(Path.class))).thenThrow(
+                                new DockerProcessTimeoutException("Execution timed out after 2 seconds", "", ""));
+
+                var result = executor.execute(new CodeSnippet("SELECT 1;", Duration.ofSeconds(2), "sql"));
+
+                assertNull(result.stdout());
+                assertEquals("Snippet execution timed out: Execution timed out after 2 seconds before the snippet "
+                                + "started", result.stderr());
+        }
+
+        @Test
+        void execute_withExpectedResultAndRowSink_isRejected() {
+                var executor = executor().build();
+                var snippet = new CodeSnippet("SELECT 1;", Duration.ofSeconds(2), "sql");
+                var options = SqlExecutionOptions.defaults().withExpectedResult(ExpectedResult.ofFingerprint("o:1:1"));
+
+                var error = assertThrows(IllegalArgumentException.class, () -> executor.execute(snippet, options,
+                                new RowSink() {
+                                        @Override
+                                        public void onColumns(List<String> columns) {
+                                        }
+
+                                        @Override
+                                        public void onRow(List<String> values) {
+                                        }
+                                }));
+                assertTrue(error.getMessage().contains("streaming"));
+        }
+
+        private SqlExecutor.Builder executor() {
+                return SqlExecutor.builder(new AdmissionController(semaphore, 0), fileManager, dockerProcess);
+        }
+
+        private static Process completed(String stdout) {
+                return exited(0, stdout, "");
+        }
+
+        private static Process exited(int exitCode, String stdout, String stderr) {
+                var process = mock(Process.class);
+                when(process.getInputStream())
+                                .thenReturn(new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8)));
+                when(process.getErrorStream())
+                                .thenReturn(new ByteArrayInputStream(stderr.getBytes(StandardCharsets.UTF_8)));
+                when(process.exitValue()).thenReturn(exitCode);
+                return process;
+        }
 }
@@ -13,6 +13,7 @@ import static org.mockito.Mockito.verify;
 
 import java.time.Duration;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Tag;
@@ -62,6 +63,19 @@ class SqlCodeExecutorTestIT {
                 verify(fileManager).deleteAsync(any());
         }
 
+        @Test
+        void serverPool_whenSnippetReconnectsAsAdmin_fails() throws Exception {
+                var process = dockerProcess("postgres:16");
+                try (var pool = new SqlServerPool(process, 1)) {
+                        var result = ExecutionOutputParser.parse(pool.execute("\\c - sandbox\nSELECT current_user;",
+                                        process.getDockerConfig()), null, null, false);
+
+                        assertAll(
+                                        () -> assertEquals(3, result.exitCode()),
+                                        () -> assertTrue(result.stderr().contains("password"), result.stderr()));
+                }
+        }
+
         @Test
         void execute_whenStatementTimeoutExceeded_returnsTimeoutError() {
                 var executor = new SqlExecutor(semaphore, fileManager, dockerProcess("postgres:16"));
@@ -143,7 +157,7 @@ class SqlCodeExecutorTestIT {
                                 () -> assertNull(result.stdout()),
                                 () -> assertEquals("Snippet execution timed out: Execution timed out after 1 seconds",
                                                 result.stderr()),
-                                () -> assertEquals(-1, result.exitCode()),
+                                () -> assertEquals(SqlExecutor.TIMED_OUT_EXIT_CODE, result.exitCode()),
                                 () -> assertEquals(Duration.ofMillis(0), result.executionTime()));
 
                 verify(fileManager).deleteAsync(any());
@@ -156,6 +170,11 @@ class SqlCodeExecutorTestIT {
                         public void acquire() throws InterruptedException {
                                 throw new InterruptedException("interrupted");
                         }
+
+                        @Override
+                        public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+                                throw new InterruptedException("interrupted");
+                        }
                 };
                 var dockerProcess = dockerProcess("postgres:16");
                 var executor = new SqlExecutor(interruptingSemaphore, fileManager, dockerProcess);
@@ -165,8 +184,8 @@ class SqlCodeExecutorTestIT {
 
                 assertAll(
                                 () -> assertNull(result.stdout()),
-                                () -> assertEquals("Execution interrupted", result.stderr()),
-                                () -> assertEquals(-1, result.exitCode()),
+                                () -> assertEquals("Execution cancelled", result.stderr()),
+                                () -> assertEquals(SqlExecutor.CANCELLED_EXIT_CODE, result.exitCode()),
                                 () -> assertEquals(Duration.ofMillis(0), result.executionTime()),
                                 () -> assertEquals(0, interruptingSemaphore.availablePermits()));
 
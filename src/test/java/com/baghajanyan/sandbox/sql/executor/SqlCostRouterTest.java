@@ -0,0 +1,203 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+class SqlCostRouterTest {
+    DockerProcessExecutor dockerProcess = mock(DockerProcessExecutor.class);
+    Duration timeout = Duration.ofSeconds(1);
+    List<SqlCostRouter.Lane> lanes = List.of(new SqlCostRouter.Lane("light", 1_000, 10_000),
+            new SqlCostRouter.Lane("heavy", 0, 0));
+
+    @Test
+    void planScript_explainsQueriesRunsDefinitionsAndSkipsTheRest() {
+        var statements = SqlStatementSplitter.split("""
+                CREATE TABLE t (id int);
+                BEGIN;
+                INSERT INTO t VALUES (1);
+                -- count them
+                SELECT count(*) FROM t -- trailing comment
+                ;
+                CREATE TABLE u AS SELECT * FROM t;
+                COMMIT;
+                EXPLAIN ANALYZE SELECT 1;
+                """);
+
+        var script = SqlCostRouter.planScript(statements, Duration.ofMillis(1500), 7);
+
+        assertEquals("""
+                BEGIN;
+                SET LOCAL statement_timeout = '1500ms';
+                CREATE SCHEMA __sandbox_plan_7;
+                SET LOCAL search_path = __sandbox_plan_7;
+                CREATE TABLE t (id int)
+                ;
+                \\echo __PLAN__
+                EXPLAIN INSERT INTO t VALUES (1)
+                ;
+                \\echo __PLAN__
+                EXPLAIN -- count them
+                SELECT count(*) FROM t -- trailing comment
+                ;
+                \\echo __PLAN__
+                EXPLAIN CREATE TABLE u AS SELECT * FROM t
+                ;
+                ROLLBACK;
+                """, script);
+    }
+
+    @Test
+    void kindOf_explainsEveryFormOfCreateTableAs() {
+        assertAll(
+                () -> assertEquals(SqlCostRouter.Kind.EXPLAIN, SqlCostRouter.kindOf("CREATE TABLE t AS (SELECT 1)")),
+                () -> assertEquals(SqlCostRouter.Kind.EXPLAIN,
+                        SqlCostRouter.kindOf("CREATE TABLE t AS /*x*/ SELECT 1")),
+                () -> assertEquals(SqlCostRouter.Kind.EXPLAIN,
+                        SqlCostRouter.kindOf("create unlogged table t (id) as -- x\n((select 1))")),
+                () -> assertEquals(SqlCostRouter.Kind.EXPLAIN,
+                        SqlCostRouter.kindOf("CREATE MATERIALIZED VIEW m AS VALUES (1)")));
+    }
+
+    @Test
+    void kindOf_onlyRunsPureDefinitions() {
+        assertAll(
+                () -> assertEquals(SqlCostRouter.Kind.DEFINE,
+                        SqlCostRouter.kindOf("CREATE TABLE t (id int GENERATED ALWAYS AS (1) STORED)")),
+                () -> assertEquals(SqlCostRouter.Kind.DEFINE,
+                        SqlCostRouter.kindOf("CREATE UNIQUE INDEX i ON t (id)")),
+                () -> assertEquals(SqlCostRouter.Kind.DEFINE,
+                        SqlCostRouter.kindOf("CREATE OR REPLACE VIEW v AS SELECT 1")),
+                () -> assertEquals(SqlCostRouter.Kind.DEFINE,
+                        SqlCostRouter.kindOf("CREATE TYPE mood AS ENUM ('sad', 'ok')")),
+                () -> assertEquals(SqlCostRouter.Kind.SKIP, SqlCostRouter.kindOf("CREATE EXTENSION dblink")),
+                () -> assertEquals(SqlCostRouter.Kind.SKIP, SqlCostRouter.kindOf(
+                        "CREATE EVENT TRIGGER e ON ddl_command_start EXECUTE FUNCTION f()")),
+                () -> assertEquals(SqlCostRouter.Kind.SKIP,
+                        SqlCostRouter.kindOf("CREATE FUNCTION f() RETURNS int AS 'SELECT 1' LANGUAGE sql")),
+                () -> assertEquals(SqlCostRouter.Kind.SKIP, SqlCostRouter.kindOf("ALTER ROLE sandbox SUPERUSER")),
+                () -> assertEquals(SqlCostRouter.Kind.SKIP, SqlCostRouter.kindOf("DROP TABLE t")),
+                () -> assertEquals(SqlCostRouter.Kind.SKIP, SqlCostRouter.kindOf("COMMENT ON TABLE t IS 'x'")));
+    }
+
+    @Test
+    void parse_sumsTopNodeCostsAndKeepsLargestRowEstimate() {
+        var stdout = """
+                __PLAN__
+                Aggregate  (cost=41.88..41.89 rows=1 width=8)
+                  ->  Seq Scan on t  (cost=0.00..35.50 rows=2550 width=0)
+                __PLAN__
+                __PLAN__
+                Function Scan on generate_series g  (cost=0.00..10000.00 rows=1000000 width=4)
+                """;
+
+        var estimate = SqlCostRouter.parse(stdout, 3);
+
+        assertEquals(new SqlCostRouter.CostEstimate(10041.89, 1_000_000, 2, 3), estimate);
+    }
+
+    @Test
+    void route_selectsFirstFittingLane() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        when(dockerProcess.explain(eq("server-1"), any(), eq(timeout))).thenAnswer(invocation -> completed(0, """
+                __PLAN__
+                Result  (cost=0.00..0.01 rows=1 width=4)
+                """)).thenAnswer(invocation -> completed(0, """
+                __PLAN__
+                Function Scan on generate_series g  (cost=0.00..10000.00 rows=1000000 width=4)
+                """));
+        var router = new SqlCostRouter(dockerProcess, timeout, lanes, 0);
+
+        var light = router.route("SELECT 1;");
+        var heavy = router.route("SELECT * FROM generate_series(1, 1000000) g;");
+
+        assertAll(
+                () -> assertEquals("light", light.resourceClass()),
+                () -> assertFalse(light.rejected()),
+                () -> assertEquals("heavy", heavy.resourceClass()),
+                () -> assertEquals(1_000_000, heavy.estimate().maxRows()),
+                () -> assertEquals(2, router.estimatedSnippets()));
+        var script = ArgumentCaptor.forClass(String.class);
+        verify(dockerProcess, times(2)).explain(eq("server-1"), script.capture(), eq(timeout));
+        assertTrue(script.getAllValues().get(0).contains("EXPLAIN SELECT 1\n;"));
+    }
+
+    @Test
+    void route_whenCostExceedsMaximum_rejects() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        when(dockerProcess.explain(any(), any(), any())).thenAnswer(invocation -> completed(0, """
+                __PLAN__
+                Nested Loop  (cost=0.00..150000025.00 rows=10000000000 width=8)
+                """));
+        var router = new SqlCostRouter(dockerProcess, timeout, lanes, 1_000_000);
+
+        var route = router.route("SELECT * FROM a, b;");
+
+        assertAll(
+                () -> assertTrue(route.rejected()),
+                () -> assertNull(route.resourceClass()),
+                () -> assertEquals(150000025.00, route.estimate().totalCost()),
+                () -> assertEquals(1, router.rejectedSnippets()));
+    }
+
+    @Test
+    void route_whenNothingToPlan_usesDefaultLimitsWithoutServer() {
+        var router = new SqlCostRouter(dockerProcess, timeout, lanes, 1);
+
+        var route = router.route("CREATE TABLE t (id int); SET work_mem = '1MB';");
+        var metaCommand = router.route("\\d t");
+
+        assertEquals(new SqlCostRouter.Route(null, false, null), route);
+        assertEquals(new SqlCostRouter.Route(null, false, null), metaCommand);
+        verify(dockerProcess, never()).startServer();
+        assertEquals(2, router.unestimatedSnippets());
+    }
+
+    @Test
+    void route_whenServerBrokenOrSlow_usesDefaultLimits() {
+        when(dockerProcess.startServer()).thenReturn("server-1", "server-2");
+        when(dockerProcess.explain(eq("server-1"), any(), any()))
+                .thenAnswer(invocation -> completed(2, "psql: error: connection to server failed\n"));
+        when(dockerProcess.explain(eq("server-2"), any(), any()))
+                .thenThrow(new DockerProcessTimeoutException("Execution timed out after 1 seconds"));
+        var router = new SqlCostRouter(dockerProcess, timeout, lanes, 1);
+
+        assertNull(router.route("SELECT 1;").resourceClass());
+        assertNull(router.route("SELECT 1;").resourceClass());
+        router.close();
+
+        verify(dockerProcess).remove("server-1");
+        verify(dockerProcess).remove("server-2");
+        assertEquals(2, router.unestimatedSnippets());
+    }
+
+    private static Process completed(int exitCode, String output) {
+        var process = mock(Process.class);
+        when(process.exitValue()).thenReturn(exitCode);
+        when(process.getInputStream())
+                .thenReturn(new ByteArrayInputStream((exitCode == 0 ? output : "").getBytes(StandardCharsets.UTF_8)));
+        when(process.getErrorStream())
+                .thenReturn(new ByteArrayInputStream((exitCode == 0 ? "" : output).getBytes(StandardCharsets.UTF_8)));
+        return process;
+    }
+}
@@ -0,0 +1,245 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+
+class SqlJobQueueTest {
+
+    private static final ExecutionResult SUCCEEDED = new ExecutionResult(0, "[{\"x\":1}]", "", Duration.ofMillis(7));
+    private static final CodeSnippet SNIPPET = new CodeSnippet("SELECT 1 AS x;", Duration.ofSeconds(2), "sql");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void submit_runsJobAndKeepsResult() throws Exception {
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenReturn(SUCCEEDED);
+        var options = SqlExecutionOptions.defaults().withResourceClass("large");
+
+        try (var queue = queue(executor, 3)) {
+            var id = queue.submit(SNIPPET, options);
+            var job = awaitCompleted(queue, id);
+
+            assertEquals(SUCCEEDED, job.result());
+            assertEquals(1, job.attempts());
+            assertEquals(1, queue.submittedJobs());
+            assertEquals(1, queue.completedJobs());
+        }
+        verify(executor).execute(SNIPPET, options);
+    }
+
+    @Test
+    void submit_retriesInfrastructureFailuresOnly() throws Exception {
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(argThat(snippet -> snippet != null && snippet.code().contains("1")),
+                any(SqlExecutionOptions.class)))
+                .thenReturn(new ExecutionResult(SqlExecutor.REJECTED_EXIT_CODE, null,
+                        "Execution rejected: execution queue is full", Duration.ZERO))
+                .thenReturn(SUCCEEDED);
+        var sqlError = new ExecutionResult(3, "", "ERROR:  relation \"t\" does not exist", Duration.ZERO);
+        when(executor.execute(argThat(snippet -> snippet != null && snippet.code().contains("t")),
+                any(SqlExecutionOptions.class))).thenReturn(sqlError);
+
+        try (var queue = queue(executor, 3)) {
+            var retried = awaitCompleted(queue, queue.submit(SNIPPET, SqlExecutionOptions.defaults()));
+            var failed = awaitCompleted(queue,
+                    queue.submit(new CodeSnippet("SELECT * FROM t;", null, "sql"), SqlExecutionOptions.defaults()));
+
+            assertEquals(SUCCEEDED, retried.result());
+            assertEquals(2, retried.attempts());
+            assertEquals(sqlError, failed.result());
+            assertEquals(1, failed.attempts());
+            assertEquals(1, queue.retriedJobs());
+        }
+    }
+
+    @Test
+    void submit_afterLastAttempt_keepsInfrastructureFailure() throws Exception {
+        var executor = mock(SqlExecutor.class);
+        var failure = new ExecutionResult(-1, null, "Failed to handle docker process: boom", Duration.ZERO);
+        when(executor.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenReturn(failure);
+
+        try (var queue = queue(executor, 2)) {
+            var job = awaitCompleted(queue, queue.submit(SNIPPET, SqlExecutionOptions.defaults()));
+
+            assertEquals(failure, job.result());
+            assertEquals(2, job.attempts());
+        }
+    }
+
+    @Test
+    void close_leavesRunningJobQueuedForNextStart() throws Exception {
+        var started = new CountDownLatch(1);
+        var blocked = mock(SqlExecutor.class);
+        when(blocked.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ExecutionResult(SqlExecutor.CANCELLED_EXIT_CODE, null, "Execution cancelled", Duration.ZERO);
+        });
+        var options = SqlExecutionOptions.defaults()
+                .withExpectedResult(ExpectedResult.ofRows(List.of(List.of("1"), Arrays.asList((String) null)))
+                        .unordered());
+        String running;
+        String waiting;
+        try (var queue = queue(blocked, 3)) {
+            var ids = queue.submitAll(List.of(SNIPPET, SNIPPET), options);
+            running = ids.get(0);
+            waiting = ids.get(1);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenReturn(SUCCEEDED);
+        try (var queue = queue(executor, 3)) {
+            assertEquals(SUCCEEDED, awaitCompleted(queue, running).result());
+            assertEquals(2, queue.job(running).orElseThrow().attempts());
+            assertEquals(SUCCEEDED, awaitCompleted(queue, waiting).result());
+        }
+        verify(executor, times(2)).execute(SNIPPET, options);
+
+        // Completed jobs are kept across restarts as well.
+        try (var queue = queue(mock(SqlExecutor.class), 3)) {
+            var job = queue.job(running).orElseThrow();
+            assertEquals(SqlJob.Status.COMPLETED, job.status());
+            assertEquals(SUCCEEDED, job.result());
+        }
+    }
+
+    @Test
+    void close_interruptsRunningJobAndReopenedQueueRunsItAgain() throws Exception {
+        var started = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+        var blocked = mock(SqlExecutor.class);
+        when(blocked.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return SqlExecutor.cancelled();
+        });
+        String id;
+        try (var queue = queue(blocked, 3)) {
+            id = queue.submit(SNIPPET, SqlExecutionOptions.defaults());
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenReturn(SUCCEEDED);
+        try (var queue = queue(executor, 3)) {
+            var job = awaitCompleted(queue, id);
+
+            assertEquals(SUCCEEDED, job.result());
+            assertEquals(2, job.attempts());
+            assertEquals(1, queue.completedJobs());
+        }
+        verify(blocked, times(1)).execute(SNIPPET, SqlExecutionOptions.defaults());
+        verify(executor, times(1)).execute(SNIPPET, SqlExecutionOptions.defaults());
+    }
+
+    @Test
+    void constructor_abandonsJobStartedTooOftenAndSkipsTornRecord() throws Exception {
+        var file = dir.resolve("jobs.jsonl");
+        Files.writeString(file, """
+                {"op":"submitted","id":"a","submittedAt":"2026-01-01T00:00:00Z","attempts":0,"sql":"SELECT 1;","timeoutMs":1000}
+                {"op":"started","id":"a","attempt":1}
+                {"op":"started","id":"a","attempt":2}
+                {"op":"submitted","id":"b","submittedAt":"2026-01-01T00:00:00Z","atte""");
+        var executor = mock(SqlExecutor.class);
+
+        try (var queue = queue(executor, 2)) {
+            var job = queue.job("a").orElseThrow();
+
+            assertEquals(SqlJob.Status.COMPLETED, job.status());
+            assertEquals("Job abandoned after 2 attempts", job.result().stderr());
+            assertTrue(queue.job("b").isEmpty());
+        }
+        assertEquals(1, Files.readAllLines(file).size());
+    }
+
+    @Test
+    void sweep_forgetsExpiredResults() throws Exception {
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(any(CodeSnippet.class), any(SqlExecutionOptions.class))).thenReturn(SUCCEEDED);
+
+        try (var queue = new SqlJobQueue(executor, dir.resolve("jobs.jsonl"), 1, 1, Duration.ZERO,
+                Duration.ofMillis(500))) {
+            var id = queue.submit(SNIPPET, SqlExecutionOptions.defaults());
+            awaitCompleted(queue, id);
+            Thread.sleep(600);
+            queue.sweep();
+
+            assertTrue(queue.job(id).isEmpty());
+        }
+    }
+
+    @Test
+    void submit_withAttachment_throws() throws IOException {
+        try (var queue = queue(mock(SqlExecutor.class), 1)) {
+            var options = SqlExecutionOptions.defaults().withAttachment(
+                    TableAttachment.csv("t", "x int", () -> new ByteArrayInputStream(new byte[0])));
+
+            assertThrows(IllegalArgumentException.class, () -> queue.submit(SNIPPET, options));
+        }
+    }
+
+    @Test
+    void isInfrastructureFailure_classifiesResults() {
+        assertTrue(SqlJobQueue.isInfrastructureFailure(new ExecutionResult(125, null, "docker: error", Duration.ZERO)));
+        assertFalse(SqlJobQueue.isInfrastructureFailure(new ExecutionResult(SqlExecutor.TIMED_OUT_EXIT_CODE, null,
+                "Snippet execution timed out: Execution timed out after 1 seconds", Duration.ZERO)));
+        assertTrue(SqlJobQueue.isInfrastructureFailure(new ExecutionResult(SqlExecutor.REJECTED_EXIT_CODE, null,
+                "Execution rejected: execution queue is full", Duration.ZERO)));
+        assertFalse(SqlJobQueue.isInfrastructureFailure(new ExecutionResult(SqlExecutor.COST_REJECTED_EXIT_CODE,
+                null, "Execution rejected: estimated cost 5 exceeds the limit of 1", Duration.ZERO)));
+        assertFalse(SqlJobQueue.isInfrastructureFailure(SUCCEEDED));
+    }
+
+    private SqlJobQueue queue(SqlExecutor executor, int maxAttempts) throws IOException {
+        return new SqlJobQueue(executor, dir.resolve("jobs.jsonl"), 1, maxAttempts, Duration.ZERO,
+                Duration.ofHours(1));
+    }
+
+    private static SqlJob awaitCompleted(SqlJobQueue queue, String id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            var job = queue.job(id).orElseThrow();
+            if (job.status() == SqlJob.Status.COMPLETED) {
+                return job;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Job " + id + " did not complete");
+    }
+}
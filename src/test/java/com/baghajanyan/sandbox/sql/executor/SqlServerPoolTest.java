@@ -0,0 +1,233 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.matches;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+class SqlServerPoolTest {
+    DockerProcessExecutor dockerProcess = mock(DockerProcessExecutor.class);
+    DockerConfig config = config(Duration.ofSeconds(1));
+
+    @Test
+    void execute_reusesHealthyServerWithFreshSnippetIds() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var completed = completed(0);
+        when(dockerProcess.execIsolated(eq("server-1"), any(), anyString(), any())).thenReturn(completed);
+        var pool = new SqlServerPool(dockerProcess, 2);
+
+        pool.execute("SELECT 1;", config);
+        pool.execute("SELECT 2;", config);
+
+        verify(dockerProcess, times(1)).startServer();
+        verify(dockerProcess).execIsolated(eq("server-1"),
+                eq("\\echo __SNIPPET_START__ :snippet_nonce 0\n\\unset snippet_nonce\nSELECT 1;"), any(),
+                within(config));
+        verify(dockerProcess, times(2)).execIsolated(eq("server-1"), any(),
+                matches("snippet_[a-z0-9]{32}"), within(config));
+        assertEquals(1, pool.startedServers());
+    }
+
+    @Test
+    void execute_whenSnippetFails_keepsServer() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var failed = completed(3);
+        when(dockerProcess.execIsolated(any(), any(), any(), any())).thenReturn(failed);
+        var pool = new SqlServerPool(dockerProcess, 1);
+
+        assertEquals(failed, pool.execute("SELEC 1;", config));
+
+        verify(dockerProcess, never()).remove(any());
+        assertEquals(1, pool.startedServers());
+    }
+
+    @Test
+    void execute_whenServerUnreachable_replacesServer() {
+        when(dockerProcess.startServer()).thenReturn("server-1", "server-2");
+        var broken = completed(1);
+        var completed = completed(0);
+        when(dockerProcess.execIsolated(eq("server-1"), any(), any(), any())).thenReturn(broken);
+        when(dockerProcess.execIsolated(eq("server-2"), any(), any(), any())).thenReturn(completed);
+        var pool = new SqlServerPool(dockerProcess, 1);
+
+        pool.execute("SELECT 1;", config);
+        pool.execute("SELECT 1;", config);
+
+        verify(dockerProcess).remove("server-1");
+        verify(dockerProcess, times(2)).startServer();
+    }
+
+    @Test
+    void execute_whenSnippetTimesOut_reapsBeforeReuse() {
+        when(dockerProcess.startServer()).thenReturn("server-1", "server-2");
+        when(dockerProcess.execIsolated(any(), any(), any(), any()))
+                .thenThrow(new DockerProcessTimeoutException("Execution timed out after 1 seconds"));
+        when(dockerProcess.reapIsolated("server-1")).thenReturn(true);
+        var pool = new SqlServerPool(dockerProcess, 1);
+
+        assertThrows(DockerProcessTimeoutException.class, () -> pool.execute("SELECT pg_sleep(10);", config));
+        when(dockerProcess.reapIsolated("server-1")).thenReturn(false);
+        assertThrows(DockerProcessTimeoutException.class, () -> pool.execute("SELECT pg_sleep(10);", config));
+
+        verify(dockerProcess, times(2)).reapIsolated("server-1");
+        verify(dockerProcess).remove("server-1");
+        assertEquals(0, pool.startedServers());
+    }
+
+    @Test
+    void execute_whenAllServersBusy_timesOutWaiting() throws Exception {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var shortConfig = config(Duration.ofMillis(50));
+        var pool = new SqlServerPool(dockerProcess, 1);
+        when(dockerProcess.execIsolated(any(), any(), any(), any())).thenAnswer(invocation -> {
+            // While the only server is borrowed, a second snippet cannot get one.
+            var error = assertThrows(DockerProcessTimeoutException.class, () -> pool.execute("SELECT 2;", shortConfig));
+            assertTrue(error.getMessage().startsWith("No database server became available"));
+            return completed(0);
+        });
+
+        pool.execute("SELECT 1;", config);
+
+        verify(dockerProcess, times(1)).startServer();
+    }
+
+    @Test
+    void setSize_whenShrunk_removesSurplusServerOnReturn() {
+        when(dockerProcess.startServer()).thenReturn("server-1", "server-2");
+        var pool = new SqlServerPool(dockerProcess, 2);
+        when(dockerProcess.execIsolated(eq("server-1"), any(), any(), any())).thenAnswer(invocation -> {
+            // A second snippet arriving while server-1 is busy starts server-2.
+            pool.execute("SELECT 2;", config);
+            pool.setSize(1);
+            return completed(0);
+        });
+        var completed = completed(0);
+        when(dockerProcess.execIsolated(eq("server-2"), any(), any(), any())).thenReturn(completed);
+
+        pool.execute("SELECT 1;", config);
+
+        verify(dockerProcess).remove("server-1");
+        verify(dockerProcess, never()).remove("server-2");
+        assertEquals(1, pool.startedServers());
+    }
+
+    @Test
+    void close_removesAllServers() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var completed = completed(0);
+        when(dockerProcess.execIsolated(any(), any(), any(), any())).thenReturn(completed);
+        var pool = new SqlServerPool(dockerProcess, 1);
+        pool.execute("SELECT 1;", config);
+
+        pool.close();
+
+        verify(dockerProcess).remove("server-1");
+        assertThrows(IllegalStateException.class, () -> pool.execute("SELECT 1;", config));
+    }
+
+    @Test
+    void execute_withHotSetupPrefix_clonesTemplateAndRunsRest() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var template = completed(0);
+        when(template.getInputStream()).thenReturn(new ByteArrayInputStream("8192\n".getBytes(StandardCharsets.UTF_8)));
+        when(dockerProcess.createTemplate(eq("server-1"), any(), anyString(), any())).thenReturn(template);
+        var completed = completed(0);
+        when(dockerProcess.execIsolated(any(), any(), any(), any(), any())).thenReturn(completed);
+        var templates = new TemplateCache(dockerProcess, 1, 1024 * 1024);
+        var pool = new SqlServerPool(dockerProcess, 1, templates);
+
+        pool.execute("CREATE TABLE t (id int); INSERT INTO t VALUES (1); SELECT * FROM t;", Duration.ofSeconds(1),
+                config);
+        pool.execute("CREATE TABLE t (id int); INSERT INTO t VALUES (1); SELECT count(*) FROM t;",
+                Duration.ofSeconds(1), config);
+
+        verify(dockerProcess).createTemplate(eq("server-1"), eq("CREATE TABLE t (id int)\n;\nINSERT INTO t VALUES (1)\n;\n"),
+                matches("template_[0-9a-f]{32}"), within(config));
+        verify(dockerProcess).execIsolated(eq("server-1"),
+                matches("SET statement_timeout = \\d+;\n\\\\echo __SNIPPET_START__ :snippet_nonce 2\n"
+                        + "\\\\unset snippet_nonce\nSELECT count\\(\\*\\) FROM t\n;\n"),
+                matches("snippet_[a-z0-9]{32}"), matches("template_[0-9a-f]{32}"), within(config));
+        assertEquals(1, templates.hits());
+        assertEquals(8192, templates.cachedBytes());
+
+        pool.close();
+
+        assertEquals(0, templates.cachedBytes());
+    }
+
+    @Test
+    void execute_chargesTemplateBuildAgainstSnippetDeadline() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var template = completed(0);
+        when(template.getInputStream()).thenReturn(new ByteArrayInputStream("8192\n".getBytes(StandardCharsets.UTF_8)));
+        when(dockerProcess.createTemplate(any(), any(), any(), any())).thenAnswer(invocation -> {
+            Thread.sleep(300);
+            return template;
+        });
+        var completed = completed(0);
+        when(dockerProcess.execIsolated(any(), any(), any(), any(), any())).thenReturn(completed);
+        var pool = new SqlServerPool(dockerProcess, 1, new TemplateCache(dockerProcess, 1, 1024 * 1024));
+
+        // The snippet's 500 ms are shorter than the execution timeout, so they bound the template build.
+        pool.execute("CREATE TABLE t (id int); SELECT * FROM t;", Duration.ofMillis(500), config);
+
+        verify(dockerProcess).createTemplate(any(), any(), any(),
+                argThat(c -> c.executionTimeout().compareTo(Duration.ofMillis(500)) <= 0));
+        verify(dockerProcess).execIsolated(any(), any(), any(), any(),
+                argThat(c -> c.executionTimeout().compareTo(Duration.ofMillis(200)) <= 0));
+    }
+
+    @Test
+    void execute_whenTemplateBuildUsesUpDeadline_timesOutAndKeepsServer() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        when(dockerProcess.createTemplate(any(), any(), any(), any())).thenAnswer(invocation -> {
+            Thread.sleep(150);
+            throw new DockerProcessTimeoutException("Execution timed out after 0 seconds");
+        });
+        var pool = new SqlServerPool(dockerProcess, 1, new TemplateCache(dockerProcess, 1, 1024 * 1024));
+
+        var error = assertThrows(DockerProcessTimeoutException.class,
+                () -> pool.execute("CREATE TABLE t (id int); SELECT * FROM t;", Duration.ofMillis(100), config));
+
+        assertTrue(error.getMessage().endsWith("before the snippet started"));
+        verify(dockerProcess, never()).execIsolated(any(), any(), any(), any(), any());
+        verify(dockerProcess, never()).remove(any());
+        assertEquals(1, pool.startedServers());
+    }
+
+    private static DockerConfig within(DockerConfig config) {
+        // The snippet only gets what is left of the execution timeout.
+        return argThat(c -> c != null && c.executionTimeout().compareTo(config.executionTimeout()) <= 0
+                && c.withExecutionTimeout(config.executionTimeout()).equals(config));
+    }
+
+    private static Process completed(int exitCode) {
+        var process = mock(Process.class);
+        when(process.exitValue()).thenReturn(exitCode);
+        return process;
+    }
+
+    private static DockerConfig config(Duration executionTimeout) {
+        return new DockerConfig(128, 0.5, executionTimeout, "postgres:16", true, false, true, 64,
+                "65534:65534", "64m", true, true);
+    }
+}
@@ -0,0 +1,143 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.executor.SqlSessionException.SessionClosedException;
+import com.baghajanyan.sandbox.sql.executor.SqlSessionException.SessionLimitExceededException;
+
+class SqlSessionManagerTest {
+    DockerProcessExecutor dockerProcess = mock(DockerProcessExecutor.class);
+    Semaphore semaphore = new Semaphore(1);
+    AdmissionController admission = new AdmissionController(semaphore, 0);
+    SqlSessionManager manager;
+
+    @AfterEach
+    void closeManager() {
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    @Test
+    void open_whenUserCapReached_throwsLimitExceeded() {
+        when(dockerProcess.startServer()).thenReturn("container-1", "container-2");
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMinutes(1), 1, 10);
+
+        manager.open("alice");
+
+        assertThrows(SessionLimitExceededException.class, () -> manager.open("alice"));
+        manager.open("bob");
+        assertEquals(2, manager.openSessions());
+    }
+
+    @Test
+    void open_whenGlobalCapReached_throwsLimitExceeded() {
+        when(dockerProcess.startServer()).thenReturn("container-1");
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMinutes(1), 5, 1);
+
+        manager.open("alice");
+
+        assertThrows(SessionLimitExceededException.class, () -> manager.open("bob"));
+    }
+
+    @Test
+    void open_whenContainerFailsToStart_releasesReservation() {
+        when(dockerProcess.startServer()).thenThrow(new IllegalStateException("boom")).thenReturn("container-1");
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMinutes(1), 1, 1);
+
+        assertThrows(IllegalStateException.class, () -> manager.open("alice"));
+
+        manager.open("alice");
+        assertEquals(1, manager.openSessions());
+    }
+
+    @Test
+    void execute_runsSnippetInSessionContainer() throws Exception {
+        when(dockerProcess.startServer()).thenReturn("container-1");
+        var completed = mock(Process.class);
+        when(completed.exitValue()).thenReturn(0);
+        when(completed.getInputStream()).thenReturn(new ByteArrayInputStream(
+                "id\n1\n\n__EXECUTION_TIME__: 3\n".getBytes(StandardCharsets.UTF_8)));
+        when(completed.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(dockerProcess.exec(eq("container-1"), any())).thenReturn(completed);
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMinutes(1), 1, 1);
+
+        var session = manager.open("alice");
+        var result = session.execute(new CodeSnippet("SELECT 1 AS id;", Duration.ofSeconds(1), "sql"));
+
+        assertAll(
+                () -> assertEquals(0, result.exitCode()),
+                () -> assertEquals("[{\"id\":1}]", result.stdout()),
+                () -> assertEquals(Duration.ofMillis(3), result.executionTime()));
+        verify(dockerProcess).exec(eq("container-1"), argThat(sql -> sql.startsWith("SET statement_timeout = ")
+                && sql.endsWith(";\n\\echo __SNIPPET_START__ :snippet_nonce 0\n\\unset snippet_nonce\n"
+                        + "SELECT 1 AS id;")));
+        assertEquals(1, semaphore.availablePermits());
+    }
+
+    @Test
+    void execute_withoutExecutionSlot_isRejected() throws Exception {
+        when(dockerProcess.startServer()).thenReturn("container-1");
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMinutes(1), 1, 1);
+        var session = manager.open("alice");
+        semaphore.acquire();
+
+        var result = session.execute(new CodeSnippet("SELECT 1;", Duration.ofMillis(50), "sql"));
+
+        assertEquals(SqlExecutor.REJECTED_EXIT_CODE, result.exitCode());
+        assertEquals("Execution rejected: deadline exceeded while waiting for an execution slot", result.stderr());
+        verify(dockerProcess, never()).exec(any(), any());
+    }
+
+    @Test
+    void close_removesContainerAndRejectsFurtherUse() {
+        when(dockerProcess.startServer()).thenReturn("container-1");
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMinutes(1), 1, 1);
+        var session = manager.open("alice");
+
+        session.close();
+
+        verify(dockerProcess).remove("container-1");
+        assertTrue(session.isClosed());
+        assertTrue(manager.find(session.getId()).isEmpty());
+        assertThrows(SessionClosedException.class,
+                () -> session.execute(new CodeSnippet("SELECT 1;", Duration.ofSeconds(1), "sql")));
+    }
+
+    @Test
+    void evictIdle_closesOnlyIdleSessions() throws Exception {
+        when(dockerProcess.startServer()).thenReturn("container-1");
+        manager = new SqlSessionManager(dockerProcess, admission, Duration.ofMillis(1), 1, 1);
+        var session = manager.open("alice");
+
+        manager.evictIdle();
+        verify(dockerProcess, never()).remove(any());
+
+        Thread.sleep(5);
+        manager.evictIdle();
+
+        verify(dockerProcess).remove("container-1");
+        assertTrue(session.isClosed());
+        assertEquals(0, manager.openSessions());
+    }
+}
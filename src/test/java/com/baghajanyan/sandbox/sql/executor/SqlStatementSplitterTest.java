@@ -0,0 +1,48 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SqlStatementSplitterTest {
+
+    @Test
+    void split_separatesTopLevelStatements() {
+        assertEquals(List.of("CREATE TABLE t (id int)", "INSERT INTO t VALUES (1)", "SELECT * FROM t"),
+                SqlStatementSplitter.split("CREATE TABLE t (id int);\nINSERT INTO t VALUES (1);\nSELECT * FROM t"));
+    }
+
+    @Test
+    void split_ignoresSemicolonsInLiteralsAndComments() {
+        var sql = """
+                SELECT 'a;b', "c;d", E'it\\'s;' FROM t; -- trailing; comment
+                /* block; /* nested; */ still comment; */
+                SELECT $fn$ BEGIN; END $fn$, $$x;y$$;
+                """;
+
+        assertEquals(List.of("SELECT 'a;b', \"c;d\", E'it\\'s;' FROM t",
+                "-- trailing; comment\n/* block; /* nested; */ still comment; */\nSELECT $fn$ BEGIN; END $fn$, $$x;y$$"),
+                SqlStatementSplitter.split(sql));
+    }
+
+    @Test
+    void split_dropsEmptyAndCommentOnlyStatements() {
+        assertEquals(List.of("SELECT 1"), SqlStatementSplitter.split(";; SELECT 1;\n-- done\n"));
+        assertEquals(List.of(), SqlStatementSplitter.split("  -- nothing here\n"));
+    }
+
+    @Test
+    void split_doesNotTreatPositionalParametersAsDollarQuotes() {
+        assertEquals(List.of("PREPARE p AS SELECT $1", "EXECUTE p(1)"),
+                SqlStatementSplitter.split("PREPARE p AS SELECT $1; EXECUTE p(1);"));
+    }
+
+    @Test
+    void topLevelCode_blanksCommentsQuotesAndParentheses() {
+        assertEquals("CREATE TABLE AS ", SqlStatementSplitter.topLevelCode(
+                "CREATE TABLE \"as\" /* AS */ (a text DEFAULT ')') AS (SELECT ('x'))").replaceAll("\\s+", " "));
+        assertEquals("SELECT ", SqlStatementSplitter.topLevelCode("SELECT $b$ ( $b$ -- )").replaceAll("\\s+", " "));
+    }
+}
@@ -0,0 +1,116 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+class SqlSyntaxPreflightTest {
+    DockerProcessExecutor dockerProcess = mock(DockerProcessExecutor.class);
+    Duration timeout = Duration.ofSeconds(1);
+
+    @Test
+    void check_whenSyntaxError_returnsErrorWithoutProbe() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        var stderr = """
+                ERROR:  42601: syntax error at or near "frm"
+                LINE 1: SELECT 1/0;SELECT * frm t;
+                                            ^
+                LOCATION:  scanner_yyerror, scan.l:1244
+                """;
+        var completed = completed(1, stderr);
+        when(dockerProcess.checkSyntax("server-1", "SELECT * frm t;", timeout)).thenReturn(completed);
+        var preflight = new SqlSyntaxPreflight(dockerProcess, timeout);
+
+        var result = preflight.check("SELECT * frm t;");
+
+        assertAll(
+                () -> assertEquals(SqlSyntaxPreflight.SYNTAX_ERROR_EXIT_CODE, result.exitCode()),
+                () -> assertEquals("", result.stdout()),
+                () -> assertEquals("""
+                        ERROR:  syntax error at or near "frm"
+                        LINE 1: SELECT * frm t;
+                                         ^""", result.stderr()),
+                () -> assertEquals(1, preflight.rejectedSnippets()),
+                () -> assertEquals(0, preflight.passedSnippets()));
+    }
+
+    @Test
+    void check_whenSnippetParses_returnsNullAndReusesServer() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        when(dockerProcess.checkSyntax(eq("server-1"), any(), eq(timeout)))
+                .thenAnswer(invocation -> completed(1, "ERROR:  22012: division by zero\n"));
+        var preflight = new SqlSyntaxPreflight(dockerProcess, timeout);
+
+        assertNull(preflight.check("SELECT * FROM t;"));
+        assertNull(preflight.check("SELECT 2;"));
+
+        verify(dockerProcess, times(1)).startServer();
+        assertEquals(2, preflight.passedSnippets());
+    }
+
+    @Test
+    void check_whenSnippetHasMetaCommandsOrIsTooLong_skipsCheck() {
+        var preflight = new SqlSyntaxPreflight(dockerProcess, timeout);
+
+        assertNull(preflight.check("\\d t"));
+        assertNull(preflight.check("SELECT 1;" + " ".repeat(SqlSyntaxPreflight.MAX_SQL_LENGTH)));
+
+        verify(dockerProcess, never()).startServer();
+        assertEquals(2, preflight.skippedSnippets());
+    }
+
+    @Test
+    void check_whenServerBroken_replacesServer() {
+        when(dockerProcess.startServer()).thenReturn("server-1", "server-2");
+        var broken = completed(2, "psql: error: connection to server failed\n");
+        when(dockerProcess.checkSyntax(eq("server-1"), any(), any())).thenReturn(broken);
+        var parsed = completed(1, "ERROR:  22012: division by zero\n");
+        when(dockerProcess.checkSyntax(eq("server-2"), any(), any())).thenReturn(parsed);
+        var preflight = new SqlSyntaxPreflight(dockerProcess, timeout);
+
+        assertNull(preflight.check("SELECT 1;"));
+        assertNull(preflight.check("SELECT 1;"));
+
+        verify(dockerProcess).remove("server-1");
+        assertEquals(1, preflight.skippedSnippets());
+        assertEquals(1, preflight.passedSnippets());
+    }
+
+    @Test
+    void check_whenCheckTimesOut_keepsServer() {
+        when(dockerProcess.startServer()).thenReturn("server-1");
+        when(dockerProcess.checkSyntax(any(), any(), any()))
+                .thenThrow(new DockerProcessTimeoutException("Execution timed out after 1 seconds"));
+        var preflight = new SqlSyntaxPreflight(dockerProcess, timeout);
+
+        assertNull(preflight.check("SELECT 1;"));
+        preflight.close();
+
+        verify(dockerProcess).remove("server-1");
+        assertEquals(1, preflight.skippedSnippets());
+    }
+
+    private static Process completed(int exitCode, String stderr) {
+        var process = mock(Process.class);
+        when(process.exitValue()).thenReturn(exitCode);
+        when(process.getErrorStream())
+                .thenReturn(new ByteArrayInputStream(stderr.getBytes(StandardCharsets.UTF_8)));
+        return process;
+    }
+}
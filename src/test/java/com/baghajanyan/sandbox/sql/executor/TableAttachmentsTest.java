@@ -0,0 +1,55 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TableAttachmentsTest {
+
+    @Test
+    void load_csv_createsTableAndCopiesWithHeader() {
+        var attachment = TableAttachment.csv("my \"table\"", "id int", () -> new ByteArrayInputStream(new byte[0]));
+
+        assertEquals("CREATE TABLE \"my \"\"table\"\"\" (id int);\n"
+                + "\\copy \"my \"\"table\"\"\" FROM '/code/data.csv' WITH (FORMAT csv, HEADER true)\n",
+                TableAttachments.load(attachment, "/code/data.csv"));
+        assertEquals(".csv", TableAttachments.suffix(attachment));
+    }
+
+    @Test
+    void load_binary_ignoresHeader() {
+        var attachment = new TableAttachment("t", "id int", TableAttachment.Format.BINARY, true,
+                () -> new ByteArrayInputStream(new byte[0]));
+
+        assertFalse(attachment.header());
+        assertEquals("""
+                CREATE TABLE "t" (id int);
+                \\copy "t" FROM '/code/data.bin' WITH (FORMAT binary)
+                """, TableAttachments.load(attachment, "/code/data.bin"));
+        assertEquals(".bin", TableAttachments.suffix(attachment));
+    }
+
+    @Test
+    void write_copiesTheSourceIntoTheFile(@TempDir Path dir) throws Exception {
+        var data = new byte[] { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+        var file = Files.createFile(dir.resolve("data.bin"));
+
+        TableAttachments.write(TableAttachment.binary("t", "id int", () -> new ByteArrayInputStream(data)), file);
+
+        assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    @Test
+    void constructor_rejectsBlankTable() {
+        assertThrows(IllegalArgumentException.class,
+                () -> TableAttachment.csv(" ", "id int", () -> new ByteArrayInputStream(new byte[0])));
+    }
+}
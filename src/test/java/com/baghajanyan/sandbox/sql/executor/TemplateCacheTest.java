@@ -0,0 +1,129 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+
+class TemplateCacheTest {
+    DockerProcessExecutor dockerProcess = mock(DockerProcessExecutor.class);
+    DockerConfig config = new DockerConfig(128, 0.5, Duration.ofSeconds(1), "postgres:16", true, false, true, 64,
+            "65534:65534", "64m", true, true);
+
+    @Test
+    void split_keepsLeadingSetupStatements() {
+        var prefix = TemplateCache.split("""
+                -- schema
+                CREATE TABLE t (id int);
+                INSERT INTO t VALUES (1);
+                SELECT * FROM t;
+                INSERT INTO t VALUES (2);
+                """);
+
+        assertAll(
+                () -> assertEquals("-- schema\nCREATE TABLE t (id int)\n;\nINSERT INTO t VALUES (1)\n;\n",
+                        prefix.setup()),
+                () -> assertEquals("SELECT * FROM t\n;\nINSERT INTO t VALUES (2)\n;\n", prefix.rest()),
+                () -> assertEquals(TemplateCache.split("CREATE TABLE t (id int); SELECT 1;").templateId(),
+                        TemplateCache.split("CREATE TABLE t (id int);\nSELECT 2;").templateId()));
+    }
+
+    @Test
+    void split_whenNothingToCache_returnsNull() {
+        assertAll(
+                () -> assertNull(TemplateCache.split("SELECT 1; CREATE TABLE t (id int);")),
+                () -> assertNull(TemplateCache.split("CREATE TABLE t (id int); INSERT INTO t VALUES (1);")),
+                () -> assertNull(TemplateCache.split("CREATE TEMP TABLE t (id int); SELECT 1;")),
+                () -> assertNull(TemplateCache.split("INSERT INTO t SELECT random(); SELECT 1;")),
+                () -> assertNull(TemplateCache.split("INSERT INTO t VALUES (1) RETURNING id; SELECT 1;")),
+                () -> assertNull(TemplateCache.split("CREATE TABLE t (id int);\n\\d t\nSELECT 1;")));
+    }
+
+    @Test
+    void acquire_buildsTemplateOnceHotAndReusesIt() {
+        when(dockerProcess.createTemplate(any(), any(), any(), any())).thenAnswer(invocation -> created(0, "4096"));
+        var cache = new TemplateCache(dockerProcess, 2, 1024 * 1024);
+        var prefix = TemplateCache.split("CREATE TABLE t (id int); SELECT 1;");
+
+        assertNull(cache.acquire("server-1", prefix, config));
+        assertEquals(prefix.templateId(), cache.acquire("server-1", prefix, config));
+        assertEquals(prefix.templateId(), cache.acquire("server-1", prefix, config));
+        // Every server builds its own template once the prefix is hot.
+        assertEquals(prefix.templateId(), cache.acquire("server-2", prefix, config));
+
+        verify(dockerProcess, times(2)).createTemplate(any(), eq(prefix.setup()), eq(prefix.templateId()),
+                eq(config));
+        assertAll(
+                () -> assertEquals(1, cache.hits()),
+                () -> assertEquals(3, cache.misses()),
+                () -> assertEquals(2, cache.builtTemplates()),
+                () -> assertEquals(8192, cache.cachedBytes()));
+
+        cache.forget("server-1");
+
+        assertEquals(4096, cache.cachedBytes());
+    }
+
+    @Test
+    void acquire_whenSetupFails_neverRetriesPrefix() {
+        when(dockerProcess.createTemplate(any(), any(), any(), any())).thenAnswer(invocation -> created(3, ""))
+                .thenThrow(new DockerProcessTimeoutException("Execution timed out after 1 seconds"));
+        var cache = new TemplateCache(dockerProcess, 1, 1024 * 1024);
+        var failing = TemplateCache.split("CREATE TABLE t (id int); CREATE TABLE t (id int); SELECT 1;");
+        var slow = TemplateCache.split("INSERT INTO t SELECT generate_series(1, 1e9); SELECT 1;");
+
+        assertNull(cache.acquire("server-1", failing, config));
+        assertNull(cache.acquire("server-1", failing, config));
+        assertNull(cache.acquire("server-1", slow, config));
+        assertNull(cache.acquire("server-1", slow, config));
+
+        verify(dockerProcess, times(2)).createTemplate(any(), any(), any(), any());
+        verify(dockerProcess).dropTemplate("server-1", slow.templateId());
+        assertEquals(2, cache.failedTemplates());
+    }
+
+    @Test
+    void acquire_whenServerFull_evictsLeastRecentlyUsed() {
+        when(dockerProcess.createTemplate(any(), any(), any(), any())).thenAnswer(invocation -> created(0, "400"));
+        var cache = new TemplateCache(dockerProcess, 1, 1000);
+        var a = TemplateCache.split("CREATE TABLE a (id int); SELECT 1;");
+        var b = TemplateCache.split("CREATE TABLE b (id int); SELECT 1;");
+        var c = TemplateCache.split("CREATE TABLE c (id int); SELECT 1;");
+
+        cache.acquire("server-1", a, config);
+        cache.acquire("server-1", b, config);
+        cache.acquire("server-1", a, config);
+        cache.acquire("server-1", c, config);
+
+        verify(dockerProcess).dropTemplate("server-1", b.templateId());
+        verify(dockerProcess, never()).dropTemplate("server-1", a.templateId());
+        assertAll(
+                () -> assertEquals(1, cache.evictedTemplates()),
+                () -> assertEquals(800, cache.cachedBytes()),
+                () -> assertEquals(a.templateId(), cache.acquire("server-1", a, config)));
+    }
+
+    private static Process created(int exitCode, String stdout) {
+        var process = mock(Process.class);
+        when(process.exitValue()).thenReturn(exitCode);
+        when(process.getInputStream()).thenReturn(new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8)));
+        when(process.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        return process;
+    }
+}
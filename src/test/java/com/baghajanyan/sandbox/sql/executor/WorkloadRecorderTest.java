@@ -0,0 +1,90 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.config.ResourceClass;
+
+class WorkloadRecorderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void record_writesExecutionsThatReplayerReadsBack() throws IOException {
+        var file = dir.resolve("workload.jsonl.gz");
+        var large = new ResourceClass("large", 512, 2, Duration.ofSeconds(30));
+        try (var recorder = new WorkloadRecorder(file, snippet -> true,
+                sql -> sql.replaceAll("'[^']*'", "'?'"))) {
+            long now = System.nanoTime();
+            recorder.record(new CodeSnippet("SELECT 'secret';", Duration.ofSeconds(2), "sql"), null,
+                    new ExecutionResult(0, "[{\"x\":1}]", "", Duration.ofMillis(12)),
+                    ExecutionStatistics.Outcome.SUCCEEDED, now, Duration.ofMillis(40));
+            recorder.record(new CodeSnippet("SELECT pg_sleep(60);", Duration.ofSeconds(1), "sql"), large,
+                    new ExecutionResult(3, null, "canceling statement due to statement timeout", Duration.ZERO),
+                    ExecutionStatistics.Outcome.TIMED_OUT, now + 5_000_000, Duration.ofMillis(1000));
+            assertEquals(2, recorder.recordedExecutions());
+        }
+
+        var workload = WorkloadReplayer.read(file);
+
+        assertEquals(2, workload.size());
+        var first = workload.get(0);
+        assertEquals("SELECT '?';", first.sql());
+        assertEquals(Duration.ofSeconds(2), first.timeout());
+        assertNull(first.resourceClass());
+        assertEquals(ExecutionStatistics.Outcome.SUCCEEDED, first.outcome());
+        assertEquals(Duration.ofMillis(40), first.latency());
+        assertEquals(Duration.ofMillis(12), first.executionTime());
+        assertEquals(9, first.stdoutLength());
+        var second = workload.get(1);
+        assertEquals("large", second.resourceClass());
+        assertEquals(ExecutionStatistics.Outcome.TIMED_OUT, second.outcome());
+        assertEquals(0, second.stdoutLength());
+        assertTrue(second.offset().compareTo(first.offset()) >= 0);
+    }
+
+    @Test
+    void record_skipsExecutionsNotSelectedBySampler() throws IOException {
+        var file = dir.resolve("workload.jsonl.gz");
+        try (var recorder = new WorkloadRecorder(file, WorkloadRecorder.sampleRate(0), SnippetRedactor.NONE)) {
+            recorder.record(new CodeSnippet("SELECT 1;", Duration.ofSeconds(1), "sql"), null,
+                    new ExecutionResult(0, "[]", "", Duration.ZERO), ExecutionStatistics.Outcome.SUCCEEDED,
+                    System.nanoTime(), Duration.ofMillis(1));
+            assertEquals(0, recorder.recordedExecutions());
+        }
+
+        assertEquals(0, WorkloadReplayer.read(file).size());
+    }
+
+    @Test
+    void record_whenRedactorFails_dropsExecution() throws IOException {
+        try (var recorder = new WorkloadRecorder(dir.resolve("workload.jsonl.gz"), snippet -> true, sql -> {
+            throw new IllegalStateException("boom");
+        })) {
+            recorder.record(new CodeSnippet("SELECT 1;", Duration.ofSeconds(1), "sql"), null,
+                    new ExecutionResult(0, "[]", "", Duration.ZERO), ExecutionStatistics.Outcome.SUCCEEDED,
+                    System.nanoTime(), Duration.ofMillis(1));
+
+            assertEquals(0, recorder.recordedExecutions());
+            assertEquals(1, recorder.droppedExecutions());
+        }
+    }
+
+    @Test
+    void sampleRate_rejectsRatesOutsideUnitInterval() {
+        assertThrows(IllegalArgumentException.class, () -> WorkloadRecorder.sampleRate(1.5));
+        assertThrows(IllegalArgumentException.class, () -> WorkloadRecorder.sampleRate(-0.1));
+    }
+}
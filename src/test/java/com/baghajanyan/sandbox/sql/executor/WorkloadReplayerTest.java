@@ -0,0 +1,73 @@
+package com.baghajanyan.sandbox.sql.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.core.executor.ExecutionResult;
+
+class WorkloadReplayerTest {
+
+    @Test
+    void replay_drivesWorkloadAtScaledRateAndComparesOutcomes() throws InterruptedException {
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(argThat(snippet -> snippet != null && snippet.code().contains("1")), any(SqlExecutionOptions.class)))
+                .thenReturn(new ExecutionResult(0, "[]", "", Duration.ofMillis(1)));
+        when(executor.execute(argThat(snippet -> snippet != null && snippet.code().contains("2")), any(SqlExecutionOptions.class)))
+                .thenReturn(new ExecutionResult(3, "", "ERROR:  boom", Duration.ofMillis(1)));
+        var workload = List.of(
+                recorded(0, "SELECT 1;", ExecutionStatistics.Outcome.SUCCEEDED, 100),
+                recorded(2000, "SELECT 1;", ExecutionStatistics.Outcome.SUCCEEDED, 300),
+                recorded(4000, "SELECT 2;", ExecutionStatistics.Outcome.SUCCEEDED, 100));
+
+        long start = System.nanoTime();
+        var report = WorkloadReplayer.replay(executor, workload, 20.0);
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertEquals(3, report.executions());
+        assertEquals(1, report.outcomeChanges());
+        assertEquals(1, report.replayed().failed());
+        assertEquals(0, report.recorded().failed());
+        assertEquals(Duration.ofMillis(300), report.recorded().max());
+        // 3 executions over the 4.1 s from the first arrival to the last completion.
+        assertEquals(3 / 4.1, report.recordedThroughput(), 0.001);
+        // The last arrival is 4 s after the first; at twenty times the rate that is 200 ms.
+        assertTrue(elapsed.compareTo(Duration.ofMillis(200)) >= 0, elapsed::toString);
+        assertTrue(elapsed.compareTo(Duration.ofSeconds(2)) < 0, elapsed::toString);
+        assertTrue(report.p50Ratio() < 1);
+    }
+
+    @Test
+    void replay_countsUnknownResourceClassAsFailure() throws InterruptedException {
+        var executor = mock(SqlExecutor.class);
+        when(executor.execute(any(), any(SqlExecutionOptions.class))).thenThrow(new IllegalArgumentException("Unknown resource class: x"));
+
+        var report = WorkloadReplayer.replay(executor,
+                List.of(recorded(0, "SELECT 1;", ExecutionStatistics.Outcome.SUCCEEDED, 10)), 1.0);
+
+        assertEquals(1, report.replayed().failed());
+        assertEquals(1, report.outcomeChanges());
+    }
+
+    @Test
+    void replay_rejectsNonPositiveSpeed() {
+        var executor = mock(SqlExecutor.class);
+
+        assertThrows(IllegalArgumentException.class, () -> WorkloadReplayer.replay(executor, List.of(), 0));
+    }
+
+    private static RecordedExecution recorded(long offsetMs, String sql, ExecutionStatistics.Outcome outcome,
+            long latencyMs) {
+        return new RecordedExecution(Duration.ofMillis(offsetMs), sql, Duration.ofSeconds(1), null, outcome,
+                Duration.ofMillis(latencyMs), Duration.ofMillis(latencyMs), 2, 0);
+    }
+}
@@ -0,0 +1,204 @@
+package com.baghajanyan.sandbox.sql.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessThreadException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessException.DockerProcessTimeoutException;
+import com.baghajanyan.sandbox.sql.docker.DockerProcessExecutor;
+import com.baghajanyan.sandbox.sql.docker.ProcessOutputHandler;
+
+/**
+ * A {@link DockerProcessExecutor} that simulates containers instead of
+ * starting them, so that admission, scheduling and output processing can be
+ * driven far beyond what a Docker daemon on a development machine sustains.
+ *
+ * Each simulated container sleeps for a latency drawn from the
+ * {@link LoadProfile} and then prints output in the format of the real run
+ * script. Hanging containers sleep until the execution timeout and fail like
+ * the real executor does.
+ */
+public class FakeDockerProcessExecutor extends DockerProcessExecutor {
+
+    private static final int SQL_ERROR_EXIT_CODE = 3;
+
+    private final LoadProfile profile;
+    private final AtomicLong seed;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peakRunning = new AtomicInteger();
+    private final ThreadLocal<Long> requestStart = new ThreadLocal<>();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+
+    /**
+     * @param config  the container configuration whose execution timeout
+     *                applies.
+     * @param profile the simulated runtime behavior.
+     * @param seed    the seed of the random latencies and failures, so that
+     *                runs can be repeated.
+     */
+    public FakeDockerProcessExecutor(DockerConfig config, LoadProfile profile, long seed) {
+        super(config);
+        this.profile = profile;
+        this.seed = new AtomicLong(seed);
+    }
+
+    /**
+     * Marks the arrival of a request on the current thread, so that the time
+     * until its container starts is counted as queue wait.
+     */
+    void requestArrived() {
+        requestStart.set(System.nanoTime());
+    }
+
+    /**
+     * @return the total time requests spent between arrival and the start of
+     *         their container.
+     */
+    Duration totalQueueWait() {
+        return Duration.ofNanos(queueWaitNanos.get());
+    }
+
+    /**
+     * @return the number of simulated containers started so far.
+     */
+    long startedContainers() {
+        return started.get();
+    }
+
+    /**
+     * @return the highest number of simultaneously running containers.
+     */
+    int peakRunningContainers() {
+        return peakRunning.get();
+    }
+
+    @Override
+    public Process execute(Path tmpFile) {
+        return execute(tmpFile, getDockerConfig());
+    }
+
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config) {
+        return simulate(config);
+    }
+
+    @Override
+    public Process execute(Path tmpFile, ProcessOutputHandler outputHandler) {
+        return execute(tmpFile, getDockerConfig(), outputHandler);
+    }
+
+    @Override
+    public Process execute(Path tmpFile, DockerConfig config, ProcessOutputHandler outputHandler) {
+        var process = simulate(config);
+        try {
+            outputHandler.handle(process);
+        } catch (IOException e) {
+            throw new DockerProcessThreadException("Failed to execute Docker process", e);
+        }
+        return process;
+    }
+
+    private Process simulate(DockerConfig config) {
+        var arrival = requestStart.get();
+        if (arrival != null) {
+            queueWaitNanos.addAndGet(System.nanoTime() - arrival);
+            requestStart.remove();
+        }
+        started.incrementAndGet();
+        var random = new SplittableRandom(seed.getAndIncrement());
+        double outcome = random.nextDouble();
+        boolean hangs = outcome < profile.hangRate();
+        boolean fails = !hangs && outcome < profile.hangRate() + profile.failureRate();
+        var latency = hangs ? config.executionTimeout() : profile.sampleLatency(random);
+        if (latency.compareTo(config.executionTimeout()) > 0) {
+            latency = config.executionTimeout();
+            hangs = true;
+        }
+
+        peakRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerProcessThreadException("Failed to execute Docker process", e);
+        } finally {
+            running.decrementAndGet();
+        }
+        if (hangs) {
+            throw new DockerProcessTimeoutException(
+                    "Execution timed out after " + config.executionTimeout().toSeconds() + " seconds");
+        }
+        if (fails) {
+            return new FakeProcess(SQL_ERROR_EXIT_CODE, "",
+                    "psql:/code/snippet.sql:1: ERROR:  relation \"missing\" does not exist");
+        }
+        return new FakeProcess(0, output(latency), "");
+    }
+
+    private String output(Duration latency) {
+        var value = "x".repeat(profile.rowWidth());
+        var out = new StringBuilder(profile.outputRows() * (profile.rowWidth() + 8) + 64);
+        out.append("id,value\n");
+        for (int row = 1; row <= profile.outputRows(); row++) {
+            out.append(row).append(',').append(value).append('\n');
+        }
+        out.append("\n__EXECUTION_TIME__: ").append(latency.toMillis()).append('\n');
+        return out.toString();
+    }
+
+    private static final class FakeProcess extends Process {
+        private final int exitCode;
+        private final InputStream stdout;
+        private final InputStream stderr;
+
+        private FakeProcess(int exitCode, String stdout, String stderr) {
+            this.exitCode = exitCode;
+            this.stdout = new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8));
+            this.stderr = new ByteArrayInputStream(stderr.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return stderr;
+        }
+
+        @Override
+        public int waitFor() {
+            return exitCode;
+        }
+
+        @Override
+        public int exitValue() {
+            return exitCode;
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public boolean isAlive() {
+            return false;
+        }
+    }
+}
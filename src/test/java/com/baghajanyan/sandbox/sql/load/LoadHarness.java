@@ -0,0 +1,99 @@
+package com.baghajanyan.sandbox.sql.load;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.baghajanyan.sandbox.core.model.CodeSnippet;
+import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+
+/**
+ * Drives an {@link SqlExecutor} with a fixed number of closed-loop clients and
+ * measures latency, throughput and resource usage.
+ *
+ * Every client runs on its own virtual thread and sends its next request as
+ * soon as the previous one returned, so the number of clients is the number
+ * of outstanding requests.
+ */
+final class LoadHarness {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+    private static final String SNIPPET = "SELECT id, value FROM items ORDER BY id;";
+
+    private LoadHarness() {
+    }
+
+    /**
+     * @param scenario the name of the scenario.
+     * @param executor the executor under test, backed by {@code docker}.
+     * @param docker   the simulated Docker runtime.
+     * @param requests the total number of requests.
+     * @param clients  the number of concurrent clients.
+     * @param timeout  the snippet timeout of every request.
+     * @return the measurements.
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              clients.
+     */
+    static LoadReport run(String scenario, SqlExecutor executor, FakeDockerProcessExecutor docker, int requests,
+            int clients, Duration timeout) throws InterruptedException {
+        var latencies = new long[requests];
+        var next = new AtomicInteger();
+        var succeeded = new LongAdder();
+        var failed = new LongAdder();
+        var timedOut = new LongAdder();
+        var rejected = new LongAdder();
+        var snippet = new CodeSnippet(SNIPPET, timeout, "sql");
+
+        var threads = ManagementFactory.getThreadMXBean();
+        var memory = ManagementFactory.getMemoryMXBean();
+        threads.resetPeakThreadCount();
+        var peakHeap = new AtomicLong();
+        var sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try (var clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int client = 0; client < clients; client++) {
+                clientThreads.submit(() -> {
+                    int request;
+                    while ((request = next.getAndIncrement()) < requests) {
+                        long arrival = System.nanoTime();
+                        docker.requestArrived();
+                        var result = executor.execute(snippet);
+                        latencies[request] = System.nanoTime() - arrival;
+                        if (result.exitCode() == 0) {
+                            succeeded.increment();
+                        } else if (result.exitCode() == SqlExecutor.REJECTED_EXIT_CODE) {
+                            rejected.increment();
+                        } else if (result.exitCode() == SqlExecutor.TIMED_OUT_EXIT_CODE) {
+                            timedOut.increment();
+                        } else {
+                            failed.increment();
+                        }
+                    }
+                });
+            }
+        }
+        var wallTime = Duration.ofNanos(System.nanoTime() - start);
+        sampler.shutdownNow();
+        sampler.awaitTermination(1, TimeUnit.SECONDS);
+
+        Arrays.sort(latencies);
+        long containers = Math.max(docker.startedContainers(), 1);
+        return new LoadReport(scenario, requests, succeeded.sum(), failed.sum(), timedOut.sum(), rejected.sum(),
+                wallTime, percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                percentile(latencies, 1.0), docker.totalQueueWait().dividedBy(containers),
+                docker.peakRunningContainers(), threads.getPeakThreadCount(), peakHeap.get() / (1024 * 1024));
+    }
+
+    private static Duration percentile(long[] sorted, double quantile) {
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return Duration.ofNanos(sorted[Math.max(rank, 1) - 1]);
+    }
+}
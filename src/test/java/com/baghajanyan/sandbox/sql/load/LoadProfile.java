@@ -0,0 +1,74 @@
+package com.baghajanyan.sandbox.sql.load;
+
+import java.time.Duration;
+import java.util.SplittableRandom;
+
+/**
+ * Describes how the simulated Docker runtime of {@link FakeDockerProcessExecutor}
+ * behaves.
+ *
+ * Container latencies follow a log-normal distribution, which matches the long
+ * right tail of real container start-ups: most containers are ready close to
+ * the median, a few take several times longer.
+ *
+ * @param medianLatency the median time from {@code docker run} to exit.
+ * @param latencySigma  the standard deviation of the logarithm of the
+ *                      latency; {@code 0} makes every container take exactly
+ *                      the median.
+ * @param outputRows    the number of result rows each container prints.
+ * @param rowWidth      the number of characters of each result row.
+ * @param failureRate   the share of containers exiting with a SQL error.
+ * @param hangRate      the share of containers that never finish on their
+ *                      own and are killed on timeout.
+ */
+public record LoadProfile(Duration medianLatency, double latencySigma, int outputRows, int rowWidth,
+        double failureRate, double hangRate) {
+
+    public LoadProfile {
+        if (medianLatency == null || medianLatency.isNegative()) {
+            throw new IllegalArgumentException("medianLatency must not be negative");
+        }
+        if (latencySigma < 0 || outputRows < 0 || rowWidth < 1) {
+            throw new IllegalArgumentException("latencySigma and outputRows must be >= 0, rowWidth >= 1");
+        }
+        if (failureRate < 0 || hangRate < 0 || failureRate + hangRate > 1) {
+            throw new IllegalArgumentException("failureRate and hangRate must be shares that add up to <= 1");
+        }
+    }
+
+    /**
+     * @param medianLatency the median container latency.
+     * @return a profile of small, always successful snippets.
+     */
+    public static LoadProfile of(Duration medianLatency) {
+        return new LoadProfile(medianLatency, 0.5, 10, 32, 0, 0);
+    }
+
+    /**
+     * @param outputRows the number of result rows.
+     * @param rowWidth   the number of characters of each row.
+     * @return a copy of this profile with the given output size.
+     */
+    public LoadProfile withOutput(int outputRows, int rowWidth) {
+        return new LoadProfile(medianLatency, latencySigma, outputRows, rowWidth, failureRate, hangRate);
+    }
+
+    /**
+     * @param failureRate the share of containers exiting with a SQL error.
+     * @param hangRate    the share of containers killed on timeout.
+     * @return a copy of this profile with the given failure rates.
+     */
+    public LoadProfile withFailures(double failureRate, double hangRate) {
+        return new LoadProfile(medianLatency, latencySigma, outputRows, rowWidth, failureRate, hangRate);
+    }
+
+    Duration sampleLatency(SplittableRandom random) {
+        if (latencySigma == 0) {
+            return medianLatency;
+        }
+        // Box-Muller transform for a standard normal sample.
+        double normal = Math.sqrt(-2 * Math.log(1 - random.nextDouble()))
+                * Math.cos(2 * Math.PI * random.nextDouble());
+        return Duration.ofNanos((long) (medianLatency.toNanos() * Math.exp(latencySigma * normal)));
+    }
+}
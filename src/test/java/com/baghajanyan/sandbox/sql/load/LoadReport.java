@@ -0,0 +1,50 @@
+package com.baghajanyan.sandbox.sql.load;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * The outcome of a load scenario.
+ *
+ * @param scenario            the name of the scenario.
+ * @param requests            the number of requests sent.
+ * @param succeeded           the number of successful executions.
+ * @param failed              the number of failed executions.
+ * @param timedOut            the number of executions that timed out.
+ * @param rejected            the number of requests shed by admission
+ *                            control.
+ * @param wallTime            the time from the first request to the last
+ *                            result.
+ * @param p50                 the median request latency.
+ * @param p99                 the 99th percentile request latency.
+ * @param p999                the 99.9th percentile request latency.
+ * @param max                 the highest request latency.
+ * @param meanQueueWait       the mean time from arrival to container start of
+ *                            the requests that got a container.
+ * @param peakContainers      the highest number of simultaneously running
+ *                            containers.
+ * @param peakPlatformThreads the highest number of live platform threads.
+ * @param peakHeapMb          the highest heap usage in megabytes.
+ */
+public record LoadReport(String scenario, int requests, long succeeded, long failed, long timedOut, long rejected,
+        Duration wallTime, Duration p50, Duration p99, Duration p999, Duration max, Duration meanQueueWait,
+        int peakContainers, int peakPlatformThreads, long peakHeapMb) {
+
+    /**
+     * @return the completed requests per second, including rejected ones.
+     */
+    public double throughput() {
+        return requests / (wallTime.toNanos() / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%-22s %6d req %8.1f req/s | ok %6d fail %5d timeout %5d rejected %5d | "
+                        + "p50 %6d ms p99 %6d ms p999 %6d ms max %6d ms | queue wait %5d ms | "
+                        + "containers %4d threads %4d heap %5d MB",
+                scenario, requests, throughput(), succeeded, failed, timedOut, rejected, p50.toMillis(),
+                p99.toMillis(), p999.toMillis(), max.toMillis(), meanQueueWait.toMillis(), peakContainers,
+                peakPlatformThreads, peakHeapMb);
+    }
+}
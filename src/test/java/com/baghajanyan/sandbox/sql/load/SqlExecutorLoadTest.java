@@ -0,0 +1,114 @@
+package com.baghajanyan.sandbox.sql.load;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.baghajanyan.sandbox.core.fs.DeleteConfig;
+import com.baghajanyan.sandbox.core.fs.TempFileManager;
+import com.baghajanyan.sandbox.sql.config.DockerConfig;
+import com.baghajanyan.sandbox.sql.executor.AdmissionController;
+import com.baghajanyan.sandbox.sql.executor.ResizableSemaphore;
+import com.baghajanyan.sandbox.sql.executor.SqlExecutor;
+
+/**
+ * Load scenarios for {@link SqlExecutor} against a simulated Docker runtime.
+ *
+ * Run with {@code mvn test -Pload-tests}; {@code -Dload.scale=10} multiplies
+ * the number of requests of every scenario. Each scenario prints a
+ * {@link LoadReport} line, and the assertions only check invariants that must
+ * hold at any scale, so that the reports can be compared across changes.
+ */
+@Tag("load")
+class SqlExecutorLoadTest {
+    private static final double SCALE = Double.parseDouble(System.getProperty("load.scale", "1"));
+    private static final long SEED = 42;
+
+    TempFileManager fileManager = new TempFileManager(new DeleteConfig(3, Duration.ofMillis(50),
+            Duration.ofSeconds(5)));
+
+    @AfterEach
+    void closeFileManager() throws Exception {
+        fileManager.close();
+    }
+
+    @Test
+    void steadyState_keepsAllContainersBusyWithoutShedding() throws Exception {
+        var docker = docker(LoadProfile.of(Duration.ofMillis(20)), Duration.ofSeconds(5));
+        var executor = executor(docker, 50, 0);
+
+        var report = LoadHarness.run("steady-state", executor, docker, requests(5_000), 50, Duration.ofSeconds(5));
+
+        print(report);
+        assertAll(
+                () -> assertEquals(report.requests(), report.succeeded()),
+                () -> assertTrue(report.peakContainers() <= 50));
+    }
+
+    @Test
+    void overload_shedsRequestsInsteadOfQueueingThemForever() throws Exception {
+        var docker = docker(LoadProfile.of(Duration.ofMillis(20)), Duration.ofSeconds(5));
+        var executor = executor(docker, 20, 100);
+
+        var report = LoadHarness.run("overload", executor, docker, requests(5_000), 500, Duration.ofMillis(500));
+
+        print(report);
+        assertAll(
+                () -> assertTrue(report.rejected() > 0),
+                () -> assertEquals(report.requests(), report.succeeded() + report.rejected()),
+                () -> assertTrue(report.peakContainers() <= 20));
+    }
+
+    @Test
+    void largeOutput_convertsEveryResult() throws Exception {
+        var docker = docker(LoadProfile.of(Duration.ofMillis(10)).withOutput(2_000, 100), Duration.ofSeconds(5));
+        var executor = executor(docker, 20, 0);
+
+        var report = LoadHarness.run("large-output", executor, docker, requests(500), 20, Duration.ofSeconds(10));
+
+        print(report);
+        assertEquals(report.requests(), report.succeeded());
+    }
+
+    @Test
+    void failuresAndHangs_releaseTheirSlots() throws Exception {
+        var profile = LoadProfile.of(Duration.ofMillis(20)).withFailures(0.05, 0.01);
+        var docker = docker(profile, Duration.ofMillis(300));
+        var executor = executor(docker, 20, 0);
+
+        var report = LoadHarness.run("failures-and-hangs", executor, docker, requests(2_000), 40,
+                Duration.ofSeconds(5));
+
+        print(report);
+        assertAll(
+                () -> assertTrue(report.failed() > 0),
+                () -> assertTrue(report.timedOut() > 0),
+                () -> assertEquals(report.requests(), report.succeeded() + report.failed() + report.timedOut()),
+                () -> assertEquals(0, executor.statistics().snapshot().rejected()));
+    }
+
+    private SqlExecutor executor(FakeDockerProcessExecutor docker, int maxConcurrency, int maxQueueLength) {
+        var admission = new AdmissionController(new ResizableSemaphore(maxConcurrency, true), maxQueueLength);
+        return SqlExecutor.builder(admission, fileManager, docker).build();
+    }
+
+    private static FakeDockerProcessExecutor docker(LoadProfile profile, Duration executionTimeout) {
+        var config = new DockerConfig(128, 0.125, executionTimeout, "postgres:16", true, false, true, 64,
+                "65534:65534", "64m", true, true);
+        return new FakeDockerProcessExecutor(config, profile, SEED);
+    }
+
+    private static int requests(int base) {
+        return Math.max(1, (int) (base * SCALE));
+    }
+
+    private static void print(LoadReport report) {
+        System.out.println(report);
+    }
+}